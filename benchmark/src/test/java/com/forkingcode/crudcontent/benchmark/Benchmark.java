@@ -0,0 +1,323 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.benchmark;
+
+import android.support.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A minimal harness in the style of JMH average time mode. Each benchmark runs warm up iterations
+ * followed by measured iterations. An iteration first prepares its state untimed, then times a fixed
+ * number of operations. The score of an iteration is the average time per operation.
+ *
+ * <p>The iteration counts can be changed with the system properties benchmark.warmupIterations and
+ * benchmark.iterations. Results are collected and written in the JMH JSON result format, so the usual
+ * JMH tooling can compare runs.
+ */
+/* package */ final class Benchmark {
+
+    /**
+     * Prepares the state of an iteration, not timed
+     */
+    /* package */ interface Setup {
+        void setUp();
+    }
+
+    /**
+     * The measured operation
+     */
+    /* package */ interface Operation {
+        /**
+         * @param index The index of the operation within the iteration
+         */
+        void run(int index);
+    }
+
+    private static final int DEFAULT_WARMUP_ITERATIONS = 5;
+    private static final int DEFAULT_ITERATIONS = 10;
+    // two sided 99.9% confidence, as reported by JMH
+    private static final double CONFIDENCE = 0.999;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+
+    private Benchmark() {
+    }
+
+    /**
+     * Run and record a benchmark
+     *
+     * @param name       The name of the benchmark
+     * @param params     The parameters of the benchmark, such as the batch size
+     * @param operations The number of operations timed per iteration
+     * @param setup      Prepares each iteration
+     * @param operation  The measured operation
+     * @return the result
+     */
+    @NonNull
+    /* package */ static Result run(@NonNull String name, @NonNull Map<String, String> params, int operations,
+                                    @NonNull Setup setup, @NonNull Operation operation) {
+        int warmupIterations = Integer.getInteger("benchmark.warmupIterations", DEFAULT_WARMUP_ITERATIONS);
+        int iterations = Integer.getInteger("benchmark.iterations", DEFAULT_ITERATIONS);
+
+        for (int i = 0; i < warmupIterations; ++i) {
+            iterate(operations, setup, operation);
+        }
+
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; ++i) {
+            scores[i] = iterate(operations, setup, operation);
+        }
+
+        Result result = new Result(name, params, warmupIterations, scores);
+        results.add(result);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * @return the average time per operation in microseconds
+     */
+    private static double iterate(int operations, @NonNull Setup setup, @NonNull Operation operation) {
+        setup.setUp();
+        long start = System.nanoTime();
+        for (int i = 0; i < operations; ++i) {
+            operation.run(i);
+        }
+        return (System.nanoTime() - start) / 1000.0 / operations;
+    }
+
+    /**
+     * The two sided quantile of Student's t distribution, as JMH uses for the score error. Found by
+     * bisection on the upper tail, which is half the regularized incomplete beta of df / (df + t * t).
+     *
+     * @param confidence The confidence level, such as 0.999
+     * @param df         The degrees of freedom, the number of iterations less one
+     */
+    private static double studentT(double confidence, int df) {
+        double tail = 1 - confidence;
+        double low = 0;
+        double high = 1;
+        while (incompleteBeta(df / (df + high * high), df / 2.0, 0.5) > tail) {
+            low = high;
+            high *= 2;
+        }
+        for (int i = 0; i < 100; ++i) {
+            double mid = (low + high) / 2;
+            if (incompleteBeta(df / (df + mid * mid), df / 2.0, 0.5) > tail) {
+                low = mid;
+            }
+            else {
+                high = mid;
+            }
+        }
+        return (low + high) / 2;
+    }
+
+    /**
+     * The regularized incomplete beta function, evaluated by its continued fraction
+     */
+    private static double incompleteBeta(double x, double a, double b) {
+        if (x <= 0) return 0;
+        if (x >= 1) return 1;
+        double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b)
+                + a * Math.log(x) + b * Math.log(1 - x));
+        if (x > (a + 1) / (a + b + 2)) {
+            return 1 - front * betaFraction(1 - x, b, a) / b;
+        }
+        return front * betaFraction(x, a, b) / a;
+    }
+
+    /**
+     * The continued fraction of the incomplete beta function, by the modified Lentz method
+     */
+    private static double betaFraction(double x, double a, double b) {
+        final double tiny = 1e-300;
+        double c = 1;
+        double d = 1 - (a + b) * x / (a + 1);
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        double h = d;
+        for (int m = 1; m <= 300; ++m) {
+            for (int step = 0; step < 2; ++step) {
+                double numerator = step == 0
+                        ? m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m))
+                        : -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+                d = 1 + numerator * d;
+                d = 1 / (Math.abs(d) < tiny ? tiny : d);
+                c = 1 + numerator / c;
+                c = Math.abs(c) < tiny ? tiny : c;
+                h *= d * c;
+            }
+            if (Math.abs(d * c - 1) < 1e-15) break;
+        }
+        return h;
+    }
+
+    /**
+     * The log of the gamma function, by the Lanczos approximation
+     */
+    private static double logGamma(double x) {
+        double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+                -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double series = 1.000000000190015;
+        double y = x;
+        for (double coefficient : coefficients) {
+            series += coefficient / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * series / x);
+    }
+
+    /**
+     * Write all results recorded so far to the file named by the benchmark.resultsFile system property
+     */
+    /* package */ static void writeResults() throws IOException {
+        String path = System.getProperty("benchmark.resultsFile");
+        if (path == null) return;
+
+        File file = new File(path);
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+
+        List<Result> copy;
+        synchronized (results) {
+            copy = new ArrayList<>(results);
+        }
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8)) {
+            writer.write("[\n");
+            for (int i = 0; i < copy.size(); ++i) {
+                writer.write(copy.get(i).toJson());
+                writer.write(i < copy.size() - 1 ? ",\n" : "\n");
+            }
+            writer.write("]\n");
+        }
+        System.out.println("Benchmark results written to " + file);
+    }
+
+    /**
+     * The scores of a benchmark
+     */
+    /* package */ static final class Result {
+        private final String name;
+        private final Map<String, String> params;
+        private final int warmupIterations;
+        private final double[] scores;
+
+        Result(@NonNull String name, @NonNull Map<String, String> params, int warmupIterations,
+               @NonNull double[] scores) {
+            this.name = name;
+            this.params = new LinkedHashMap<>(params);
+            this.warmupIterations = warmupIterations;
+            this.scores = scores;
+        }
+
+        double getScore() {
+            double sum = 0;
+            for (double score : scores) {
+                sum += score;
+            }
+            return sum / scores.length;
+        }
+
+        double getScoreError() {
+            if (scores.length < 2) return Double.NaN;
+
+            double mean = getScore();
+            double squares = 0;
+            for (double score : scores) {
+                squares += (score - mean) * (score - mean);
+            }
+            return studentT(CONFIDENCE, scores.length - 1)
+                    * Math.sqrt(squares / (scores.length - 1)) / Math.sqrt(scores.length);
+        }
+
+        @NonNull
+        String toJson() {
+            StringBuilder json = new StringBuilder("    {\n");
+            json.append("        \"benchmark\" : ").append(quote(name)).append(",\n");
+            json.append("        \"mode\" : \"avgt\",\n");
+            json.append("        \"threads\" : 1,\n");
+            json.append("        \"forks\" : 1,\n");
+            json.append("        \"warmupIterations\" : ").append(warmupIterations).append(",\n");
+            json.append("        \"measurementIterations\" : ").append(scores.length).append(",\n");
+            json.append("        \"params\" : {");
+            int param = 0;
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                json.append(param++ > 0 ? ", " : " ")
+                        .append(quote(entry.getKey())).append(" : ").append(quote(entry.getValue()));
+            }
+            json.append(param > 0 ? " },\n" : "},\n");
+            json.append("        \"primaryMetric\" : {\n");
+            json.append("            \"score\" : ").append(number(getScore())).append(",\n");
+            json.append("            \"scoreError\" : ").append(number(getScoreError())).append(",\n");
+            json.append("            \"scoreUnit\" : \"us/op\",\n");
+            json.append("            \"rawData\" : [ [");
+            for (int i = 0; i < scores.length; ++i) {
+                json.append(i > 0 ? ", " : " ").append(number(scores[i]));
+            }
+            json.append(" ] ]\n");
+            json.append("        }\n");
+            json.append("    }");
+            return json.toString();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-40s %-20s %12.3f ± %10.3f us/op", name,
+                    params.isEmpty() ? "" : params.toString(), getScore(), getScoreError());
+        }
+
+        @NonNull
+        private static String number(double value) {
+            // JSON has no NaN, JMH writes it as a string
+            return Double.isNaN(value) ? "\"NaN\"" : String.format(Locale.US, "%.6f", value);
+        }
+
+        @NonNull
+        private static String quote(@NonNull String value) {
+            StringBuilder quoted = new StringBuilder("\"");
+            for (char c : value.toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    quoted.append('\\').append(c);
+                }
+                else if (c < 0x20) {
+                    quoted.append(String.format(Locale.US, "\\u%04x", (int) c));
+                }
+                else {
+                    quoted.append(c);
+                }
+            }
+            return quoted.append('"').toString();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.benchmark;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+
+/**
+ * The provider measured by the benchmarks, a single table using write ahead logging like a typical app
+ */
+public class BenchmarkProvider extends BasicCRUDProvider {
+
+    /* package */ static final String AUTHORITY = "com.forkingcode.crudcontent.benchmark";
+    /* package */ static final String TABLE = "item";
+
+    /* package */ static final Uri URI = new Uri.Builder()
+            .scheme(ContentResolver.SCHEME_CONTENT)
+            .authority(AUTHORITY)
+            .appendPath(TABLE)
+            .build();
+
+    /* package */ interface Columns extends BaseColumns {
+        String NAME = "name";
+        String QUANTITY = "quantity";
+        String PRICE = "price";
+        String DESCRIPTION = "description";
+    }
+
+    public BenchmarkProvider() {
+        super(AUTHORITY);
+    }
+
+    @NonNull
+    @Override
+    protected SQLiteOpenHelper getDbHelper() {
+        return new DBHelper(getContext());
+    }
+
+    private static class DBHelper extends SQLiteOpenHelper {
+
+        private static final String DATABASE_NAME = "benchmark.db";
+        private static final int DATABASE_VERSION = 1;
+
+        DBHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                setWriteAheadLoggingEnabled(true);
+            }
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " ( " +
+                    BaseColumns._ID + " INTEGER PRIMARY KEY, " +
+                    Columns.NAME + " TEXT NOT NULL, " +
+                    Columns.QUANTITY + " INTEGER NOT NULL, " +
+                    Columns.PRICE + " REAL, " +
+                    Columns.DESCRIPTION + " TEXT " +
+                    ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+
+import com.forkingcode.crudcontent.provider.RowBatch;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Measures the provider operations on the host JVM. The provider is called directly, as it would be
+ * by a client in the same process, so the numbers cover the provider and SQLite but not binder.
+ *
+ * <p>All data is generated from a fixed seed so runs can be compared.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 27)
+public class ProviderBenchmark {
+
+    private static final long SEED = 20180601L;
+    private static final int[] BATCH_SIZES = new int[]{10, 100, 1000};
+    private static final int INSERT_OPERATIONS = 500;
+    private static final int BULK_INSERT_ROWS = 5000;
+    private static final int TABLE_ROWS = 10000;
+    private static final int QUERY_OPERATIONS = 1000;
+    private static final int FULL_QUERY_OPERATIONS = 10;
+
+    private BenchmarkProvider provider;
+    private Random random;
+
+    @Before
+    public void setUp() {
+        provider = Robolectric.buildContentProvider(BenchmarkProvider.class)
+                .create(BenchmarkProvider.AUTHORITY)
+                .get();
+        random = new Random(SEED);
+    }
+
+    @After
+    public void tearDown() {
+        provider.shutdown();
+    }
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        Benchmark.writeResults();
+    }
+
+    @Test
+    public void insert() {
+        final ContentValues[] rows = newRows(INSERT_OPERATIONS);
+        Benchmark.run("insert", Collections.<String, String>emptyMap(), rows.length,
+                new Benchmark.Setup() {
+                    @Override
+                    public void setUp() {
+                        clearTable();
+                    }
+                },
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int index) {
+                        provider.insert(BenchmarkProvider.URI, rows[index]);
+                    }
+                });
+    }
+
+    @Test
+    public void bulkInsert() {
+        for (final int batchSize : BATCH_SIZES) {
+            final ContentValues[][] batches = new ContentValues[BULK_INSERT_ROWS / batchSize][];
+            for (int i = 0; i < batches.length; ++i) {
+                batches[i] = newRows(batchSize);
+            }
+
+            Benchmark.run("bulkInsert", batchSizeParam(batchSize), batches.length,
+                    new Benchmark.Setup() {
+                        @Override
+                        public void setUp() {
+                            clearTable();
+                        }
+                    },
+                    new Benchmark.Operation() {
+                        @Override
+                        public void run(int index) {
+                            provider.bulkInsert(BenchmarkProvider.URI, batches[index]);
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void bulkInsertRowBatch() {
+        for (final int batchSize : BATCH_SIZES) {
+            final RowBatch[] batches = new RowBatch[BULK_INSERT_ROWS / batchSize];
+            for (int i = 0; i < batches.length; ++i) {
+                batches[i] = newRowBatch(batchSize);
+            }
+
+            Benchmark.run("bulkInsertRowBatch", batchSizeParam(batchSize), batches.length,
+                    new Benchmark.Setup() {
+                        @Override
+                        public void setUp() {
+                            clearTable();
+                        }
+                    },
+                    new Benchmark.Operation() {
+                        @Override
+                        public void run(int index) {
+                            provider.bulkInsert(BenchmarkProvider.URI, batches[index]);
+                        }
+                    });
+        }
+    }
+
+    @Test
+    public void queryById() {
+        fillTable();
+        final long[] ids = randomIds(QUERY_OPERATIONS);
+        Benchmark.run("queryById", Collections.<String, String>emptyMap(), ids.length,
+                noSetup(),
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int index) {
+                        Cursor cursor = provider.query(ContentUris.withAppendedId(BenchmarkProvider.URI, ids[index]),
+                                null, null, null, null);
+                        assertNotNull(cursor);
+                        try {
+                            readAll(cursor);
+                        }
+                        finally {
+                            cursor.close();
+                        }
+                    }
+                });
+    }
+
+    @Test
+    public void queryAll() {
+        fillTable();
+        Benchmark.run("queryAll", Collections.singletonMap("rows", Integer.toString(TABLE_ROWS)),
+                FULL_QUERY_OPERATIONS,
+                noSetup(),
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int index) {
+                        Cursor cursor = provider.query(BenchmarkProvider.URI, null, null, null,
+                                BenchmarkProvider.Columns._ID);
+                        assertNotNull(cursor);
+                        try {
+                            assertEquals(TABLE_ROWS, readAll(cursor));
+                        }
+                        finally {
+                            cursor.close();
+                        }
+                    }
+                });
+    }
+
+    @Test
+    public void updateById() {
+        fillTable();
+        final long[] ids = randomIds(QUERY_OPERATIONS);
+        final ContentValues[] rows = newRows(QUERY_OPERATIONS);
+        Benchmark.run("updateById", Collections.<String, String>emptyMap(), ids.length,
+                noSetup(),
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int index) {
+                        provider.update(ContentUris.withAppendedId(BenchmarkProvider.URI, ids[index]),
+                                rows[index], null, null);
+                    }
+                });
+    }
+
+    @Test
+    public void deleteById() {
+        final long[] ids = shuffledIds();
+        Benchmark.run("deleteById", Collections.<String, String>emptyMap(), QUERY_OPERATIONS,
+                new Benchmark.Setup() {
+                    @Override
+                    public void setUp() {
+                        fillTable();
+                    }
+                },
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int index) {
+                        provider.delete(ContentUris.withAppendedId(BenchmarkProvider.URI, ids[index]), null, null);
+                    }
+                });
+    }
+
+    private void clearTable() {
+        provider.delete(BenchmarkProvider.URI, null, null);
+    }
+
+    /**
+     * Replace the content of the table with {@link #TABLE_ROWS} rows with ids 1 to TABLE_ROWS
+     */
+    private void fillTable() {
+        clearTable();
+        ContentValues[] rows = newRows(TABLE_ROWS);
+        for (int i = 0; i < rows.length; ++i) {
+            rows[i].put(BenchmarkProvider.Columns._ID, i + 1);
+        }
+        assertEquals(TABLE_ROWS, provider.bulkInsert(BenchmarkProvider.URI, rows));
+    }
+
+    @NonNull
+    private ContentValues[] newRows(int count) {
+        ContentValues[] rows = new ContentValues[count];
+        for (int i = 0; i < count; ++i) {
+            ContentValues values = new ContentValues(4);
+            values.put(BenchmarkProvider.Columns.NAME, randomText(8, 24));
+            values.put(BenchmarkProvider.Columns.QUANTITY, random.nextInt(1000));
+            values.put(BenchmarkProvider.Columns.PRICE, random.nextInt(100000) / 100.0);
+            values.put(BenchmarkProvider.Columns.DESCRIPTION, randomText(40, 200));
+            rows[i] = values;
+        }
+        return rows;
+    }
+
+    @NonNull
+    private RowBatch newRowBatch(int count) {
+        RowBatch batch = new RowBatch.Builder()
+                .textColumn(BenchmarkProvider.Columns.NAME)
+                .integerColumn(BenchmarkProvider.Columns.QUANTITY)
+                .realColumn(BenchmarkProvider.Columns.PRICE)
+                .textColumn(BenchmarkProvider.Columns.DESCRIPTION)
+                .expectedRows(count)
+                .build();
+        for (int i = 0; i < count; ++i) {
+            batch.addRow();
+            batch.putText(0, randomText(8, 24));
+            batch.putLong(1, random.nextInt(1000));
+            batch.putDouble(2, random.nextInt(100000) / 100.0);
+            batch.putText(3, randomText(40, 200));
+        }
+        return batch;
+    }
+
+    @NonNull
+    private String randomText(int minLength, int maxLength) {
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        char[] text = new char[length];
+        for (int i = 0; i < length; ++i) {
+            text[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(text);
+    }
+
+    @NonNull
+    private long[] randomIds(int count) {
+        long[] ids = new long[count];
+        for (int i = 0; i < count; ++i) {
+            ids[i] = 1 + random.nextInt(TABLE_ROWS);
+        }
+        return ids;
+    }
+
+    /**
+     * @return all ids of the filled table in a random order, so no id is deleted twice in an iteration
+     */
+    @NonNull
+    private long[] shuffledIds() {
+        long[] ids = new long[TABLE_ROWS];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = i + 1;
+        }
+        for (int i = ids.length - 1; i > 0; --i) {
+            int j = random.nextInt(i + 1);
+            long id = ids[i];
+            ids[i] = ids[j];
+            ids[j] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Read every column of every row, as an adapter binding the rows would
+     *
+     * @return the number of rows read
+     */
+    private static int readAll(@NonNull Cursor cursor) {
+        int rows = 0;
+        while (cursor.moveToNext()) {
+            for (int column = 0; column < cursor.getColumnCount(); ++column) {
+                cursor.getString(column);
+            }
+            ++rows;
+        }
+        return rows;
+    }
+
+    @NonNull
+    private static Map<String, String> batchSizeParam(int batchSize) {
+        return Collections.singletonMap("batchSize", Integer.toString(batchSize));
+    }
+
+    @NonNull
+    private static Benchmark.Setup noSetup() {
+        return new Benchmark.Setup() {
+            @Override
+            public void setUp() {
+            }
+        };
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cursor loader created by the {@link BasicCRUDLoader}. Times each query and throttles reloads
+ * triggered by content changes, either at a fixed interval or adapting to how often changes
+ * arrive and how long the query takes.
+ */
+/* package */ class BasicCRUDCursorLoader extends CursorLoader {
+
+    private static final String TAG = "BasicCRUDCursorLoader";
+
+    /* package */ static final long MIN_ADAPTIVE_THROTTLE = 50;
+
+    private volatile long throttle = 0;
+    private long maxThrottle = 0;
+    private boolean adaptive = false;
+
+    private boolean shared = false;
+    private boolean indexed = false;
+    private boolean columnar = false;
+    private final ForceLoadContentObserver columnarObserver = new ForceLoadContentObserver();
+    private final ForceLoadContentObserver sharedObserver = new ForceLoadContentObserver();
+    private CancellationSignal sharedCancellationSignal;
+
+    private ResultSnapshot snapshot;
+    private volatile Cursor snapshotCursor;
+    private volatile boolean snapshotRead = false;
+
+    private volatile long lastQueryDuration = 0;
+    private long lastChangeTime = 0;
+    private final AtomicInteger pendingChanges = new AtomicInteger();
+
+    /* package */ BasicCRUDCursorLoader(@NonNull Context context, @NonNull Uri uri, @Nullable String[] projection,
+                                        @Nullable String selection, @Nullable String[] selectionArgs,
+                                        @Nullable String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    /**
+     * Throttle reloads to at most one per interval
+     */
+    /* package */ void setFixedThrottle(long throttle) {
+        this.throttle = throttle;
+        this.adaptive = false;
+        setUpdateThrottle(throttle);
+    }
+
+    /**
+     * Throttle reloads based on the rate of changes and the query time, up to the maximum interval
+     */
+    /* package */ void setAdaptiveThrottle(long maxThrottle) {
+        this.maxThrottle = maxThrottle;
+        this.adaptive = true;
+        this.throttle = 0;
+        setUpdateThrottle(0);
+    }
+
+    /**
+     * Deliver the cursor wrapped in an {@link IndexedCursor}
+     */
+    /* package */ void setIndexed(boolean indexed) {
+        this.indexed = indexed;
+    }
+
+    /**
+     * Copy each fresh result into a {@link ColumnarCursor}
+     */
+    /* package */ void setColumnar(boolean columnar) {
+        this.columnar = columnar;
+    }
+
+    /**
+     * Share the result with other loaders running the identical query
+     *
+     * @see QueryCoordinator
+     */
+    /* package */ void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Serve the result persisted under the name on the first load, then persist each fresh result
+     *
+     * @see ResultSnapshot
+     */
+    /* package */ void setSnapshotName(@Nullable String name) {
+        snapshot = name != null
+                ? new ResultSnapshot(getContext(), name, getUri(), getProjection(), getSelection(),
+                getSelectionArgs(), getSortOrder())
+                : null;
+    }
+
+    /* package */ long getThrottle() {
+        return throttle;
+    }
+
+    /* package */ long getLastQueryDuration() {
+        return lastQueryDuration;
+    }
+
+    @Override
+    public final Cursor loadInBackground() {
+        // every change since the last load is covered by this one
+        int changes = pendingChanges.getAndSet(0);
+        if (changes > 1) {
+            BasicCRUDLoader.reportReloadsSkipped(getId(), getUri(), changes - 1, throttle);
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            Cursor cursor = loadCursor();
+            return indexed && cursor != null ? IndexedCursor.wrap(cursor) : cursor;
+        }
+        finally {
+            lastQueryDuration = SystemClock.elapsedRealtime() - start;
+        }
+    }
+
+    /**
+     * Perform the query, called on the loader thread
+     */
+    @Nullable
+    protected Cursor loadCursor() {
+        ResultSnapshot snapshot = this.snapshot;
+        if (snapshot != null && !snapshotRead) {
+            snapshotRead = true;
+            Cursor cursor = snapshot.read();
+            if (cursor != null) {
+                snapshotCursor = cursor;
+                return cursor;
+            }
+        }
+
+        Cursor cursor = shared ? loadSharedCursor() : super.loadInBackground();
+        if (snapshot != null && cursor != null) {
+            snapshot.write(cursor);
+        }
+        return columnar && cursor != null ? toColumnar(cursor) : cursor;
+    }
+
+    @NonNull
+    private Cursor toColumnar(@NonNull Cursor cursor) {
+        ColumnarCursor columnarCursor;
+        try {
+            columnarCursor = ColumnarCursor.from(cursor);
+        }
+        finally {
+            cursor.close();
+        }
+
+        // the source cursor was observing the data for the loader, observe through the copy instead
+        columnarCursor.setNotificationUri(getContext().getContentResolver(), getUri());
+        columnarCursor.registerContentObserver(columnarObserver);
+
+        BasicCRUDLoader.reportColumnarResult(getId(), getUri(), columnarCursor.getCount(),
+                columnarCursor.getMemoryFootprint());
+        return columnarCursor;
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        boolean fromSnapshot = isSnapshot(cursor);
+        super.deliverResult(cursor);
+
+        if (isReset()) {
+            return;
+        }
+
+        // The snapshot is only a placeholder until the query itself has run. This also covers the
+        // snapshot being delivered again when the loader is restarted before the query completed.
+        if (fromSnapshot && isStarted()) {
+            forceLoad();
+        }
+    }
+
+    private boolean isSnapshot(@Nullable Cursor cursor) {
+        Cursor snapshot = snapshotCursor;
+        if (snapshot == null || cursor == null) {
+            return false;
+        }
+        return cursor == snapshot ||
+                (cursor instanceof CursorWrapper && ((CursorWrapper) cursor).getWrappedCursor() == snapshot);
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+
+        synchronized (this) {
+            if (sharedCancellationSignal != null) {
+                sharedCancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Nullable
+    private Cursor loadSharedCursor() {
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            sharedCancellationSignal = new CancellationSignal();
+        }
+
+        try {
+            Cursor cursor = QueryCoordinator.getInstance(getContext()).query(getUri(), getProjection(),
+                    getSelection(), getSelectionArgs(), getSortOrder(), sharedCancellationSignal);
+            if (cursor != null) {
+                try {
+                    // Ensure the cursor window is filled, as the CursorLoader does.
+                    cursor.getCount();
+                    cursor.registerContentObserver(sharedObserver);
+                }
+                catch (RuntimeException e) {
+                    cursor.close();
+                    throw e;
+                }
+            }
+            return cursor;
+        }
+        finally {
+            synchronized (this) {
+                sharedCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void onContentChanged() {
+        if (isStarted()) {
+            pendingChanges.incrementAndGet();
+            if (adaptive) {
+                adjustThrottle();
+            }
+        }
+        super.onContentChanged();
+    }
+
+    /**
+     * Back off while changes arrive faster than the query can keep up with them and
+     * decay back towards no throttle once they calm down.
+     */
+    private void adjustThrottle() {
+        long now = SystemClock.elapsedRealtime();
+        long interval = lastChangeTime > 0 ? now - lastChangeTime : Long.MAX_VALUE;
+        lastChangeTime = now;
+
+        long queryDuration = lastQueryDuration;
+        long updated;
+        if (interval < Math.max(queryDuration * 4, MIN_ADAPTIVE_THROTTLE)) {
+            updated = Math.max(Math.max(throttle * 2, queryDuration * 2), MIN_ADAPTIVE_THROTTLE);
+        }
+        else if (interval > Math.max(throttle * 4, 1000)) {
+            updated = throttle / 2 < MIN_ADAPTIVE_THROTTLE ? 0 : throttle / 2;
+        }
+        else {
+            updated = throttle;
+        }
+        updated = Math.min(updated, maxThrottle);
+
+        if (updated != throttle) {
+            if (BasicCRUDLoader.DEBUG) {
+                Log.d(TAG, "throttle " + getId() + ": " + throttle + " -> " + updated +
+                        "ms, query: " + queryDuration + "ms, interval: " + interval + "ms");
+            }
+            throttle = updated;
+            setUpdateThrottle(updated);
+        }
+    }
+}
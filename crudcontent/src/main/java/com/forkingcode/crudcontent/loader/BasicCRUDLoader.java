@@ -1,6 +1,5 @@
 package com.forkingcode.crudcontent.loader;
 
-import android.content.ContentUris;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
@@ -10,11 +9,13 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
-import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
 
+import java.util.List;
+
 /**
  * A simple cursor loader and loaderCallback wrapper that provides query support for the BasicCRUDProvider.
  * Its goal is to eliminate the boiler plate and repetitive code needed for different cursor loaders. It also
@@ -83,6 +84,66 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
         void onCursorLoaded(int loaderId, @Nullable Cursor cursor);
     }
 
+    /**
+     * Callback for loaders requested with {@link RequestBuilder#deliverDiffs()}. The first cursor,
+     * and any cursor that cannot be compared with the prior one, is delivered through
+     * {@link #onCursorLoaded(int, Cursor)}. Each reload after that is delivered through
+     * {@link #onCursorChanged(int, Cursor, CursorDiff)} along with the rows that changed, so the
+     * UI can update only the affected rows. A diff is only delivered against the cursor this callback
+     * last received for the loader id, so a retained cursor delivered again, for example to a new
+     * callback after a configuration change, goes through {@link #onCursorLoaded(int, Cursor)}.
+     */
+    public interface DiffCallback extends Callback {
+
+        /**
+         * Called when a reload of the loader has finished. The same rules about the cursor lifetime
+         * apply as for {@link #onCursorLoaded(int, Cursor)}.
+         *
+         * @param loaderId The loader id of the loader used to generate the cursor
+         * @param cursor   The new cursor, replacing the cursor previously delivered
+         * @param diff     The row level changes from the previously delivered cursor
+         */
+        void onCursorChanged(int loaderId, @NonNull Cursor cursor, @NonNull CursorDiff diff);
+    }
+
+    /**
+     * Receives metrics about loaders created by the BasicCRUDLoader
+     *
+     * @see #setMetricsListener(MetricsListener)
+     */
+    public interface MetricsListener {
+
+        /**
+         * Called when several content changes were folded into a single reload, either because
+         * they arrived within the update throttle or while a query was still running. Called on the
+         * loader thread as the reload starts.
+         *
+         * @param loaderId       The loader id of the loader
+         * @param uri            The uri queried by the loader
+         * @param skipped        The number of reloads avoided
+         * @param throttleMillis The update throttle in effect, which changes over time for an adaptive throttle
+         */
+        void onReloadsSkipped(int loaderId, @NonNull Uri uri, int skipped, long throttleMillis);
+
+        /**
+         * Called when a loader has copied a result into a {@link ColumnarCursor}. Called on the loader thread.
+         *
+         * @param loaderId The loader id of the loader
+         * @param uri      The uri queried by the loader
+         * @param rows     The number of rows in the result
+         * @param bytes    The approximate memory held by the columnar result
+         */
+        void onColumnarResult(int loaderId, @NonNull Uri uri, int rows, long bytes);
+    }
+
+    /**
+     * Set to true in the {@link Cursor#getExtras()} of a cursor read from a persisted snapshot
+     * rather than queried from the provider.
+     *
+     * @see RequestBuilder#cacheSnapshot(String)
+     */
+    public static final String EXTRA_FROM_SNAPSHOT = "com.forkingcode.crudcontent.extra.fromSnapshot";
+
     /**
      * Default loader id if none is provided. Using the default will cause issues if you create more
      * than one loader fetching different data from the same activity or fragment. If using init only the
@@ -90,17 +151,31 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
      */
     public static final int DEFAULT_LOADER_ID = 1;
 
-    private static final String ARG_URI = "uri";
-    private static final String ARG_PROJECTION = "projection";
-    private static final String ARG_SELECTION = "selection";
-    private static final String ARG_SELECTION_ARGS = "selectionArgs";
-    private static final String ARG_SORT_ORDER = "sortOrder";
+    /* package */ static final String ARG_URI = "uri";
+    /* package */ static final String ARG_PROJECTION = "projection";
+    /* package */ static final String ARG_SELECTION = "selection";
+    /* package */ static final String ARG_SELECTION_ARGS = "selectionArgs";
+    /* package */ static final String ARG_SORT_ORDER = "sortOrder";
+    /* package */ static final String ARG_PAGE_SIZE = "pageSize";
+    /* package */ static final String ARG_PAGE_KEY = "pageKey";
+    /* package */ static final String ARG_PAGE_DESCENDING = "pageDescending";
+    /* package */ static final String ARG_DIFF = "diff";
+    /* package */ static final String ARG_SHARED = "shared";
+    /* package */ static final String ARG_SNAPSHOT = "snapshot";
+    /* package */ static final String ARG_INDEXED = "indexed";
+    /* package */ static final String ARG_COLUMNAR = "columnar";
+    /* package */ static final String ARG_INCREMENTAL = "incremental";
+    /* package */ static final String ARG_THROTTLE = "throttle";
+    /* package */ static final String ARG_ADAPTIVE_THROTTLE = "adaptiveThrottle";
 
     private static final String TAG = "BasicCRUDLocader";
 
     /* package */ static boolean DEBUG = false;
+    private static volatile MetricsListener metricsListener;
     private final Context context;
     private final Callback loaderCallback;
+    // the snapshot of the diff cursor last delivered to the callback, by loader id
+    private final SparseArray<CursorDiff.Snapshot> deliveredSnapshots = new SparseArray<>();
 
     /* package */ BasicCRUDLoader(Context context, Callback loaderCallback) {
         this.context = context.getApplicationContext();
@@ -116,6 +191,45 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
         DEBUG = enable;
     }
 
+    /**
+     * @return true if logging was enabled via {@link #enableLogging(boolean)}. Also gates the logging of
+     * the query streams.
+     */
+    public static boolean isLoggingEnabled() {
+        return DEBUG;
+    }
+
+    /**
+     * Register a listener for metrics of all loaders created by the BasicCRUDLoader
+     *
+     * @param listener The listener or null to stop receiving metrics
+     */
+    public static void setMetricsListener(@Nullable MetricsListener listener) {
+        metricsListener = listener;
+    }
+
+    /* package */ static void reportReloadsSkipped(int loaderId, @NonNull Uri uri, int skipped, long throttle) {
+        if (DEBUG) {
+            Log.d(TAG, "reloads skipped: id: " + loaderId + " skipped: " + skipped + " throttle: " + throttle);
+        }
+
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onReloadsSkipped(loaderId, uri, skipped, throttle);
+        }
+    }
+
+    /* package */ static void reportColumnarResult(int loaderId, @NonNull Uri uri, int rows, long bytes) {
+        if (DEBUG) {
+            Log.d(TAG, "columnar result: id: " + loaderId + " rows: " + rows + " bytes: " + bytes);
+        }
+
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onColumnarResult(loaderId, uri, rows, bytes);
+        }
+    }
+
     /**
      * Instantiate and return a new Loader for the given ID. In this case a new
      * cursor loader is created to query the database based on the information provided
@@ -138,12 +252,58 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
             throw new IllegalStateException("Failed to resolve uri");
         }
 
-        return new CursorLoader(context,
-                uri,
-                args.getStringArray(ARG_PROJECTION),
-                args.getString(ARG_SELECTION),
-                args.getStringArray(ARG_SELECTION_ARGS),
-                args.getString(ARG_SORT_ORDER));
+        BasicCRUDCursorLoader loader;
+        int pageSize = args.getInt(ARG_PAGE_SIZE);
+        if (pageSize > 0) {
+            loader = new PagingCursorLoader(context,
+                    uri,
+                    args.getStringArray(ARG_PROJECTION),
+                    args.getString(ARG_SELECTION),
+                    args.getStringArray(ARG_SELECTION_ARGS),
+                    args.getString(ARG_PAGE_KEY),
+                    args.getBoolean(ARG_PAGE_DESCENDING),
+                    pageSize);
+        }
+        else if (args.getBoolean(ARG_DIFF)) {
+            loader = new DiffCursorLoader(context,
+                    uri,
+                    args.getStringArray(ARG_PROJECTION),
+                    args.getString(ARG_SELECTION),
+                    args.getStringArray(ARG_SELECTION_ARGS),
+                    args.getString(ARG_SORT_ORDER));
+        }
+        else if (args.getBoolean(ARG_INCREMENTAL)) {
+            loader = new IncrementalCursorLoader(context,
+                    uri,
+                    args.getStringArray(ARG_PROJECTION),
+                    args.getString(ARG_SELECTION),
+                    args.getStringArray(ARG_SELECTION_ARGS),
+                    args.getString(ARG_SORT_ORDER));
+        }
+        else {
+            loader = new BasicCRUDCursorLoader(context,
+                    uri,
+                    args.getStringArray(ARG_PROJECTION),
+                    args.getString(ARG_SELECTION),
+                    args.getStringArray(ARG_SELECTION_ARGS),
+                    args.getString(ARG_SORT_ORDER));
+        }
+
+        loader.setShared(args.getBoolean(ARG_SHARED));
+        loader.setIndexed(args.getBoolean(ARG_INDEXED));
+        loader.setColumnar(args.getBoolean(ARG_COLUMNAR));
+        loader.setSnapshotName(args.getString(ARG_SNAPSHOT));
+
+        long throttle = args.getLong(ARG_THROTTLE);
+        if (throttle > 0) {
+            if (args.getBoolean(ARG_ADAPTIVE_THROTTLE)) {
+                loader.setAdaptiveThrottle(throttle);
+            }
+            else {
+                loader.setFixedThrottle(throttle);
+            }
+        }
+        return loader;
     }
 
     /**
@@ -170,6 +330,23 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
                     "  result: " + (cursor != null ? "not null" : "null"));
         }
 
+        if (cursor instanceof DiffCursorLoader.DiffCursor && loaderCallback instanceof DiffCallback) {
+            DiffCursorLoader.DiffCursor diffCursor = (DiffCursorLoader.DiffCursor) cursor;
+            CursorDiff.Snapshot delivered = deliveredSnapshots.get(loader.getId());
+            deliveredSnapshots.put(loader.getId(), diffCursor.getSnapshot());
+
+            // a retained cursor re-delivered to a new callback, or again to this one, is not a change
+            // from what the callback holds, so only a diff against the cursor it last received is used
+            CursorDiff diff = diffCursor.getDiff();
+            if (diff != null && delivered != null && delivered == diffCursor.getBase()) {
+                ((DiffCallback) loaderCallback).onCursorChanged(loader.getId(), cursor, diff);
+                return;
+            }
+        }
+        else {
+            deliveredSnapshots.remove(loader.getId());
+        }
+
         loaderCallback.onCursorLoaded(loader.getId(), cursor);
     }
 
@@ -192,6 +369,62 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
     }
 
 
+    /**
+     * Create a loader callback wrapper which can be reused to initialize and restart loaders
+     * from prebuilt {@link QuerySpec}s. Restarting a loader this way allocates nothing besides the
+     * loader itself.
+     *
+     * @param context  The context used to create loaders. Internally an application context is stored.
+     * @param callback The callback receiving the cursors of all loaders started through this instance
+     * @return The reusable loader callback wrapper
+     */
+    @NonNull
+    public static BasicCRUDLoader forCallback(@NonNull Context context, @NonNull Callback callback) {
+        return new BasicCRUDLoader(context, callback);
+    }
+
+    /**
+     * Ensures a loader for the query is initialized and active. Behaves as
+     * {@link RequestBuilder#initLoader()}.
+     *
+     * @param loaderManager The loader manager to use to create the loader
+     * @param loaderId      The loader id of the loader
+     * @param spec          The query to load
+     * @return The created {@link android.support.v4.content.CursorLoader}
+     * @throws IllegalStateException If the spec delivers diffs and the callback is not a {@link DiffCallback}
+     */
+    @NonNull
+    public CursorLoader initLoader(@NonNull LoaderManager loaderManager, int loaderId, @NonNull QuerySpec spec) {
+        validate(loaderId, spec);
+        return (CursorLoader) loaderManager.initLoader(loaderId, spec.getArgs(), this);
+    }
+
+    /**
+     * Starts a new or restarts an existing loader for the query. Behaves as
+     * {@link RequestBuilder#restartLoader()}.
+     *
+     * @param loaderManager The loader manager to use to create the loader
+     * @param loaderId      The loader id of the loader
+     * @param spec          The query to load
+     * @return The created {@link android.support.v4.content.CursorLoader}
+     * @throws IllegalStateException If the spec delivers diffs and the callback is not a {@link DiffCallback}
+     */
+    @NonNull
+    public CursorLoader restartLoader(@NonNull LoaderManager loaderManager, int loaderId, @NonNull QuerySpec spec) {
+        validate(loaderId, spec);
+        return (CursorLoader) loaderManager.restartLoader(loaderId, spec.getArgs(), this);
+    }
+
+    private void validate(int loaderId, @NonNull QuerySpec spec) {
+        if (spec.isDiff() && !(loaderCallback instanceof DiffCallback)) {
+            throw new IllegalStateException("Must provide a DiffCallback to deliver diffs");
+        }
+
+        if (DEBUG && loaderId == DEFAULT_LOADER_ID) {
+            Log.w(TAG, "Using default loader id. May cause issues with multiple loaders");
+        }
+    }
+
     /**
      * Start creating a new instance of the loader. This follows a builder pattern with the last
      * call being initLoader or restartLoader
@@ -218,12 +451,8 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
     public static class RequestBuilder {
         private final Context context;
         private final LoaderManager loaderManager;
-        private final Bundle args = new Bundle();
+        private final QuerySpec.Builder spec = new QuerySpec.Builder();
         private Callback loaderCallback;
-        private BasicCRUDLoader basicCRUDLoader;
-        private boolean distinct = false;
-        private String limit = null;
-        private long rowId = -1;
         private int loaderId = DEFAULT_LOADER_ID;
         private boolean loaderStarted = false;
 
@@ -247,7 +476,7 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          */
         @NonNull
         public RequestBuilder forUri(@NonNull Uri uri) {
-            args.putParcelable(ARG_URI, uri);
+            spec.forUri(uri);
             return this;
         }
 
@@ -287,7 +516,7 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          */
         @NonNull
         public RequestBuilder selectColumns(@NonNull String... projection) {
-            args.putStringArray(ARG_PROJECTION, projection);
+            spec.selectColumns(projection);
             return this;
         }
 
@@ -299,7 +528,7 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          */
         @NonNull
         public RequestBuilder distinct() {
-            this.distinct = true;
+            spec.distinct();
             return this;
         }
 
@@ -317,10 +546,7 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          */
         @NonNull
         public RequestBuilder whereMatchesId(long rowId) {
-            if (rowId > 0 && !TextUtils.isEmpty(args.getString(ARG_SELECTION))) {
-                throw new IllegalStateException("Do not provide both a row id and a selection");
-            }
-            this.rowId = rowId;
+            spec.whereMatchesId(rowId);
             return this;
         }
 
@@ -340,11 +566,7 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          */
         @NonNull
         public RequestBuilder whereMatchesSelection(@NonNull String selection, @Nullable String... selectionArgs) {
-            if (rowId > 0) {
-                throw new IllegalStateException("Do not provide both a row id and a selection");
-            }
-            args.putString(ARG_SELECTION, selection);
-            args.putStringArray(ARG_SELECTION_ARGS, selectionArgs);
+            spec.whereMatchesSelection(selection, selectionArgs);
             return this;
         }
 
@@ -357,7 +579,7 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          */
         @NonNull
         public RequestBuilder orderBy(@Nullable String orderBy) {
-            args.putString(ARG_SORT_ORDER, orderBy);
+            spec.orderBy(orderBy);
             return this;
         }
 
@@ -370,7 +592,171 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          */
         @NonNull
         public RequestBuilder limit(@Nullable String limit) {
-            this.limit = TextUtils.isEmpty(limit) ? null : limit;
+            spec.limit(limit);
+            return this;
+        }
+
+        /**
+         * Optionally load the result in fixed size pages rather than all at once. The delivered cursor
+         * reports the full row count but only holds a few pages in memory, fetching pages as the cursor
+         * is moved and prefetching the neighbouring pages in the background. This keeps memory flat
+         * when scrolling a large table.
+         *
+         * <p>Rows are sorted by the key column with the row id breaking ties, so an order by clause
+         * may not also be provided. Pages after or before a resident page are fetched with a keyset
+         * predicate on the key column, which stays fast deep into the table when the key column
+         * is indexed. Integer, real and text keys are compared with their stored type; blob keys are
+         * not supported. When a single row changes only the page holding that row is reloaded.
+         *
+         * <p>Paging requires the provider to honor the {@link BasicCRUDProvider#LIMIT_PARAMETER}
+         * and cannot be combined with distinct or limit.
+         *
+         * @param pageSize   The number of rows per page.
+         * @param keyColumn  The column to sort and page by, ideally indexed. Use
+         *                   {@link android.provider.BaseColumns#_ID} to page in insertion order.
+         * @param descending true to sort the key column in descending order
+         * @return This builder object
+         * @throws IllegalArgumentException If the page size is not positive
+         */
+        @NonNull
+        public RequestBuilder pageBy(int pageSize, @NonNull String keyColumn, boolean descending) {
+            spec.pageBy(pageSize, keyColumn, descending);
+            return this;
+        }
+
+        /**
+         * Optionally deliver the row level changes on each reload rather than only a new cursor.
+         * The loader keeps the ids and a hash of each row of the last delivered cursor and compares
+         * the new result against it on the loader thread. The callback must be a {@link DiffCallback}
+         * and the query must include the {@link android.provider.BaseColumns#_ID} column.
+         *
+         * <p>Comparing requires reading every row of the result, so this is intended for results
+         * which are displayed in full rather than very large tables. Cannot be combined with paging.
+         *
+         * @return This builder object
+         */
+        @NonNull
+        public RequestBuilder deliverDiffs() {
+            spec.deliverDiffs();
+            return this;
+        }
+
+        /**
+         * Optionally deliver the cursor as an {@link IndexedCursor}, which looks up column indexes
+         * with a hash map and reads values by {@link IndexedCursor.Column} handles. Cursors delivered
+         * with diffs are always indexed.
+         *
+         * @return This builder object
+         */
+        @NonNull
+        public RequestBuilder indexColumns() {
+            spec.indexColumns();
+            return this;
+        }
+
+        /**
+         * Optionally copy each result into a {@link ColumnarCursor} on the loader thread and deliver
+         * that instead. The copy holds the full result in primitive arrays, so scrolling never refills
+         * a cursor window and the heap used is lower than for the boxed values of a cursor window.
+         * The memory used by each copy is reported to the {@link MetricsListener}.
+         *
+         * <p>Intended for lists kept resident. Cannot be combined with paging.
+         *
+         * @return This builder object
+         */
+        @NonNull
+        public RequestBuilder loadColumnar() {
+            spec.loadColumnar();
+            return this;
+        }
+
+        /**
+         * Optionally share the result with other loaders running the identical query, for example
+         * several fragments each loading the same reference table. Queries are identical when the
+         * uri, including distinct and limit, projection, selection, selection arguments and order by all
+         * match. The first loader runs the query and the others wait for and reuse its result. After a
+         * change to the data the query is run again once for all of the loaders.
+         *
+         * <p>The shared result is held in a single cursor window, so this is intended for small
+         * results. Results too large for one window are not shared. Cannot be combined with paging.
+         *
+         * @return This builder object
+         */
+        @NonNull
+        public RequestBuilder shareQuery() {
+            spec.shareQuery();
+            return this;
+        }
+
+        /**
+         * Optionally persist the result so it can be shown immediately the next time the loader is
+         * created, including after the process has been restarted. The first load delivers the last
+         * persisted result, flagged with {@link #EXTRA_FROM_SNAPSHOT} in the cursor extras, and then
+         * queries the provider and delivers the fresh result. Each fresh result replaces the
+         * persisted one.
+         *
+         * <p>The snapshot is stored in the cache directory and is discarded if the query changes.
+         * Results of more than {@value ResultSnapshot#MAX_ROWS} rows are not persisted. Cannot be
+         * combined with paging.
+         *
+         * @param name A name for the snapshot, unique within the application
+         * @return This builder object
+         */
+        @NonNull
+        public RequestBuilder cacheSnapshot(@NonNull String name) {
+            spec.cacheSnapshot(name);
+            return this;
+        }
+
+        /**
+         * Optionally keep the result in memory keyed by row id and, when individual rows change, query
+         * only those rows again and patch them into the result rather than running the full query.
+         * The patched result is sorted again locally when an inserted row or a changed sort column
+         * requires it. Changes to the whole table, such as a bulk insert or an update by selection,
+         * and changes to many rows at once run the full query.
+         *
+         * <p>The query must include the {@link android.provider.BaseColumns#_ID} column. Patched
+         * rows can only be placed when the order by is a list of result columns, optionally with a
+         * collation and direction; otherwise only deletes are patched. Intended for large lists edited
+         * a row at a time. Cannot be combined with paging, distinct, limit, shared queries, snapshots,
+         * columnar results or diffs.
+         *
+         * @return This builder object
+         */
+        @NonNull
+        public RequestBuilder reloadChangedRows() {
+            spec.reloadChangedRows();
+            return this;
+        }
+
+        /**
+         * Optionally limit how often the loader reloads when the data changes. Changes arriving
+         * within the interval after a reload are folded into a single reload at the end of the interval.
+         * By default the loader reloads on every change.
+         *
+         * @param throttleMillis The minimum time between reloads in milliseconds
+         * @return This builder object
+         * @throws IllegalArgumentException If the interval is negative
+         */
+        @NonNull
+        public RequestBuilder updateThrottle(long throttleMillis) {
+            spec.updateThrottle(throttleMillis);
+            return this;
+        }
+
+        /**
+         * Optionally let the loader throttle its own reloads. While changes arrive faster than the
+         * query completes the time between reloads backs off, up to the maximum, and it decays back to
+         * reloading on every change once changes become infrequent. Reloads avoided this way are
+         * reported to the {@link MetricsListener}.
+         *
+         * @param maxThrottleMillis The upper bound of the time between reloads in milliseconds
+         * @return This builder object
+         * @throws IllegalArgumentException If the interval is negative
+         */
+        @NonNull
+        public RequestBuilder adaptiveUpdateThrottle(long maxThrottleMillis) {
+            spec.adaptiveUpdateThrottle(maxThrottleMillis);
             return this;
         }
 
@@ -393,8 +779,30 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          */
         @NonNull
         public CursorLoader initLoader() {
-            validateAndPrepareLoaderValues();
-            return (CursorLoader) loaderManager.initLoader(loaderId, args, basicCRUDLoader);
+            return validateAndPrepareLoader().initLoader(loaderManager, loaderId, prepareSpec());
+        }
+
+        /**
+         * Ensures a loader mapping the query result to model objects is initialized and active.
+         * Each row is mapped on the loader thread and the cursor is closed before the list of objects
+         * is delivered to the callback. Follows the same rules as {@link #initLoader()}. Only a fixed
+         * update throttle applies; cannot be combined with paging, diffs, shared queries, snapshots,
+         * columnar results, indexed columns, reloading changed rows or an adaptive update throttle.
+         *
+         * @param rowMapper The mapper called on the loader thread for each row
+         * @param callback  The callback receiving the mapped rows. Replaces any callback provided
+         *                  via {@link #callback(Callback)}
+         * @param <T>       The type of the model object
+         * @return The created loader
+         * @throws IllegalStateException If the Uri is not provided or an option is not supported by the
+         *                               mapping loader.
+         */
+        @NonNull
+        public <T> Loader<List<T>> initLoader(@NonNull BasicCRUDMappingLoader.RowMapper<T> rowMapper,
+                                              @NonNull BasicCRUDMappingLoader.Callback<T> callback) {
+            QuerySpec querySpec = prepareMappingSpec();
+            return loaderManager.initLoader(loaderId, querySpec.getArgs(),
+                    new BasicCRUDMappingLoader<>(context, rowMapper, callback));
         }
 
         /**
@@ -409,78 +817,88 @@ public class BasicCRUDLoader implements LoaderManager.LoaderCallbacks<Cursor> {
          * <p>This is more expensive if not reusing the same loader across rotation, as the existing
          * loader with valid data will be destroyed only to query the same information again.
          *
+         * <p>If the existing loader is still running its query, the query is cancelled. When querying
+         * a {@link BasicCRUDProvider} the cancellation is passed on to the database, so rapidly
+         * restarting a loader, for example when changing the sort order, does not queue up queries
+         * whose results are no longer needed.
+         *
          * @return The created {@link android.support.v4.content.CursorLoader}
          * @throws IllegalStateException If the Uri is not provided or is null.
          */
         @NonNull
         public CursorLoader restartLoader() {
-            validateAndPrepareLoaderValues();
-            return (CursorLoader) loaderManager.restartLoader(loaderId, args, basicCRUDLoader);
+            return validateAndPrepareLoader().restartLoader(loaderManager, loaderId, prepareSpec());
+        }
+
+        /**
+         * Starts a new or restarts an existing loader mapping the query result to model objects.
+         * Follows the same rules as {@link #restartLoader()}. Cannot be combined with the same options as
+         * {@link #initLoader(BasicCRUDMappingLoader.RowMapper, BasicCRUDMappingLoader.Callback)}.
+         *
+         * @param rowMapper The mapper called on the loader thread for each row
+         * @param callback  The callback receiving the mapped rows. Replaces any callback provided
+         *                  via {@link #callback(Callback)}
+         * @param <T>       The type of the model object
+         * @return The created loader
+         * @throws IllegalStateException If the Uri is not provided or an option is not supported by the
+         *                               mapping loader.
+         */
+        @NonNull
+        public <T> Loader<List<T>> restartLoader(@NonNull BasicCRUDMappingLoader.RowMapper<T> rowMapper,
+                                                 @NonNull BasicCRUDMappingLoader.Callback<T> callback) {
+            QuerySpec querySpec = prepareMappingSpec();
+            return loaderManager.restartLoader(loaderId, querySpec.getArgs(),
+                    new BasicCRUDMappingLoader<>(context, rowMapper, callback));
         }
 
         /**
-         * Helper to validate required parameters are provided and prepare user input to
-         * initialize or restart the laoder.
+         * Helper to ensure the builder is only used once and build the query spec.
+         *
+         * @throws IllegalStateException If the Uri is not provided or the options conflict.
          */
-        private void validateAndPrepareLoaderValues() {
+        @NonNull
+        private QuerySpec prepareSpec() {
             if (loaderStarted) {
                 throw new IllegalStateException("Loader already started. Use a new builder");
             }
             loaderStarted = true;
+            return spec.build();
+        }
 
-            // validate and prepare the Uri
-            finalizeUri();
-
-            if (DEBUG && loaderId == 1) {
-                Log.w(TAG, "Using default loader id. May cause issues with multiple loaders");
-            }
-
+        /**
+         * Helper to validate required parameters are provided and create the loader callbacks.
+         */
+        @NonNull
+        private BasicCRUDLoader validateAndPrepareLoader() {
             if (loaderCallback == null) {
                 throw new IllegalStateException("Must provide a BasicCRUDLoaderCallback");
             }
-
-            basicCRUDLoader = new BasicCRUDLoader(context, loaderCallback);
+            return new BasicCRUDLoader(context, loaderCallback);
         }
 
         /**
-         * Helper to append the rowId to the URI and add the distinct and limit query parameters
-         * to the query if provided.
-         *
-         * @throws IllegalStateException If the Uri is not provided or is null.
+         * Helper to build the query spec for a mapping loader.
          */
-        private void finalizeUri() {
-            Uri uri = args.getParcelable(ARG_URI);
-
-            boolean modified = false;
-
-            if (uri == null) {
-                throw new IllegalStateException("Uri not provided");
+        @NonNull
+        private QuerySpec prepareMappingSpec() {
+            QuerySpec querySpec = prepareSpec();
+            Bundle args = querySpec.getArgs();
+            // the mapping loader runs a plain query and only honours a fixed update throttle
+            if (querySpec.isPaged() || querySpec.isDiff()) {
+                throw new IllegalStateException("Mapping cannot be combined with paging or diffs");
             }
-
-            if (rowId > 0) {
-                uri = ContentUris.withAppendedId(uri, rowId);
-                modified = true;
+            if (args.getBoolean(ARG_SHARED) || args.getString(ARG_SNAPSHOT) != null ||
+                    args.getBoolean(ARG_COLUMNAR) || args.getBoolean(ARG_INDEXED)) {
+                throw new IllegalStateException("Mapping cannot be combined with shared queries, snapshots, " +
+                        "columnar results or indexed columns");
             }
-
-            if (distinct || limit != null) {
-                Uri.Builder uriBuilder = uri.buildUpon();
-                // clear any current query. If using builder, shouldn't have parameters already
-                uriBuilder.clearQuery();
-                modified = true;
-
-                if (distinct) {
-                    uriBuilder.appendQueryParameter(BasicCRUDProvider.DISTINCT_PARAMETER, Boolean.TRUE.toString());
-                }
-                if (limit != null) {
-                    uriBuilder.appendQueryParameter(BasicCRUDProvider.LIMIT_PARAMETER, limit);
-                }
-
-                uri = uriBuilder.build();
+            if (args.getBoolean(ARG_INCREMENTAL)) {
+                throw new IllegalStateException("Mapping cannot be combined with reloading changed rows");
             }
-
-            if (modified) {
-                args.putParcelable(ARG_URI, uri);
+            if (args.getBoolean(ARG_ADAPTIVE_THROTTLE)) {
+                throw new IllegalStateException("Mapping cannot be combined with an adaptive update throttle");
             }
+            return querySpec;
         }
     }
 }
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.content.Loader;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A loader callback wrapper which maps each row of the query result to a model object on the loader
+ * thread and delivers an immutable list of the objects. The cursor is read fully and closed before the
+ * result is delivered, so no cursor access happens on the main thread and there is no cursor lifetime
+ * to manage.
+ *
+ * <p>The query is formed with the same {@link BasicCRUDLoader.RequestBuilder} as the cursor loader,
+ * finishing with {@link BasicCRUDLoader.RequestBuilder#initLoader(RowMapper, Callback)} or
+ * {@link BasicCRUDLoader.RequestBuilder#restartLoader(RowMapper, Callback)}. The list is reloaded
+ * whenever the data under the uri changes.
+ *
+ * @param <T> The type of the model object
+ */
+public class BasicCRUDMappingLoader<T> implements LoaderManager.LoaderCallbacks<List<T>> {
+
+    private static final String TAG = "BasicCRUDMappingLoader";
+
+    /**
+     * Maps the current row of a cursor to a model object. Called on the loader thread.
+     *
+     * @param <T> The type of the model object
+     */
+    public interface RowMapper<T> {
+
+        /**
+         * Map the row the cursor is positioned on. The cursor must not be moved or closed.
+         * Column indexes follow the projection given to the request builder, or may be resolved once
+         * via {@link Cursor#getColumnIndexOrThrow(String)} and kept by the mapper.
+         *
+         * @param cursor The cursor positioned at the row to map
+         * @return The model object. Should be immutable as it is handed to the main thread.
+         */
+        @WorkerThread
+        @NonNull
+        T mapRow(@NonNull Cursor cursor);
+    }
+
+    /**
+     * Receives the mapped rows
+     *
+     * @param <T> The type of the model object
+     */
+    public interface Callback<T> {
+
+        /**
+         * Called when the loader has finished mapping the query result
+         *
+         * @param loaderId The loader id of the loader
+         * @param rows     The unmodifiable list of mapped rows in cursor order. A null value is
+         *                 passed if the loader is in process of resetting.
+         */
+        void onRowsLoaded(int loaderId, @Nullable List<T> rows);
+    }
+
+    private final Context context;
+    private final RowMapper<T> rowMapper;
+    private final Callback<T> callback;
+
+    /* package */ BasicCRUDMappingLoader(@NonNull Context context, @NonNull RowMapper<T> rowMapper,
+                                         @NonNull Callback<T> callback) {
+        this.context = context.getApplicationContext();
+        this.rowMapper = rowMapper;
+        this.callback = callback;
+    }
+
+    @NonNull
+    @Override
+    public final Loader<List<T>> onCreateLoader(int id, @Nullable Bundle args) {
+        if (BasicCRUDLoader.DEBUG) {
+            Log.d(TAG, "onCreateLoader: id: " + id);
+        }
+
+        Uri uri = args != null ? (Uri) args.getParcelable(BasicCRUDLoader.ARG_URI) : null;
+        if (args == null || uri == null) {
+            throw new IllegalStateException("Failed to resolve uri");
+        }
+
+        MappingLoader<T> loader = new MappingLoader<>(context,
+                uri,
+                args.getStringArray(BasicCRUDLoader.ARG_PROJECTION),
+                args.getString(BasicCRUDLoader.ARG_SELECTION),
+                args.getStringArray(BasicCRUDLoader.ARG_SELECTION_ARGS),
+                args.getString(BasicCRUDLoader.ARG_SORT_ORDER),
+                rowMapper);
+        loader.setUpdateThrottle(args.getLong(BasicCRUDLoader.ARG_THROTTLE));
+        return loader;
+    }
+
+    @Override
+    public final void onLoadFinished(@NonNull Loader<List<T>> loader, @Nullable List<T> rows) {
+        if (BasicCRUDLoader.DEBUG) {
+            Log.d(TAG, "onLoadFinished: id: " + loader.getId() +
+                    "  rows: " + (rows != null ? rows.size() : "null"));
+        }
+
+        callback.onRowsLoaded(loader.getId(), rows);
+    }
+
+    @Override
+    public final void onLoaderReset(@NonNull Loader<List<T>> loader) {
+        if (BasicCRUDLoader.DEBUG) {
+            Log.d(TAG, "onLoadReset: id: " + loader.getId());
+        }
+        callback.onRowsLoaded(loader.getId(), null);
+    }
+
+    /**
+     * Queries and maps the rows in the background, reloading when the data changes
+     */
+    /* package */ static class MappingLoader<T> extends AsyncTaskLoader<List<T>> {
+        private final Uri uri;
+        private final String[] projection;
+        private final String selection;
+        private final String[] selectionArgs;
+        private final String sortOrder;
+        private final RowMapper<T> rowMapper;
+        private final ContentObserver observer;
+
+        private List<T> rows;
+        private boolean observerRegistered = false;
+        private CancellationSignal cancellationSignal;
+
+        /* package */ MappingLoader(@NonNull Context context, @NonNull Uri uri, @Nullable String[] projection,
+                                    @Nullable String selection, @Nullable String[] selectionArgs,
+                                    @Nullable String sortOrder, @NonNull RowMapper<T> rowMapper) {
+            super(context);
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+            this.rowMapper = rowMapper;
+            this.observer = new ForceLoadContentObserver();
+        }
+
+        @Override
+        public List<T> loadInBackground() {
+            synchronized (this) {
+                if (isLoadInBackgroundCanceled()) {
+                    throw new OperationCanceledException();
+                }
+                cancellationSignal = new CancellationSignal();
+            }
+
+            try {
+                Cursor cursor = ContentResolverCompat.query(getContext().getContentResolver(),
+                        uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+                if (cursor == null) {
+                    return null;
+                }
+
+                try {
+                    List<T> result = new ArrayList<>(cursor.getCount());
+                    while (cursor.moveToNext()) {
+                        result.add(rowMapper.mapRow(cursor));
+                    }
+                    return Collections.unmodifiableList(result);
+                }
+                finally {
+                    cursor.close();
+                }
+            }
+            finally {
+                synchronized (this) {
+                    cancellationSignal = null;
+                }
+            }
+        }
+
+        @Override
+        public void cancelLoadInBackground() {
+            super.cancelLoadInBackground();
+
+            synchronized (this) {
+                if (cancellationSignal != null) {
+                    cancellationSignal.cancel();
+                }
+            }
+        }
+
+        @Override
+        public void deliverResult(List<T> rows) {
+            if (isReset()) {
+                return;
+            }
+
+            this.rows = rows;
+            if (isStarted()) {
+                super.deliverResult(rows);
+            }
+        }
+
+        @Override
+        protected void onStartLoading() {
+            if (!observerRegistered) {
+                getContext().getContentResolver().registerContentObserver(uri, true, observer);
+                observerRegistered = true;
+            }
+
+            if (rows != null) {
+                deliverResult(rows);
+            }
+            if (takeContentChanged() || rows == null) {
+                forceLoad();
+            }
+        }
+
+        @Override
+        protected void onStopLoading() {
+            cancelLoad();
+        }
+
+        @Override
+        protected void onReset() {
+            super.onReset();
+            onStopLoading();
+
+            if (observerRegistered) {
+                getContext().getContentResolver().unregisterContentObserver(observer);
+                observerRegistered = false;
+            }
+            rows = null;
+        }
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.util.Arrays;
+
+/**
+ * An in-memory cursor holding a full query result in primitive arrays, one per column. Integer
+ * columns are held in a long[], float columns in a double[] and text columns as offsets into a
+ * single char buffer shared by all text columns. Nulls are tracked in a bitmap per column. Columns
+ * mixing value types fall back to an array of objects.
+ *
+ * <p>Once built the cursor never touches the database or a cursor window, so moving it and reading
+ * values costs the same at any position. Strings are created from the shared buffer on each read.
+ */
+public final class ColumnarCursor extends AbstractCursor {
+
+    private static final int MODE_NULL = 0;
+    private static final int MODE_LONG = 1;
+    private static final int MODE_DOUBLE = 2;
+    private static final int MODE_STRING = 3;
+    private static final int MODE_BLOB = 4;
+    private static final int MODE_OBJECT = 5;
+
+    private final String[] columnNames;
+    private final int count;
+    private final Column[] columns;
+    private final char[] chars;
+
+    private ColumnarCursor(@NonNull String[] columnNames, int count, @NonNull Column[] columns, @NonNull char[] chars) {
+        this.columnNames = columnNames;
+        this.count = count;
+        this.columns = columns;
+        this.chars = chars;
+    }
+
+    /**
+     * Read the full result of the cursor into a columnar cursor. The source cursor is left
+     * positioned after the last row and is not closed.
+     *
+     * @param cursor The cursor to read
+     * @return The columnar copy of the result
+     */
+    @NonNull
+    @WorkerThread
+    public static ColumnarCursor from(@NonNull Cursor cursor) {
+        String[] names = cursor.getColumnNames();
+        int capacity = Math.max(cursor.getCount(), 0);
+        Column[] columns = new Column[names.length];
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = new Column(capacity);
+        }
+        CharBuffer chars = new CharBuffer();
+
+        int row = 0;
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i].read(cursor, i, row, chars);
+            }
+            ++row;
+        }
+
+        for (Column column : columns) {
+            column.trim(row);
+        }
+        return new ColumnarCursor(names, row, columns, chars.toArray());
+    }
+
+    /**
+     * @return The approximate number of bytes held by the arrays of this cursor
+     */
+    public long getMemoryFootprint() {
+        long bytes = chars.length * 2L;
+        for (Column column : columns) {
+            bytes += column.footprint();
+        }
+        return bytes;
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        checkPosition();
+        int row = getPosition();
+        Column data = columns[column];
+        if (data.isNull(row)) return FIELD_TYPE_NULL;
+
+        switch (data.mode) {
+            case MODE_LONG:
+                return FIELD_TYPE_INTEGER;
+            case MODE_DOUBLE:
+                return FIELD_TYPE_FLOAT;
+            case MODE_STRING:
+                return FIELD_TYPE_STRING;
+            case MODE_BLOB:
+                return FIELD_TYPE_BLOB;
+            default:
+                Object value = data.objects[row];
+                if (value instanceof Long) return FIELD_TYPE_INTEGER;
+                if (value instanceof Double) return FIELD_TYPE_FLOAT;
+                if (value instanceof byte[]) return FIELD_TYPE_BLOB;
+                return FIELD_TYPE_STRING;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        checkPosition();
+        int row = getPosition();
+        return columns[column].isNull(row);
+    }
+
+    @Override
+    public String getString(int column) {
+        checkPosition();
+        int row = getPosition();
+        Column data = columns[column];
+        if (data.isNull(row)) return null;
+
+        switch (data.mode) {
+            case MODE_STRING:
+                return new String(chars, data.offsets[row], data.lengths[row]);
+            case MODE_LONG:
+                return Long.toString(data.longs[row]);
+            case MODE_DOUBLE:
+                return Double.toString(data.doubles[row]);
+            case MODE_BLOB:
+                throw new IllegalStateException("Unable to convert BLOB to string");
+            default:
+                Object value = data.objects[row];
+                if (value instanceof byte[]) {
+                    throw new IllegalStateException("Unable to convert BLOB to string");
+                }
+                return value.toString();
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        checkPosition();
+        int row = getPosition();
+        Column data = columns[column];
+        if (data.isNull(row)) return 0L;
+
+        switch (data.mode) {
+            case MODE_LONG:
+                return data.longs[row];
+            case MODE_DOUBLE:
+                return (long) data.doubles[row];
+            default:
+                return (long) parseNumber(getString(column));
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        checkPosition();
+        int row = getPosition();
+        Column data = columns[column];
+        if (data.isNull(row)) return 0.0;
+
+        switch (data.mode) {
+            case MODE_LONG:
+                return data.longs[row];
+            case MODE_DOUBLE:
+                return data.doubles[row];
+            default:
+                return parseNumber(getString(column));
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        checkPosition();
+        int row = getPosition();
+        Column data = columns[column];
+        if (data.isNull(row)) return null;
+
+        switch (data.mode) {
+            case MODE_BLOB:
+                return data.blobs[row];
+            case MODE_OBJECT:
+                if (data.objects[row] instanceof byte[]) return (byte[]) data.objects[row];
+                // fall through
+            default:
+                throw new IllegalStateException("Unable to convert value to BLOB");
+        }
+    }
+
+    /**
+     * Parse text the way SQLite converts text to a number, yielding 0 if it is not numeric
+     */
+    private static double parseNumber(@NonNull String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        }
+        catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+
+    /**
+     * The values of one column. Only the array matching the mode is allocated.
+     */
+    private static final class Column {
+        int mode = MODE_NULL;
+        long[] nulls;
+        long[] longs;
+        double[] doubles;
+        int[] offsets;
+        int[] lengths;
+        byte[][] blobs;
+        Object[] objects;
+        private int capacity;
+
+        Column(int capacity) {
+            this.capacity = Math.max(capacity, 16);
+            this.nulls = new long[(this.capacity + 63) >>> 6];
+        }
+
+        boolean isNull(int row) {
+            return (nulls[row >>> 6] & (1L << row)) != 0;
+        }
+
+        void read(@NonNull Cursor cursor, int column, int row, @NonNull CharBuffer chars) {
+            ensureCapacity(row + 1);
+
+            int type = cursor.getType(column);
+            if (type == FIELD_TYPE_NULL) {
+                nulls[row >>> 6] |= 1L << row;
+                return;
+            }
+
+            int valueMode = modeOf(type);
+            if (mode == MODE_NULL) {
+                allocate(valueMode);
+            }
+            else if (mode != valueMode && mode != MODE_OBJECT) {
+                toObjects(chars, row);
+            }
+
+            switch (mode) {
+                case MODE_LONG:
+                    longs[row] = cursor.getLong(column);
+                    break;
+                case MODE_DOUBLE:
+                    doubles[row] = cursor.getDouble(column);
+                    break;
+                case MODE_STRING:
+                    String value = cursor.getString(column);
+                    offsets[row] = chars.append(value);
+                    lengths[row] = value.length();
+                    break;
+                case MODE_BLOB:
+                    blobs[row] = cursor.getBlob(column);
+                    break;
+                default:
+                    objects[row] = readObject(cursor, column, type);
+                    break;
+            }
+        }
+
+        private static int modeOf(int type) {
+            switch (type) {
+                case FIELD_TYPE_INTEGER:
+                    return MODE_LONG;
+                case FIELD_TYPE_FLOAT:
+                    return MODE_DOUBLE;
+                case FIELD_TYPE_BLOB:
+                    return MODE_BLOB;
+                default:
+                    return MODE_STRING;
+            }
+        }
+
+        private static Object readObject(@NonNull Cursor cursor, int column, int type) {
+            switch (type) {
+                case FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                default:
+                    return cursor.getString(column);
+            }
+        }
+
+        private void allocate(int mode) {
+            this.mode = mode;
+            switch (mode) {
+                case MODE_LONG:
+                    longs = new long[capacity];
+                    break;
+                case MODE_DOUBLE:
+                    doubles = new double[capacity];
+                    break;
+                case MODE_STRING:
+                    offsets = new int[capacity];
+                    lengths = new int[capacity];
+                    break;
+                case MODE_BLOB:
+                    blobs = new byte[capacity][];
+                    break;
+                default:
+                    objects = new Object[capacity];
+                    break;
+            }
+        }
+
+        /**
+         * The column holds more than one type of value, box the values read so far
+         */
+        private void toObjects(@NonNull CharBuffer chars, int rows) {
+            Object[] boxed = new Object[capacity];
+            for (int row = 0; row < rows; ++row) {
+                if (isNull(row)) continue;
+                switch (mode) {
+                    case MODE_LONG:
+                        boxed[row] = longs[row];
+                        break;
+                    case MODE_DOUBLE:
+                        boxed[row] = doubles[row];
+                        break;
+                    case MODE_STRING:
+                        boxed[row] = chars.substring(offsets[row], lengths[row]);
+                        break;
+                    default:
+                        boxed[row] = blobs[row];
+                        break;
+                }
+            }
+
+            // the characters of the boxed strings stay in the shared buffer, they are not reclaimed
+            longs = null;
+            doubles = null;
+            offsets = null;
+            lengths = null;
+            blobs = null;
+            objects = boxed;
+            mode = MODE_OBJECT;
+        }
+
+        private void ensureCapacity(int rows) {
+            if (rows <= capacity) return;
+            resize(Math.max(rows, capacity * 2));
+        }
+
+        void trim(int rows) {
+            if (rows != capacity) {
+                resize(Math.max(rows, 1));
+            }
+        }
+
+        private void resize(int size) {
+            capacity = size;
+            nulls = Arrays.copyOf(nulls, (size + 63) >>> 6);
+            if (longs != null) longs = Arrays.copyOf(longs, size);
+            if (doubles != null) doubles = Arrays.copyOf(doubles, size);
+            if (offsets != null) offsets = Arrays.copyOf(offsets, size);
+            if (lengths != null) lengths = Arrays.copyOf(lengths, size);
+            if (blobs != null) blobs = Arrays.copyOf(blobs, size);
+            if (objects != null) objects = Arrays.copyOf(objects, size);
+        }
+
+        long footprint() {
+            long bytes = nulls.length * 8L;
+            if (longs != null) bytes += longs.length * 8L;
+            if (doubles != null) bytes += doubles.length * 8L;
+            if (offsets != null) bytes += offsets.length * 4L + lengths.length * 4L;
+            if (blobs != null) {
+                bytes += blobs.length * 4L;
+                for (byte[] blob : blobs) {
+                    if (blob != null) bytes += blob.length;
+                }
+            }
+            if (objects != null) {
+                // approximate the boxed values at 16 bytes plus their contents
+                bytes += objects.length * 4L;
+                for (Object value : objects) {
+                    if (value instanceof String) bytes += 16 + ((String) value).length() * 2L;
+                    else if (value instanceof byte[]) bytes += 16 + ((byte[]) value).length;
+                    else if (value != null) bytes += 16;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Growable char buffer shared by the text columns
+     */
+    private static final class CharBuffer {
+        private char[] chars = new char[1024];
+        private int length = 0;
+
+        int append(@NonNull String value) {
+            int offset = length;
+            int required = length + value.length();
+            if (required > chars.length) {
+                chars = Arrays.copyOf(chars, Math.max(required, chars.length * 2));
+            }
+            value.getChars(0, value.length(), chars, length);
+            length = required;
+            return offset;
+        }
+
+        @NonNull
+        String substring(int offset, int count) {
+            return new String(chars, offset, count);
+        }
+
+        @NonNull
+        char[] toArray() {
+            return Arrays.copyOf(chars, length);
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The row level changes between two consecutive cursors delivered by a loader. Rows are matched
+ * by their {@link BaseColumns#_ID} and compared using a hash of their column values.
+ *
+ * <p>Removed positions refer to the previous cursor. Inserted and changed positions refer to
+ * the new cursor. Moves are reported as pairs of the position in the previous cursor and the position
+ * in the new cursor, and only include rows that changed order relative to the other retained rows.
+ * All positions are in ascending order.
+ */
+public final class CursorDiff {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final int[] removed;
+    private final int[] inserted;
+    private final int[] changed;
+    private final int[] movedFrom;
+    private final int[] movedTo;
+
+    private CursorDiff(int[] removed, int[] inserted, int[] changed, int[] movedFrom, int[] movedTo) {
+        this.removed = removed;
+        this.inserted = inserted;
+        this.changed = changed;
+        this.movedFrom = movedFrom;
+        this.movedTo = movedTo;
+    }
+
+    /**
+     * @return The positions in the previous cursor of rows no longer present
+     */
+    @NonNull
+    public int[] getRemovedPositions() {
+        return removed.clone();
+    }
+
+    /**
+     * @return The positions in the new cursor of rows not previously present
+     */
+    @NonNull
+    public int[] getInsertedPositions() {
+        return inserted.clone();
+    }
+
+    /**
+     * @return The positions in the new cursor of retained rows whose values changed
+     */
+    @NonNull
+    public int[] getChangedPositions() {
+        return changed.clone();
+    }
+
+    /**
+     * @return The positions in the previous cursor of moved rows, matching {@link #getMovedToPositions()}
+     */
+    @NonNull
+    public int[] getMovedFromPositions() {
+        return movedFrom.clone();
+    }
+
+    /**
+     * @return The positions in the new cursor of moved rows, matching {@link #getMovedFromPositions()}
+     */
+    @NonNull
+    public int[] getMovedToPositions() {
+        return movedTo.clone();
+    }
+
+    /**
+     * @return true if the new cursor has the same rows, in the same order with the same values.
+     */
+    public boolean isEmpty() {
+        return removed.length == 0 && inserted.length == 0 && changed.length == 0 && movedFrom.length == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "CursorDiff{removed=" + Arrays.toString(removed) +
+                ", inserted=" + Arrays.toString(inserted) +
+                ", changed=" + Arrays.toString(changed) +
+                ", movedFrom=" + Arrays.toString(movedFrom) +
+                ", movedTo=" + Arrays.toString(movedTo) + "}";
+    }
+
+    /**
+     * Compute the difference between two snapshots
+     */
+    @NonNull
+    /* package */ static CursorDiff calculate(@NonNull Snapshot previous, @NonNull Snapshot current) {
+        Map<Long, Integer> previousPositions = new HashMap<>(previous.ids.length * 2);
+        for (int i = 0; i < previous.ids.length; ++i) {
+            previousPositions.put(previous.ids[i], i);
+        }
+
+        IntList inserted = new IntList();
+        IntList changed = new IntList();
+
+        // old position of each retained row, in new order
+        IntList retainedFrom = new IntList();
+        IntList retainedTo = new IntList();
+        boolean[] retained = new boolean[previous.ids.length];
+
+        for (int i = 0; i < current.ids.length; ++i) {
+            Integer from = previousPositions.get(current.ids[i]);
+            if (from == null) {
+                inserted.add(i);
+                continue;
+            }
+
+            retained[from] = true;
+            retainedFrom.add(from);
+            retainedTo.add(i);
+            if (previous.hashes[from] != current.hashes[i]) {
+                changed.add(i);
+            }
+        }
+
+        IntList removed = new IntList();
+        for (int i = 0; i < retained.length; ++i) {
+            if (!retained[i]) removed.add(i);
+        }
+
+        // Rows outside the longest run kept in the same relative order are the ones that moved
+        boolean[] inOrder = longestIncreasingSubsequence(retainedFrom);
+        IntList movedFrom = new IntList();
+        IntList movedTo = new IntList();
+        for (int i = 0; i < retainedFrom.size; ++i) {
+            if (!inOrder[i]) {
+                movedFrom.add(retainedFrom.values[i]);
+                movedTo.add(retainedTo.values[i]);
+            }
+        }
+
+        return new CursorDiff(removed.toArray(), inserted.toArray(), changed.toArray(),
+                movedFrom.toArray(), movedTo.toArray());
+    }
+
+    /**
+     * Marks the members of one longest strictly increasing subsequence, O(n log n)
+     */
+    @NonNull
+    private static boolean[] longestIncreasingSubsequence(@NonNull IntList list) {
+        int size = list.size;
+        int[] tails = new int[size];
+        int[] previous = new int[size];
+        int length = 0;
+
+        for (int i = 0; i < size; ++i) {
+            int value = list.values[i];
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (list.values[tails[mid]] < value) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) ++length;
+        }
+
+        boolean[] members = new boolean[size];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            members[i] = true;
+        }
+        return members;
+    }
+
+    /**
+     * The ids and a hash of the column values of each row of a cursor
+     */
+    /* package */ static final class Snapshot {
+        final long[] ids;
+        final long[] hashes;
+
+        private Snapshot(long[] ids, long[] hashes) {
+            this.ids = ids;
+            this.hashes = hashes;
+        }
+
+        /**
+         * Read the snapshot, restoring the cursor position afterwards.
+         *
+         * @return The snapshot or null if the cursor has no id column
+         */
+        @Nullable
+        /* package */ static Snapshot of(@NonNull Cursor cursor) {
+            int idIndex = cursor.getColumnIndex(BaseColumns._ID);
+            if (idIndex < 0) {
+                return null;
+            }
+
+            int position = cursor.getPosition();
+            int count = cursor.getCount();
+            int columns = cursor.getColumnCount();
+            long[] ids = new long[count];
+            long[] hashes = new long[count];
+
+            cursor.moveToPosition(-1);
+            for (int row = 0; row < count && cursor.moveToNext(); ++row) {
+                ids[row] = cursor.getLong(idIndex);
+                hashes[row] = hashRow(cursor, columns);
+            }
+            cursor.moveToPosition(position);
+
+            return new Snapshot(ids, hashes);
+        }
+
+        private static long hashRow(@NonNull Cursor cursor, int columns) {
+            long hash = 1125899906842597L;
+            for (int i = 0; i < columns; ++i) {
+                long value;
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        value = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        value = Double.doubleToLongBits(cursor.getDouble(i));
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        value = cursor.getString(i).hashCode();
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        value = Arrays.hashCode(cursor.getBlob(i));
+                        break;
+                    default:
+                        value = 0x9E3779B97F4A7C15L;
+                        break;
+                }
+                hash = 31 * hash + cursor.getType(i);
+                hash = 31 * hash + value;
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * Minimal growable list of primitive ints
+     */
+    private static final class IntList {
+        int[] values = new int[16];
+        int size = 0;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int[] toArray() {
+            return size == 0 ? EMPTY : Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Cursor loader which, on each reload, compares the new result with the last delivered result and
+ * attaches the row level changes to the delivered cursor. The comparison runs on the loader thread.
+ */
+/* package */ class DiffCursorLoader extends BasicCRUDCursorLoader {
+
+    private volatile CursorDiff.Snapshot committed;
+
+    /* package */ DiffCursorLoader(@NonNull Context context, @NonNull Uri uri, @Nullable String[] projection,
+                                   @Nullable String selection, @Nullable String[] selectionArgs,
+                                   @Nullable String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    protected Cursor loadCursor() {
+        Cursor cursor = super.loadCursor();
+        if (cursor == null) {
+            return null;
+        }
+
+        try {
+            CursorDiff.Snapshot snapshot = CursorDiff.Snapshot.of(cursor);
+            CursorDiff.Snapshot previous = committed;
+            CursorDiff diff = snapshot != null && previous != null ? CursorDiff.calculate(previous, snapshot) : null;
+            return new DiffCursor(cursor, snapshot, diff != null ? previous : null, diff);
+        }
+        catch (RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (!isReset()) {
+            // later loads are compared against what the callback has actually seen
+            committed = cursor instanceof DiffCursor ? ((DiffCursor) cursor).snapshot : null;
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        committed = null;
+    }
+
+    /**
+     * Carries the diff along with the cursor to the loader callback, together with the snapshot of the
+     * cursor the diff was calculated against, so the callback can tell whether it has seen that cursor
+     */
+    /* package */ static final class DiffCursor extends IndexedCursor {
+        private final CursorDiff.Snapshot snapshot;
+        private final CursorDiff.Snapshot base;
+        private final CursorDiff diff;
+
+        DiffCursor(@NonNull Cursor cursor, @Nullable CursorDiff.Snapshot snapshot, @Nullable CursorDiff.Snapshot base,
+                   @Nullable CursorDiff diff) {
+            super(cursor);
+            this.snapshot = snapshot;
+            this.base = base;
+            this.diff = diff;
+        }
+
+        @Nullable
+        /* package */ CursorDiff getDiff() {
+            return diff;
+        }
+
+        /**
+         * @return The snapshot of this cursor, which later diffs are calculated against
+         */
+        @Nullable
+        /* package */ CursorDiff.Snapshot getSnapshot() {
+            return snapshot;
+        }
+
+        /**
+         * @return The snapshot of the cursor the diff was calculated against
+         */
+        @Nullable
+        /* package */ CursorDiff.Snapshot getBase() {
+            return base;
+        }
+    }
+}
@@ -0,0 +1,611 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cursor loader which keeps the current result in memory keyed by row id. When individual rows
+ * change only those rows are queried again, with an {@code _id IN (...)} restriction added to the
+ * selection, and patched into the result, which is sorted again locally when needed. Changes to the
+ * whole table, or to more than {@value #MAX_CHANGED_ROWS} rows, run the full query. The provider notifies
+ * inserts on the table uri, so inserts run the full query as well; updates and deletes by id are patched.
+ *
+ * <p>Rows are re-sorted locally when the order by is a list of result columns, each optionally with
+ * a {@code COLLATE NOCASE} or {@code COLLATE BINARY} and {@code ASC} or {@code DESC}. For any other
+ * order by, changes other than deletes run the full query.
+ */
+/* package */ class IncrementalCursorLoader extends BasicCRUDCursorLoader {
+
+    private static final String TAG = "IncrementalCursorLoader";
+
+    /* package */ static final int MAX_CHANGED_ROWS = 100;
+
+    private final ContentObserver observer;
+    private final Set<Long> changedIds = new HashSet<>();
+    private boolean allChanged = false;
+    private boolean observerRegistered = false;
+    private CancellationSignal cancellationSignal;
+
+    // result state, only accessed on the loader thread
+    private String[] columnNames;
+    private List<Object[]> rows;
+    private int idIndex = -1;
+    private Comparator<Object[]> comparator;
+
+    /* package */ IncrementalCursorLoader(@NonNull Context context, @NonNull Uri uri, @Nullable String[] projection,
+                                         @Nullable String selection, @Nullable String[] selectionArgs,
+                                         @Nullable String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+        observer = new RowObserver(new Handler());
+    }
+
+    @Override
+    @Nullable
+    protected Cursor loadCursor() {
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            cancellationSignal = new CancellationSignal();
+        }
+
+        Set<Long> changed;
+        boolean all;
+        synchronized (changedIds) {
+            changed = new HashSet<>(changedIds);
+            all = allChanged || changedIds.size() > MAX_CHANGED_ROWS;
+            changedIds.clear();
+            allChanged = false;
+        }
+
+        try {
+            if ((rows == null || idIndex < 0 || all || !patch(changed)) && !loadAll()) {
+                // no result, such as when the provider failed to open its database, as the CursorLoader delivers
+                keepChanges(changed, all);
+                return null;
+            }
+            return new RowListCursor(columnNames, new ArrayList<>(rows));
+        }
+        catch (RuntimeException e) {
+            keepChanges(changed, all);
+            throw e;
+        }
+        finally {
+            synchronized (this) {
+                cancellationSignal = null;
+            }
+        }
+    }
+
+    /**
+     * The changes are still outstanding for the next load
+     */
+    private void keepChanges(@NonNull Set<Long> changed, boolean all) {
+        synchronized (changedIds) {
+            changedIds.addAll(changed);
+            allChanged |= all;
+        }
+    }
+
+    /**
+     * Run the full query
+     *
+     * @return false if the provider returned no result
+     */
+    private boolean loadAll() {
+        Cursor cursor = query(getSelection(), getSelectionArgs());
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            String[] names = cursor.getColumnNames();
+            List<Object[]> all = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                all.add(readRow(cursor));
+            }
+
+            columnNames = names;
+            rows = all;
+            idIndex = indexOf(names, BaseColumns._ID);
+            comparator = parseOrderBy(getSortOrder(), names);
+        }
+        finally {
+            cursor.close();
+        }
+
+        if (BasicCRUDLoader.DEBUG) {
+            Log.d(TAG, "loadAll: " + getUri() + " rows: " + rows.size());
+        }
+        return true;
+    }
+
+    /**
+     * Query the changed rows and patch them into the result
+     *
+     * @return false if the full query must be run instead
+     */
+    private boolean patch(@NonNull Set<Long> changed) {
+        if (changed.isEmpty()) {
+            return true;
+        }
+
+        boolean ordered = !TextUtils.isEmpty(getSortOrder());
+        Map<Long, Object[]> fetched = fetch(changed);
+        if (fetched == null) {
+            return false;
+        }
+        if (ordered && comparator == null && !fetched.isEmpty()) {
+            // cannot place updated or inserted rows without the sort order
+            return false;
+        }
+
+        List<Object[]> patched = new ArrayList<>(rows.size() + fetched.size());
+        boolean resort = false;
+        for (Object[] row : rows) {
+            Long id = rowId(row);
+            if (!changed.contains(id)) {
+                patched.add(row);
+                continue;
+            }
+
+            // rows not fetched were deleted or no longer match the selection
+            Object[] updated = fetched.remove(id);
+            if (updated != null) {
+                patched.add(updated);
+                resort |= comparator != null && comparator.compare(row, updated) != 0;
+            }
+        }
+
+        // what is left was inserted or now matches the selection
+        if (!fetched.isEmpty()) {
+            patched.addAll(fetched.values());
+            resort = comparator != null;
+        }
+        if (resort) {
+            Collections.sort(patched, comparator);
+        }
+        rows = patched;
+
+        if (BasicCRUDLoader.DEBUG) {
+            Log.d(TAG, "patch: " + getUri() + " changed: " + changed.size() + " resort: " + resort);
+        }
+        return true;
+    }
+
+    /**
+     * @return The current values of the rows still matching the selection, or null if the
+     * columns have changed or the provider returned no result
+     */
+    @Nullable
+    private Map<Long, Object[]> fetch(@NonNull Set<Long> ids) {
+        StringBuilder selection = new StringBuilder();
+        String userSelection = getSelection();
+        if (!TextUtils.isEmpty(userSelection)) {
+            selection.append('(').append(userSelection).append(") AND ");
+        }
+        selection.append(BaseColumns._ID).append(" IN (");
+
+        String[] userArgs = getSelectionArgs();
+        int offset = userArgs != null ? userArgs.length : 0;
+        String[] args = new String[offset + ids.size()];
+        if (userArgs != null) {
+            System.arraycopy(userArgs, 0, args, 0, offset);
+        }
+        int i = offset;
+        for (Long id : ids) {
+            selection.append(i > offset ? ",?" : "?");
+            args[i++] = String.valueOf(id);
+        }
+        selection.append(')');
+
+        Cursor cursor = query(selection.toString(), args);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!Arrays.equals(cursor.getColumnNames(), columnNames)) {
+                return null;
+            }
+
+            Map<Long, Object[]> fetched = new HashMap<>(cursor.getCount() * 2);
+            while (cursor.moveToNext()) {
+                Object[] row = readRow(cursor);
+                fetched.put(rowId(row), row);
+            }
+            return fetched;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    @NonNull
+    private Long rowId(@NonNull Object[] row) {
+        Object id = row[idIndex];
+        return id instanceof Long ? (Long) id : Long.valueOf(String.valueOf(id));
+    }
+
+    @Nullable
+    private Cursor query(@Nullable String selection, @Nullable String[] selectionArgs) {
+        return ContentResolverCompat.query(getContext().getContentResolver(), getUri(), getProjection(),
+                selection, selectionArgs, getSortOrder(), cancellationSignal);
+    }
+
+    @NonNull
+    private static Object[] readRow(@NonNull Cursor cursor) {
+        int count = cursor.getColumnCount();
+        Object[] row = new Object[count];
+        for (int i = 0; i < count; ++i) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = cursor.getString(i);
+                    break;
+            }
+        }
+        return row;
+    }
+
+    private static int indexOf(@NonNull String[] names, @NonNull String name) {
+        for (int i = 0; i < names.length; ++i) {
+            if (name.equalsIgnoreCase(names[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Build a comparator matching the order by, if it only refers to result columns
+     *
+     * @return The comparator or null if the order by is empty or not understood
+     */
+    @Nullable
+    /* package */ static Comparator<Object[]> parseOrderBy(@Nullable String sortOrder, @NonNull String[] names) {
+        if (TextUtils.isEmpty(sortOrder)) {
+            return null;
+        }
+
+        String[] terms = sortOrder.split(",");
+        final int[] columns = new int[terms.length];
+        final boolean[] descending = new boolean[terms.length];
+        final boolean[] noCase = new boolean[terms.length];
+        for (int t = 0; t < terms.length; ++t) {
+            String[] tokens = terms[t].trim().split("\\s+");
+            int column = indexOf(names, tokens[0].replace("\"", "").replace("`", ""));
+            if (column < 0) {
+                return null;
+            }
+            columns[t] = column;
+
+            int next = 1;
+            if (next < tokens.length && "COLLATE".equalsIgnoreCase(tokens[next])) {
+                if (next + 1 >= tokens.length) {
+                    return null;
+                }
+                String collation = tokens[next + 1].toUpperCase(Locale.US);
+                if ("NOCASE".equals(collation)) {
+                    noCase[t] = true;
+                }
+                else if (!"BINARY".equals(collation)) {
+                    return null;
+                }
+                next += 2;
+            }
+            if (next < tokens.length) {
+                String direction = tokens[next].toUpperCase(Locale.US);
+                if ("DESC".equals(direction)) {
+                    descending[t] = true;
+                }
+                else if (!"ASC".equals(direction)) {
+                    return null;
+                }
+                ++next;
+            }
+            if (next != tokens.length) {
+                return null;
+            }
+        }
+
+        return new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] lhs, Object[] rhs) {
+                for (int t = 0; t < columns.length; ++t) {
+                    int result = compareValues(lhs[columns[t]], rhs[columns[t]], noCase[t]);
+                    if (result != 0) {
+                        return descending[t] ? -result : result;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * Compare two values the way SQLite does: nulls first, then numbers, text and blobs
+     */
+    /* package */ static int compareValues(@Nullable Object lhs, @Nullable Object rhs, boolean noCase) {
+        int lhsClass = storageClass(lhs);
+        int rhsClass = storageClass(rhs);
+        if (lhsClass != rhsClass) {
+            return lhsClass < rhsClass ? -1 : 1;
+        }
+
+        switch (lhsClass) {
+            case 0:
+                return 0;
+            case 1:
+                if (lhs instanceof Long && rhs instanceof Long) {
+                    long l = (Long) lhs;
+                    long r = (Long) rhs;
+                    return l < r ? -1 : (l == r ? 0 : 1);
+                }
+                return Double.compare(((Number) lhs).doubleValue(), ((Number) rhs).doubleValue());
+            case 2:
+                return noCase ? compareNoCase((String) lhs, (String) rhs) : ((String) lhs).compareTo((String) rhs);
+            default:
+                byte[] l = (byte[]) lhs;
+                byte[] r = (byte[]) rhs;
+                int length = Math.min(l.length, r.length);
+                for (int i = 0; i < length; ++i) {
+                    int result = (l[i] & 0xff) - (r[i] & 0xff);
+                    if (result != 0) {
+                        return result;
+                    }
+                }
+                return l.length - r.length;
+        }
+    }
+
+    private static int storageClass(@Nullable Object value) {
+        if (value == null) return 0;
+        if (value instanceof Number) return 1;
+        if (value instanceof String) return 2;
+        return 3;
+    }
+
+    /**
+     * SQLite's NOCASE only folds ASCII letters
+     */
+    private static int compareNoCase(@NonNull String lhs, @NonNull String rhs) {
+        int length = Math.min(lhs.length(), rhs.length());
+        for (int i = 0; i < length; ++i) {
+            char l = lhs.charAt(i);
+            char r = rhs.charAt(i);
+            if (l >= 'A' && l <= 'Z') l += 'a' - 'A';
+            if (r >= 'A' && r <= 'Z') r += 'a' - 'A';
+            if (l != r) {
+                return l - r;
+            }
+        }
+        return lhs.length() - rhs.length();
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+
+        synchronized (this) {
+            if (cancellationSignal != null) {
+                cancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!observerRegistered) {
+            getContext().getContentResolver().registerContentObserver(getUri(), true, observer);
+            observerRegistered = true;
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        if (observerRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(observer);
+            observerRegistered = false;
+        }
+    }
+
+    /**
+     * Tracks which rows changed so only those rows are queried again
+     */
+    private final class RowObserver extends ContentObserver {
+
+        RowObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            // no uri available, run the full query
+            synchronized (changedIds) {
+                allChanged = true;
+            }
+            onContentChanged();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, @Nullable Uri uri) {
+            long id = uri != null ? parseRowId(uri) : -1;
+            synchronized (changedIds) {
+                if (id > 0) {
+                    changedIds.add(id);
+                }
+                else {
+                    allChanged = true;
+                }
+            }
+
+            if (BasicCRUDLoader.DEBUG) {
+                Log.d(TAG, "onChange: " + uri);
+            }
+            onContentChanged();
+        }
+
+        private long parseRowId(@NonNull Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() != 2) {
+                return -1;
+            }
+
+            try {
+                return Long.parseLong(segments.get(1));
+            }
+            catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Cursor over the rows held by the loader. The rows are never modified once delivered,
+     * a patch replaces the changed rows.
+     */
+    private static final class RowListCursor extends AbstractCursor {
+        private final String[] columnNames;
+        private final List<Object[]> rows;
+
+        RowListCursor(@NonNull String[] columnNames, @NonNull List<Object[]> rows) {
+            this.columnNames = columnNames;
+            this.rows = rows;
+        }
+
+        @Override
+        public int getCount() {
+            return rows.size();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return columnNames;
+        }
+
+        private Object get(int column) {
+            if (column < 0 || column >= columnNames.length) {
+                throw new IndexOutOfBoundsException("Requested column: " + column + ", # of columns: " +
+                        columnNames.length);
+            }
+            int position = getPosition();
+            if (position < 0 || position >= rows.size()) {
+                throw new IndexOutOfBoundsException("Requested position: " + position + ", # of rows: " + rows.size());
+            }
+            return rows.get(position)[column];
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = get(column);
+            return value != null ? value.toString() : null;
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).longValue();
+            return Long.parseLong(value.toString());
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = get(column);
+            if (value == null) return 0;
+            if (value instanceof Number) return ((Number) value).doubleValue();
+            return Double.parseDouble(value.toString());
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return (byte[]) get(column);
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = get(column);
+            if (value == null) return FIELD_TYPE_NULL;
+            if (value instanceof byte[]) return FIELD_TYPE_BLOB;
+            if (value instanceof Double) return FIELD_TYPE_FLOAT;
+            if (value instanceof Long) return FIELD_TYPE_INTEGER;
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return get(column) == null;
+        }
+    }
+}
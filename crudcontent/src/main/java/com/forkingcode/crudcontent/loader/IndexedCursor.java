@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cursor wrapper which maps column names to indexes with a hash map built once per cursor, rather
+ * than the linear scan of the column names done by {@link Cursor#getColumnIndex(String)}.
+ *
+ * <p>Values may also be read by a {@link Column} handle, typically held in a static field. The
+ * handle's index is resolved the first time it is used with a cursor and remembered after that, so
+ * reading by handle costs an array lookup:
+ *
+ * <pre>
+ * private static final IndexedCursor.Column NAME = IndexedCursor.column(CityContract.Columns.NAME);
+ *
+ * String name = IndexedCursor.wrap(cursor).getString(NAME);
+ * </pre>
+ */
+public class IndexedCursor extends CursorWrapper {
+
+    private static final AtomicInteger nextSlot = new AtomicInteger();
+    private static final int UNRESOLVED = -2;
+
+    private final Map<String, Integer> indexes;
+    private int[] resolved;
+
+    public IndexedCursor(@NonNull Cursor cursor) {
+        super(cursor);
+
+        String[] names = cursor.getColumnNames();
+        indexes = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; ++i) {
+            // the first column of a name wins, as with the linear scan
+            if (!indexes.containsKey(names[i])) {
+                indexes.put(names[i], i);
+            }
+        }
+        resolved = newResolved(Math.max(nextSlot.get(), 8));
+    }
+
+    /**
+     * Wrap the cursor unless it already is an IndexedCursor
+     *
+     * @param cursor The cursor to wrap
+     * @return The indexed cursor
+     */
+    @NonNull
+    public static IndexedCursor wrap(@NonNull Cursor cursor) {
+        return cursor instanceof IndexedCursor ? (IndexedCursor) cursor : new IndexedCursor(cursor);
+    }
+
+    /**
+     * Create a handle for the column. Handles are meant to be created once and reused for every cursor.
+     *
+     * @param name The column name
+     * @return The column handle
+     */
+    @NonNull
+    public static Column column(@NonNull String name) {
+        return new Column(name, nextSlot.getAndIncrement());
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        Integer index = indexes.get(columnName);
+        if (index == null) {
+            // match the base implementation which ignores a table qualifier
+            int period = columnName.lastIndexOf('.');
+            if (period != -1) {
+                index = indexes.get(columnName.substring(period + 1));
+            }
+        }
+        return index != null ? index : -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException {
+        int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    /**
+     * @param column The column handle
+     * @return The index of the column or -1 if the cursor does not contain it
+     */
+    public int indexOf(@NonNull Column column) {
+        if (column.slot >= resolved.length) {
+            int[] grown = newResolved(Math.max(column.slot + 1, resolved.length * 2));
+            System.arraycopy(resolved, 0, grown, 0, resolved.length);
+            resolved = grown;
+        }
+
+        int index = resolved[column.slot];
+        if (index == UNRESOLVED) {
+            index = getColumnIndex(column.name);
+            resolved[column.slot] = index;
+        }
+        return index;
+    }
+
+    @Nullable
+    public String getString(@NonNull Column column) {
+        return getString(indexOrThrow(column));
+    }
+
+    public long getLong(@NonNull Column column) {
+        return getLong(indexOrThrow(column));
+    }
+
+    public int getInt(@NonNull Column column) {
+        return getInt(indexOrThrow(column));
+    }
+
+    public short getShort(@NonNull Column column) {
+        return getShort(indexOrThrow(column));
+    }
+
+    public double getDouble(@NonNull Column column) {
+        return getDouble(indexOrThrow(column));
+    }
+
+    public float getFloat(@NonNull Column column) {
+        return getFloat(indexOrThrow(column));
+    }
+
+    @Nullable
+    public byte[] getBlob(@NonNull Column column) {
+        return getBlob(indexOrThrow(column));
+    }
+
+    public boolean isNull(@NonNull Column column) {
+        return isNull(indexOrThrow(column));
+    }
+
+    public int getType(@NonNull Column column) {
+        return getType(indexOrThrow(column));
+    }
+
+    private int indexOrThrow(@NonNull Column column) {
+        int index = indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + column.name + "' does not exist");
+        }
+        return index;
+    }
+
+    @NonNull
+    private static int[] newResolved(int size) {
+        int[] array = new int[size];
+        Arrays.fill(array, UNRESOLVED);
+        return array;
+    }
+
+    /**
+     * A handle for reading a column by name without looking up its index on every read
+     *
+     * @see IndexedCursor#column(String)
+     */
+    public static final class Column {
+        private final String name;
+        private final int slot;
+
+        private Column(@NonNull String name, int slot) {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        @NonNull
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,726 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.ContentResolver;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+import com.forkingcode.crudcontent.task.BasicCRUDExecutors;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * A cursor over the full result of a query that only holds a few fixed size pages of rows in memory.
+ * Pages are fetched on demand as the cursor is moved, using a keyset predicate on the key column when
+ * a neighbouring page is available, and an offset otherwise. Neighbouring pages are prefetched in the
+ * background and distant pages are evicted.
+ * <p>
+ * Moving the cursor never queries on the calling thread. A page which is not resident is fetched on the
+ * executor and the move waits at most {@link #PAGE_WAIT_MILLIS} for it; if it has not arrived by then the
+ * row reads as all nulls and registered {@link DataSetObserver}s are notified on the main thread once the
+ * page is available, so the row can be bound again.
+ */
+/* package */ class PagedCursor extends AbstractCursor {
+
+    private static final String TAG = "PagedCursor";
+
+    /* package */ static final int MAX_RESIDENT_PAGES = 5;
+    /* package */ static final long PAGE_WAIT_MILLIS = 200;
+
+    private final Source source;
+    private final int count;
+    private final Executor executor;
+    private final SparseArray<Page> pages = new SparseArray<>();
+    private final SparseBooleanArray fetching = new SparseBooleanArray();
+    private final DataSetObservable pageObservable = new DataSetObservable();
+    private volatile String[] columnNames;
+    private Object[] currentRow;
+    private boolean placeholderShown = false;
+    private volatile int currentPage = 0;
+    private volatile boolean closed = false;
+
+    /* package */ PagedCursor(@NonNull Source source, int count, @NonNull Executor executor) {
+        this.source = source;
+        this.count = count;
+        this.executor = executor;
+        this.columnNames = source.visibleColumns;
+    }
+
+    /**
+     * Reuse the pages of a prior cursor over the same result set, skipping any page containing
+     * one of the stale ids.
+     */
+    /* package */ void adoptPages(@NonNull PagedCursor previous, @NonNull Set<Long> staleIds) {
+        synchronized (previous.pages) {
+            for (int i = 0; i < previous.pages.size(); ++i) {
+                Page page = previous.pages.valueAt(i);
+                if (!page.containsAny(staleIds)) {
+                    putPage(page);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the keys of the given ids from the resident pages.
+     *
+     * @return the key of each id, or null when any id is not held in a resident page
+     */
+    @Nullable
+    /* package */ Map<Long, Object> getResidentKeys(@NonNull Set<Long> ids) {
+        Map<Long, Object> keys = new HashMap<>();
+        synchronized (pages) {
+            for (int i = 0; i < pages.size() && keys.size() < ids.size(); ++i) {
+                pages.valueAt(i).readKeys(ids, keys);
+            }
+        }
+        return keys.size() == ids.size() ? keys : null;
+    }
+
+    /**
+     * Load the page containing the position so it is available immediately once delivered.
+     */
+    /* package */ void preload(int position, @Nullable CancellationSignal cancellationSignal) {
+        int index = count > 0 ? Math.min(position, count - 1) / source.pageSize : 0;
+        currentPage = index;
+        synchronized (pages) {
+            if (pages.get(index) != null) {
+                return;
+            }
+        }
+
+        Page page = fetch(index, cancellationSignal);
+        if (page != null) {
+            if (columnNames == null) {
+                columnNames = page.columnNames;
+            }
+            putPage(page);
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        if (columnNames == null) {
+            // all columns requested, resolve via any page as they share the same columns
+            Page page = null;
+            synchronized (pages) {
+                if (pages.size() > 0) {
+                    page = pages.valueAt(0);
+                }
+            }
+            if (page == null) {
+                page = awaitPage(0);
+            }
+            if (page == null) {
+                return new String[0];
+            }
+            columnNames = page.columnNames;
+        }
+        return columnNames;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int index = newPosition / source.pageSize;
+        currentPage = index;
+        Page page = awaitPage(index);
+        int row = newPosition - index * source.pageSize;
+        if (page == null) {
+            // still loading, read as nulls until the page arrives
+            synchronized (pages) {
+                placeholderShown = true;
+            }
+            currentRow = new Object[getColumnCount()];
+        }
+        else if (row >= page.rows.length) {
+            // data changed underneath the cursor, a new cursor will be delivered
+            currentRow = null;
+            return false;
+        }
+        else {
+            currentRow = page.rows[row];
+        }
+
+        prefetch(index + 1);
+        prefetch(index - 1);
+        return true;
+    }
+
+    @Override
+    public int getType(int column) {
+        Object value = getValue(column);
+        if (value == null) return FIELD_TYPE_NULL;
+        if (value instanceof Long) return FIELD_TYPE_INTEGER;
+        if (value instanceof Double) return FIELD_TYPE_FLOAT;
+        if (value instanceof byte[]) return FIELD_TYPE_BLOB;
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public String getString(int column) {
+        Object value = getValue(column);
+        return value != null ? value.toString() : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        Object value = getValue(column);
+        if (value instanceof Number) return ((Number) value).longValue();
+        return value != null ? Long.parseLong(value.toString()) : 0L;
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        Object value = getValue(column);
+        if (value instanceof Number) return ((Number) value).doubleValue();
+        return value != null ? Double.parseDouble(value.toString()) : 0.0;
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        Object value = getValue(column);
+        return value instanceof byte[] ? (byte[]) value : null;
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getValue(column) == null;
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        pageObservable.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        pageObservable.unregisterObserver(observer);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        super.close();
+        synchronized (pages) {
+            pages.clear();
+        }
+    }
+
+    private Object getValue(int column) {
+        checkPosition();
+        if (currentRow == null) {
+            throw new IllegalStateException("Row not available at position " + getPosition());
+        }
+        return currentRow[column];
+    }
+
+    /**
+     * Return the page, waiting a bounded time for it to be fetched in the background when not resident.
+     */
+    @Nullable
+    private Page awaitPage(int index) {
+        synchronized (pages) {
+            Page page = pages.get(index);
+            if (page != null) return page;
+        }
+
+        prefetch(index);
+        long deadline = SystemClock.uptimeMillis() + PAGE_WAIT_MILLIS;
+        synchronized (pages) {
+            while (true) {
+                Page page = pages.get(index);
+                long remaining = deadline - SystemClock.uptimeMillis();
+                if (page != null || !fetching.get(index) || remaining <= 0) {
+                    return page;
+                }
+
+                try {
+                    pages.wait(remaining);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+        }
+    }
+
+    private void prefetch(final int index) {
+        if (index < 0 || index * source.pageSize >= count) return;
+
+        synchronized (pages) {
+            if (pages.get(index) != null || fetching.get(index)) return;
+            fetching.put(index, true);
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (closed || Math.abs(index - currentPage) > MAX_RESIDENT_PAGES / 2) return;
+                    Page page = fetch(index, null);
+                    if (page != null) {
+                        putPage(page);
+                    }
+                }
+                finally {
+                    synchronized (pages) {
+                        fetching.delete(index);
+                        pages.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    @Nullable
+    private Page fetch(int index, @Nullable CancellationSignal cancellationSignal) {
+        Page previous;
+        Page next;
+        synchronized (pages) {
+            previous = pages.get(index - 1);
+            next = pages.get(index + 1);
+        }
+        return source.fetch(index, previous, next, cancellationSignal);
+    }
+
+    private void putPage(@NonNull Page page) {
+        if (closed) return;
+
+        boolean notify;
+        synchronized (pages) {
+            pages.put(page.index, page);
+            pages.notifyAll();
+            notify = placeholderShown;
+            placeholderShown = false;
+
+            // evict the page furthest from the current position
+            int current = currentPage;
+            while (pages.size() > MAX_RESIDENT_PAGES) {
+                int furthest = 0;
+                for (int i = 1; i < pages.size(); ++i) {
+                    if (Math.abs(pages.keyAt(i) - current) > Math.abs(pages.keyAt(furthest) - current)) {
+                        furthest = i;
+                    }
+                }
+                pages.removeAt(furthest);
+            }
+        }
+
+        if (notify) {
+            // rows read as placeholders can now be bound again
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!closed) {
+                        pageObservable.notifyChanged();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Executor used to prefetch pages
+     */
+    @NonNull
+    /* package */ static Executor getDefaultExecutor() {
+        return BasicCRUDExecutors.getReadExecutor();
+    }
+
+    /**
+     * Builds the order by clause for the key column
+     */
+    @NonNull
+    /* package */ static String buildOrderBy(@NonNull String keyColumn, boolean descending) {
+        String direction = descending ? " DESC" : " ASC";
+        return keyColumn + direction + ", " + BaseColumns._ID + direction;
+    }
+
+    /**
+     * An immutable page of rows
+     */
+    /* package */ static final class Page {
+        final int index;
+        final String[] columnNames;
+        final Object[][] rows;
+        final long[] ids;
+        // Long, Double or String, as stored, so the keyset predicate compares them with their own type
+        final Object[] keys;
+        final Object firstKey;
+        final Object lastKey;
+
+        Page(int index, @NonNull String[] columnNames, @NonNull Object[][] rows, @NonNull long[] ids,
+             @NonNull Object[] keys) {
+            this.index = index;
+            this.columnNames = columnNames;
+            this.rows = rows;
+            this.ids = ids;
+            this.keys = keys;
+            this.firstKey = keys.length > 0 ? keys[0] : null;
+            this.lastKey = keys.length > 0 ? keys[keys.length - 1] : null;
+        }
+
+        void readKeys(@NonNull Set<Long> wanted, @NonNull Map<Long, Object> keys) {
+            for (int i = 0; i < ids.length; ++i) {
+                if (wanted.contains(ids[i])) {
+                    keys.put(ids[i], this.keys[i]);
+                }
+            }
+        }
+
+        boolean containsAny(@NonNull Set<Long> staleIds) {
+            if (staleIds.isEmpty()) return false;
+            for (long id : ids) {
+                if (staleIds.contains(id)) return true;
+            }
+            return false;
+        }
+
+        boolean isEmpty() {
+            return rows.length == 0;
+        }
+    }
+
+    /**
+     * Describes the query and fetches the pages
+     */
+    /* package */ static final class Source {
+        final ContentResolver resolver;
+        final Uri uri;
+        final String selection;
+        final String[] selectionArgs;
+        final String keyColumn;
+        final boolean descending;
+        final int pageSize;
+
+        // null when all columns are requested
+        final String[] visibleColumns;
+        final String[] projection;
+
+        /* package */ Source(@NonNull ContentResolver resolver, @NonNull Uri uri, @Nullable String[] projection,
+                             @Nullable String selection, @Nullable String[] selectionArgs,
+                             @NonNull String keyColumn, boolean descending, int pageSize) {
+            this.resolver = resolver;
+            this.uri = uri;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.keyColumn = keyColumn;
+            this.descending = descending;
+            this.pageSize = pageSize;
+            this.visibleColumns = projection;
+            this.projection = projection != null ? appendKeyColumns(projection, keyColumn) : null;
+        }
+
+        /* package */ int count(@Nullable CancellationSignal cancellationSignal) {
+            Cursor cursor = ContentResolverCompat.query(resolver, uri, new String[]{"count(*)"},
+                    selection, selectionArgs, null, cancellationSignal);
+            if (cursor == null) return 0;
+            try {
+                return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+            }
+            finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Fetch the page, using a keyset predicate if the prior or next page is available.
+         */
+        @Nullable
+        /* package */ Page fetch(int index, @Nullable Page previous, @Nullable Page next,
+                                 @Nullable CancellationSignal cancellationSignal) {
+            String where = selection;
+            String[] whereArgs = selectionArgs;
+            Uri pageUri;
+            boolean reverse = false;
+
+            if (previous != null && !previous.isEmpty() && previous.rows.length == pageSize) {
+                where = appendKeyset(false, previous.lastKey, previous.ids[previous.ids.length - 1]);
+                whereArgs = appendKeysetArgs(previous.lastKey, previous.ids[previous.ids.length - 1]);
+                pageUri = limit(Integer.toString(pageSize));
+            }
+            else if (next != null && !next.isEmpty()) {
+                reverse = true;
+                where = appendKeyset(true, next.firstKey, next.ids[0]);
+                whereArgs = appendKeysetArgs(next.firstKey, next.ids[0]);
+                pageUri = limit(Integer.toString(pageSize));
+            }
+            else {
+                pageUri = limit(((long) index * pageSize) + "," + pageSize);
+            }
+
+            Cursor cursor = ContentResolverCompat.query(resolver, pageUri, projection, where, whereArgs,
+                    buildOrderBy(keyColumn, descending ^ reverse), cancellationSignal);
+            if (cursor == null) {
+                return null;
+            }
+
+            try {
+                return readPage(index, cursor, reverse);
+            }
+            catch (RuntimeException e) {
+                if (BasicCRUDLoader.DEBUG) {
+                    Log.w(TAG, "Failed to read page " + index + " of " + uri, e);
+                }
+                return null;
+            }
+            finally {
+                cursor.close();
+            }
+        }
+
+        @NonNull
+        private Page readPage(int index, @NonNull Cursor cursor, boolean reverse) {
+            String[] names = cursor.getColumnNames();
+            int keyIndex = cursor.getColumnIndexOrThrow(keyColumn);
+            int idIndex = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+            int columns = visibleColumns != null ? visibleColumns.length : names.length;
+
+            int size = cursor.getCount();
+            Object[][] rows = new Object[size][];
+            long[] ids = new long[size];
+            Object[] keys = new Object[size];
+            int row = 0;
+            while (cursor.moveToNext() && row < size) {
+                int target = reverse ? size - 1 - row : row;
+                rows[target] = readRow(cursor, columns);
+                ids[target] = cursor.getLong(idIndex);
+                keys[target] = readKey(cursor, keyIndex);
+                ++row;
+            }
+
+            return new Page(index, visibleColumns != null ? visibleColumns : names, rows, ids, keys);
+        }
+
+        /**
+         * Read the key in the type it is stored with. Blob keys are not supported and read as text.
+         */
+        @Nullable
+        private static Object readKey(@NonNull Cursor cursor, int keyIndex) {
+            switch (cursor.getType(keyIndex)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    return null;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(keyIndex);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(keyIndex);
+                default:
+                    return cursor.getString(keyIndex);
+            }
+        }
+
+        /**
+         * Read the current key of each id which still matches the selection.
+         */
+        @NonNull
+        /* package */ Map<Long, Object> readKeys(@NonNull Set<Long> ids,
+                                                 @Nullable CancellationSignal cancellationSignal) {
+            Map<Long, Object> keys = new HashMap<>();
+            if (ids.isEmpty()) return keys;
+
+            StringBuilder in = new StringBuilder(BaseColumns._ID).append(" IN (");
+            String[] idArgs = new String[ids.size()];
+            int i = 0;
+            for (long id : ids) {
+                in.append(i > 0 ? ",?" : "?");
+                idArgs[i++] = Long.toString(id);
+            }
+            in.append(')');
+
+            String where = selection != null ? "(" + selection + ") AND " + in : in.toString();
+            String[] whereArgs = idArgs;
+            if (selectionArgs != null && selectionArgs.length > 0) {
+                whereArgs = Arrays.copyOf(selectionArgs, selectionArgs.length + idArgs.length);
+                System.arraycopy(idArgs, 0, whereArgs, selectionArgs.length, idArgs.length);
+            }
+
+            Cursor cursor = ContentResolverCompat.query(resolver, uri, new String[]{BaseColumns._ID, keyColumn},
+                    where, whereArgs, null, cancellationSignal);
+            if (cursor == null) return keys;
+            try {
+                while (cursor.moveToNext()) {
+                    keys.put(cursor.getLong(0), readKey(cursor, 1));
+                }
+            }
+            finally {
+                cursor.close();
+            }
+            return keys;
+        }
+
+        /**
+         * True when every id is present with the same key, so no row changed position
+         */
+        /* package */ static boolean sameKeys(@NonNull Map<Long, Object> previous, @NonNull Map<Long, Object> current) {
+            if (previous.size() != current.size()) return false;
+            for (Map.Entry<Long, Object> entry : previous.entrySet()) {
+                Object key = entry.getValue();
+                Object currentKey = current.get(entry.getKey());
+                if (!current.containsKey(entry.getKey())
+                        || (key == null ? currentKey != null : !key.equals(currentKey))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @NonNull
+        private Uri limit(@NonNull String limit) {
+            return uri.buildUpon()
+                    .appendQueryParameter(BasicCRUDProvider.LIMIT_PARAMETER, limit)
+                    .build();
+        }
+
+        @NonNull
+        private String appendKeyset(boolean reverse, @Nullable Object key, long id) {
+            // Rows after the given key in fetch order, using the id to break ties on the key.
+            // SQLite sorts nulls first, so they precede every key ascending and follow every key descending.
+            boolean ascending = !(descending ^ reverse);
+            String comparison = ascending ? " > " : " < ";
+            String keyset;
+            if (key != null) {
+                String arg = keyArgument(key);
+                keyset = "(" + keyColumn + comparison + arg + " OR (" + keyColumn + " = " + arg + " AND " +
+                        BaseColumns._ID + comparison + "?)" + (ascending ? "" : " OR " + keyColumn + " IS NULL") + ")";
+            }
+            else {
+                keyset = "((" + keyColumn + " IS NULL AND " + BaseColumns._ID + comparison + "?)" +
+                        (ascending ? " OR " + keyColumn + " IS NOT NULL" : "") + ")";
+            }
+            return selection != null ? "(" + selection + ") AND " + keyset : keyset;
+        }
+
+        /**
+         * Selection arguments are bound as text, so numeric keys are cast back to their own type. Otherwise
+         * a key column without numeric affinity would compare them as text with every stored number.
+         */
+        @NonNull
+        private static String keyArgument(@NonNull Object key) {
+            if (key instanceof Long) {
+                return "CAST(? AS INTEGER)";
+            }
+            if (key instanceof Double) {
+                return "CAST(? AS REAL)";
+            }
+            return "?";
+        }
+
+        @NonNull
+        private String[] appendKeysetArgs(@Nullable Object key, long id) {
+            // Double.toString keeps every digit needed to read back the same value, which the text
+            // read from the cursor window does not
+            String keyArg = key != null ? key.toString() : null;
+            String[] keyArgs = keyArg != null
+                    ? new String[]{keyArg, keyArg, Long.toString(id)}
+                    : new String[]{Long.toString(id)};
+            if (selectionArgs == null || selectionArgs.length == 0) {
+                return keyArgs;
+            }
+
+            String[] args = Arrays.copyOf(selectionArgs, selectionArgs.length + keyArgs.length);
+            System.arraycopy(keyArgs, 0, args, selectionArgs.length, keyArgs.length);
+            return args;
+        }
+
+        @NonNull
+        private static String[] appendKeyColumns(@NonNull String[] projection, @NonNull String keyColumn) {
+            boolean hasKey = false;
+            boolean hasId = false;
+            for (String column : projection) {
+                hasKey |= keyColumn.equals(column);
+                hasId |= BaseColumns._ID.equals(column);
+            }
+
+            String[] result = Arrays.copyOf(projection, projection.length + (hasKey ? 0 : 1) + (hasId ? 0 : 1));
+            int position = projection.length;
+            if (!hasKey) result[position++] = keyColumn;
+            if (!hasId) result[position] = BaseColumns._ID;
+            return result;
+        }
+    }
+
+    /**
+     * Read the values of the current row, preserving the type of each value
+     */
+    @NonNull
+    /* package */ static Object[] readRow(@NonNull Cursor cursor, int columns) {
+        Object[] row = new Object[columns];
+        for (int i = 0; i < columns; ++i) {
+            switch (cursor.getType(i)) {
+                case FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case FIELD_TYPE_STRING:
+                    row[i] = cursor.getString(i);
+                    break;
+                case FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = null;
+                    break;
+            }
+        }
+        return row;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.util.Log;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cursor loader which delivers a {@link PagedCursor}, loading fixed size pages of the result on demand
+ * rather than filling a cursor window with the entire result. When individual rows change only the pages
+ * holding those rows are reloaded, other resident pages are carried over to the new cursor. Pages are only
+ * carried over when the row count is unchanged and every changed row is still present with the same key,
+ * proving no row moved; otherwise, or after any change notified on the table uri, all pages are reloaded.
+ */
+/* package */ class PagingCursorLoader extends BasicCRUDCursorLoader {
+
+    private static final String TAG = "PagingCursorLoader";
+
+    // bound on the changed ids checked for a moved key, more than this reloads all pages
+    private static final int MAX_CHECKED_IDS = 500;
+
+    private final PagedCursor.Source source;
+    private final ContentObserver observer;
+    private final Set<Long> staleIds = new HashSet<>();
+    private boolean allStale = false;
+    private boolean observerRegistered = false;
+    private volatile PagedCursor delivered;
+    private CancellationSignal cancellationSignal;
+
+    /* package */ PagingCursorLoader(@NonNull Context context, @NonNull Uri uri, @Nullable String[] projection,
+                                     @Nullable String selection, @Nullable String[] selectionArgs,
+                                     @NonNull String keyColumn, boolean descending, int pageSize) {
+        super(context, uri, projection, selection, selectionArgs, PagedCursor.buildOrderBy(keyColumn, descending));
+        source = new PagedCursor.Source(context.getContentResolver(), uri, projection, selection, selectionArgs,
+                keyColumn, descending, pageSize);
+        observer = new PageObserver(new Handler());
+    }
+
+    @Override
+    protected Cursor loadCursor() {
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            cancellationSignal = new CancellationSignal();
+        }
+
+        try {
+            Set<Long> stale;
+            boolean all;
+            synchronized (staleIds) {
+                stale = new HashSet<>(staleIds);
+                all = allStale;
+                staleIds.clear();
+                allStale = false;
+            }
+
+            PagedCursor previous = delivered;
+            int count = source.count(cancellationSignal);
+            PagedCursor cursor = new PagedCursor(source, count, PagedCursor.getDefaultExecutor());
+
+            if (previous != null && !all && previous.getCount() == count && isOrderUnchanged(previous, stale)) {
+                cursor.adoptPages(previous, stale);
+            }
+
+            try {
+                cursor.preload(previous != null ? Math.max(previous.getPosition(), 0) : 0, cancellationSignal);
+            }
+            catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+            return cursor;
+        }
+        finally {
+            synchronized (this) {
+                cancellationSignal = null;
+            }
+        }
+    }
+
+    /**
+     * The positions of all rows are unchanged when each changed row is still in the result with the
+     * key it had in the previous cursor. Changed rows which are no longer resident can't be compared.
+     */
+    private boolean isOrderUnchanged(@NonNull PagedCursor previous, @NonNull Set<Long> stale) {
+        if (stale.size() > MAX_CHECKED_IDS) {
+            return false;
+        }
+
+        Map<Long, Object> previousKeys = previous.getResidentKeys(stale);
+        if (previousKeys == null) {
+            return false;
+        }
+
+        boolean unchanged = PagedCursor.Source.sameKeys(previousKeys, source.readKeys(stale, cancellationSignal));
+        if (BasicCRUDLoader.DEBUG && !unchanged) {
+            Log.d(TAG, "Changed rows moved, reloading all pages");
+        }
+        return unchanged;
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+
+        synchronized (this) {
+            if (cancellationSignal != null) {
+                cancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        Cursor paged = cursor instanceof CursorWrapper ? ((CursorWrapper) cursor).getWrappedCursor() : cursor;
+        if (!isReset() && paged instanceof PagedCursor) {
+            delivered = (PagedCursor) paged;
+        }
+        super.deliverResult(cursor);
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!observerRegistered) {
+            getContext().getContentResolver().registerContentObserver(getUri(), true, observer);
+            observerRegistered = true;
+        }
+        super.onStartLoading();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        if (observerRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(observer);
+            observerRegistered = false;
+        }
+        delivered = null;
+    }
+
+    /**
+     * Tracks which rows changed so only their pages are reloaded
+     */
+    private final class PageObserver extends ContentObserver {
+
+        PageObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            // no uri available, reload all pages
+            synchronized (staleIds) {
+                allStale = true;
+            }
+            onContentChanged();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, @Nullable Uri uri) {
+            long id = uri != null ? parseRowId(uri) : -1;
+            synchronized (staleIds) {
+                if (id > 0) {
+                    staleIds.add(id);
+                }
+                else {
+                    allStale = true;
+                }
+            }
+
+            if (BasicCRUDLoader.DEBUG) {
+                Log.d(TAG, "onChange: " + uri);
+            }
+            onContentChanged();
+        }
+
+        private long parseRowId(@NonNull Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() != 2) {
+                return -1;
+            }
+
+            try {
+                return Long.parseLong(segments.get(1));
+            }
+            catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+    }
+}
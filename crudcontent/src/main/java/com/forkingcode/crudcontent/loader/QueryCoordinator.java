@@ -0,0 +1,405 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.AbstractWindowedCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares the result of identical queries between loaders. The first loader to ask for a query runs it
+ * and copies the result into a single cursor window; concurrent and later loaders asking for the same
+ * query wait for that load and receive their own cursor over the same window. A change to the data
+ * invalidates the shared result once and then notifies every cursor over it, so the query is run once
+ * per change rather than once per loader.
+ *
+ * <p>The shared result is released when the last cursor over it is closed. Results that do not fit in
+ * a single cursor window are not shared.
+ */
+/* package */ final class QueryCoordinator {
+
+    private static final String TAG = "QueryCoordinator";
+    // how often a loader waiting on another's load checks whether it was cancelled
+    private static final long CANCEL_CHECK_MILLIS = 50;
+
+    private static QueryCoordinator instance;
+
+    private final ContentResolver resolver;
+    private final Map<QueryKey, Entry> entries = new HashMap<>();
+
+    private QueryCoordinator(@NonNull Context context) {
+        resolver = context.getApplicationContext().getContentResolver();
+    }
+
+    @NonNull
+    /* package */ static synchronized QueryCoordinator getInstance(@NonNull Context context) {
+        if (instance == null) {
+            instance = new QueryCoordinator(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Return a cursor over the current shared result of the query, running the query if no current
+     * result exists and no other loader is already running it.
+     */
+    @Nullable
+    /* package */ Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                               @Nullable String[] selectionArgs, @Nullable String sortOrder,
+                               @Nullable CancellationSignal cancellationSignal) {
+        QueryKey key = new QueryKey(uri, projection, selection, selectionArgs, sortOrder);
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key);
+                entries.put(key, entry);
+                resolver.registerContentObserver(uri, true, entry.observer);
+            }
+            // hold the entry open while loading
+            ++entry.references;
+        }
+
+        try {
+            return entry.acquireCursor(cancellationSignal);
+        }
+        finally {
+            release(entry);
+        }
+    }
+
+    private void release(@NonNull Entry entry) {
+        synchronized (entries) {
+            if (--entry.references > 0) {
+                return;
+            }
+            entries.remove(entry.key);
+            resolver.unregisterContentObserver(entry.observer);
+        }
+        entry.clear();
+    }
+
+    /**
+     * The shared result of one query
+     */
+    private final class Entry {
+        final QueryKey key;
+        final ContentObserver observer;
+        // guarded by entries
+        int references = 0;
+
+        // guarded by this
+        private CursorWindow window;
+        private String[] columnNames;
+        private int count;
+        private int generation = 0;
+        private int loadedGeneration = -1;
+        private boolean loading = false;
+        private final List<SharedCursor> cursors = new ArrayList<>();
+
+        Entry(@NonNull QueryKey key) {
+            this.key = key;
+            this.observer = new ContentObserver(null) {
+                @Override
+                public boolean deliverSelfNotifications() {
+                    return true;
+                }
+
+                @Override
+                public void onChange(boolean selfChange) {
+                    invalidate();
+                }
+            };
+        }
+
+        @Nullable
+        Cursor acquireCursor(@Nullable CancellationSignal cancellationSignal) {
+            int loadGeneration;
+            synchronized (this) {
+                while (loading) {
+                    if (cancellationSignal != null) {
+                        cancellationSignal.throwIfCanceled();
+                    }
+                    try {
+                        wait(CANCEL_CHECK_MILLIS);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return null;
+                    }
+                }
+
+                if (window != null && loadedGeneration == generation) {
+                    if (BasicCRUDLoader.DEBUG) {
+                        Log.d(TAG, "shared result: " + key.uri);
+                    }
+                    return newCursor(loadedGeneration);
+                }
+                loading = true;
+                loadGeneration = generation;
+            }
+
+            Cursor cursor = null;
+            CursorWindow loaded = null;
+            try {
+                cursor = ContentResolverCompat.query(resolver, key.uri, key.projection, key.selection,
+                        key.selectionArgs, key.sortOrder, cancellationSignal);
+                if (cursor == null) {
+                    return null;
+                }
+
+                loaded = fill(cursor);
+                if (loaded == null) {
+                    // too large to share, hand the cursor to the caller as is
+                    cursor.moveToPosition(-1);
+                    Cursor result = cursor;
+                    cursor = null;
+                    return result;
+                }
+
+                synchronized (this) {
+                    if (window != null) {
+                        window.close();
+                    }
+                    window = loaded;
+                    loaded = null;
+                    columnNames = cursor.getColumnNames();
+                    count = window.getNumRows();
+                    loadedGeneration = loadGeneration;
+                    // a change during the load leaves the result stale, its cursor reports the change once observed
+                    return newCursor(loadGeneration);
+                }
+            }
+            finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                if (loaded != null) {
+                    loaded.close();
+                }
+                synchronized (this) {
+                    loading = false;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Copy the full result into a new window
+         *
+         * @return The window or null if the result does not fit
+         */
+        @Nullable
+        private CursorWindow fill(@NonNull Cursor cursor) {
+            CursorWindow target = new CursorWindow(key.uri.toString());
+            int columns = cursor.getColumnCount();
+            if (!target.setNumColumns(columns)) {
+                target.close();
+                return null;
+            }
+
+            int row = 0;
+            while (cursor.moveToNext()) {
+                if (!target.allocRow() || !copyRow(cursor, target, row++, columns)) {
+                    target.close();
+                    return null;
+                }
+            }
+            return target;
+        }
+
+        private boolean copyRow(@NonNull Cursor cursor, @NonNull CursorWindow target, int row, int columns) {
+            for (int i = 0; i < columns; ++i) {
+                boolean stored;
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        stored = target.putLong(cursor.getLong(i), row, i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        stored = target.putDouble(cursor.getDouble(i), row, i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        stored = target.putString(cursor.getString(i), row, i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        stored = target.putBlob(cursor.getBlob(i), row, i);
+                        break;
+                    default:
+                        stored = target.putNull(row, i);
+                        break;
+                }
+                if (!stored) return false;
+            }
+            return true;
+        }
+
+        private Cursor newCursor(int resultGeneration) {
+            SharedCursor cursor = new SharedCursor(this, window, columnNames, count, resultGeneration);
+            cursors.add(cursor);
+            synchronized (entries) {
+                ++references;
+            }
+            return cursor;
+        }
+
+        void invalidate() {
+            List<SharedCursor> notify;
+            synchronized (this) {
+                ++generation;
+                notify = new ArrayList<>(cursors);
+            }
+
+            // the generation moves first so reloads triggered here never reuse the stale result
+            for (SharedCursor cursor : notify) {
+                cursor.dispatchChange();
+            }
+        }
+
+        /**
+         * @return True if the data changed since the result of the given generation was loaded
+         */
+        synchronized boolean isStale(int resultGeneration) {
+            return resultGeneration != generation;
+        }
+
+        void onCursorClosed(@NonNull SharedCursor cursor) {
+            synchronized (this) {
+                if (!cursors.remove(cursor)) {
+                    return;
+                }
+            }
+            release(this);
+        }
+
+        synchronized void clear() {
+            if (window != null) {
+                window.close();
+                window = null;
+            }
+        }
+    }
+
+    /**
+     * A cursor over the shared window. Each cursor holds its own reference to the window. A change
+     * notified before an observer is registered, such as one arriving while the result was loading,
+     * is reported to the observer as it registers.
+     */
+    private static final class SharedCursor extends AbstractWindowedCursor {
+        private final Entry entry;
+        private final String[] columnNames;
+        private final int count;
+        private final int generation;
+
+        SharedCursor(@NonNull Entry entry, @NonNull CursorWindow window, @NonNull String[] columnNames, int count,
+                     int generation) {
+            this.entry = entry;
+            this.columnNames = columnNames;
+            this.count = count;
+            this.generation = generation;
+            window.acquireReference();
+            setWindow(window);
+        }
+
+        @Override
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return columnNames;
+        }
+
+        void dispatchChange() {
+            onChange(false);
+        }
+
+        @Override
+        public void registerContentObserver(ContentObserver observer) {
+            super.registerContentObserver(observer);
+            if (entry.isStale(generation)) {
+                observer.dispatchChange(false);
+            }
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            entry.onCursorClosed(this);
+        }
+    }
+
+    /**
+     * Identifies identical queries
+     */
+    private static final class QueryKey {
+        final Uri uri;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+        private final int hash;
+
+        QueryKey(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                 @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+            this.uri = uri;
+            this.projection = projection;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.sortOrder = sortOrder;
+            this.hash = Arrays.hashCode(new Object[]{uri, Arrays.hashCode(projection), selection,
+                    Arrays.hashCode(selectionArgs), sortOrder});
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof QueryKey)) return false;
+
+            QueryKey other = (QueryKey) o;
+            return uri.equals(other.uri) &&
+                    Arrays.equals(projection, other.projection) &&
+                    equal(selection, other.selection) &&
+                    Arrays.equals(selectionArgs, other.selectionArgs) &&
+                    equal(sortOrder, other.sortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        private static boolean equal(@Nullable String a, @Nullable String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+
+import java.util.Arrays;
+
+/**
+ * An immutable description of a loader query. The final uri, including the row id and the distinct and
+ * limit parameters, and the loader arguments are computed once when the spec is built, so a spec can be
+ * kept and passed to {@link BasicCRUDLoader#restartLoader(android.support.v4.app.LoaderManager, int, QuerySpec)}
+ * repeatedly without rebuilding it. Specs with the same query and options are equal and have the
+ * same hash code.
+ *
+ * <pre>
+ * QuerySpec spec = new QuerySpec.Builder(CityContract.URI)
+ *         .selectColumns(PROJECTION)
+ *         .orderBy(CityContract.Columns.NAME)
+ *         .build();
+ * </pre>
+ */
+public final class QuerySpec {
+
+    private final Uri uri;
+    private final String[] projection;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final String sortOrder;
+    private final Bundle args;
+    private final int hash;
+
+    private QuerySpec(@NonNull Builder builder, @NonNull Uri uri) {
+        this.uri = uri;
+        // copy the arrays so later changes by the caller do not leak into the spec
+        this.projection = builder.projection != null ? builder.projection.clone() : null;
+        this.selection = builder.selection;
+        this.selectionArgs = builder.selectionArgs != null ? builder.selectionArgs.clone() : null;
+        this.sortOrder = builder.sortOrder;
+
+        args = new Bundle();
+        args.putParcelable(BasicCRUDLoader.ARG_URI, uri);
+        args.putStringArray(BasicCRUDLoader.ARG_PROJECTION, projection);
+        args.putString(BasicCRUDLoader.ARG_SELECTION, selection);
+        args.putStringArray(BasicCRUDLoader.ARG_SELECTION_ARGS, selectionArgs);
+        args.putString(BasicCRUDLoader.ARG_SORT_ORDER, sortOrder);
+        if (builder.pageSize > 0) {
+            args.putInt(BasicCRUDLoader.ARG_PAGE_SIZE, builder.pageSize);
+            args.putString(BasicCRUDLoader.ARG_PAGE_KEY, builder.pageKey);
+            args.putBoolean(BasicCRUDLoader.ARG_PAGE_DESCENDING, builder.pageDescending);
+        }
+        args.putBoolean(BasicCRUDLoader.ARG_DIFF, builder.diff);
+        args.putBoolean(BasicCRUDLoader.ARG_SHARED, builder.shared);
+        args.putString(BasicCRUDLoader.ARG_SNAPSHOT, builder.snapshot);
+        args.putBoolean(BasicCRUDLoader.ARG_INDEXED, builder.indexed);
+        args.putBoolean(BasicCRUDLoader.ARG_COLUMNAR, builder.columnar);
+        args.putBoolean(BasicCRUDLoader.ARG_INCREMENTAL, builder.incremental);
+        args.putLong(BasicCRUDLoader.ARG_THROTTLE, builder.throttle);
+        args.putBoolean(BasicCRUDLoader.ARG_ADAPTIVE_THROTTLE, builder.adaptiveThrottle);
+
+        hash = Arrays.hashCode(new Object[]{uri, Arrays.hashCode(projection), selection,
+                Arrays.hashCode(selectionArgs), sortOrder, builder.pageSize, builder.pageKey,
+                builder.pageDescending, builder.diff, builder.shared, builder.snapshot, builder.indexed,
+                builder.columnar, builder.incremental, builder.throttle, builder.adaptiveThrottle});
+    }
+
+    /**
+     * @return The uri queried, including the row id and query parameters
+     */
+    @NonNull
+    public Uri getUri() {
+        return uri;
+    }
+
+    @Nullable
+    public String[] getProjection() {
+        return projection != null ? projection.clone() : null;
+    }
+
+    @Nullable
+    public String getSelection() {
+        return selection;
+    }
+
+    @Nullable
+    public String[] getSelectionArgs() {
+        return selectionArgs != null ? selectionArgs.clone() : null;
+    }
+
+    @Nullable
+    public String getSortOrder() {
+        return sortOrder;
+    }
+
+    /* package */ boolean isPaged() {
+        return args.getInt(BasicCRUDLoader.ARG_PAGE_SIZE) > 0;
+    }
+
+    /* package */ boolean isDiff() {
+        return args.getBoolean(BasicCRUDLoader.ARG_DIFF);
+    }
+
+    /**
+     * The loader arguments. Shared by every loader started with this spec and must not be modified.
+     */
+    @NonNull
+    /* package */ Bundle getArgs() {
+        return args;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof QuerySpec)) return false;
+
+        QuerySpec other = (QuerySpec) o;
+        if (hash != other.hash || !uri.equals(other.uri) ||
+                !Arrays.equals(projection, other.projection) ||
+                !TextUtils.equals(selection, other.selection) ||
+                !Arrays.equals(selectionArgs, other.selectionArgs) ||
+                !TextUtils.equals(sortOrder, other.sortOrder)) {
+            return false;
+        }
+
+        Bundle otherArgs = other.args;
+        return args.getInt(BasicCRUDLoader.ARG_PAGE_SIZE) == otherArgs.getInt(BasicCRUDLoader.ARG_PAGE_SIZE) &&
+                TextUtils.equals(args.getString(BasicCRUDLoader.ARG_PAGE_KEY),
+                        otherArgs.getString(BasicCRUDLoader.ARG_PAGE_KEY)) &&
+                args.getBoolean(BasicCRUDLoader.ARG_PAGE_DESCENDING) ==
+                        otherArgs.getBoolean(BasicCRUDLoader.ARG_PAGE_DESCENDING) &&
+                args.getBoolean(BasicCRUDLoader.ARG_DIFF) == otherArgs.getBoolean(BasicCRUDLoader.ARG_DIFF) &&
+                args.getBoolean(BasicCRUDLoader.ARG_SHARED) == otherArgs.getBoolean(BasicCRUDLoader.ARG_SHARED) &&
+                TextUtils.equals(args.getString(BasicCRUDLoader.ARG_SNAPSHOT),
+                        otherArgs.getString(BasicCRUDLoader.ARG_SNAPSHOT)) &&
+                args.getBoolean(BasicCRUDLoader.ARG_INDEXED) == otherArgs.getBoolean(BasicCRUDLoader.ARG_INDEXED) &&
+                args.getBoolean(BasicCRUDLoader.ARG_COLUMNAR) == otherArgs.getBoolean(BasicCRUDLoader.ARG_COLUMNAR) &&
+                args.getBoolean(BasicCRUDLoader.ARG_INCREMENTAL) ==
+                        otherArgs.getBoolean(BasicCRUDLoader.ARG_INCREMENTAL) &&
+                args.getLong(BasicCRUDLoader.ARG_THROTTLE) == otherArgs.getLong(BasicCRUDLoader.ARG_THROTTLE) &&
+                args.getBoolean(BasicCRUDLoader.ARG_ADAPTIVE_THROTTLE) ==
+                        otherArgs.getBoolean(BasicCRUDLoader.ARG_ADAPTIVE_THROTTLE);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "QuerySpec{uri=" + uri +
+                ", projection=" + Arrays.toString(projection) +
+                ", selection=" + selection +
+                ", selectionArgs=" + Arrays.toString(selectionArgs) +
+                ", sortOrder=" + sortOrder + "}";
+    }
+
+    /**
+     * Builds a QuerySpec. The options match those of {@link BasicCRUDLoader.RequestBuilder},
+     * which builds its query through this class.
+     */
+    public static class Builder {
+        private Uri uri;
+        private String[] projection;
+        private boolean distinct = false;
+        private long rowId = -1;
+        private String selection;
+        private String[] selectionArgs;
+        private String sortOrder;
+        private String limit;
+        private int pageSize = 0;
+        private String pageKey;
+        private boolean pageDescending = false;
+        private boolean diff = false;
+        private boolean shared = false;
+        private String snapshot;
+        private boolean indexed = false;
+        private boolean columnar = false;
+        private boolean incremental = false;
+        private long throttle = 0;
+        private boolean adaptiveThrottle = false;
+
+        public Builder() {
+        }
+
+        public Builder(@NonNull Uri uri) {
+            this.uri = uri;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#forUri(Uri)
+         */
+        @NonNull
+        public Builder forUri(@NonNull Uri uri) {
+            this.uri = uri;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#selectColumns(String...)
+         */
+        @NonNull
+        public Builder selectColumns(@NonNull String... projection) {
+            this.projection = projection;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#distinct()
+         */
+        @NonNull
+        public Builder distinct() {
+            this.distinct = true;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#whereMatchesId(long)
+         */
+        @NonNull
+        public Builder whereMatchesId(long rowId) {
+            if (rowId > 0 && !TextUtils.isEmpty(selection)) {
+                throw new IllegalStateException("Do not provide both a row id and a selection");
+            }
+            this.rowId = rowId;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#whereMatchesSelection(String, String...)
+         */
+        @NonNull
+        public Builder whereMatchesSelection(@NonNull String selection, @Nullable String... selectionArgs) {
+            if (rowId > 0) {
+                throw new IllegalStateException("Do not provide both a row id and a selection");
+            }
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#orderBy(String)
+         */
+        @NonNull
+        public Builder orderBy(@Nullable String orderBy) {
+            this.sortOrder = orderBy;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#limit(String)
+         */
+        @NonNull
+        public Builder limit(@Nullable String limit) {
+            this.limit = TextUtils.isEmpty(limit) ? null : limit;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#pageBy(int, String, boolean)
+         */
+        @NonNull
+        public Builder pageBy(int pageSize, @NonNull String keyColumn, boolean descending) {
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("Page size must be positive");
+            }
+            this.pageSize = pageSize;
+            this.pageKey = keyColumn;
+            this.pageDescending = descending;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#deliverDiffs()
+         */
+        @NonNull
+        public Builder deliverDiffs() {
+            this.diff = true;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#shareQuery()
+         */
+        @NonNull
+        public Builder shareQuery() {
+            this.shared = true;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#cacheSnapshot(String)
+         */
+        @NonNull
+        public Builder cacheSnapshot(@NonNull String name) {
+            this.snapshot = name;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#indexColumns()
+         */
+        @NonNull
+        public Builder indexColumns() {
+            this.indexed = true;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#loadColumnar()
+         */
+        @NonNull
+        public Builder loadColumnar() {
+            this.columnar = true;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#reloadChangedRows()
+         */
+        @NonNull
+        public Builder reloadChangedRows() {
+            this.incremental = true;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#updateThrottle(long)
+         */
+        @NonNull
+        public Builder updateThrottle(long throttleMillis) {
+            if (throttleMillis < 0) {
+                throw new IllegalArgumentException("Throttle must not be negative");
+            }
+            this.throttle = throttleMillis;
+            this.adaptiveThrottle = false;
+            return this;
+        }
+
+        /**
+         * @see BasicCRUDLoader.RequestBuilder#adaptiveUpdateThrottle(long)
+         */
+        @NonNull
+        public Builder adaptiveUpdateThrottle(long maxThrottleMillis) {
+            if (maxThrottleMillis < 0) {
+                throw new IllegalArgumentException("Throttle must not be negative");
+            }
+            this.throttle = maxThrottleMillis;
+            this.adaptiveThrottle = true;
+            return this;
+        }
+
+        /**
+         * Validate the options and build the spec
+         *
+         * @return The immutable spec
+         * @throws IllegalStateException If the Uri is not provided or the options conflict
+         */
+        @NonNull
+        public QuerySpec build() {
+            if (pageSize > 0) {
+                if (distinct || limit != null) {
+                    throw new IllegalStateException("Paging cannot be combined with distinct or limit");
+                }
+                if (!TextUtils.isEmpty(sortOrder)) {
+                    throw new IllegalStateException("Do not provide both an order by and paging");
+                }
+                if (shared) {
+                    throw new IllegalStateException("Shared queries cannot be combined with paging");
+                }
+                if (snapshot != null) {
+                    throw new IllegalStateException("Snapshots cannot be combined with paging");
+                }
+                if (columnar) {
+                    throw new IllegalStateException("Columnar results cannot be combined with paging");
+                }
+                if (diff) {
+                    throw new IllegalStateException("Diffs cannot be combined with paging");
+                }
+            }
+
+            if (incremental) {
+                if (pageSize > 0 || distinct || limit != null) {
+                    throw new IllegalStateException("Reloading changed rows cannot be combined with paging, " +
+                            "distinct or limit");
+                }
+                if (shared || snapshot != null || columnar || diff) {
+                    throw new IllegalStateException("Reloading changed rows cannot be combined with shared " +
+                            "queries, snapshots, columnar results or diffs");
+                }
+            }
+
+            return new QuerySpec(this, finalizeUri());
+        }
+
+        /**
+         * Helper to append the rowId to the URI and add the distinct and limit query parameters
+         * to the query if provided.
+         *
+         * @throws IllegalStateException If the Uri is not provided or is null.
+         */
+        @NonNull
+        private Uri finalizeUri() {
+            if (uri == null) {
+                throw new IllegalStateException("Uri not provided");
+            }
+
+            Uri result = uri;
+            if (rowId > 0) {
+                result = ContentUris.withAppendedId(result, rowId);
+            }
+
+            if (distinct || limit != null) {
+                Uri.Builder uriBuilder = result.buildUpon();
+                // clear any current query. If using builder, shouldn't have parameters already
+                uriBuilder.clearQuery();
+
+                if (distinct) {
+                    uriBuilder.appendQueryParameter(BasicCRUDProvider.DISTINCT_PARAMETER, Boolean.TRUE.toString());
+                }
+                if (limit != null) {
+                    uriBuilder.appendQueryParameter(BasicCRUDProvider.LIMIT_PARAMETER, limit);
+                }
+
+                result = uriBuilder.build();
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.loader;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Persists the last result of a loader to the cache directory so it can be shown immediately
+ * after a process restart while the query runs again. The snapshot records the query it was taken
+ * from and is ignored if the query has since changed.
+ */
+/* package */ final class ResultSnapshot {
+
+    private static final String TAG = "ResultSnapshot";
+
+    private static final String DIRECTORY = "crudcontent_snapshots";
+    private static final int MAGIC = 0x43524453;
+    private static final int VERSION = 1;
+
+    /* package */ static final int MAX_ROWS = 1000;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_FLOAT = 2;
+    private static final byte TYPE_STRING = 3;
+    private static final byte TYPE_BLOB = 4;
+
+    private final File file;
+    private final String signature;
+
+    /* package */ ResultSnapshot(@NonNull Context context, @NonNull String name, @NonNull Uri uri,
+                                 @Nullable String[] projection, @Nullable String selection,
+                                 @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        File directory = new File(context.getCacheDir(), DIRECTORY);
+        this.file = new File(directory, name.replaceAll("[^A-Za-z0-9._-]", "_") + ".snapshot");
+        this.signature = uri + "|" + Arrays.toString(projection) + "|" + selection + "|" +
+                Arrays.toString(selectionArgs) + "|" + sortOrder;
+    }
+
+    /**
+     * Read the snapshot
+     *
+     * @return A cursor over the snapshot or null if there is no usable snapshot
+     */
+    @Nullable
+    /* package */ Cursor read() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !signature.equals(in.readUTF())) {
+                return null;
+            }
+
+            String[] columns = new String[in.readInt()];
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i] = in.readUTF();
+            }
+
+            int count = in.readInt();
+            SnapshotCursor cursor = new SnapshotCursor(columns, count);
+            Object[] row = new Object[columns.length];
+            for (int r = 0; r < count; ++r) {
+                for (int i = 0; i < columns.length; ++i) {
+                    row[i] = readValue(in);
+                }
+                cursor.addRow(row);
+            }
+            return cursor;
+        }
+        catch (FileNotFoundException e) {
+            return null;
+        }
+        catch (IOException | RuntimeException e) {
+            if (BasicCRUDLoader.DEBUG) {
+                Log.w(TAG, "Discarding unreadable snapshot " + file, e);
+            }
+            delete();
+            return null;
+        }
+        finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Replace the snapshot with the result of the cursor. The cursor position is reset afterwards.
+     */
+    /* package */ void write(@NonNull Cursor cursor) {
+        int count = cursor.getCount();
+        if (count > MAX_ROWS) {
+            delete();
+            return;
+        }
+
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            return;
+        }
+
+        // write aside and rename so a reader never sees a partial snapshot
+        File temp = new File(directory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(signature);
+
+            String[] columns = cursor.getColumnNames();
+            out.writeInt(columns.length);
+            for (String column : columns) {
+                out.writeUTF(column);
+            }
+
+            out.writeInt(count);
+            cursor.moveToPosition(-1);
+            for (int r = 0; r < count && cursor.moveToNext(); ++r) {
+                for (int i = 0; i < columns.length; ++i) {
+                    writeValue(out, cursor, i);
+                }
+            }
+            out.close();
+            out = null;
+
+            if (!temp.renameTo(file)) {
+                delete();
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            if (BasicCRUDLoader.DEBUG) {
+                Log.w(TAG, "Failed to write snapshot " + file, e);
+            }
+        }
+        finally {
+            close(out);
+            cursor.moveToPosition(-1);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    /* package */ void delete() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private static void writeValue(@NonNull DataOutputStream out, @NonNull Cursor cursor, int column)
+            throws IOException {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                out.writeByte(TYPE_INTEGER);
+                out.writeLong(cursor.getLong(column));
+                break;
+            case Cursor.FIELD_TYPE_FLOAT:
+                out.writeByte(TYPE_FLOAT);
+                out.writeDouble(cursor.getDouble(column));
+                break;
+            case Cursor.FIELD_TYPE_STRING:
+                // writeUTF is limited to 64KB, so strings are written as UTF-8 bytes
+                byte[] string = cursor.getString(column).getBytes("UTF-8");
+                out.writeByte(TYPE_STRING);
+                out.writeInt(string.length);
+                out.write(string);
+                break;
+            case Cursor.FIELD_TYPE_BLOB:
+                byte[] blob = cursor.getBlob(column);
+                out.writeByte(TYPE_BLOB);
+                out.writeInt(blob.length);
+                out.write(blob);
+                break;
+            default:
+                out.writeByte(TYPE_NULL);
+                break;
+        }
+    }
+
+    @Nullable
+    private static Object readValue(@NonNull DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_INTEGER:
+                return in.readLong();
+            case TYPE_FLOAT:
+                return in.readDouble();
+            case TYPE_STRING:
+            case TYPE_BLOB:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return type == TYPE_STRING ? new String(bytes, "UTF-8") : bytes;
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private static void close(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * Cursor over a snapshot, flagged via its extras
+     */
+    /* package */ static final class SnapshotCursor extends MatrixCursor {
+        private final Bundle extras = new Bundle();
+
+        SnapshotCursor(@NonNull String[] columnNames, int initialCapacity) {
+            super(columnNames, Math.max(initialCapacity, 1));
+            extras.putBoolean(BasicCRUDLoader.EXTRA_FROM_SNAPSHOT, true);
+        }
+
+        @Override
+        public Bundle getExtras() {
+            return extras;
+        }
+    }
+}
@@ -16,20 +16,30 @@
 
 package com.forkingcode.crudcontent.provider;
 
+import android.annotation.TargetApi;
 import android.content.ComponentCallbacks2;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteConstraintException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
 import android.provider.BaseColumns;
 import android.support.annotation.CheckResult;
 import android.support.annotation.IntDef;
@@ -38,10 +48,24 @@ import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
 
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Basic CRUD (Create, Read, Update, Delete) provider. Assumes basic
@@ -54,12 +78,19 @@ import java.util.List;
  * <ul>
  * <li>URI for matching rows should be in form: content://{authority}/{table}
  * <li>URI for matching row by id should be in form: content://{authority}/{table}/{id}
+ * <li>URI for streaming a single column of a row should be in form: content://{authority}/{table}/{id}/{column}
  * </ul>
  * <p>By default the getType() method will return the following:
  * <ul>
  * <li>directory:   vnd.android.cursor.dir/{authority}/{table}
  * <li>single row:  vnd.android.cursor.item/{authority}/{table}
+ * <li>single column: application/octet-stream
  * </ul>
+ * <p>Column URIs are only supported by {@link #openFile(Uri, String)} and allow large TEXT or BLOB
+ * values to be read as a stream instead of through the query cursor window.
+ * <p>Large TEXT columns may optionally be stored compressed, see {@link #getCompressedColumns(String)}.
+ * <p>Rows of append heavy tables may optionally expire and be purged in the background,
+ * see {@link #getExpiringTables()}.
  * <p>The following query parameters are supported on the URI:
  * <ul>
  * <li>distinct=true  - informs the query to ensure each row returned is unique.
@@ -74,6 +105,11 @@ import java.util.List;
  * <li>CONFLICT_REPLACE - n rows, should always be 100% successful
  * </ul>
  * <p>If logging is enabled, more information on the errors will be recorded.
+ * <p>Queries are implemented by {@link #query(Uri, String[], String, String[], String, CancellationSignal)},
+ * which the framework calls directly on API 16 and higher; the overload without a cancellation signal only
+ * delegates to it. A subclass customizing queries, for example to add a default sort order or enforce a
+ * selection, must override the overload taking a cancellation signal. Overriding only the overload without
+ * one is bypassed on API 16 and higher.
  */
 public abstract class BasicCRUDProvider extends ContentProvider {
 
@@ -92,6 +128,38 @@ public abstract class BasicCRUDProvider extends ContentProvider {
     @NonNull
     public static final String LIMIT_PARAMETER = "limit";
 
+    /**
+     * Method constant used with {@link ContentResolver#call(Uri, String, String, Bundle)} to
+     * immediately purge expired rows. The returned bundle contains the number of rows deleted
+     * via {@link #EXTRA_ROWS}. The caller must hold the provider's write permission.
+     *
+     * @see #getExpiringTables()
+     */
+    @NonNull
+    public static final String PURGE_EXPIRED_METHOD = "purgeExpired";
+
+    /**
+     * Method constant used with {@link ContentResolver#call(Uri, String, String, Bundle)} to insert
+     * a {@link RowBatch} provided via {@link #EXTRA_ROW_BATCH}. The arg must be the uri of the table as
+     * a string. The returned bundle contains the number of rows inserted via {@link #EXTRA_ROWS}.
+     *
+     * @see #bulkInsert(Uri, RowBatch)
+     */
+    @NonNull
+    public static final String BULK_INSERT_ROWS_METHOD = "bulkInsertRows";
+
+    /**
+     * The extra holding the {@link RowBatch} of {@link #BULK_INSERT_ROWS_METHOD}
+     */
+    @NonNull
+    public static final String EXTRA_ROW_BATCH = "com.forkingcode.crudcontent.extra.rowBatch";
+
+    /**
+     * The extra indicating the number of rows affected by a call method
+     */
+    @NonNull
+    public static final String EXTRA_ROWS = "com.forkingcode.crudcontent.extra.rows";
+
     /**
      * All inserts (bulk or single), or updates will be rolled back on any
      * data conflict or unexpected error that occurs with the sql command.
@@ -129,19 +197,79 @@ public abstract class BasicCRUDProvider extends ContentProvider {
     private static final UriMatcher uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     private static final int ALL_ROWS = 1;
     private static final int ROW_BY_ID = 2;
+    private static final int ROW_COLUMN = 3;
 
     private static final int TABLE_SEGMENT = 0;
     private static final int ID_SEGMENT = 1;
+    private static final int COLUMN_SEGMENT = 2;
 
     private static final String WHERE_MATCHES_ID = BaseColumns._ID + " = ?";
 
+    private static final String COLUMN_MIME_TYPE = "application/octet-stream";
+    private static final int DEFAULT_STREAM_CHUNK_SIZE = 256 * 1024;
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    private static final long DEFAULT_PURGE_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    private static final long PURGE_INITIAL_DELAY = TimeUnit.SECONDS.toMillis(30);
+    private static final int DEFAULT_PURGE_BATCH_SIZE = 500;
+    private static final long DEFAULT_PURGE_BATCH_PAUSE = 20;
+    private static final Pattern VALID_IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    // indexed by conflict algorithm, as used by SQLiteDatabase#insertWithOnConflict
+    private static final String[] CONFLICT_CLAUSES = new String[]{
+            "", " OR ROLLBACK", " OR ABORT", " OR FAIL", " OR IGNORE", " OR REPLACE"};
+
 
     private static boolean LOGGING_ENABLED = false;
+    private static volatile MetricsListener metricsListener;
 
     private SQLiteOpenHelper dbHelper;
     private final String authority;
+    private final Map<String, ColumnCompressor> compressors = new HashMap<>();
+    private final Object purgeLock = new Object();
+    private ScheduledExecutorService purgeExecutor;
+    private final ThreadLocal<BatchState> batchState = new ThreadLocal<>();
 
 
+    /**
+     * Receives metrics about writes retried by all BasicCRUDProviders of the process
+     *
+     * @see #setMetricsListener(MetricsListener)
+     * @see #getRetryPolicy(String)
+     */
+    public interface MetricsListener {
+
+        /**
+         * Called on the writing thread when a write failed because the database was locked and is
+         * about to be retried
+         *
+         * @param table       The table written, or null when starting a batch
+         * @param attempt     The number of the attempt that failed, starting at 1
+         * @param delayMillis The time waited before the next attempt
+         * @param e           The failure
+         */
+        void onWriteRetry(@Nullable String table, int attempt, long delayMillis, @NonNull SQLiteException e);
+
+        /**
+         * Called on the writing thread when a write succeeded after one or more retries
+         *
+         * @param table         The table written, or null when starting a batch
+         * @param attempts      The number of attempts, including the first
+         * @param elapsedMillis The time since the first failed attempt
+         */
+        void onWriteRetrySucceeded(@Nullable String table, int attempts, long elapsedMillis);
+
+        /**
+         * Called on the writing thread when a write failed because the database was locked and the
+         * attempts or the deadline of the retry policy are used up
+         *
+         * @param table         The table written, or null when starting a batch
+         * @param attempts      The number of attempts, including the first
+         * @param elapsedMillis The time since the first failed attempt
+         * @param e             The last failure
+         */
+        void onWriteRetriesExhausted(@Nullable String table, int attempts, long elapsedMillis,
+                                     @NonNull SQLiteException e);
+    }
+
     @SuppressWarnings("WeakerAccess")
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({CONFLICT_ROLLBACK, CONFLICT_IGNORE, CONFLICT_REPLACE})
@@ -157,6 +285,23 @@ public abstract class BasicCRUDProvider extends ContentProvider {
         this.authority = authority;
         uriMatcher.addURI(authority, "*", ALL_ROWS);
         uriMatcher.addURI(authority, "*/#", ROW_BY_ID);
+        uriMatcher.addURI(authority, "*/#/*", ROW_COLUMN);
+    }
+
+    /**
+     * Build a uri used to stream the value of a single column via
+     * {@link android.content.ContentResolver#openInputStream(Uri)}.
+     *
+     * @param uri    The uri of the table, in form of content://{authority}/{table}
+     * @param id     The id of the row containing the value
+     * @param column The column to stream
+     * @return the uri in form of content://{authority}/{table}/{id}/{column}
+     */
+    @NonNull
+    public static Uri buildColumnUri(@NonNull Uri uri, long id, @NonNull String column) {
+        return ContentUris.withAppendedId(uri, id).buildUpon()
+                .appendPath(column)
+                .build();
     }
 
     /**
@@ -168,6 +313,42 @@ public abstract class BasicCRUDProvider extends ContentProvider {
         LOGGING_ENABLED = enabled;
     }
 
+    /**
+     * Register a listener for metrics of the writes of all BasicCRUDProviders in the process
+     *
+     * @param listener The listener or null to stop receiving metrics
+     */
+    public static void setMetricsListener(@Nullable MetricsListener listener) {
+        metricsListener = listener;
+    }
+
+    /* package */ static void reportRetry(@Nullable String table, int attempt, long delay,
+                                          @NonNull SQLiteException e) {
+        if (LOGGING_ENABLED) {
+            Log.w(TAG, "Retrying write of " + table + " after attempt " + attempt + " in " + delay + "ms", e);
+        }
+
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onWriteRetry(table, attempt, delay, e);
+        }
+    }
+
+    /* package */ static void reportRetrySucceeded(@Nullable String table, int attempts, long elapsed) {
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onWriteRetrySucceeded(table, attempts, elapsed);
+        }
+    }
+
+    /* package */ static void reportRetriesExhausted(@Nullable String table, int attempts, long elapsed,
+                                                     @NonNull SQLiteException e) {
+        MetricsListener listener = metricsListener;
+        if (listener != null) {
+            listener.onWriteRetriesExhausted(table, attempts, elapsed, e);
+        }
+    }
+
     /**
      * Initialize the content provider. This implementation retrieves the database
      * helper.
@@ -177,6 +358,7 @@ public abstract class BasicCRUDProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         dbHelper = getDbHelper();
+        schedulePurge();
         return true;
     }
 
@@ -188,6 +370,10 @@ public abstract class BasicCRUDProvider extends ContentProvider {
      */
     @Override
     public void shutdown() {
+        if (purgeExecutor != null) {
+            purgeExecutor.shutdownNow();
+            purgeExecutor = null;
+        }
         dbHelper.close();
         dbHelper = null;
     }
@@ -243,6 +429,161 @@ public abstract class BasicCRUDProvider extends ContentProvider {
         return CONFLICT_ROLLBACK;
     }
 
+    /**
+     * Override to change how writes of the specified table are retried when they fail because
+     * another connection or process holds a lock on the database. Each attempt is a separate
+     * transaction. Operations applied by {@link #applyBatch(ArrayList)} are not retried
+     * individually, as the batch already holds the lock, only the start of the batch is.
+     *
+     * @param table The table being written, or null when starting a batch
+     * @return the retry policy, {@link RetryPolicy#NONE} to never retry. Default is {@link RetryPolicy#DEFAULT}
+     */
+    @SuppressWarnings({"SameReturnValue", "UnusedParameters", "WeakerAccess"})
+    @NonNull
+    protected RetryPolicy getRetryPolicy(@Nullable String table) {
+        return RetryPolicy.DEFAULT;
+    }
+
+    /**
+     * Override to provide the number of bytes read per query when streaming a column via
+     * {@link #openFile(Uri, String)}. Each chunk must fit within a cursor window.
+     *
+     * @param table The table being streamed from
+     * @return the chunk size in bytes. Default is 256KB
+     */
+    @SuppressWarnings({"SameReturnValue", "UnusedParameters", "WeakerAccess"})
+    protected int getStreamChunkSize(@NonNull String table) {
+        return DEFAULT_STREAM_CHUNK_SIZE;
+    }
+
+    /**
+     * Override to store large text values of the specified columns compressed.
+     *
+     * <p>On insert and update, text values of these columns at least
+     * {@link #getCompressionThreshold(String)} characters long are deflated and stored as a BLOB.
+     * Queries return the original text. Compressed values can not be used in a selection or order
+     * by clause, so only use for free form columns that are not searched.
+     *
+     * @param table The table to determine the compressed columns for.
+     * @return the columns to compress or null if no columns should be compressed. Default is null
+     */
+    @SuppressWarnings({"SameReturnValue", "UnusedParameters", "WeakerAccess"})
+    @Nullable
+    protected String[] getCompressedColumns(@NonNull String table) {
+        return null;
+    }
+
+    /**
+     * Override to provide the minimum length in characters a value must have before it is compressed.
+     *
+     * @param table The table to determine the threshold for.
+     * @return the minimum length to compress. Default is 1024
+     * @see #getCompressedColumns(String)
+     */
+    @SuppressWarnings({"SameReturnValue", "UnusedParameters", "WeakerAccess"})
+    protected int getCompressionThreshold(@NonNull String table) {
+        return DEFAULT_COMPRESSION_THRESHOLD;
+    }
+
+    /**
+     * Override to provide a preset dictionary used when compressing values. A dictionary containing
+     * strings common to the values, such as JSON keys, improves compression of smaller values.
+     *
+     * <p>Changing the dictionary will make previously compressed values unreadable.
+     *
+     * @param table The table to provide the dictionary for.
+     * @return the dictionary or null to not use a dictionary. Default is null
+     * @see #getCompressedColumns(String)
+     */
+    @SuppressWarnings({"SameReturnValue", "UnusedParameters", "WeakerAccess"})
+    @Nullable
+    protected byte[] getCompressionDictionary(@NonNull String table) {
+        return null;
+    }
+
+    /**
+     * Override to provide the tables whose rows expire. Expired rows are purged in the background
+     * every {@link #getPurgeInterval()} milliseconds, in batches of {@link #getPurgeBatchSize()} rows
+     * so the purge never holds the database for long.
+     *
+     * <p>For each table, {@link #getExpirationColumn(String)} and {@link #getTimeToLive(String)}
+     * must also be provided. The expiration column should be indexed.
+     *
+     * @return the tables with expiring rows or null if no rows expire. Default is null
+     */
+    @SuppressWarnings({"SameReturnValue", "WeakerAccess"})
+    @Nullable
+    protected String[] getExpiringTables() {
+        return null;
+    }
+
+    /**
+     * Override to provide the column holding the time a row was written, in milliseconds
+     * since the epoch (ie System.currentTimeMillis()).
+     *
+     * @param table One of the tables returned by {@link #getExpiringTables()}
+     * @return the name of the timestamp column
+     */
+    @SuppressWarnings({"UnusedParameters", "WeakerAccess"})
+    @NonNull
+    protected String getExpirationColumn(@NonNull String table) {
+        throw new IllegalStateException("Must provide the expiration column for: " + table);
+    }
+
+    /**
+     * Override to provide how long rows of the table are kept.
+     *
+     * @param table One of the tables returned by {@link #getExpiringTables()}
+     * @return the time to live in milliseconds. Rows older than this are purged. A value of 0 or
+     * less disables purging for the table. Default is 0
+     */
+    @SuppressWarnings({"SameReturnValue", "UnusedParameters", "WeakerAccess"})
+    protected long getTimeToLive(@NonNull String table) {
+        return 0;
+    }
+
+    /**
+     * Override to provide how often expired rows are purged.
+     *
+     * @return the purge interval in milliseconds. Default is 1 hour
+     */
+    @SuppressWarnings({"SameReturnValue", "WeakerAccess"})
+    protected long getPurgeInterval() {
+        return DEFAULT_PURGE_INTERVAL;
+    }
+
+    /**
+     * Override to provide the number of rows deleted per transaction while purging.
+     *
+     * @return the batch size. Default is 500
+     */
+    @SuppressWarnings({"SameReturnValue", "WeakerAccess"})
+    protected int getPurgeBatchSize() {
+        return DEFAULT_PURGE_BATCH_SIZE;
+    }
+
+    /**
+     * Override to provide how long the purge pauses between batches, giving other writers
+     * a chance at the database.
+     *
+     * @return the pause in milliseconds. Default is 20
+     */
+    @SuppressWarnings({"SameReturnValue", "WeakerAccess"})
+    protected long getPurgeBatchPause() {
+        return DEFAULT_PURGE_BATCH_PAUSE;
+    }
+
+    /**
+     * Override to run "PRAGMA incremental_vacuum" after rows are purged, returning free pages
+     * to the file system. Only has an effect if the database was created with auto_vacuum=INCREMENTAL.
+     *
+     * @return the maximum number of pages to free after a purge, or 0 to not vacuum. Default is 0
+     */
+    @SuppressWarnings({"SameReturnValue", "WeakerAccess"})
+    protected int getIncrementalVacuumPages() {
+        return 0;
+    }
+
     /**
      * Basic implementation of getType.
      *
@@ -250,6 +591,7 @@ public abstract class BasicCRUDProvider extends ContentProvider {
      * <ul>
      * <li>directory:   vnd.android.cursor.dir/{authority}/{tableName}
      * <li>single row:  vnd.android.cursor.item/{authority}/{tableName}
+     * <li>single column: application/octet-stream
      * </ul>
      *
      * @param uri the URI to query.
@@ -268,11 +610,24 @@ public abstract class BasicCRUDProvider extends ContentProvider {
             case ROW_BY_ID:
                 table = uri.getPathSegments().get(TABLE_SEGMENT);
                 return ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + authority + "/" + table;
+            case ROW_COLUMN:
+                if (isColumnUri(uri)) {
+                    return COLUMN_MIME_TYPE;
+                }
+                // fall through, the pattern also matches a uri with two ids
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
     }
 
+    /**
+     * @return True if the uri matched as a column of a row names a valid column, rather than being a
+     * uri with two ids
+     */
+    private static boolean isColumnUri(@NonNull Uri uri) {
+        return VALID_IDENTIFIER.matcher(uri.getPathSegments().get(COLUMN_SEGMENT)).matches();
+    }
+
     /**
      * Implements a basic insert operation. If the uri references a single record, the insertion
      * will fail.
@@ -301,6 +656,11 @@ public abstract class BasicCRUDProvider extends ContentProvider {
 
         long id;
 
+        ColumnCompressor compressor = getColumnCompressor(table);
+        if (compressor != null) {
+            values = compressor.compress(values);
+        }
+
         SQLiteDatabase db = getWritableDatabaseWithReference();
         if (db == null) {
             return null;
@@ -308,23 +668,34 @@ public abstract class BasicCRUDProvider extends ContentProvider {
 
         try {
             int conflictAlgorithm = translateConflictAlgorithm(getInsertConflictAlgorithm(table));
-            startTransaction(db);
-            try {
-                id = db.insertWithOnConflict(table, getNullColumnHack(table), values, conflictAlgorithm);
+            RetryPolicy.Attempts attempts = startAttempts(table);
+            while (true) {
+                try {
+                    startTransaction(db);
+                    try {
+                        id = db.insertWithOnConflict(table, getNullColumnHack(table), values, conflictAlgorithm);
 
-                if (id != -1) {
-                    db.setTransactionSuccessful();
+                        if (id != -1) {
+                            db.setTransactionSuccessful();
+                        }
+                    }
+                    finally {
+                        db.endTransaction();
+                    }
+                    attempts.succeeded();
                 }
-            }
-            catch (SQLiteException e) {
-                if (LOGGING_ENABLED) {
-                    Log.e(TAG, "Error inserting " + table +
-                            " with " + values, e);
+                catch (SQLiteException e) {
+                    if (attempts.retry(e)) {
+                        continue;
+                    }
+                    markBatchFailed(e);
+                    if (LOGGING_ENABLED) {
+                        Log.e(TAG, "Error inserting " + table +
+                                " with " + values, e);
+                    }
+                    id = -1;
                 }
-                id = -1;
-            }
-            finally {
-                db.endTransaction();
+                break;
             }
         }
         finally {
@@ -372,38 +743,166 @@ public abstract class BasicCRUDProvider extends ContentProvider {
         if (db == null) return count;
 
         try {
-            startTransaction(db);
-            try {
-                final String nullColumnHack = getNullColumnHack(table);
-                final int conflictAlgorithm = translateConflictAlgorithm(getInsertConflictAlgorithm(table));
-
-                for (ContentValues values : valuesArray) {
-                    long id;
+            final String nullColumnHack = getNullColumnHack(table);
+            final int conflictAlgorithm = translateConflictAlgorithm(getInsertConflictAlgorithm(table));
+            final ColumnCompressor compressor = getColumnCompressor(table);
+            RetryPolicy.Attempts attempts = startAttempts(table);
+            while (true) {
+                count = 0;
+                try {
+                    startTransaction(db);
                     try {
-                        id = db.insertWithOnConflict(table, nullColumnHack, values, conflictAlgorithm);
-                    }
-                    catch (SQLiteConstraintException e) {
-                        if (LOGGING_ENABLED) {
-                            Log.e(TAG, "Error inserting " + table +
-                                    " with " + values, e);
+                        for (ContentValues values : valuesArray) {
+                            long id;
+                            try {
+                                if (compressor != null) {
+                                    values = compressor.compress(values);
+                                }
+                                id = db.insertWithOnConflict(table, nullColumnHack, values, conflictAlgorithm);
+                            }
+                            catch (SQLiteConstraintException e) {
+                                if (LOGGING_ENABLED) {
+                                    Log.e(TAG, "Error inserting " + table +
+                                            " with " + values, e);
+                                }
+                                throw e;
+                            }
+
+                            if (id != -1) {
+                                ++count;
+                            }
                         }
-                        throw e;
+                        db.setTransactionSuccessful();
                     }
-
-                    if (id != -1) {
-                        ++count;
+                    finally {
+                        db.endTransaction();
                     }
+                    attempts.succeeded();
                 }
-                db.setTransactionSuccessful();
-            }
-            catch (SQLiteException e) {
-                if (LOGGING_ENABLED && !(e instanceof SQLiteConstraintException)) {
-                    Log.e(TAG, "Unexpected error bulk inserting " + table, e);
+                catch (SQLiteException e) {
+                    if (attempts.retry(e)) {
+                        continue;
+                    }
+                    markBatchFailed(e);
+                    if (LOGGING_ENABLED && !(e instanceof SQLiteConstraintException)) {
+                        Log.e(TAG, "Unexpected error bulk inserting " + table, e);
+                    }
+                    count = 0;
                 }
-                count = 0;
+                break;
             }
-            finally {
-                db.endTransaction();
+        }
+        finally {
+            db.releaseReference();
+        }
+
+        // notify change essentially indicates to any users with active cursors
+        // that they need to "reload" the data
+        if (count > 0) {
+            notifyChange(getContext(), uri);
+        }
+        return count;
+    }
+
+    /**
+     * Implements a bulk insertion of rows stored by column under a single transaction for all rows.
+     * One statement is prepared for the batch and the values of each row are bound to it directly,
+     * without creating a {@link ContentValues} per row. Conflicts, compression, retries and change
+     * notifications are handled as by {@link #bulkInsert(Uri, ContentValues[])}.
+     *
+     * <p>Call directly when the provider runs in the calling process, otherwise use
+     * {@link #BULK_INSERT_ROWS_METHOD}.
+     *
+     * @param uri   The content:// URI of the insertion request.
+     * @param batch The rows to insert
+     * @return The number of rows that were inserted.
+     * @throws UnsupportedOperationException If the URI refers to a single item, or is not in
+     *                                       the expected format
+     * @throws IllegalArgumentException      If a column name of the batch is not a valid identifier
+     */
+    public int bulkInsert(@NonNull Uri uri, @NonNull RowBatch batch) {
+        int match = uriMatcher.match(uri);
+        String table;
+        switch (match) {
+            case ALL_ROWS:
+                table = uri.getLastPathSegment();
+                break;
+            case ROW_BY_ID:
+                throw new UnsupportedOperationException("Unable to insert by id for uri: " + uri);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+
+        final int conflictAlgorithm = translateConflictAlgorithm(getInsertConflictAlgorithm(table));
+        StringBuilder sql = new StringBuilder("INSERT")
+                .append(CONFLICT_CLAUSES[conflictAlgorithm])
+                .append(" INTO ").append(table).append(" (");
+        for (int column = 0; column < batch.getColumnCount(); ++column) {
+            String name = batch.getColumnName(column);
+            if (!VALID_IDENTIFIER.matcher(name).matches()) {
+                throw new IllegalArgumentException("Invalid column: " + name);
+            }
+            sql.append(column > 0 ? ", " : "").append(name);
+        }
+        sql.append(") VALUES (");
+        for (int column = 0; column < batch.getColumnCount(); ++column) {
+            sql.append(column > 0 ? ", ?" : "?");
+        }
+        sql.append(')');
+
+        int count = 0;
+        if (batch.getRowCount() == 0) return count;
+
+        SQLiteDatabase db = getWritableDatabaseWithReference();
+        if (db == null) return count;
+
+        try {
+            final ColumnCompressor compressor = getColumnCompressor(table);
+            RetryPolicy.Attempts attempts = startAttempts(table);
+            while (true) {
+                count = 0;
+                try {
+                    startTransaction(db);
+                    try {
+                        SQLiteStatement statement = db.compileStatement(sql.toString());
+                        try {
+                            for (int row = 0; row < batch.getRowCount(); ++row) {
+                                bindRow(statement, batch, row, compressor);
+                                try {
+                                    if (statement.executeInsert() != -1) {
+                                        ++count;
+                                    }
+                                }
+                                catch (SQLiteConstraintException e) {
+                                    if (LOGGING_ENABLED) {
+                                        Log.e(TAG, "Error inserting " + table +
+                                                " with " + batch.toContentValues(row), e);
+                                    }
+                                    throw e;
+                                }
+                            }
+                        }
+                        finally {
+                            statement.close();
+                        }
+                        db.setTransactionSuccessful();
+                    }
+                    finally {
+                        db.endTransaction();
+                    }
+                    attempts.succeeded();
+                }
+                catch (SQLiteException e) {
+                    if (attempts.retry(e)) {
+                        continue;
+                    }
+                    markBatchFailed(e);
+                    if (LOGGING_ENABLED && !(e instanceof SQLiteConstraintException)) {
+                        Log.e(TAG, "Unexpected error bulk inserting " + table, e);
+                    }
+                    count = 0;
+                }
+                break;
             }
         }
         finally {
@@ -418,6 +917,44 @@ public abstract class BasicCRUDProvider extends ContentProvider {
         return count;
     }
 
+    private static void bindRow(@NonNull SQLiteStatement statement, @NonNull RowBatch batch, int row,
+                                @Nullable ColumnCompressor compressor) {
+        for (int column = 0; column < batch.getColumnCount(); ++column) {
+            // statement indexes start at 1
+            int index = column + 1;
+            if (batch.isNull(row, column)) {
+                statement.bindNull(index);
+                continue;
+            }
+
+            switch (batch.getColumnType(column)) {
+                case RowBatch.TYPE_INTEGER:
+                    statement.bindLong(index, batch.getLong(row, column));
+                    break;
+                case RowBatch.TYPE_REAL:
+                    statement.bindDouble(index, batch.getDouble(row, column));
+                    break;
+                case RowBatch.TYPE_TEXT:
+                    //noinspection ConstantConditions non null checked above
+                    String text = batch.getText(row, column);
+                    byte[] encoded = compressor != null && compressor.isCompressedColumn(batch.getColumnName(column))
+                            ? compressor.encode(text)
+                            : null;
+                    if (encoded != null) {
+                        statement.bindBlob(index, encoded);
+                    }
+                    else {
+                        statement.bindString(index, text);
+                    }
+                    break;
+                default:
+                    //noinspection ConstantConditions non null checked above
+                    statement.bindBlob(index, batch.getBlob(row, column));
+                    break;
+            }
+        }
+    }
+
     /**
      * Basic implementation of a query
      *
@@ -442,6 +979,8 @@ public abstract class BasicCRUDProvider extends ContentProvider {
      *                      If {@code null} then the provider is free to define the sort order.
      * @return a Cursor or {@code null}.
      * @throws UnsupportedOperationException If the URI is not in the expected format
+     * @see #query(Uri, String[], String, String[], String, CancellationSignal) which subclasses should
+     * override instead, as it is called directly on API 16 and higher
      */
     @Override
     @Nullable
@@ -450,6 +989,39 @@ public abstract class BasicCRUDProvider extends ContentProvider {
                         @Nullable String selection,
                         @Nullable String[] selectionArgs,
                         @Nullable String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Basic implementation of a query that may be cancelled. Identical to
+     * {@link #query(Uri, String[], String, String[], String)}, but the cancellation signal is passed
+     * to the database so a query that is no longer needed, such as the query of a restarted loader,
+     * stops running.
+     *
+     * @param uri                The URI to query.
+     * @param projection         The list of columns to put into the cursor. If
+     *                           {@code null} all columns are included.
+     * @param selection          A selection criteria to apply when filtering rows.
+     *                           If {@code null} then all rows are included.
+     * @param selectionArgs      You may include ?s in selection, which will be replaced by
+     *                           the values from selectionArgs, in order that they appear in the selection.
+     *                           The values will be bound as Strings.
+     * @param sortOrder          How the rows in the cursor should be sorted.
+     *                           If {@code null} then the provider is free to define the sort order.
+     * @param cancellationSignal A signal to cancel the operation in progress, or {@code null} if none.
+     * @return a Cursor or {@code null}.
+     * @throws UnsupportedOperationException     If the URI is not in the expected format
+     * @throws android.os.OperationCanceledException If the query was cancelled
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    @Nullable
+    public Cursor query(@NonNull Uri uri,
+                        @Nullable String[] projection,
+                        @Nullable String selection,
+                        @Nullable String[] selectionArgs,
+                        @Nullable String sortOrder,
+                        @Nullable CancellationSignal cancellationSignal) {
 
         int match = uriMatcher.match(uri);
         String table;
@@ -483,7 +1055,13 @@ public abstract class BasicCRUDProvider extends ContentProvider {
 
         Cursor cursor;
         try {
-            cursor = db.query(distinct, table, projection, useSelection, useSelectionArgs, null, null, sortOrder, limit);
+            if (cancellationSignal != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                cursor = db.query(distinct, table, projection, useSelection, useSelectionArgs, null, null, sortOrder,
+                        limit, cancellationSignal);
+            }
+            else {
+                cursor = db.query(distinct, table, projection, useSelection, useSelectionArgs, null, null, sortOrder, limit);
+            }
             // Register the cursor with the requested URI so the caller will receive
             // future database change notifications. Useful for "loaders" which take advantage
             // of this concept.
@@ -491,6 +1069,11 @@ public abstract class BasicCRUDProvider extends ContentProvider {
             if (context != null) {
                 cursor.setNotificationUri(context.getContentResolver(), uri);
             }
+
+            ColumnCompressor compressor = getColumnCompressor(table);
+            if (compressor != null) {
+                cursor = compressor.wrap(cursor);
+            }
         }
         catch (SQLiteException e) {
             if (LOGGING_ENABLED) {
@@ -554,26 +1137,44 @@ public abstract class BasicCRUDProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
+        ColumnCompressor compressor = getColumnCompressor(table);
+        if (compressor != null) {
+            values = compressor.compress(values);
+        }
+
         int rows = 0;
         SQLiteDatabase db = getWritableDatabaseWithReference();
         if (db == null) return rows;
 
         try {
-            startTransaction(db);
-            try {
-                final int conflictAlgorithm = translateConflictAlgorithm(getUpdateConflictAlgorithm(table));
-                rows = db.updateWithOnConflict(table, values, useSelection, useSelectionArgs, conflictAlgorithm);
-                db.setTransactionSuccessful();
-            }
-            catch (SQLiteException e) {
-                if (LOGGING_ENABLED) {
-                    Log.e(TAG, "Error updating " + table +
-                            " where " + useSelection + " " + Arrays.toString(useSelectionArgs) +
-                            " with " + values, e);
+            final int conflictAlgorithm = translateConflictAlgorithm(getUpdateConflictAlgorithm(table));
+            RetryPolicy.Attempts attempts = startAttempts(table);
+            while (true) {
+                try {
+                    startTransaction(db);
+                    try {
+                        rows = db.updateWithOnConflict(table, values, useSelection, useSelectionArgs,
+                                conflictAlgorithm);
+                        db.setTransactionSuccessful();
+                    }
+                    finally {
+                        db.endTransaction();
+                    }
+                    attempts.succeeded();
                 }
-            }
-            finally {
-                db.endTransaction();
+                catch (SQLiteException e) {
+                    rows = 0;
+                    if (attempts.retry(e)) {
+                        continue;
+                    }
+                    markBatchFailed(e);
+                    if (LOGGING_ENABLED) {
+                        Log.e(TAG, "Error updating " + table +
+                                " where " + useSelection + " " + Arrays.toString(useSelectionArgs) +
+                                " with " + values, e);
+                    }
+                }
+                break;
             }
         }
         finally {
@@ -630,19 +1231,31 @@ public abstract class BasicCRUDProvider extends ContentProvider {
         if (db == null) return rows;
 
         try {
-            startTransaction(db);
-            try {
-                rows = db.delete(table, useSelection, useSelectionArgs);
-                db.setTransactionSuccessful();
-            }
-            catch (SQLiteException e) {
-                if (LOGGING_ENABLED) {
-                    Log.e(TAG, "Error deleting " + table +
-                            " where " + useSelection + " " + Arrays.toString(useSelectionArgs), e);
+            RetryPolicy.Attempts attempts = startAttempts(table);
+            while (true) {
+                try {
+                    startTransaction(db);
+                    try {
+                        rows = db.delete(table, useSelection, useSelectionArgs);
+                        db.setTransactionSuccessful();
+                    }
+                    finally {
+                        db.endTransaction();
+                    }
+                    attempts.succeeded();
                 }
-            }
-            finally {
-                db.endTransaction();
+                catch (SQLiteException e) {
+                    rows = 0;
+                    if (attempts.retry(e)) {
+                        continue;
+                    }
+                    markBatchFailed(e);
+                    if (LOGGING_ENABLED) {
+                        Log.e(TAG, "Error deleting " + table +
+                                " where " + useSelection + " " + Arrays.toString(useSelectionArgs), e);
+                    }
+                }
+                break;
             }
         }
         finally {
@@ -657,6 +1270,245 @@ public abstract class BasicCRUDProvider extends ContentProvider {
         return rows;
     }
 
+    /**
+     * Applies the operations in a single transaction, so either all or none of them are committed.
+     * Change notifications are held back until the transaction commits and sent once per uri.
+     *
+     * <p>The batch is rolled back if any operation fails, including failures the individual
+     * insert, update and delete operations only log.
+     *
+     * @param operations The operations to apply
+     * @return The results of the operations
+     * @throws OperationApplicationException If any operation failed
+     */
+    @Override
+    @NonNull
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        SQLiteDatabase db = getWritableDatabaseWithReference();
+        if (db == null) {
+            throw new OperationApplicationException("Unable to open database");
+        }
+
+        BatchState state = new BatchState();
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        try {
+            RetryPolicy.Attempts attempts = getRetryPolicy(null).start(null);
+            while (true) {
+                try {
+                    startTransaction(db);
+                    attempts.succeeded();
+                    break;
+                }
+                catch (SQLiteException e) {
+                    if (!attempts.retry(e)) {
+                        throw e;
+                    }
+                }
+            }
+            batchState.set(state);
+            try {
+                for (int i = 0; i < results.length; ++i) {
+                    results[i] = operations.get(i).apply(this, results, i);
+                    if (state.failure != null) {
+                        OperationApplicationException failure = new OperationApplicationException(
+                                "Operation " + i + " failed: " + state.failure.getMessage());
+                        failure.initCause(state.failure);
+                        throw failure;
+                    }
+                }
+                db.setTransactionSuccessful();
+            }
+            finally {
+                batchState.remove();
+                db.endTransaction();
+            }
+        }
+        finally {
+            db.releaseReference();
+        }
+
+        for (Uri uri : state.changed) {
+            notifyChange(getContext(), uri);
+        }
+        return results;
+    }
+
+    /**
+     * Start tracking the attempts of a write to the table. Operations applied as part of
+     * {@link #applyBatch(ArrayList)} are not retried, the batch already holds the lock.
+     */
+    @NonNull
+    private RetryPolicy.Attempts startAttempts(@NonNull String table) {
+        RetryPolicy policy = batchState.get() != null ? RetryPolicy.NONE : getRetryPolicy(table);
+        return policy.start(table);
+    }
+
+    /**
+     * Records the failure of an operation applied as part of {@link #applyBatch(ArrayList)}
+     */
+    private void markBatchFailed(@NonNull SQLiteException e) {
+        BatchState state = batchState.get();
+        if (state != null && state.failure == null) {
+            state.failure = e;
+        }
+    }
+
+    /**
+     * State of a batch being applied on the current thread
+     */
+    private static final class BatchState {
+        final Set<Uri> changed = new LinkedHashSet<>();
+        SQLiteException failure;
+    }
+
+    /**
+     * Opens a read only stream of a single column value. The uri must be in the form
+     * content://{authority}/{table}/{id}/{column}, see {@link #buildColumnUri(Uri, long, String)}.
+     *
+     * <p>The value is read in chunks of {@link #getStreamChunkSize(String)} bytes and written to a pipe
+     * on a background thread, so large TEXT or BLOB values never have to fit in a single cursor window.
+     * TEXT values are streamed as their UTF-8 bytes, including values stored compressed.
+     * A null value results in an empty stream.
+     * Each chunk is a separate query, so a row modified while it is being streamed may produce
+     * a mix of the old and new value.
+     *
+     * @param uri  The URI whose column value is to be opened.
+     * @param mode Only "r" is supported.
+     * @return a ParcelFileDescriptor for the read side of the pipe.
+     * @throws FileNotFoundException         If the mode is not supported, the row does not exist or
+     *                                       the column could not be read.
+     * @throws UnsupportedOperationException If the URI is not in the expected format
+     */
+    @Override
+    @NonNull
+    public ParcelFileDescriptor openFile(@NonNull Uri uri, @NonNull String mode) throws FileNotFoundException {
+        if (uriMatcher.match(uri) != ROW_COLUMN || !isColumnUri(uri)) {
+            throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Unsupported mode " + mode + " for uri: " + uri);
+        }
+
+        List<String> segments = uri.getPathSegments();
+        String table = segments.get(TABLE_SEGMENT);
+        String column = segments.get(COLUMN_SEGMENT);
+
+        ColumnCompressor compressor = getColumnCompressor(table);
+        if (compressor != null && !compressor.isCompressedColumn(column)) {
+            compressor = null;
+        }
+
+        ColumnStream stream = new ColumnStream(table, column, segments.get(ID_SEGMENT),
+                getStreamChunkSize(table), compressor);
+
+        // Validate the row exists before handing out the pipe, so the caller receives a proper error
+        if (stream.length() < 0) {
+            throw new FileNotFoundException("No row found for uri: " + uri);
+        }
+
+        return openPipeHelper(uri, COLUMN_MIME_TYPE, null, stream, new ColumnStreamWriter());
+    }
+
+    /**
+     * Implements support for {@link #PURGE_EXPIRED_METHOD} and {@link #BULK_INSERT_ROWS_METHOD}.
+     *
+     * <p>Both methods write to the database, so the caller must hold the provider's write permission.
+     * If the provider has no write permission only callers running as the provider's own uid are accepted.
+     *
+     * @param method The method name to call.
+     * @param arg    The uri of the table for {@link #BULK_INSERT_ROWS_METHOD}, otherwise not used
+     * @param extras The {@link #EXTRA_ROW_BATCH} for {@link #BULK_INSERT_ROWS_METHOD}, otherwise not used
+     * @return a result bundle or null if the method is not supported
+     * @throws IllegalArgumentException If the arg or extras of {@link #BULK_INSERT_ROWS_METHOD} are missing
+     * @throws SecurityException        If the caller may not write to the provider
+     */
+    @Override
+    @Nullable
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        if (PURGE_EXPIRED_METHOD.equals(method)) {
+            enforceWriteAccess(method);
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_ROWS, purgeExpiredRows());
+            return result;
+        }
+        if (BULK_INSERT_ROWS_METHOD.equals(method)) {
+            enforceWriteAccess(method);
+            RowBatch batch = null;
+            if (extras != null) {
+                extras.setClassLoader(RowBatch.class.getClassLoader());
+                batch = extras.getParcelable(EXTRA_ROW_BATCH);
+            }
+            if (arg == null || batch == null) {
+                throw new IllegalArgumentException("Must provide the table uri and the row batch");
+            }
+
+            Bundle result = new Bundle();
+            result.putInt(EXTRA_ROWS, bulkInsert(Uri.parse(arg), batch));
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * call() bypasses the permissions the framework checks for insert, update and delete, so
+     * methods which write check the caller here.
+     */
+    private void enforceWriteAccess(@NonNull String method) {
+        String permission = getWritePermission();
+        Context context = getContext();
+        if (permission != null && context != null) {
+            context.enforceCallingOrSelfPermission(permission, "Calling " + method + " requires " + permission);
+        }
+        else if (Binder.getCallingUid() != Process.myUid()) {
+            throw new SecurityException("Calling " + method + " is restricted to uid " + Process.myUid());
+        }
+    }
+
+    /**
+     * Delete all expired rows of the tables returned by {@link #getExpiringTables()}. Rows are deleted
+     * in batches, each in its own transaction, pausing between batches so other writers are not blocked.
+     * Listeners are notified once per table when the purge completes.
+     *
+     * <p>This is invoked periodically on a background thread, but may be called directly,
+     * for example from a scheduled job. Do not call on the main thread.
+     *
+     * @return the number of rows purged
+     */
+    @SuppressWarnings("WeakerAccess")
+    public int purgeExpiredRows() {
+        String[] tables = getExpiringTables();
+        if (tables == null) return 0;
+
+        int total = 0;
+        synchronized (purgeLock) {
+            for (String table : tables) {
+                long timeToLive = getTimeToLive(table);
+                if (timeToLive <= 0) continue;
+
+                int rows = purgeTable(table, getExpirationColumn(table), System.currentTimeMillis() - timeToLive);
+                if (rows > 0) {
+                    total += rows;
+                    notifyChange(getContext(), new Uri.Builder()
+                            .scheme(ContentResolver.SCHEME_CONTENT)
+                            .authority(authority)
+                            .appendPath(table)
+                            .build());
+                }
+            }
+
+            int vacuumPages = getIncrementalVacuumPages();
+            if (total > 0 && vacuumPages > 0) {
+                incrementalVacuum(vacuumPages);
+            }
+        }
+
+        if (LOGGING_ENABLED) {
+            Log.d(TAG, "purgeExpiredRows: purged " + total + " rows");
+        }
+        return total;
+    }
+
     /**
      * Provide the default trim level at which the database should be closed.
      *
@@ -703,12 +1555,143 @@ public abstract class BasicCRUDProvider extends ContentProvider {
      *
      * @param uri the URI for the content that changed.
      */
-    private static void notifyChange(@Nullable Context context, @NonNull Uri uri) {
+    private void notifyChange(@Nullable Context context, @NonNull Uri uri) {
+        BatchState state = batchState.get();
+        if (state != null) {
+            // sent once the batch commits
+            state.changed.add(uri);
+            return;
+        }
         if (context != null) {
             context.getContentResolver().notifyChange(uri, null, false);
         }
     }
 
+    private void schedulePurge() {
+        String[] tables = getExpiringTables();
+        if (tables == null || tables.length == 0) return;
+
+        purgeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-purge");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        long interval = getPurgeInterval();
+        purgeExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    purgeExpiredRows();
+                }
+                catch (RuntimeException e) {
+                    // Never let an error cancel future purges
+                    if (LOGGING_ENABLED) {
+                        Log.e(TAG, "Error purging expired rows", e);
+                    }
+                }
+            }
+        }, Math.min(interval, PURGE_INITIAL_DELAY), interval, TimeUnit.MILLISECONDS);
+    }
+
+    private int purgeTable(@NonNull String table, @NonNull String column, long expiredBefore) {
+        final int batchSize = getPurgeBatchSize();
+        final long batchPause = getPurgeBatchPause();
+        final String where = BaseColumns._ID + " IN (SELECT " + BaseColumns._ID + " FROM \"" + table +
+                "\" WHERE \"" + column + "\" < ? LIMIT " + batchSize + ")";
+        final String[] whereArgs = new String[]{Long.toString(expiredBefore)};
+
+        int total = 0;
+        int rows;
+        do {
+            SQLiteDatabase db = getWritableDatabaseWithReference();
+            if (db == null) break;
+
+            rows = 0;
+            try {
+                startTransaction(db);
+                try {
+                    rows = db.delete(table, where, whereArgs);
+                    db.setTransactionSuccessful();
+                }
+                finally {
+                    db.endTransaction();
+                }
+            }
+            catch (SQLiteException e) {
+                if (LOGGING_ENABLED) {
+                    Log.e(TAG, "Error purging " + table + " where " + column + " < " + expiredBefore, e);
+                }
+                break;
+            }
+            finally {
+                db.releaseReference();
+            }
+
+            total += rows;
+
+            if (rows >= batchSize) {
+                // Give other writers a chance at the database between batches
+                try {
+                    Thread.sleep(batchPause);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } while (rows >= batchSize);
+
+        return total;
+    }
+
+    private void incrementalVacuum(int pages) {
+        SQLiteDatabase db = getWritableDatabaseWithReference();
+        if (db == null) return;
+
+        Cursor cursor = null;
+        try {
+            // The pragma frees pages as it is stepped, so read through any results
+            cursor = db.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+            //noinspection StatementWithEmptyBody
+            while (cursor.moveToNext()) {
+            }
+        }
+        catch (SQLiteException e) {
+            if (LOGGING_ENABLED) {
+                Log.e(TAG, "Error running incremental vacuum", e);
+            }
+        }
+        finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            db.releaseReference();
+        }
+    }
+
+    @Nullable
+    private ColumnCompressor getColumnCompressor(@NonNull String table) {
+        synchronized (compressors) {
+            if (compressors.containsKey(table)) {
+                return compressors.get(table);
+            }
+
+            String[] columns = getCompressedColumns(table);
+            ColumnCompressor compressor = null;
+            if (columns != null && columns.length > 0) {
+                compressor = new ColumnCompressor(columns, getCompressionThreshold(table),
+                        getCompressionDictionary(table));
+            }
+            compressors.put(table, compressor);
+            return compressor;
+        }
+    }
+
     @Nullable
     private SQLiteDatabase getReadableDatabaseWithReference() {
         SQLiteDatabase db = dbHelper.getReadableDatabase();
@@ -782,4 +1765,151 @@ public abstract class BasicCRUDProvider extends ContentProvider {
                 return CONFLICT_REPLACE;
         }
     }
+
+    /**
+     * Describes a column value being streamed and reads it in chunks
+     */
+    private class ColumnStream {
+        private final String table;
+        private final String id;
+        private final int chunkSize;
+        private final ColumnCompressor compressor;
+        private final String lengthSql;
+        private final String chunkSql;
+
+        ColumnStream(@NonNull String table, @NonNull String column, @NonNull String id, int chunkSize,
+                     @Nullable ColumnCompressor compressor) {
+            this.table = table;
+            this.id = id;
+            this.chunkSize = chunkSize;
+            this.compressor = compressor;
+
+            // Casting to a blob ensures substr() and length() work in bytes for TEXT columns
+            String value = "CAST(\"" + column + "\" AS BLOB)";
+            String from = " FROM \"" + table + "\" WHERE " + WHERE_MATCHES_ID;
+            lengthSql = "SELECT length(" + value + ")" + from;
+            chunkSql = "SELECT substr(" + value + ", ?, " + chunkSize + ")" + from;
+        }
+
+        /**
+         * @return the length of the value in bytes, 0 if the value is null or -1 if no row exists
+         * @throws FileNotFoundException If the database could not be accessed or queried.
+         */
+        long length() throws FileNotFoundException {
+            SQLiteDatabase db = getReadableDatabaseWithReference();
+            if (db == null) {
+                throw new FileNotFoundException("Unable to access database");
+            }
+
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery(lengthSql, new String[]{id});
+                if (!cursor.moveToFirst()) {
+                    return -1;
+                }
+                return cursor.isNull(0) ? 0 : cursor.getLong(0);
+            }
+            catch (SQLiteException e) {
+                if (LOGGING_ENABLED) {
+                    Log.e(TAG, "Error reading length of " + lengthSql + " " + id, e);
+                }
+                throw new FileNotFoundException(e.getMessage());
+            }
+            finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                db.releaseReference();
+            }
+        }
+
+        /**
+         * Write the value to the output stream one chunk at a time
+         *
+         * @throws IOException If the value could not be read or written
+         */
+        void writeTo(@NonNull OutputStream out) throws IOException {
+            long length = length();
+
+            if (compressor != null) {
+                out = compressor.decodingStream(out);
+            }
+
+            SQLiteDatabase db = getReadableDatabaseWithReference();
+            if (db == null) {
+                throw new IOException("Unable to access database");
+            }
+
+            try {
+                String[] args = new String[]{null, id};
+                // substr() offsets are 1 based
+                for (long offset = 1; offset <= length; offset += chunkSize) {
+                    args[0] = Long.toString(offset);
+                    byte[] chunk = readChunk(db, args);
+                    if (chunk == null || chunk.length == 0) {
+                        // value changed underneath the stream
+                        break;
+                    }
+                    out.write(chunk);
+                }
+                out.flush();
+            }
+            finally {
+                db.releaseReference();
+                if (compressor != null) {
+                    out.close();
+                }
+            }
+        }
+
+        @Nullable
+        private byte[] readChunk(@NonNull SQLiteDatabase db, @NonNull String[] args) throws IOException {
+            Cursor cursor = null;
+            try {
+                cursor = db.rawQuery(chunkSql, args);
+                return cursor.moveToFirst() ? cursor.getBlob(0) : null;
+            }
+            catch (SQLiteException e) {
+                throw new IOException("Error streaming " + table + " row " + id, e);
+            }
+            finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes column values into the pipe created by openPipeHelper on a background thread
+     */
+    private static class ColumnStreamWriter implements PipeDataWriter<ColumnStream> {
+        @Override
+        public void writeDataToPipe(@NonNull ParcelFileDescriptor output,
+                                    @NonNull Uri uri,
+                                    @NonNull String mimeType,
+                                    @Nullable Bundle opts,
+                                    @Nullable ColumnStream stream) {
+            if (stream == null) return;
+
+            FileOutputStream out = new FileOutputStream(output.getFileDescriptor());
+            try {
+                stream.writeTo(out);
+            }
+            catch (IOException e) {
+                // Also occurs if the reader closes the pipe early
+                if (LOGGING_ENABLED) {
+                    Log.w(TAG, "Error streaming " + uri, e);
+                }
+            }
+            finally {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.provider;
+
+import android.content.ContentValues;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses large text values for the configured columns of a table. Compressed values are stored
+ * as a BLOB starting with a small header so plain values written before compression was enabled,
+ * or values below the threshold, are left untouched and still read correctly.
+ */
+/* package */ class ColumnCompressor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // Leading 0 byte ensures the header never matches UTF-8 text, last byte is the format version
+    private static final byte[] HEADER = new byte[]{0, 'C', 'Z', 1};
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Set<String> columns;
+    private final int threshold;
+    private final byte[] dictionary;
+
+    /* package */ ColumnCompressor(@NonNull String[] columns, int threshold, @Nullable byte[] dictionary) {
+        this.columns = new HashSet<>(Arrays.asList(columns));
+        this.threshold = threshold;
+        this.dictionary = dictionary;
+    }
+
+    /* package */ boolean isCompressedColumn(@NonNull String column) {
+        return columns.contains(column);
+    }
+
+    /**
+     * Compress any configured columns whose value exceeds the threshold.
+     *
+     * @param values The values being written
+     * @return The original values if nothing was compressed, otherwise a copy with compressed values
+     */
+    @Nullable
+    /* package */ ContentValues compress(@Nullable ContentValues values) {
+        if (values == null) return null;
+
+        ContentValues result = values;
+        for (String column : columns) {
+            Object value = values.get(column);
+            if (!(value instanceof String)) continue;
+
+            byte[] encoded = encode((String) value);
+            if (encoded != null) {
+                if (result == values) {
+                    // do not modify the caller's values
+                    result = new ContentValues(values);
+                }
+                result.put(column, encoded);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Wrap the cursor so compressed values are returned as the original text
+     *
+     * @param cursor The cursor returned by the query
+     * @return The original cursor if it contains no compressed columns, otherwise a wrapped cursor.
+     */
+    @NonNull
+    /* package */ Cursor wrap(@NonNull Cursor cursor) {
+        String[] names = cursor.getColumnNames();
+        boolean[] compressed = new boolean[names.length];
+        boolean found = false;
+        for (int i = 0; i < names.length; ++i) {
+            compressed[i] = columns.contains(names[i]);
+            found |= compressed[i];
+        }
+        return found ? new DecompressingCursor(cursor, compressed) : cursor;
+    }
+
+    /**
+     * Wrap the output stream so a compressed value is written as the original text bytes
+     *
+     * @param out The stream to receive the value
+     * @return A stream decoding the value as it is written
+     */
+    @NonNull
+    /* package */ OutputStream decodingStream(@NonNull OutputStream out) {
+        return new DecodingOutputStream(out);
+    }
+
+    /**
+     * @return the compressed value including header, or null if the value should be stored as is
+     */
+    @Nullable
+    /* package */ byte[] encode(@NonNull String value) {
+        if (value.length() < threshold) return null;
+
+        byte[] input = value.getBytes(UTF_8);
+        Deflater deflater = new Deflater();
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + HEADER.length);
+            out.write(HEADER, 0, HEADER.length);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+                if (out.size() >= input.length) {
+                    // not worth it, store the plain value
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    @NonNull
+    /* package */ String decode(@NonNull byte[] value) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(value, HEADER.length, value.length - HEADER.length);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(value.length * 3);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int count = inflate(inflater, buffer);
+                if (count == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("Truncated value");
+                }
+                out.write(buffer, 0, count);
+            }
+            return new String(out.toByteArray(), UTF_8);
+        }
+        catch (DataFormatException e) {
+            throw new IllegalStateException("Unable to decompress column value", e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+    /* package */ static boolean isCompressed(@Nullable byte[] value) {
+        if (value == null || value.length <= HEADER.length) return false;
+
+        for (int i = 0; i < HEADER.length; ++i) {
+            if (value[i] != HEADER[i]) return false;
+        }
+        return true;
+    }
+
+    private int inflate(@NonNull Inflater inflater, @NonNull byte[] buffer) throws DataFormatException {
+        int count = inflater.inflate(buffer);
+        if (count == 0 && inflater.needsDictionary()) {
+            if (dictionary == null) {
+                throw new DataFormatException("Compression dictionary missing");
+            }
+            inflater.setDictionary(dictionary);
+            count = inflater.inflate(buffer);
+        }
+        return count;
+    }
+
+    /**
+     * Cursor returning the decompressed text for the configured columns
+     */
+    private class DecompressingCursor extends CursorWrapper {
+        private final boolean[] compressed;
+
+        DecompressingCursor(@NonNull Cursor cursor, @NonNull boolean[] compressed) {
+            super(cursor);
+            this.compressed = compressed;
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            int type = super.getType(columnIndex);
+            if (type == FIELD_TYPE_BLOB && compressed[columnIndex]
+                    && isCompressed(super.getBlob(columnIndex))) {
+                return FIELD_TYPE_STRING;
+            }
+            return type;
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            if (compressed[columnIndex] && super.getType(columnIndex) == FIELD_TYPE_BLOB) {
+                byte[] value = super.getBlob(columnIndex);
+                if (isCompressed(value)) {
+                    return decode(value);
+                }
+            }
+            return super.getString(columnIndex);
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            byte[] value = super.getBlob(columnIndex);
+            if (compressed[columnIndex] && isCompressed(value)) {
+                return decode(value).getBytes(UTF_8);
+            }
+            return value;
+        }
+
+        @Override
+        public void copyStringToBuffer(int columnIndex, CharArrayBuffer buffer) {
+            if (!compressed[columnIndex]) {
+                super.copyStringToBuffer(columnIndex, buffer);
+                return;
+            }
+
+            String value = getString(columnIndex);
+            if (value == null) {
+                buffer.sizeCopied = 0;
+                return;
+            }
+
+            char[] data = buffer.data;
+            if (data == null || data.length < value.length()) {
+                buffer.data = value.toCharArray();
+            }
+            else {
+                value.getChars(0, value.length(), data, 0);
+            }
+            buffer.sizeCopied = value.length();
+        }
+    }
+
+    /**
+     * Stream that passes plain values through untouched and inflates compressed values
+     */
+    private class DecodingOutputStream extends FilterOutputStream {
+        private final byte[] header = new byte[HEADER.length];
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int headerSize = 0;
+        private Inflater inflater;
+        private boolean passThrough = false;
+
+        DecodingOutputStream(@NonNull OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] data, int offset, int length) throws IOException {
+            // Collect the header before deciding how to handle the value
+            while (!passThrough && inflater == null && length > 0) {
+                header[headerSize++] = data[offset++];
+                --length;
+                if (header[headerSize - 1] != HEADER[headerSize - 1]) {
+                    passThrough = true;
+                    out.write(header, 0, headerSize);
+                }
+                else if (headerSize == HEADER.length) {
+                    inflater = new Inflater();
+                }
+            }
+
+            if (length == 0) return;
+
+            if (passThrough) {
+                out.write(data, offset, length);
+                return;
+            }
+
+            try {
+                inflater.setInput(data, offset, length);
+                while (!inflater.needsInput() && !inflater.finished()) {
+                    int count = inflate(inflater, buffer);
+                    if (count == 0 && !inflater.needsInput() && !inflater.finished()) {
+                        throw new IOException("Unable to decompress column value");
+                    }
+                    out.write(buffer, 0, count);
+                }
+            }
+            catch (DataFormatException e) {
+                throw new IOException("Unable to decompress column value", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!passThrough && inflater == null && headerSize > 0) {
+                // value shorter than the header, write what was held back
+                out.write(header, 0, headerSize);
+            }
+            if (inflater != null) {
+                inflater.end();
+                inflater = null;
+            }
+            super.close();
+        }
+    }
+}
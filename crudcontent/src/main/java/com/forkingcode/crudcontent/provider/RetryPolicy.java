@@ -0,0 +1,239 @@
+/*
+ * Copyright 2015 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.provider;
+
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteTableLockedException;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Random;
+
+/**
+ * Describes how a write failing because another connection holds a lock on the database is retried:
+ * the number of attempts, an exponential backoff with jitter between attempts and a deadline for all
+ * attempts together. Other failures are never retried.
+ *
+ * @see BasicCRUDProvider#getRetryPolicy(String)
+ */
+public final class RetryPolicy {
+
+    /**
+     * A policy that never retries
+     */
+    @NonNull
+    public static final RetryPolicy NONE = new Builder().maxAttempts(1).build();
+
+    /**
+     * The policy used by default, up to 5 attempts within 1 second of the first failure with a backoff
+     * from 10ms to 200ms
+     */
+    @NonNull
+    public static final RetryPolicy DEFAULT = new Builder().build();
+
+    private static final Random JITTER = new Random();
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final long deadlineMillis;
+
+    private RetryPolicy(@NonNull Builder builder) {
+        maxAttempts = builder.maxAttempts;
+        initialBackoffMillis = builder.initialBackoffMillis;
+        maxBackoffMillis = builder.maxBackoffMillis;
+        deadlineMillis = builder.deadlineMillis;
+    }
+
+    /**
+     * Builder used to create a retry policy
+     */
+    public static class Builder {
+        private int maxAttempts = 5;
+        private long initialBackoffMillis = 10;
+        private long maxBackoffMillis = 200;
+        private long deadlineMillis = 1000;
+
+        /**
+         * Optionally change the maximum number of attempts, including the first. The default is 5.
+         *
+         * @param attempts The maximum number of attempts
+         * @return This builder object
+         * @throws IllegalArgumentException If attempts is less than 1
+         */
+        @NonNull
+        public Builder maxAttempts(int attempts) {
+            if (attempts < 1) {
+                throw new IllegalArgumentException("Must allow at least one attempt");
+            }
+            maxAttempts = attempts;
+            return this;
+        }
+
+        /**
+         * Optionally change the backoff. The backoff doubles after every attempt, starting at the initial
+         * backoff and capped at the maximum backoff. The actual wait is a random value between half of
+         * the backoff and the full backoff, so writers blocked by the same lock do not retry in lock step.
+         * The default is 10ms up to 200ms.
+         *
+         * @param initialMillis The backoff after the first attempt
+         * @param maxMillis     The maximum backoff
+         * @return This builder object
+         * @throws IllegalArgumentException If the initial backoff is not positive or above the maximum
+         */
+        @NonNull
+        public Builder backoff(long initialMillis, long maxMillis) {
+            if (initialMillis <= 0 || maxMillis < initialMillis) {
+                throw new IllegalArgumentException("Invalid backoff " + initialMillis + " to " + maxMillis);
+            }
+            initialBackoffMillis = initialMillis;
+            maxBackoffMillis = maxMillis;
+            return this;
+        }
+
+        /**
+         * Optionally change the time after the first failed attempt in which retries may start. It is counted
+         * from the first failure because SQLite already waits for the lock before an attempt fails.
+         * The default is 1 second.
+         *
+         * @param millis The deadline in milliseconds
+         * @return This builder object
+         * @throws IllegalArgumentException If the deadline is negative
+         */
+        @NonNull
+        public Builder deadline(long millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("Deadline must not be negative");
+            }
+            deadlineMillis = millis;
+            return this;
+        }
+
+        @NonNull
+        public RetryPolicy build() {
+            return new RetryPolicy(this);
+        }
+    }
+
+    /**
+     * @param e The failure of a write
+     * @return True if the failure was caused by a lock held by another connection
+     */
+    public static boolean isRetryable(@NonNull SQLiteException e) {
+        return e instanceof SQLiteDatabaseLockedException || e instanceof SQLiteTableLockedException;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * @param retry The number of the retry, starting at 1
+     * @return The backoff before the retry without jitter
+     */
+    public long getBackoffMillis(int retry) {
+        long backoff = initialBackoffMillis;
+        for (int i = 1; i < retry && backoff < maxBackoffMillis; ++i) {
+            backoff *= 2;
+        }
+        return Math.min(backoff, maxBackoffMillis);
+    }
+
+    /**
+     * Start tracking the attempts of a write
+     *
+     * @param table The table written, or null when starting a batch
+     */
+    @NonNull
+    /* package */ Attempts start(@Nullable String table) {
+        return new Attempts(table);
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{maxAttempts=" + maxAttempts + ", backoff=" + initialBackoffMillis + "-"
+                + maxBackoffMillis + "ms, deadline=" + deadlineMillis + "ms}";
+    }
+
+    /**
+     * The attempts of a single write
+     */
+    /* package */ final class Attempts {
+        private final String table;
+        private long firstFailure = -1;
+        private int attempt = 1;
+
+        private Attempts(@Nullable String table) {
+            this.table = table;
+        }
+
+        /**
+         * Decide whether a failed attempt is retried and if so wait for the backoff. The outcome is
+         * reported to the provider's {@link BasicCRUDProvider.MetricsListener}.
+         *
+         * @param e The failure of the attempt, after its transaction was rolled back
+         * @return True if the write should be attempted again
+         */
+        /* package */ boolean retry(@NonNull SQLiteException e) {
+            if (!isRetryable(e)) {
+                return false;
+            }
+
+            long now = SystemClock.elapsedRealtime();
+            if (firstFailure < 0) {
+                firstFailure = now;
+            }
+            long elapsed = now - firstFailure;
+            if (attempt >= maxAttempts || elapsed >= deadlineMillis) {
+                if (maxAttempts > 1) {
+                    BasicCRUDProvider.reportRetriesExhausted(table, attempt, elapsed, e);
+                }
+                return false;
+            }
+
+            long backoff = getBackoffMillis(attempt);
+            long delay = Math.min(backoff / 2 + (long) (JITTER.nextDouble() * (backoff - backoff / 2)),
+                    deadlineMillis - elapsed);
+            BasicCRUDProvider.reportRetry(table, attempt, delay, e);
+            try {
+                Thread.sleep(delay);
+            }
+            catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            ++attempt;
+            return true;
+        }
+
+        /**
+         * Record the success of the current attempt
+         */
+        /* package */ void succeeded() {
+            if (attempt > 1) {
+                BasicCRUDProvider.reportRetrySucceeded(table, attempt,
+                        SystemClock.elapsedRealtime() - firstFailure);
+            }
+        }
+    }
+}
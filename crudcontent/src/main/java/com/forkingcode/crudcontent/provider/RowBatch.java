@@ -0,0 +1,580 @@
+/*
+ * Copyright 2015 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.provider;
+
+import android.content.ContentValues;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.IntDef;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rows to insert stored by column: a fixed list of typed columns, a primitive or object array per
+ * column and a bitmap marking the null values. Unlike an array of {@link ContentValues} no map, boxed
+ * value or other object is created per row.
+ *
+ * <p>Insert the batch with {@link BasicCRUDProvider#bulkInsert(android.net.Uri, RowBatch)}, which binds
+ * the values directly into a prepared statement, or via
+ * {@link com.forkingcode.crudcontent.task.BasicCRUDInsertTask.Builder#usingRows(RowBatch)}. A batch sent to
+ * a provider in another process is parceled column by column, it must stay well below the binder
+ * transaction limit of 1MB.
+ *
+ * <pre>
+ * RowBatch batch = new RowBatch.Builder()
+ *         .textColumn("name")
+ *         .integerColumn("age")
+ *         .build();
+ * int row = batch.addRow();
+ * batch.putText(0, "Joe");
+ * batch.putLong(1, 42);
+ * </pre>
+ *
+ * A batch is not thread safe, do not modify it while it is being inserted.
+ */
+public final class RowBatch implements Parcelable {
+
+    /**
+     * Column of long values, bound as INTEGER
+     */
+    public static final int TYPE_INTEGER = 1;
+    /**
+     * Column of double values, bound as REAL
+     */
+    public static final int TYPE_REAL = 2;
+    /**
+     * Column of string values, bound as TEXT
+     */
+    public static final int TYPE_TEXT = 3;
+    /**
+     * Column of byte array values, bound as BLOB
+     */
+    public static final int TYPE_BLOB = 4;
+
+    @SuppressWarnings("WeakerAccess")
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({TYPE_INTEGER, TYPE_REAL, TYPE_TEXT, TYPE_BLOB})
+    public @interface ColumnType {
+    }
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final String[] columns;
+    private final int[] types;
+    // one of long[], double[], String[] or byte[][] per column
+    private final Object[] values;
+    // a bit per row, set when the value of the row is null
+    private final long[][] nulls;
+    private int capacity;
+    private int rows = 0;
+
+    /**
+     * Builder used to declare the columns of a batch
+     */
+    public static class Builder {
+        private final List<String> columns = new ArrayList<>();
+        private final List<Integer> types = new ArrayList<>();
+        private int capacity = DEFAULT_CAPACITY;
+
+        @NonNull
+        public Builder integerColumn(@NonNull String column) {
+            return column(column, TYPE_INTEGER);
+        }
+
+        @NonNull
+        public Builder realColumn(@NonNull String column) {
+            return column(column, TYPE_REAL);
+        }
+
+        @NonNull
+        public Builder textColumn(@NonNull String column) {
+            return column(column, TYPE_TEXT);
+        }
+
+        @NonNull
+        public Builder blobColumn(@NonNull String column) {
+            return column(column, TYPE_BLOB);
+        }
+
+        /**
+         * Add a column, its index is the number of columns added before it
+         *
+         * @param column The name of the column
+         * @param type   The type of the values of the column
+         * @return This builder object
+         * @throws IllegalArgumentException If the column was already added
+         */
+        @NonNull
+        public Builder column(@NonNull String column, @ColumnType int type) {
+            if (columns.contains(column)) {
+                throw new IllegalArgumentException("Duplicate column: " + column);
+            }
+            columns.add(column);
+            types.add(type);
+            return this;
+        }
+
+        /**
+         * Optionally provide the expected number of rows, so the column arrays do not have to grow
+         *
+         * @param rows The expected number of rows
+         * @return This builder object
+         */
+        @NonNull
+        public Builder expectedRows(int rows) {
+            capacity = Math.max(1, rows);
+            return this;
+        }
+
+        /**
+         * @return an empty batch with the columns
+         * @throws IllegalStateException If no column was added
+         */
+        @NonNull
+        public RowBatch build() {
+            if (columns.isEmpty()) {
+                throw new IllegalStateException("Must provide at least one column");
+            }
+
+            int[] typeArray = new int[types.size()];
+            for (int i = 0; i < typeArray.length; ++i) {
+                typeArray[i] = types.get(i);
+            }
+            return new RowBatch(columns.toArray(new String[columns.size()]), typeArray, capacity);
+        }
+    }
+
+    private RowBatch(@NonNull String[] columns, @NonNull int[] types, int capacity) {
+        this.columns = columns;
+        this.types = types;
+        this.capacity = capacity;
+        values = new Object[columns.length];
+        nulls = new long[columns.length][];
+        for (int i = 0; i < columns.length; ++i) {
+            values[i] = newArray(types[i], capacity);
+            nulls[i] = new long[words(capacity)];
+        }
+    }
+
+    /**
+     * Add a row in which all values are null until they are put
+     *
+     * @return The index of the row
+     */
+    public int addRow() {
+        if (rows == capacity) {
+            grow(capacity * 2);
+        }
+        int row = rows++;
+        for (long[] bits : nulls) {
+            bits[row >> 6] |= 1L << row;
+        }
+        return row;
+    }
+
+    /**
+     * Set the value of the column of the last row added
+     *
+     * @param column The index of the column
+     * @param value  The value
+     * @throws IllegalStateException    If no row was added yet
+     * @throws IllegalArgumentException If the column is not a {@link #TYPE_INTEGER} column
+     */
+    public void putLong(int column, long value) {
+        ((long[]) values(column, TYPE_INTEGER))[setNotNull(column)] = value;
+    }
+
+    /**
+     * Set the value of the column of the last row added
+     *
+     * @param column The index of the column
+     * @param value  The value
+     * @throws IllegalStateException    If no row was added yet
+     * @throws IllegalArgumentException If the column is not a {@link #TYPE_REAL} column
+     */
+    public void putDouble(int column, double value) {
+        ((double[]) values(column, TYPE_REAL))[setNotNull(column)] = value;
+    }
+
+    /**
+     * Set the value of the column of the last row added, a null value is the same as {@link #putNull(int)}
+     *
+     * @param column The index of the column
+     * @param value  The value or null
+     * @throws IllegalStateException    If no row was added yet
+     * @throws IllegalArgumentException If the column is not a {@link #TYPE_TEXT} column
+     */
+    public void putText(int column, @Nullable String value) {
+        String[] array = (String[]) values(column, TYPE_TEXT);
+        if (value == null) {
+            putNull(column);
+        }
+        else {
+            array[setNotNull(column)] = value;
+        }
+    }
+
+    /**
+     * Set the value of the column of the last row added, a null value is the same as {@link #putNull(int)}
+     *
+     * @param column The index of the column
+     * @param value  The value or null
+     * @throws IllegalStateException    If no row was added yet
+     * @throws IllegalArgumentException If the column is not a {@link #TYPE_BLOB} column
+     */
+    public void putBlob(int column, @Nullable byte[] value) {
+        byte[][] array = (byte[][]) values(column, TYPE_BLOB);
+        if (value == null) {
+            putNull(column);
+        }
+        else {
+            array[setNotNull(column)] = value;
+        }
+    }
+
+    /**
+     * Set the value of the column of the last row added to null, values are null until they are put
+     *
+     * @param column The index of the column
+     * @throws IllegalStateException If no row was added yet
+     */
+    public void putNull(int column) {
+        int row = lastRow();
+        nulls[column][row >> 6] |= 1L << row;
+        if (types[column] == TYPE_TEXT || types[column] == TYPE_BLOB) {
+            ((Object[]) values[column])[row] = null;
+        }
+    }
+
+    /**
+     * @return The number of rows added since the batch was built or last cleared
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return The number of columns, fixed when the batch was built
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column The index of the column, from 0 to {@link #getColumnCount()} - 1
+     * @return The name of the column
+     */
+    @NonNull
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    /**
+     * @param column The index of the column, from 0 to {@link #getColumnCount()} - 1
+     * @return The type of the column, one of the TYPE_ constants
+     */
+    @ColumnType
+    public int getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @return The index of the column or -1 if the batch has no such column
+     */
+    public int getColumnIndex(@NonNull String column) {
+        for (int i = 0; i < columns.length; ++i) {
+            if (columns[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param row    The index of the row, from 0 to {@link #getRowCount()} - 1
+     * @param column The index of the column
+     * @return true if the value of the row is null
+     * @throws IndexOutOfBoundsException If the row was not added
+     */
+    public boolean isNull(int row, int column) {
+        checkRow(row);
+        return (nulls[column][row >> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @param row    The index of the row, from 0 to {@link #getRowCount()} - 1
+     * @param column The index of the column
+     * @return The value, unspecified if it is null, check {@link #isNull(int, int)}
+     * @throws IndexOutOfBoundsException If the row was not added
+     * @throws IllegalArgumentException  If the column is not a {@link #TYPE_INTEGER} column
+     */
+    public long getLong(int row, int column) {
+        checkRow(row);
+        return ((long[]) values(column, TYPE_INTEGER))[row];
+    }
+
+    /**
+     * @param row    The index of the row, from 0 to {@link #getRowCount()} - 1
+     * @param column The index of the column
+     * @return The value, unspecified if it is null, check {@link #isNull(int, int)}
+     * @throws IndexOutOfBoundsException If the row was not added
+     * @throws IllegalArgumentException  If the column is not a {@link #TYPE_REAL} column
+     */
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        return ((double[]) values(column, TYPE_REAL))[row];
+    }
+
+    /**
+     * @param row    The index of the row, from 0 to {@link #getRowCount()} - 1
+     * @param column The index of the column
+     * @return The value or null
+     * @throws IndexOutOfBoundsException If the row was not added
+     * @throws IllegalArgumentException  If the column is not a {@link #TYPE_TEXT} column
+     */
+    @Nullable
+    public String getText(int row, int column) {
+        checkRow(row);
+        return ((String[]) values(column, TYPE_TEXT))[row];
+    }
+
+    /**
+     * @param row    The index of the row, from 0 to {@link #getRowCount()} - 1
+     * @param column The index of the column
+     * @return The value or null
+     * @throws IndexOutOfBoundsException If the row was not added
+     * @throws IllegalArgumentException  If the column is not a {@link #TYPE_BLOB} column
+     */
+    @Nullable
+    public byte[] getBlob(int row, int column) {
+        checkRow(row);
+        return ((byte[][]) values(column, TYPE_BLOB))[row];
+    }
+
+    /**
+     * Copy a row into content values, for providers that only accept content values
+     *
+     * @param row The index of the row
+     * @return the values of the row, including its null values
+     */
+    @NonNull
+    public ContentValues toContentValues(int row) {
+        ContentValues contentValues = new ContentValues(columns.length);
+        for (int column = 0; column < columns.length; ++column) {
+            if (isNull(row, column)) {
+                contentValues.putNull(columns[column]);
+                continue;
+            }
+            switch (types[column]) {
+                case TYPE_INTEGER:
+                    contentValues.put(columns[column], getLong(row, column));
+                    break;
+                case TYPE_REAL:
+                    contentValues.put(columns[column], getDouble(row, column));
+                    break;
+                case TYPE_TEXT:
+                    contentValues.put(columns[column], getText(row, column));
+                    break;
+                default:
+                    contentValues.put(columns[column], getBlob(row, column));
+                    break;
+            }
+        }
+        return contentValues;
+    }
+
+    /**
+     * Remove all rows, keeping the columns and the allocated arrays for reuse
+     */
+    public void clear() {
+        for (int column = 0; column < columns.length; ++column) {
+            if (types[column] == TYPE_TEXT || types[column] == TYPE_BLOB) {
+                Arrays.fill((Object[]) values[column], 0, rows, null);
+            }
+            Arrays.fill(nulls[column], 0);
+        }
+        rows = 0;
+    }
+
+    @NonNull
+    private Object values(int column, int type) {
+        if (types[column] != type) {
+            throw new IllegalArgumentException("Column " + columns[column] + " is not of type " + type);
+        }
+        return values[column];
+    }
+
+    private int setNotNull(int column) {
+        int row = lastRow();
+        nulls[column][row >> 6] &= ~(1L << row);
+        return row;
+    }
+
+    private int lastRow() {
+        if (rows == 0) {
+            throw new IllegalStateException("Must add a row before putting values");
+        }
+        return rows - 1;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + rows);
+        }
+    }
+
+    private void grow(int newCapacity) {
+        for (int column = 0; column < columns.length; ++column) {
+            Object array = values[column];
+            switch (types[column]) {
+                case TYPE_INTEGER:
+                    values[column] = Arrays.copyOf((long[]) array, newCapacity);
+                    break;
+                case TYPE_REAL:
+                    values[column] = Arrays.copyOf((double[]) array, newCapacity);
+                    break;
+                case TYPE_TEXT:
+                    values[column] = Arrays.copyOf((String[]) array, newCapacity);
+                    break;
+                default:
+                    values[column] = Arrays.copyOf((byte[][]) array, newCapacity);
+                    break;
+            }
+            nulls[column] = Arrays.copyOf(nulls[column], words(newCapacity));
+        }
+        capacity = newCapacity;
+    }
+
+    @NonNull
+    private static Object newArray(int type, int capacity) {
+        switch (type) {
+            case TYPE_INTEGER:
+                return new long[capacity];
+            case TYPE_REAL:
+                return new double[capacity];
+            case TYPE_TEXT:
+                return new String[capacity];
+            case TYPE_BLOB:
+                return new byte[capacity][];
+            default:
+                throw new IllegalArgumentException("Unknown column type: " + type);
+        }
+    }
+
+    private static int words(int rows) {
+        return (rows + 63) >> 6;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    /**
+     * Writes the batch column by column, only the null bitmap and the values of the rows added are written
+     */
+    @Override
+    public void writeToParcel(@NonNull Parcel dest, int flags) {
+        dest.writeStringArray(columns);
+        dest.writeIntArray(types);
+        dest.writeInt(rows);
+        for (int column = 0; column < columns.length; ++column) {
+            long[] bits = nulls[column];
+            for (int i = 0; i < words(rows); ++i) {
+                dest.writeLong(bits[i]);
+            }
+
+            Object array = values[column];
+            for (int row = 0; row < rows; ++row) {
+                if ((bits[row >> 6] & (1L << row)) != 0) continue;
+
+                switch (types[column]) {
+                    case TYPE_INTEGER:
+                        dest.writeLong(((long[]) array)[row]);
+                        break;
+                    case TYPE_REAL:
+                        dest.writeDouble(((double[]) array)[row]);
+                        break;
+                    case TYPE_TEXT:
+                        dest.writeString(((String[]) array)[row]);
+                        break;
+                    default:
+                        dest.writeByteArray(((byte[][]) array)[row]);
+                        break;
+                }
+            }
+        }
+    }
+
+    private RowBatch(@NonNull Parcel in) {
+        this(in.createStringArray(), in.createIntArray(), 1);
+        int count = in.readInt();
+        if (count > 0) {
+            grow(count);
+        }
+        rows = count;
+        for (int column = 0; column < columns.length; ++column) {
+            long[] bits = nulls[column];
+            for (int i = 0; i < words(rows); ++i) {
+                bits[i] = in.readLong();
+            }
+
+            Object array = values[column];
+            for (int row = 0; row < rows; ++row) {
+                if ((bits[row >> 6] & (1L << row)) != 0) continue;
+
+                switch (types[column]) {
+                    case TYPE_INTEGER:
+                        ((long[]) array)[row] = in.readLong();
+                        break;
+                    case TYPE_REAL:
+                        ((double[]) array)[row] = in.readDouble();
+                        break;
+                    case TYPE_TEXT:
+                        ((String[]) array)[row] = in.readString();
+                        break;
+                    default:
+                        ((byte[][]) array)[row] = in.createByteArray();
+                        break;
+                }
+            }
+        }
+    }
+
+    public static final Creator<RowBatch> CREATOR = new Creator<RowBatch>() {
+        @Override
+        public RowBatch createFromParcel(Parcel in) {
+            return new RowBatch(in);
+        }
+
+        @Override
+        public RowBatch[] newArray(int size) {
+            return new RowBatch[size];
+        }
+    };
+
+    @Override
+    public String toString() {
+        return "RowBatch{columns=" + Arrays.toString(columns) + ", rows=" + rows + "}";
+    }
+}
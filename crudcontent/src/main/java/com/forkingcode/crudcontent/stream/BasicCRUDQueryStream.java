@@ -0,0 +1,361 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.stream;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.support.v4.content.ContentResolverCompat;
+import android.support.v4.os.CancellationSignal;
+import android.support.v4.os.OperationCanceledException;
+import android.util.Log;
+
+import com.forkingcode.crudcontent.loader.BasicCRUDLoader;
+import com.forkingcode.crudcontent.loader.QuerySpec;
+import com.forkingcode.crudcontent.task.BasicCRUDExecutors;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Runs a query and runs it again whenever the data under its uri changes, delivering each result to
+ * a listener. Unlike the {@link com.forkingcode.crudcontent.loader.BasicCRUDLoader} it is not tied to a
+ * {@link android.support.v4.app.LoaderManager}, so it can be used from services and background workers.
+ *
+ * <p>At most one query runs at a time. Changes arriving while a query runs are folded into a single
+ * further query. When a delivery executor is used and the listener falls behind, an undelivered result is
+ * replaced by the newer one, so the listener only ever sees the latest data.
+ *
+ * <p>You must create the stream via the {@link Builder}, and cancel it once no longer needed.
+ */
+public class BasicCRUDQueryStream {
+
+    private static final String TAG = "BasicCRUDQueryStream";
+
+    /**
+     * Receives the results of the stream
+     */
+    public interface Listener {
+
+        /**
+         * Called with each result of the query. The cursor is closed by the stream once the call returns.
+         *
+         * @param cursor The query result
+         */
+        @WorkerThread
+        void onQueryResult(@NonNull Cursor cursor);
+
+        /**
+         * Called when the query fails. The stream remains active and queries again on the next change.
+         *
+         * @param e The failure
+         */
+        @WorkerThread
+        void onQueryFailed(@NonNull RuntimeException e);
+    }
+
+    /**
+     * Builder used to create a new query stream
+     */
+    public static class Builder {
+        /* package */ final Context applicationContext;
+        /* package */ QuerySpec spec;
+        /* package */ Listener listener;
+        /* package */ Executor queryExecutor = null;
+        /* package */ Executor deliveryExecutor = null;
+
+        /**
+         * Create a new query stream builder
+         *
+         * @param context A context used in the creation of the stream. The application context
+         *                will be retrieved via this context, to avoid holding direct
+         *                references to any activities, views, etc.
+         */
+        public Builder(@NonNull Context context) {
+            this.applicationContext = context.getApplicationContext();
+        }
+
+        /**
+         * Provide the query to run. You must call this method on the builder. Failure to do so
+         * will result in an IllegalStateException when {@link #start()} is called.
+         * Paging and other loader only options of the spec are ignored.
+         *
+         * @param spec The query
+         * @return This builder object
+         */
+        @NonNull
+        public Builder forQuery(@NonNull QuerySpec spec) {
+            this.spec = spec;
+            return this;
+        }
+
+        /**
+         * Provide the listener receiving the results. You must call this method on the builder.
+         *
+         * @param listener The listener
+         * @return This builder object
+         */
+        @NonNull
+        public Builder listener(@NonNull Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Optionally provide the executor the query runs on. By default the
+         * {@link BasicCRUDExecutors#getReadExecutor()} is used.
+         *
+         * @param executor The executor for the query
+         * @return This builder object
+         */
+        @NonNull
+        public Builder queryOn(@NonNull Executor executor) {
+            this.queryExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Optionally provide the executor the listener is called on. By default the listener is
+         * called on the query thread, which holds back the next query until the listener returns.
+         * With a delivery executor the next query may run while the listener is busy, and results
+         * the listener has not yet received are replaced by newer results.
+         *
+         * @param executor The executor for the listener
+         * @return This builder object
+         */
+        @NonNull
+        public Builder deliverOn(@Nullable Executor executor) {
+            this.deliveryExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Start the stream, running the query for the first time
+         *
+         * @return The started stream
+         * @throws IllegalStateException If the query or listener is not provided.
+         */
+        @NonNull
+        public BasicCRUDQueryStream start() {
+            if (spec == null) {
+                throw new IllegalStateException("Query not provided");
+            }
+            if (listener == null) {
+                throw new IllegalStateException("Listener not provided");
+            }
+
+            BasicCRUDQueryStream stream = new BasicCRUDQueryStream(this);
+            stream.start();
+            return stream;
+        }
+    }
+
+    private final ContentResolver resolver;
+    private final QuerySpec spec;
+    private final Listener listener;
+    private final Executor queryExecutor;
+    private final Executor deliveryExecutor;
+    private final ContentObserver observer;
+
+    // guarded by this
+    private boolean cancelled = false;
+    private boolean running = false;
+    private boolean dirty = false;
+    private Cursor pendingResult;
+    private CancellationSignal cancellationSignal;
+
+    private final Runnable queryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            runQueries();
+        }
+    };
+
+    private final Runnable deliveryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Cursor result;
+            synchronized (BasicCRUDQueryStream.this) {
+                result = pendingResult;
+                pendingResult = null;
+            }
+            if (result != null) {
+                deliver(result);
+            }
+        }
+    };
+
+    private BasicCRUDQueryStream(@NonNull Builder builder) {
+        resolver = builder.applicationContext.getContentResolver();
+        spec = builder.spec;
+        listener = builder.listener;
+        queryExecutor = builder.queryExecutor != null ? builder.queryExecutor : BasicCRUDExecutors.getReadExecutor();
+        deliveryExecutor = builder.deliveryExecutor;
+        observer = new ContentObserver(null) {
+            @Override
+            public boolean deliverSelfNotifications() {
+                return true;
+            }
+
+            @Override
+            public void onChange(boolean selfChange) {
+                requestQuery();
+            }
+        };
+    }
+
+    private void start() {
+        resolver.registerContentObserver(spec.getUri(), true, observer);
+        requestQuery();
+    }
+
+    /**
+     * Stop observing the data and cancel any running query. Results not yet delivered are
+     * discarded. The listener may still receive a result already being delivered.
+     */
+    public void cancel() {
+        Cursor discarded;
+        synchronized (this) {
+            if (cancelled) return;
+            cancelled = true;
+            discarded = pendingResult;
+            pendingResult = null;
+            if (cancellationSignal != null) {
+                cancellationSignal.cancel();
+            }
+        }
+
+        resolver.unregisterContentObserver(observer);
+        if (discarded != null) {
+            discarded.close();
+        }
+    }
+
+    /**
+     * @return true if the stream was cancelled
+     */
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void requestQuery() {
+        synchronized (this) {
+            if (cancelled) return;
+            if (running) {
+                // fold into the query following the running one
+                dirty = true;
+                return;
+            }
+            running = true;
+        }
+        queryExecutor.execute(queryRunnable);
+    }
+
+    private void runQueries() {
+        while (true) {
+            CancellationSignal signal;
+            synchronized (this) {
+                if (cancelled) {
+                    running = false;
+                    return;
+                }
+                dirty = false;
+                signal = new CancellationSignal();
+                cancellationSignal = signal;
+            }
+
+            Cursor cursor = null;
+            try {
+                cursor = ContentResolverCompat.query(resolver, spec.getUri(), spec.getProjection(),
+                        spec.getSelection(), spec.getSelectionArgs(), spec.getSortOrder(), signal);
+                if (cursor != null) {
+                    // fill the window on this thread rather than the listener's
+                    cursor.getCount();
+                }
+            }
+            catch (OperationCanceledException e) {
+                // cancelled, the loop exits below
+            }
+            catch (RuntimeException e) {
+                if (!isCancelled()) {
+                    listener.onQueryFailed(e);
+                }
+            }
+
+            if (cursor != null) {
+                publish(cursor);
+            }
+
+            synchronized (this) {
+                cancellationSignal = null;
+                if (!dirty || cancelled) {
+                    running = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void publish(@NonNull Cursor cursor) {
+        if (deliveryExecutor == null) {
+            if (isCancelled()) {
+                cursor.close();
+            }
+            else {
+                deliver(cursor);
+            }
+            return;
+        }
+
+        Cursor dropped;
+        boolean schedule;
+        synchronized (this) {
+            if (cancelled) {
+                dropped = cursor;
+                schedule = false;
+            }
+            else {
+                // latest wins, an undelivered result is replaced
+                dropped = pendingResult;
+                schedule = dropped == null;
+                pendingResult = cursor;
+            }
+        }
+
+        if (dropped != null) {
+            if (BasicCRUDLoader.isLoggingEnabled()) {
+                Log.v(TAG, "Dropped an undelivered result for " + spec.getUri());
+            }
+            dropped.close();
+        }
+        if (schedule) {
+            deliveryExecutor.execute(deliveryRunnable);
+        }
+    }
+
+    private void deliver(@NonNull Cursor cursor) {
+        try {
+            listener.onQueryResult(cursor);
+        }
+        finally {
+            cursor.close();
+        }
+    }
+}
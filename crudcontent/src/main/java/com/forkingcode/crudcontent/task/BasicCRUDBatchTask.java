@@ -0,0 +1,341 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.task;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.v4.content.LocalBroadcastManager;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link android.os.AsyncTask} applying a mix of inserts, updates and deletes as one
+ * {@link android.content.ContentResolver#applyBatch(String, ArrayList)} call in the background. The
+ * {@link com.forkingcode.crudcontent.provider.BasicCRUDProvider} applies the batch in a single transaction.
+ * By default the task runs on the serial write lane of {@link BasicCRUDExecutors#getWriteExecutor()}.
+ *
+ * <pre>
+ * new BasicCRUDBatchTask.Builder(context)
+ *         .insert(ParentContract.URI, parentValues)
+ *         .insert(ChildContract.URI, childValues)
+ *         .withBackReference(ChildContract.Columns.PARENT_ID, 0)
+ *         .requestResultBroadcast()
+ *         .start();
+ * </pre>
+ *
+ * You must create the task via the {@link Builder}
+ */
+public class BasicCRUDBatchTask extends AsyncTask<BasicCRUDBatchTask.Builder, Void, BasicCRUDTaskResult> {
+
+    /**
+     * The {@link android.content.Intent} action sent via {@link android.support.v4.content.LocalBroadcastManager} when
+     * the batch is complete and requested
+     */
+    @NonNull
+    public static final String BATCH_COMPLETE_ACTION = "com.forkingcode.crudcontent.action.batch_complete";
+
+    /**
+     * The extra holding the {@link ContentProviderResult} of each operation, in the order the operations
+     * were added. Not provided if the batch failed.
+     */
+    @NonNull
+    public static final String EXTRA_RESULTS = "com.forkingcode.crudcontent.extra.results";
+
+    /**
+     * The extra indicating the number of rows inserted, updated or deleted by the batch
+     */
+    @NonNull
+    public static final String EXTRA_ROWS = "com.forkingcode.crudcontent.extra.rows";
+
+    /**
+     * The extra holding the message of the failure if the batch failed and was rolled back
+     */
+    @NonNull
+    public static final String EXTRA_ERROR = "com.forkingcode.crudcontent.extra.error";
+
+    /**
+     * Builder used to create a new batch task
+     */
+    public static class Builder {
+        /* package */ final Context applicationContext;
+        /* package */ final List<ContentProviderOperation.Builder> operations = new ArrayList<>();
+        /* package */ String authority;
+        /* package */ boolean mixedAuthorities = false;
+        /* package */ boolean resultBroadcastRequested = false;
+        /* package */ Executor executor;
+        /* package */ BasicCRUDTaskResult.Listener completeListener;
+        /* package */ Executor completeExecutor;
+
+        /**
+         * Create a new batch task builder
+         *
+         * @param context A context used in the creation of the task. The application context
+         *                will be retrieved via this context, to avoid holding direct
+         *                references to any activities, views, etc.
+         */
+        public Builder(@NonNull Context context) {
+            this.applicationContext = context.getApplicationContext();
+        }
+
+        /**
+         * Add an insert of a single row
+         *
+         * @param uri    The uri of the table to insert into
+         * @param values The content values indicating the columns/value pairs for the operation
+         * @return This builder object
+         */
+        @NonNull
+        public Builder insert(@NonNull Uri uri, @NonNull ContentValues values) {
+            return add(uri, ContentProviderOperation.newInsert(uri).withValues(values));
+        }
+
+        /**
+         * Add an update. Append the row id to the uri to update a single row.
+         *
+         * @param uri           The uri of the table or row to update
+         * @param values        The content values indicating the columns/value pairs for the operation
+         * @param selection     An optional selection, ignored by the provider when the uri references a row
+         * @param selectionArgs The arguments of the selection
+         * @return This builder object
+         */
+        @NonNull
+        public Builder update(@NonNull Uri uri, @NonNull ContentValues values,
+                              @Nullable String selection, @Nullable String... selectionArgs) {
+            return add(uri, ContentProviderOperation.newUpdate(uri).withValues(values)
+                    .withSelection(selection, selectionArgs));
+        }
+
+        /**
+         * Add a delete. Append the row id to the uri to delete a single row.
+         *
+         * @param uri           The uri of the table or row to delete
+         * @param selection     An optional selection, ignored by the provider when the uri references a row
+         * @param selectionArgs The arguments of the selection
+         * @return This builder object
+         */
+        @NonNull
+        public Builder delete(@NonNull Uri uri, @Nullable String selection, @Nullable String... selectionArgs) {
+            return add(uri, ContentProviderOperation.newDelete(uri).withSelection(selection, selectionArgs));
+        }
+
+        /**
+         * Set a column of the operation added last to the id of the row inserted by an earlier operation
+         * of this batch, for example to reference a parent row inserted in the same batch.
+         * Only valid for inserts and updates.
+         *
+         * @param column         The column set to the inserted id
+         * @param operationIndex The index of the earlier insert, counting from 0 in the order added
+         * @return This builder object
+         * @throws IllegalStateException    If no operation was added yet
+         * @throws IllegalArgumentException If the index does not reference an earlier operation
+         */
+        @NonNull
+        public Builder withBackReference(@NonNull String column, int operationIndex) {
+            if (operations.isEmpty()) {
+                throw new IllegalStateException("No operation to add the back reference to");
+            }
+            if (operationIndex < 0 || operationIndex >= operations.size() - 1) {
+                throw new IllegalArgumentException("Back reference must reference an earlier operation: " +
+                        operationIndex);
+            }
+            operations.get(operations.size() - 1).withValueBackReference(column, operationIndex);
+            return this;
+        }
+
+        /**
+         * Optionally request the task to send a local broadcast intent with the result of the batch
+         * using the {@link #BATCH_COMPLETE_ACTION}, otherwise no broadcast is sent.
+         * The results are provided via {@link #EXTRA_RESULTS} and the number of rows changed via
+         * {@link #EXTRA_ROWS}. If the batch failed {@link #EXTRA_ERROR} is provided instead of the results.
+         *
+         * @return this intent builder
+         * @see android.support.v4.content.LocalBroadcastManager
+         */
+        @NonNull
+        public Builder requestResultBroadcast() {
+            resultBroadcastRequested = true;
+            return this;
+        }
+
+        /**
+         * Optionally provide a listener called with the result on the thread the task ran on,
+         * see {@link BasicCRUDTaskResult.Listener}.
+         *
+         * @param listener The listener receiving the result
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onComplete(@NonNull BasicCRUDTaskResult.Listener listener) {
+            return onComplete(listener, null);
+        }
+
+        /**
+         * Optionally provide a listener called with the result on the given executor,
+         * see {@link BasicCRUDTaskResult.Listener}.
+         *
+         * @param listener The listener receiving the result
+         * @param executor The executor the listener is called on, or null to call it on the task thread
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onComplete(@NonNull BasicCRUDTaskResult.Listener listener, @Nullable Executor executor) {
+            this.completeListener = listener;
+            this.completeExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Optionally provide the executor the task runs on, otherwise the task runs on
+         * {@link BasicCRUDExecutors#getWriteExecutor()}.
+         *
+         * @param executor The executor for the task
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder executeOn(@NonNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Start the batch task.
+         *
+         * @return An instance of the BasicCRUDBatchTask that could be used for cancellation
+         * @throws IllegalStateException if no operation was added or the operations are for more than
+         *                               one provider authority
+         */
+        @NonNull
+        public BasicCRUDBatchTask start() {
+            if (operations.isEmpty()) {
+                throw new IllegalStateException("Must provide operations");
+            }
+            if (mixedAuthorities) {
+                throw new IllegalStateException("All operations must use the same authority");
+            }
+
+            BasicCRUDBatchTask task = new BasicCRUDBatchTask();
+            InsertCoalescer.getInstance().closeBatch();
+            task.executeOnExecutor(executor != null ? executor : BasicCRUDExecutors.getWriteExecutor(), this);
+            return task;
+        }
+
+        @NonNull
+        private Builder add(@NonNull Uri uri, @NonNull ContentProviderOperation.Builder operation) {
+            if (authority == null) {
+                authority = uri.getAuthority();
+            }
+            else if (!TextUtils.equals(authority, uri.getAuthority())) {
+                mixedAuthorities = true;
+            }
+            operations.add(operation);
+            return this;
+        }
+    }
+
+    /* package */ BasicCRUDBatchTask() {
+    }
+
+    @Override
+    @Nullable
+    protected BasicCRUDTaskResult doInBackground(@Nullable Builder... builders) {
+        if (builders == null) return null;
+
+        Builder builder = builders[0];
+
+        if (isCancelled()) {
+            return null;
+        }
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(builder.operations.size());
+        for (ContentProviderOperation.Builder operation : builder.operations) {
+            operations.add(operation.build());
+        }
+
+        ContentProviderResult[] results = null;
+        Exception failure = null;
+        try {
+            results = builder.applicationContext.getContentResolver().applyBatch(builder.authority, operations);
+        }
+        catch (RemoteException | OperationApplicationException e) {
+            failure = e;
+        }
+        catch (RuntimeException e) {
+            return BasicCRUDTaskResult.failure(e)
+                    .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), e);
+        }
+
+        if (builder.resultBroadcastRequested && !isCancelled()) {
+            Intent resultIntent = new Intent(BATCH_COMPLETE_ACTION);
+            resultIntent.putExtra(EXTRA_ROWS, countRows(results));
+            if (results != null) {
+                resultIntent.putExtra(EXTRA_RESULTS, results);
+            }
+            else {
+                resultIntent.putExtra(EXTRA_ERROR, failure.getMessage() != null
+                        ? failure.getMessage()
+                        : failure.toString());
+            }
+
+            LocalBroadcastManager.getInstance(builder.applicationContext)
+                    .sendBroadcast(resultIntent);
+        }
+
+        BasicCRUDTaskResult result = results != null
+                ? BasicCRUDTaskResult.success(countRows(results), insertedUris(results))
+                : BasicCRUDTaskResult.failure(failure);
+        return result
+                .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), null);
+    }
+
+    @NonNull
+    private static List<Uri> insertedUris(@NonNull ContentProviderResult[] results) {
+        List<Uri> uris = new ArrayList<>();
+        for (ContentProviderResult result : results) {
+            if (result.uri != null) {
+                uris.add(result.uri);
+            }
+        }
+        return uris;
+    }
+
+    private static int countRows(@Nullable ContentProviderResult[] results) {
+        if (results == null) return 0;
+
+        int rows = 0;
+        for (ContentProviderResult result : results) {
+            if (result.uri != null) {
+                ++rows;
+            }
+            else if (result.count != null) {
+                rows += result.count;
+            }
+        }
+        return rows;
+    }
+}
@@ -21,17 +21,22 @@ import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.provider.BaseColumns;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
 
+import java.util.Collection;
+import java.util.concurrent.Executor;
+
 /**
- * An {@link android.os.AsyncTask} for deleting data in the background. The task uses the
- * {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR} allowing multiple tasks to operate concurrently.
+ * An {@link android.os.AsyncTask} for deleting data in the background. By default the task runs on
+ * the serial write lane of {@link BasicCRUDExecutors#getWriteExecutor()}, so writes commit in the order
+ * they were started.
  *
  * You must create the task via the {@link Builder}
  */
-public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder, Void, Void> {
+public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder, Void, BasicCRUDTaskResult> {
 
     /**
      * The {@link android.content.Intent} action sent via {@link android.support.v4.content.LocalBroadcastManager} when
@@ -46,6 +51,18 @@ public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder,
     @NonNull
     public static final String EXTRA_ROWS = "com.forkingcode.crudcontent.extra.rows";
 
+    /**
+     * The extra set to true when the task was cancelled between chunks, see {@link Builder#whereIdIn(long...)}.
+     * {@link #EXTRA_ROWS} then holds the rows deleted before the task stopped.
+     */
+    @NonNull
+    public static final String EXTRA_CANCELLED = "com.forkingcode.crudcontent.extra.cancelled";
+
+    /**
+     * The maximum number of ids deleted per chunk, see {@link Builder#whereIdIn(long...)}
+     */
+    public static final int MAX_CHUNK_IDS = 500;
+
     /**
      * Builder used to create a new delete task
      */
@@ -55,7 +72,14 @@ public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder,
         /* package */ long rowId = 0;
         /* package */ String selection = null;
         /* package */ String[] selectionArgs = null;
+        /* package */ long[] ids = null;
+        /* package */ int chunkIds = MAX_CHUNK_IDS;
+        /* package */ BasicCRUDTaskProgress.Listener progressListener;
+        /* package */ Executor progressExecutor;
         /* package */ boolean resultBroadcastRequested = false;
+        /* package */ Executor executor;
+        /* package */ BasicCRUDTaskResult.Listener completeListener;
+        /* package */ Executor completeExecutor;
 
         /**
          * Create a new delete task builder
@@ -124,6 +148,73 @@ public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder,
             return this;
         }
 
+        /**
+         * Optionally delete the rows with the given ids. The rows are deleted in chunks of at most
+         * {@link #MAX_CHUNK_IDS} ids, each committed on its own, and combined with the selection if one
+         * is provided. The task reports its progress to the
+         * {@link #onProgress(BasicCRUDTaskProgress.Listener, Executor)} listener and stops between chunks once
+         * it is cancelled. The rows of the chunks committed before then stay deleted and are reported by a
+         * result for which {@link BasicCRUDTaskResult#isCancelled()} is true, and by the broadcast with
+         * {@link #EXTRA_CANCELLED}.
+         *
+         * An IllegalStateException will be thrown if both a rowId and ids are provided when
+         * {@link #start()} is called.
+         *
+         * @param ids The ids of the rows to delete
+         * @return This builder object
+         */
+        @NonNull
+        public Builder whereIdIn(@NonNull long... ids) {
+            this.ids = ids;
+            return this;
+        }
+
+        /**
+         * Optionally delete the rows with the given ids, see {@link #whereIdIn(long...)}
+         *
+         * @param ids The ids of the rows to delete
+         * @return This builder object
+         */
+        @NonNull
+        public Builder whereIdIn(@NonNull Collection<Long> ids) {
+            long[] idArray = new long[ids.size()];
+            int i = 0;
+            for (Long id : ids) {
+                idArray[i++] = id;
+            }
+            return whereIdIn(idArray);
+        }
+
+        /**
+         * Optionally lower the maximum number of ids deleted per chunk, see {@link #whereIdIn(long...)}
+         *
+         * @param ids The maximum number of ids per chunk, at most {@link #MAX_CHUNK_IDS}
+         * @return This builder object
+         * @throws IllegalArgumentException If the number of ids is not positive or above {@link #MAX_CHUNK_IDS}
+         */
+        @NonNull
+        public Builder chunkIds(int ids) {
+            if (ids <= 0 || ids > MAX_CHUNK_IDS) {
+                throw new IllegalArgumentException("Chunk ids must be between 1 and " + MAX_CHUNK_IDS);
+            }
+            chunkIds = ids;
+            return this;
+        }
+
+        /**
+         * Optionally provide a listener called after each chunk of ids is deleted, see {@link #whereIdIn(long...)}
+         *
+         * @param listener The listener receiving the progress
+         * @param executor The executor the listener is called on, or null to call it on the task thread
+         * @return This builder object
+         */
+        @NonNull
+        public Builder onProgress(@NonNull BasicCRUDTaskProgress.Listener listener, @Nullable Executor executor) {
+            progressListener = listener;
+            progressExecutor = executor;
+            return this;
+        }
+
         /**
          * Optionally request the task to send an local broadcast with the result of the delete
          * operation using the {@link #DELETE_COMPLETE_ACTION}, otherwise no broadcast is sent.
@@ -138,6 +229,46 @@ public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder,
             return this;
         }
 
+        /**
+         * Optionally provide a listener called with the result on the thread the task ran on,
+         * see {@link BasicCRUDTaskResult.Listener}.
+         *
+         * @param listener The listener receiving the result
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onComplete(@NonNull BasicCRUDTaskResult.Listener listener) {
+            return onComplete(listener, null);
+        }
+
+        /**
+         * Optionally provide a listener called with the result on the given executor,
+         * see {@link BasicCRUDTaskResult.Listener}.
+         *
+         * @param listener The listener receiving the result
+         * @param executor The executor the listener is called on, or null to call it on the task thread
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onComplete(@NonNull BasicCRUDTaskResult.Listener listener, @Nullable Executor executor) {
+            this.completeListener = listener;
+            this.completeExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Optionally provide the executor the task runs on, otherwise the task runs on
+         * {@link BasicCRUDExecutors#getWriteExecutor()}.
+         *
+         * @param executor The executor for the task
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder executeOn(@NonNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
         /**
          * Start the delete task.
          *
@@ -152,9 +283,13 @@ public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder,
             if (rowId != 0 && selection != null) {
                 throw new IllegalStateException("Do not provide both a row id and a selection");
             }
+            if (rowId != 0 && ids != null) {
+                throw new IllegalStateException("Do not provide both a row id and ids");
+            }
 
             BasicCRUDDeleteTask task = new BasicCRUDDeleteTask();
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, this);
+            InsertCoalescer.getInstance().closeBatch();
+            task.executeOnExecutor(executor != null ? executor : BasicCRUDExecutors.getWriteExecutor(), this);
             return task;
         }
     }
@@ -164,7 +299,7 @@ public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder,
 
     @Override
     @Nullable
-    protected Void doInBackground(@Nullable Builder... builders) {
+    protected BasicCRUDTaskResult doInBackground(@Nullable Builder... builders) {
         if (builders == null) return null;
 
         Builder builder = builders[0];
@@ -180,8 +315,42 @@ public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder,
             builder.selectionArgs = null;
         }
 
-        int rows = builder.applicationContext.getContentResolver()
-                .delete(uri, builder.selection, builder.selectionArgs);
+        int rows;
+        ChunkTracker tracker = null;
+        boolean stopped = false;
+        try {
+            if (builder.ids != null) {
+                tracker = new ChunkTracker(builder.ids.length, builder.progressListener, builder.progressExecutor);
+                stopped = deleteChunks(builder, tracker);
+                rows = tracker.getRows();
+            }
+            else {
+                rows = builder.applicationContext.getContentResolver()
+                        .delete(uri, builder.selection, builder.selectionArgs);
+            }
+        }
+        catch (RuntimeException e) {
+            return BasicCRUDTaskResult.failure(e)
+                    .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), e);
+        }
+
+        if (stopped) {
+            // nothing to report when the task was cancelled before its first chunk
+            if (tracker.getChunks() == 0) {
+                return null;
+            }
+
+            if (builder.resultBroadcastRequested) {
+                Intent resultIntent = new Intent(DELETE_COMPLETE_ACTION);
+                resultIntent.putExtra(EXTRA_ROWS, rows);
+                resultIntent.putExtra(EXTRA_CANCELLED, true);
+
+                LocalBroadcastManager.getInstance(builder.applicationContext)
+                        .sendBroadcast(resultIntent);
+            }
+            return BasicCRUDTaskResult.cancelled(rows)
+                    .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), null);
+        }
 
         if (builder.resultBroadcastRequested && !isCancelled()) {
             Intent resultIntent = new Intent(DELETE_COMPLETE_ACTION);
@@ -191,6 +360,40 @@ public class BasicCRUDDeleteTask extends AsyncTask<BasicCRUDDeleteTask.Builder,
                     .sendBroadcast(resultIntent);
         }
 
-        return null;
+        return BasicCRUDTaskResult.success(rows, null)
+                .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), null);
+    }
+
+    /**
+     * Delete the ids chunk by chunk, stopping between chunks once the task is cancelled
+     *
+     * @return True if the task was cancelled before all ids were deleted
+     */
+    private boolean deleteChunks(@NonNull Builder builder, @NonNull ChunkTracker tracker) {
+        long[] ids = builder.ids;
+        for (int start = 0; start < ids.length; start += builder.chunkIds) {
+            if (isCancelled()) {
+                return true;
+            }
+
+            int end = Math.min(ids.length, start + builder.chunkIds);
+            // the ids are numbers so they are inlined rather than bound, keeping clear of the variable limit
+            StringBuilder selection = new StringBuilder();
+            if (builder.selection != null) {
+                selection.append('(').append(builder.selection).append(") AND ");
+            }
+            selection.append(BaseColumns._ID).append(" IN (");
+            for (int i = start; i < end; ++i) {
+                if (i > start) {
+                    selection.append(',');
+                }
+                selection.append(ids[i]);
+            }
+            selection.append(')');
+
+            tracker.chunkCommitted(end - start, builder.applicationContext.getContentResolver()
+                    .delete(builder.uri, selection.toString(), builder.selectionArgs));
+        }
+        return isCancelled();
     }
 }
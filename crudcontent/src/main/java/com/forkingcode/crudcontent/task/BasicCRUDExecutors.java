@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.task;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The executors used by the library when the caller does not provide one.
+ *
+ * <p>Writes run on a single serial lane. SQLite allows only one writer at a time, so running
+ * writes concurrently only has them wait on the database lock, and commits land in a random order.
+ * Through the serial lane writes commit in the order they were started and never compete
+ * with each other for the lock. Reads, such as the prefetch of pages and query streams, run on a
+ * small bounded pool, separate from {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR}, so they do not
+ * compete with the other AsyncTasks of the application.
+ *
+ * <p>Either default may be replaced, for example with an executor shared with the rest of the
+ * application or a direct executor for tests. Replacing a default only affects work started afterwards.
+ */
+public final class BasicCRUDExecutors {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+    /* package */ static final int READ_POOL_SIZE = Math.max(2, Math.min(CPU_COUNT, 4));
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static Executor defaultWriteExecutor;
+    private static Executor defaultReadExecutor;
+    private static volatile Executor writeExecutor;
+    private static volatile Executor readExecutor;
+
+    private BasicCRUDExecutors() {
+    }
+
+    /**
+     * @return The executor the insert, update and delete tasks run on unless the builder provides one.
+     * By default a single background thread running the writes in the order they were started.
+     */
+    @NonNull
+    public static Executor getWriteExecutor() {
+        Executor executor = writeExecutor;
+        if (executor != null) {
+            return executor;
+        }
+
+        synchronized (BasicCRUDExecutors.class) {
+            if (defaultWriteExecutor == null) {
+                defaultWriteExecutor = newPool(1, "BasicCRUDWrite");
+            }
+            return defaultWriteExecutor;
+        }
+    }
+
+    /**
+     * @return The executor background reads of the library run on unless one is provided.
+     * By default a pool of {@value #READ_POOL_SIZE} threads at most, queueing further reads.
+     */
+    @NonNull
+    public static Executor getReadExecutor() {
+        Executor executor = readExecutor;
+        if (executor != null) {
+            return executor;
+        }
+
+        synchronized (BasicCRUDExecutors.class) {
+            if (defaultReadExecutor == null) {
+                defaultReadExecutor = newPool(READ_POOL_SIZE, "BasicCRUDRead");
+            }
+            return defaultReadExecutor;
+        }
+    }
+
+    /**
+     * Replace the default write executor. Writes are only ordered and free of lock contention when
+     * the executor runs one task at a time.
+     *
+     * @param executor The executor for writes, or null to restore the library default
+     */
+    public static void setWriteExecutor(@Nullable Executor executor) {
+        writeExecutor = executor;
+    }
+
+    /**
+     * Replace the default read executor
+     *
+     * @param executor The executor for reads, or null to restore the library default
+     */
+    public static void setReadExecutor(@Nullable Executor executor) {
+        readExecutor = executor;
+    }
+
+    @NonNull
+    private static Executor newPool(int threads, @NonNull final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, name + "-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // idle threads are released, the lane keeps its order as there is never more than one writer thread
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -16,22 +16,38 @@
 
 package com.forkingcode.crudcontent.task;
 
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
 
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+import com.forkingcode.crudcontent.provider.RowBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
 /**
- * An {@link android.os.AsyncTask} for inserting data in the background. The task uses the
- * {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR} allowing multiple tasks to operate concurrently.
+ * An {@link android.os.AsyncTask} for inserting data in the background. By default the task runs on
+ * the serial write lane of {@link BasicCRUDExecutors#getWriteExecutor()}, so writes commit in the order
+ * they were started.
  *
  * You must create the task via the {@link Builder}
  */
-public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder, Void, Void> {
+public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder, Void, BasicCRUDTaskResult> {
 
     /**
      * The {@link android.content.Intent} action sent via {@link android.support.v4.content.LocalBroadcastManager} when
@@ -52,6 +68,36 @@ public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder,
     @NonNull
     public static final String EXTRA_ROWS = "com.forkingcode.crudcontent.extra.rows";
 
+    /**
+     * The extra indicating the number of rows merged into the batch a coalesced insert was part of
+     */
+    @NonNull
+    public static final String EXTRA_COALESCED_ROWS = "com.forkingcode.crudcontent.extra.coalesced_rows";
+
+    /**
+     * The extra indicating the number of rows inserted by the batch a coalesced insert was part of
+     */
+    @NonNull
+    public static final String EXTRA_COALESCED_INSERTED = "com.forkingcode.crudcontent.extra.coalesced_inserted";
+
+    /**
+     * The extra set to true when the task was cancelled between chunks, see {@link Builder#chunkRows(int)}.
+     * {@link #EXTRA_ROWS} then holds the rows inserted before the task stopped.
+     */
+    @NonNull
+    public static final String EXTRA_CANCELLED = "com.forkingcode.crudcontent.extra.cancelled";
+
+    /**
+     * The default maximum number of rows per chunk of a streamed insert
+     */
+    public static final int DEFAULT_CHUNK_ROWS = 500;
+
+    /**
+     * The approximate maximum size in bytes of a chunk of a streamed insert, kept well below
+     * the binder transaction limit
+     */
+    public static final int MAX_CHUNK_BYTES = 256 * 1024;
+
     /**
      * Builder used to create a new insert task
      */
@@ -60,6 +106,16 @@ public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder,
         /* package */ Uri uri;
         /* package */ ContentValues[] valuesArray;
         /* package */ boolean resultBroadcastRequested = false;
+        /* package */ Executor executor;
+        /* package */ BasicCRUDTaskResult.Listener completeListener;
+        /* package */ Executor completeExecutor;
+        /* package */ boolean coalesce = false;
+        /* package */ Iterable<ContentValues> rowSource;
+        /* package */ RowBatch rowBatch;
+        /* package */ int chunkRows = DEFAULT_CHUNK_ROWS;
+        /* package */ boolean chunked = false;
+        /* package */ BasicCRUDTaskProgress.Listener progressListener;
+        /* package */ Executor progressExecutor;
 
         /**
          * Create a new insert task builder
@@ -95,6 +151,8 @@ public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder,
         @NonNull
         public Builder usingValues(@NonNull ContentValues values) {
             valuesArray = new ContentValues[]{values};
+            rowSource = null;
+            rowBatch = null;
             return this;
         }
 
@@ -107,6 +165,100 @@ public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder,
         @NonNull
         public Builder usingValues(@NonNull ContentValues[] values) {
             valuesArray = values;
+            rowSource = null;
+            rowBatch = null;
+            return this;
+        }
+
+        /**
+         * Provide the rows as a source which is read lazily on the task thread. The rows are bulk
+         * inserted in chunks of at most {@link #chunkRows(int)} rows and about {@link #MAX_CHUNK_BYTES}
+         * bytes, each chunk in its own transaction, so only one chunk is held in memory and no
+         * chunk exceeds the binder transaction limit. Rows of chunks already committed stay
+         * inserted if a later chunk fails.
+         *
+         * @param rows The source of the rows, for example a parser producing one row at a time
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder usingValues(@NonNull Iterable<ContentValues> rows) {
+            rowSource = rows;
+            valuesArray = null;
+            rowBatch = null;
+            return this;
+        }
+
+        /**
+         * Provide the rows stored by column, avoiding a {@link ContentValues} per row. When the provider
+         * is a {@link BasicCRUDProvider} in the same process the batch is bound directly into a prepared
+         * statement, when it runs in another process the batch is parceled via
+         * {@link BasicCRUDProvider#BULK_INSERT_ROWS_METHOD}. Other providers receive a regular bulk insert.
+         * The rows are inserted in one transaction, the batch is not split into chunks.
+         *
+         * @param rows The rows, not modified until the task completes
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder usingRows(@NonNull RowBatch rows) {
+            rowBatch = rows;
+            valuesArray = null;
+            rowSource = null;
+            return this;
+        }
+
+        /**
+         * Provide the rows as an iterator which is read lazily on the task thread,
+         * see {@link #usingValues(Iterable)}
+         *
+         * @param rows The rows
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder usingValues(@NonNull final Iterator<ContentValues> rows) {
+            return usingValues(new Iterable<ContentValues>() {
+                @Override
+                public Iterator<ContentValues> iterator() {
+                    return rows;
+                }
+            });
+        }
+
+        /**
+         * Optionally insert the rows in chunks of at most the given number of rows, each committed on its own.
+         * Rows provided via {@link #usingValues(Iterable)} are always inserted in chunks, by default of
+         * {@link #DEFAULT_CHUNK_ROWS} rows, while an array of rows is otherwise inserted by one bulk insert.
+         *
+         * A chunked insert reports its progress to the {@link #onProgress(BasicCRUDTaskProgress.Listener, Executor)}
+         * listener and stops between chunks once the task is cancelled. The rows of the chunks committed before
+         * then stay inserted and are reported by a result for which {@link BasicCRUDTaskResult#isCancelled()}
+         * is true, and by the broadcast with {@link #EXTRA_CANCELLED}.
+         *
+         * @param rows The maximum number of rows per chunk
+         * @return this intent builder
+         * @throws IllegalArgumentException If the number of rows is not positive
+         */
+        @NonNull
+        public Builder chunkRows(int rows) {
+            if (rows <= 0) {
+                throw new IllegalArgumentException("Chunk rows must be positive");
+            }
+            chunkRows = rows;
+            chunked = true;
+            return this;
+        }
+
+        /**
+         * Optionally provide a listener called after each chunk of a chunked insert is committed,
+         * see {@link #chunkRows(int)}
+         *
+         * @param listener The listener receiving the progress
+         * @param executor The executor the listener is called on, or null to call it on the task thread
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onProgress(@NonNull BasicCRUDTaskProgress.Listener listener, @Nullable Executor executor) {
+            progressListener = listener;
+            progressExecutor = executor;
             return this;
         }
 
@@ -125,6 +277,67 @@ public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder,
             return this;
         }
 
+        /**
+         * Optionally provide a listener called with the result on the thread the task ran on,
+         * see {@link BasicCRUDTaskResult.Listener}.
+         *
+         * @param listener The listener receiving the result
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onComplete(@NonNull BasicCRUDTaskResult.Listener listener) {
+            return onComplete(listener, null);
+        }
+
+        /**
+         * Optionally provide a listener called with the result on the given executor,
+         * see {@link BasicCRUDTaskResult.Listener}.
+         *
+         * @param listener The listener receiving the result
+         * @param executor The executor the listener is called on, or null to call it on the task thread
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onComplete(@NonNull BasicCRUDTaskResult.Listener listener, @Nullable Executor executor) {
+            this.completeListener = listener;
+            this.completeExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Optionally provide the executor the task runs on, otherwise the task runs on
+         * {@link BasicCRUDExecutors#getWriteExecutor()}.
+         *
+         * @param executor The executor for the task
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder executeOn(@NonNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Optionally merge this insert with other coalesced single row inserts for the same uri into
+         * one batch, so the rows share a single transaction and change notification. Inserts started
+         * while the batch is waiting behind other writes are merged, up to {@value InsertCoalescer#MAX_ROWS}
+         * rows. Starting any other write closes the batch, so writes still commit in the order they were
+         * started. Ignored when multiple rows are provided.
+         *
+         * <p>Each task still completes and broadcasts its own result, including the uri of its row, along with
+         * {@link #EXTRA_COALESCED_ROWS} and {@link #EXTRA_COALESCED_INSERTED}. If the batch fails and the uri
+         * belongs to a {@link BasicCRUDProvider} in this process, which rolls the batch back as a whole, each
+         * row is inserted on its own instead. For other providers the failure is reported to every task of the
+         * batch, as rows applied before the failure may already be committed.
+         *
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder coalesceInserts() {
+            coalesce = true;
+            return this;
+        }
+
         /**
          * Start the insert task.
          *
@@ -136,46 +349,121 @@ public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder,
             if (uri == null) {
                 throw new IllegalStateException("Must provide URI");
             }
-            if (valuesArray == null) {
+            if (valuesArray == null && rowSource == null && rowBatch == null) {
                 throw new IllegalStateException("Must provide content values");
             }
 
             BasicCRUDInsertTask task = new BasicCRUDInsertTask();
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, this);
+            Executor useExecutor = executor != null ? executor : BasicCRUDExecutors.getWriteExecutor();
+            if (coalesce && valuesArray != null && valuesArray.length == 1) {
+                InsertCoalescer.getInstance().start(task, this, useExecutor);
+            }
+            else {
+                InsertCoalescer.getInstance().closeBatch();
+                task.executeOnExecutor(useExecutor, this);
+            }
             return task;
         }
     }
 
+    // set by the InsertCoalescer before the task runs
+    private volatile boolean coalesced = false;
+    private int coalescedRows;
+    private int coalescedInserted;
+    private Uri coalescedUri;
+    private RuntimeException coalescedFailure;
+
     /* package */ BasicCRUDInsertTask() {
     }
 
+    /**
+     * Provide the outcome of this task's row in the batch it was merged into
+     */
+    /* package */ void setCoalescedResult(int rows, int inserted, @Nullable Uri uri,
+                                          @Nullable RuntimeException failure) {
+        coalescedRows = rows;
+        coalescedInserted = inserted;
+        coalescedUri = uri;
+        coalescedFailure = failure;
+        coalesced = true;
+    }
+
     @Override
     @Nullable
-    protected Void doInBackground(@Nullable Builder... builders) {
+    protected BasicCRUDTaskResult doInBackground(@Nullable Builder... builders) {
         if (builders == null) return null;
 
         Builder builder = builders[0];
 
         Uri uri = null;
         int rows;
+        ChunkTracker tracker = null;
+        boolean stopped = false;
 
         if (isCancelled()) {
             return null;
         }
 
-        if (builder.valuesArray.length == 1) {
-            uri = builder.applicationContext.getContentResolver()
-                    .insert(builder.uri, builder.valuesArray[0]);
-            rows = uri != null ? 1 : 0;
+        try {
+            if (coalesced) {
+                if (coalescedFailure != null) {
+                    throw coalescedFailure;
+                }
+                uri = coalescedUri;
+                rows = uri != null ? 1 : 0;
+            }
+            else if (builder.rowBatch != null) {
+                rows = insertRowBatch(builder);
+            }
+            else if (builder.rowSource != null || builder.chunked) {
+                tracker = new ChunkTracker(
+                        builder.rowSource != null ? BasicCRUDTaskResult.UNKNOWN_ROWS : builder.valuesArray.length,
+                        builder.progressListener, builder.progressExecutor);
+                stopped = insertChunks(builder, tracker);
+                rows = tracker.getRows();
+            }
+            else if (builder.valuesArray.length == 1) {
+                uri = builder.applicationContext.getContentResolver()
+                        .insert(builder.uri, builder.valuesArray[0]);
+                rows = uri != null ? 1 : 0;
+            }
+            else {
+                rows = builder.applicationContext.getContentResolver()
+                        .bulkInsert(builder.uri, builder.valuesArray);
+            }
         }
-        else {
-            rows = builder.applicationContext.getContentResolver()
-                    .bulkInsert(builder.uri, builder.valuesArray);
+        catch (RuntimeException e) {
+            return BasicCRUDTaskResult.failure(e)
+                    .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), e);
+        }
+
+        if (stopped) {
+            // nothing to report when the task was cancelled before its first chunk
+            if (tracker.getChunks() == 0) {
+                return null;
+            }
+
+            if (builder.resultBroadcastRequested) {
+                Intent resultIntent = new Intent(INSERT_COMPLETE_ACTION);
+                resultIntent.putExtra(EXTRA_ROWS, rows);
+                resultIntent.putExtra(EXTRA_CANCELLED, true);
+
+                LocalBroadcastManager.getInstance(builder.applicationContext)
+                        .sendBroadcast(resultIntent);
+            }
+            return BasicCRUDTaskResult.cancelled(rows)
+                    .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), null);
         }
 
         if (builder.resultBroadcastRequested && !isCancelled()) {
             Intent resultIntent = new Intent(INSERT_COMPLETE_ACTION);
-            resultIntent.putExtra(EXTRA_ROWS, rows);
+            if (rows >= 0) {
+                resultIntent.putExtra(EXTRA_ROWS, rows);
+            }
+            if (coalesced) {
+                resultIntent.putExtra(EXTRA_COALESCED_ROWS, coalescedRows);
+                resultIntent.putExtra(EXTRA_COALESCED_INSERTED, coalescedInserted);
+            }
             if (uri != null) {
                 resultIntent.putExtra(EXTRA_URI, uri);
             }
@@ -184,6 +472,127 @@ public class BasicCRUDInsertTask extends AsyncTask<BasicCRUDInsertTask.Builder,
                     .sendBroadcast(resultIntent);
         }
 
-        return null;
+        return BasicCRUDTaskResult.success(rows, uri != null ? Collections.singletonList(uri) : null)
+                .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), null);
+    }
+
+    /**
+     * Insert the row batch directly into a provider in this process, otherwise via the call method
+     * or, for providers without support for row batches, as content values
+     *
+     * @return The number of rows inserted
+     */
+    private int insertRowBatch(@NonNull Builder builder) {
+        ContentResolver resolver = builder.applicationContext.getContentResolver();
+        RowBatch batch = builder.rowBatch;
+
+        ContentProviderClient client = resolver.acquireContentProviderClient(builder.uri);
+        if (client != null) {
+            try {
+                ContentProvider provider = client.getLocalContentProvider();
+                if (provider instanceof BasicCRUDProvider) {
+                    return ((BasicCRUDProvider) provider).bulkInsert(builder.uri, batch);
+                }
+            }
+            finally {
+                client.release();
+            }
+        }
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(BasicCRUDProvider.EXTRA_ROW_BATCH, batch);
+        try {
+            Bundle result = resolver.call(builder.uri, BasicCRUDProvider.BULK_INSERT_ROWS_METHOD,
+                    builder.uri.toString(), extras);
+            if (result != null) {
+                return result.getInt(BasicCRUDProvider.EXTRA_ROWS);
+            }
+        }
+        catch (UnsupportedOperationException e) {
+            // not a BasicCRUDProvider, fall through to a regular bulk insert
+        }
+
+        ContentValues[] valuesArray = new ContentValues[batch.getRowCount()];
+        for (int row = 0; row < valuesArray.length; ++row) {
+            valuesArray[row] = batch.toContentValues(row);
+        }
+        return resolver.bulkInsert(builder.uri, valuesArray);
+    }
+
+    /**
+     * Bulk insert the rows chunk by chunk, stopping between chunks once the task is cancelled
+     *
+     * @return True if the task was cancelled before all rows were inserted
+     */
+    private boolean insertChunks(@NonNull Builder builder, @NonNull ChunkTracker tracker) {
+        Iterator<ContentValues> source = builder.rowSource != null
+                ? builder.rowSource.iterator()
+                : Arrays.asList(builder.valuesArray).iterator();
+
+        List<ContentValues> chunk = new ArrayList<>(Math.min(builder.chunkRows, DEFAULT_CHUNK_ROWS));
+        int chunkBytes = 0;
+        while (source.hasNext()) {
+            ContentValues values = source.next();
+            int size = estimateSize(values);
+            if (!chunk.isEmpty() && chunkBytes + size > MAX_CHUNK_BYTES) {
+                if (!insertChunk(builder, chunk, tracker)) {
+                    return true;
+                }
+                chunkBytes = 0;
+            }
+
+            chunk.add(values);
+            chunkBytes += size;
+            if (chunk.size() >= builder.chunkRows) {
+                if (!insertChunk(builder, chunk, tracker)) {
+                    return true;
+                }
+                chunkBytes = 0;
+            }
+        }
+        if (!chunk.isEmpty() && !insertChunk(builder, chunk, tracker)) {
+            return true;
+        }
+        return isCancelled();
+    }
+
+    /**
+     * Bulk insert the chunk unless the task was cancelled
+     *
+     * @return False if the task was cancelled and the chunk was not inserted
+     */
+    private boolean insertChunk(@NonNull Builder builder, @NonNull List<ContentValues> chunk,
+                                @NonNull ChunkTracker tracker) {
+        if (isCancelled()) {
+            return false;
+        }
+
+        int items = chunk.size();
+        int rows = builder.applicationContext.getContentResolver()
+                .bulkInsert(builder.uri, chunk.toArray(new ContentValues[items]));
+        chunk.clear();
+        tracker.chunkCommitted(items, rows);
+        return true;
+    }
+
+    /**
+     * Approximate the parceled size of the values
+     */
+    private static int estimateSize(@NonNull ContentValues values) {
+        int size = 4;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            size += 8 + entry.getKey().length() * 2;
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                size += 4 + ((String) value).length() * 2;
+            }
+            else if (value instanceof byte[]) {
+                size += 4 + ((byte[]) value).length;
+            }
+            else {
+                size += 8;
+            }
+        }
+        return size;
     }
 }
@@ -0,0 +1,766 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.task;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.sqlite.SQLiteDiskIOException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteFullException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import com.forkingcode.crudcontent.provider.RetryPolicy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * A durable write-behind queue. Inserts, updates and deletes given to the outbox return immediately
+ * and are applied to the provider in the background, surviving the process being killed in between.
+ *
+ * <p>Each operation is appended to a journal in the files directory. Operations arriving while the
+ * journal is being written are written and synced together, so a burst of operations costs a single
+ * fsync. Once synced the operations are applied with {@link ContentResolver#applyBatch(String, ArrayList)}
+ * in batches of up to {@value #MAX_BATCH} operations. Operations still in the journal when the process
+ * died are applied again the next time the outbox is created. The work runs on
+ * {@link BasicCRUDExecutors#getWriteExecutor()}, so it is ordered with the other write tasks.
+ *
+ * <p>Operations are applied at least once: if the process dies after a batch is applied but before
+ * that is recorded, the batch is applied again. Inserts into tables with a unique key and the
+ * ignore or replace conflict algorithms are unaffected by this. A batch the provider rejects is applied
+ * an operation at a time and the operations which still fail, such as on a constraint, are dropped and
+ * logged. If the provider cannot be reached, or an operation fails for a reason which may pass, such as
+ * the database remaining locked after the provider's retries or the disk being full, that operation and
+ * all after it are kept and retried with the next operation or the next start.
+ */
+public final class BasicCRUDOutbox {
+
+    private static final String TAG = "BasicCRUDOutbox";
+
+    private static final String FILE_PREFIX = "crudcontent_outbox";
+    private static final String JOURNAL = ".journal";
+    private static final String CHECKPOINT = ".checkpoint";
+    private static final Pattern NAME_PATTERN = Pattern.compile("[A-Za-z0-9_]+");
+
+    /* package */ static final int MAX_BATCH = 100;
+
+    private static final byte OP_INSERT = 1;
+    private static final byte OP_UPDATE = 2;
+    private static final byte OP_DELETE = 3;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_DOUBLE = 3;
+    private static final byte TYPE_BOOLEAN = 4;
+    private static final byte TYPE_BLOB = 5;
+
+    private static final Map<String, BasicCRUDOutbox> instances = new HashMap<>();
+    private static boolean LOGGING_ENABLED = false;
+
+    private final ContentResolver resolver;
+    private final File journal;
+    private final File checkpoint;
+
+    // guarded by this
+    private final List<Record> appended = new ArrayList<>();
+    private long appendedCount = 0;
+    private long durableCount = 0;
+    private long processedCount = 0;
+    private boolean scheduled = false;
+    private boolean replayed = false;
+
+    // only accessed by the job, which holds the journal lock
+    private final Object journalLock = new Object();
+    private final List<Record> unapplied = new ArrayList<>();
+    private long journalRecords = 0;
+    private long appliedRecords = 0;
+
+    private final Runnable job = new Runnable() {
+        @Override
+        public void run() {
+            process();
+        }
+    };
+
+    /**
+     * Get the outbox, replaying any operations left in the journal by a previous process
+     *
+     * @param context A context used to access the files directory and the content resolver. The
+     *                application context is retrieved via this context.
+     * @return The outbox
+     */
+    @NonNull
+    public static BasicCRUDOutbox getInstance(@NonNull Context context) {
+        return getInstance(context, null);
+    }
+
+    /**
+     * Get a named outbox, replaying any operations left in its journal by a previous process. Each
+     * named outbox keeps its own journal, operations of different outboxes are not ordered with each other.
+     *
+     * @param context A context used to access the files directory and the content resolver. The
+     *                application context is retrieved via this context.
+     * @param name    The name of the outbox made of letters, digits and underscores, or null for the default
+     * @return The outbox
+     * @throws IllegalArgumentException If the name contains other characters
+     */
+    @NonNull
+    public static synchronized BasicCRUDOutbox getInstance(@NonNull Context context, @Nullable String name) {
+        if (name != null && !NAME_PATTERN.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid outbox name: " + name);
+        }
+
+        String prefix = name != null ? FILE_PREFIX + "_" + name : FILE_PREFIX;
+        BasicCRUDOutbox outbox = instances.get(prefix);
+        if (outbox == null) {
+            outbox = new BasicCRUDOutbox(context.getApplicationContext(), prefix);
+            instances.put(prefix, outbox);
+        }
+        return outbox;
+    }
+
+    /**
+     * Enable diagnostic logging. Best if flag is tied to BuildConfig.DEBUG for the application
+     *
+     * @param enabled true if diagnostic logging should occur
+     */
+    public static void setLoggingEnabled(boolean enabled) {
+        LOGGING_ENABLED = enabled;
+    }
+
+    private BasicCRUDOutbox(@NonNull Context context, @NonNull String prefix) {
+        resolver = context.getContentResolver();
+        journal = new File(context.getFilesDir(), prefix + JOURNAL);
+        checkpoint = new File(context.getFilesDir(), prefix + CHECKPOINT);
+
+        synchronized (this) {
+            scheduled = true;
+        }
+        BasicCRUDExecutors.getWriteExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (journalLock) {
+                    replay();
+                }
+                process();
+
+                synchronized (BasicCRUDOutbox.this) {
+                    replayed = true;
+                    BasicCRUDOutbox.this.notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue an insert of a single row
+     *
+     * @param uri    The uri of the table to insert into
+     * @param values The content values indicating the columns/value pairs for the operation
+     */
+    public void insert(@NonNull Uri uri, @NonNull ContentValues values) {
+        append(new Record(OP_INSERT, uri, new ContentValues(values), null, null));
+    }
+
+    /**
+     * Queue an update. Append the row id to the uri to update a single row.
+     *
+     * @param uri           The uri of the table or row to update
+     * @param values        The content values indicating the columns/value pairs for the operation
+     * @param selection     An optional selection, ignored by the provider when the uri references a row
+     * @param selectionArgs The arguments of the selection
+     */
+    public void update(@NonNull Uri uri, @NonNull ContentValues values,
+                       @Nullable String selection, @Nullable String... selectionArgs) {
+        append(new Record(OP_UPDATE, uri, new ContentValues(values), selection, copy(selectionArgs)));
+    }
+
+    /**
+     * Queue a delete. Append the row id to the uri to delete a single row.
+     *
+     * @param uri           The uri of the table or row to delete
+     * @param selection     An optional selection, ignored by the provider when the uri references a row
+     * @param selectionArgs The arguments of the selection
+     */
+    public void delete(@NonNull Uri uri, @Nullable String selection, @Nullable String... selectionArgs) {
+        append(new Record(OP_DELETE, uri, null, selection, copy(selectionArgs)));
+    }
+
+    /**
+     * Wait until every operation queued so far is written to the journal and synced
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    @WorkerThread
+    public synchronized void sync() throws InterruptedException {
+        long target = appendedCount;
+        while (durableCount < target) {
+            wait();
+        }
+    }
+
+    /**
+     * Wait until every operation queued so far, and those replayed from the journal, has been applied
+     * to the provider, dropped, or kept for a retry
+     *
+     * @throws InterruptedException If interrupted while waiting
+     */
+    @WorkerThread
+    public synchronized void flush() throws InterruptedException {
+        long target = appendedCount;
+        while (!replayed || processedCount < target) {
+            wait();
+        }
+    }
+
+    private void append(@NonNull Record record) {
+        InsertCoalescer.getInstance().closeBatch();
+        boolean schedule;
+        synchronized (this) {
+            appended.add(record);
+            ++appendedCount;
+            schedule = !scheduled;
+            scheduled = true;
+        }
+        if (schedule) {
+            BasicCRUDExecutors.getWriteExecutor().execute(job);
+        }
+    }
+
+    /**
+     * Write the appended operations to the journal and apply everything not yet applied
+     */
+    private void process() {
+        List<Record> records;
+        long upTo;
+        synchronized (this) {
+            records = new ArrayList<>(appended);
+            appended.clear();
+            upTo = appendedCount;
+            // operations appended from here on schedule another run
+            scheduled = false;
+        }
+
+        synchronized (journalLock) {
+            if (!records.isEmpty()) {
+                try {
+                    write(records);
+                }
+                catch (IOException e) {
+                    // still applied, they are only lost if the process dies before that
+                    if (LOGGING_ENABLED) {
+                        Log.w(TAG, "Failed to write " + records.size() + " operations to " + journal, e);
+                    }
+                }
+                unapplied.addAll(records);
+            }
+
+            synchronized (this) {
+                durableCount = Math.max(durableCount, upTo);
+                notifyAll();
+            }
+
+            drain();
+        }
+
+        synchronized (this) {
+            processedCount = Math.max(processedCount, upTo);
+            notifyAll();
+        }
+    }
+
+    private void write(@NonNull List<Record> records) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(buffer);
+        CRC32 crc = new CRC32();
+        for (Record record : records) {
+            byte[] bytes = record.toBytes();
+            crc.reset();
+            crc.update(bytes);
+            data.writeInt(bytes.length);
+            data.writeInt((int) crc.getValue());
+            data.write(bytes);
+        }
+        data.flush();
+
+        FileOutputStream out = new FileOutputStream(journal, true);
+        try {
+            out.write(buffer.toByteArray());
+            out.flush();
+            out.getFD().sync();
+        }
+        finally {
+            close(out);
+        }
+        journalRecords += records.size();
+        for (Record record : records) {
+            record.journaled = true;
+        }
+    }
+
+    /**
+     * Apply the unapplied operations in batches, recording the progress after each batch
+     */
+    private void drain() {
+        while (!unapplied.isEmpty()) {
+            // a batch is limited to one authority
+            String authority = unapplied.get(0).uri.getAuthority();
+            int count = 1;
+            while (count < unapplied.size() && count < MAX_BATCH &&
+                    authority != null && authority.equals(unapplied.get(count).uri.getAuthority())) {
+                ++count;
+            }
+
+            int done;
+            try {
+                done = apply(authority, unapplied.subList(0, count));
+            }
+            catch (RemoteException e) {
+                if (LOGGING_ENABLED) {
+                    Log.w(TAG, "Provider unavailable, keeping " + unapplied.size() + " operations", e);
+                }
+                return;
+            }
+
+            List<Record> batch = unapplied.subList(0, done);
+            for (Record record : batch) {
+                if (record.journaled) {
+                    ++appliedRecords;
+                }
+            }
+            batch.clear();
+            if (done > 0) {
+                recordProgress();
+            }
+            if (done < count) {
+                // the rest are kept in order behind the operation which may succeed later
+                return;
+            }
+        }
+    }
+
+    /**
+     * Apply the batch, dropping the operations which fail deterministically
+     *
+     * @return The number of leading operations applied or dropped. Fewer than the batch when an
+     * operation failed for a reason which may pass, it and the operations after it are kept.
+     */
+    private int apply(@Nullable String authority, @NonNull List<Record> batch) throws RemoteException {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (Record record : batch) {
+            operations.add(record.toOperation());
+        }
+
+        try {
+            resolver.applyBatch(authority, operations);
+            return batch.size();
+        }
+        catch (OperationApplicationException | RuntimeException e) {
+            if (isTransient(e)) {
+                if (LOGGING_ENABLED) {
+                    Log.w(TAG, "Keeping " + batch.size() + " operations for a retry", e);
+                }
+                return 0;
+            }
+            if (operations.size() == 1) {
+                if (LOGGING_ENABLED) {
+                    Log.w(TAG, "Dropping operation on " + batch.get(0).uri, e);
+                }
+                return 1;
+            }
+        }
+
+        // find the operations which fail on their own
+        for (int i = 0; i < operations.size(); ++i) {
+            ArrayList<ContentProviderOperation> single = new ArrayList<>(1);
+            single.add(operations.get(i));
+            try {
+                resolver.applyBatch(authority, single);
+            }
+            catch (OperationApplicationException | RuntimeException e) {
+                if (isTransient(e)) {
+                    if (LOGGING_ENABLED) {
+                        Log.w(TAG, "Keeping " + (batch.size() - i) + " operations for a retry", e);
+                    }
+                    return i;
+                }
+                if (LOGGING_ENABLED) {
+                    Log.w(TAG, "Dropping operation on " + batch.get(i).uri, e);
+                }
+            }
+        }
+        return batch.size();
+    }
+
+    /**
+     * @return True if the failure was caused by the database being locked, full or failing to write,
+     * rather than by the operation itself
+     */
+    private static boolean isTransient(@NonNull Exception e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLiteException) {
+                SQLiteException failure = (SQLiteException) cause;
+                return RetryPolicy.isRetryable(failure) || failure instanceof SQLiteFullException
+                        || failure instanceof SQLiteDiskIOException;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record how many operations of the journal were applied. Once all are, the journal is emptied.
+     */
+    private void recordProgress() {
+        try {
+            if (unapplied.isEmpty()) {
+                // the checkpoint goes first, a journal without one is only replayed in full
+                if (!checkpoint.delete() && checkpoint.exists()) {
+                    truncate(checkpoint);
+                }
+                truncate(journal);
+                journalRecords = 0;
+                appliedRecords = 0;
+                return;
+            }
+
+            FileOutputStream out = new FileOutputStream(checkpoint);
+            try {
+                DataOutputStream data = new DataOutputStream(out);
+                data.writeLong(appliedRecords);
+                data.flush();
+                out.getFD().sync();
+            }
+            finally {
+                close(out);
+            }
+        }
+        catch (IOException e) {
+            if (LOGGING_ENABLED) {
+                Log.w(TAG, "Failed to record outbox progress", e);
+            }
+        }
+    }
+
+    private static void truncate(@NonNull File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.getFD().sync();
+        }
+        finally {
+            close(raf);
+        }
+    }
+
+    /**
+     * Load the operations a previous process left in the journal. A record torn by the process dying
+     * while it was written ends the journal.
+     */
+    private void replay() {
+        long skip = readCheckpoint();
+        long valid = 0;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(journal));
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                int expected = in.readInt();
+                if (length < 0 || length > journal.length()) {
+                    throw new IOException("Invalid record length " + length);
+                }
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+
+                CRC32 crc = new CRC32();
+                crc.update(bytes);
+                if ((int) crc.getValue() != expected) {
+                    throw new IOException("Record checksum mismatch");
+                }
+
+                Record record = Record.fromBytes(bytes);
+                record.journaled = true;
+                valid += 8 + length;
+                if (journalRecords++ >= skip) {
+                    unapplied.add(record);
+                }
+            }
+        }
+        catch (FileNotFoundException e) {
+            return;
+        }
+        catch (IOException | RuntimeException e) {
+            if (LOGGING_ENABLED) {
+                Log.w(TAG, "Ignoring the end of the journal after " + journalRecords + " operations", e);
+            }
+            try {
+                RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+                try {
+                    raf.setLength(valid);
+                }
+                finally {
+                    close(raf);
+                }
+            }
+            catch (IOException ignored) {
+                // replayed again next time
+            }
+        }
+        finally {
+            close(in);
+        }
+
+        appliedRecords = Math.min(skip, journalRecords);
+        if (!unapplied.isEmpty()) {
+            if (LOGGING_ENABLED) {
+                Log.i(TAG, "Replaying " + unapplied.size() + " operations");
+            }
+        }
+        else if (journalRecords > 0) {
+            recordProgress();
+        }
+    }
+
+    private long readCheckpoint() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(checkpoint));
+            return in.readLong();
+        }
+        catch (IOException e) {
+            return 0;
+        }
+        finally {
+            close(in);
+        }
+    }
+
+    @Nullable
+    private static String[] copy(@Nullable String[] array) {
+        return array != null ? array.clone() : null;
+    }
+
+    private static void close(@Nullable Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        }
+        catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * A queued operation
+     */
+    private static final class Record {
+        final byte op;
+        final Uri uri;
+        final ContentValues values;
+        final String selection;
+        final String[] selectionArgs;
+        boolean journaled = false;
+
+        Record(byte op, @NonNull Uri uri, @Nullable ContentValues values,
+               @Nullable String selection, @Nullable String[] selectionArgs) {
+            this.op = op;
+            this.uri = uri;
+            this.values = values;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+        }
+
+        @NonNull
+        ContentProviderOperation toOperation() {
+            ContentProviderOperation.Builder builder;
+            switch (op) {
+                case OP_INSERT:
+                    return ContentProviderOperation.newInsert(uri).withValues(values).build();
+                case OP_UPDATE:
+                    builder = ContentProviderOperation.newUpdate(uri).withValues(values);
+                    break;
+                default:
+                    builder = ContentProviderOperation.newDelete(uri);
+                    break;
+            }
+            return builder.withSelection(selection, selectionArgs).build();
+        }
+
+        @NonNull
+        byte[] toBytes() throws IOException {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(op);
+            out.writeUTF(uri.toString());
+
+            out.writeInt(values != null ? values.size() : -1);
+            if (values != null) {
+                for (Map.Entry<String, Object> entry : values.valueSet()) {
+                    out.writeUTF(entry.getKey());
+                    writeValue(out, entry.getValue());
+                }
+            }
+
+            writeValue(out, selection);
+            out.writeInt(selectionArgs != null ? selectionArgs.length : -1);
+            if (selectionArgs != null) {
+                for (String arg : selectionArgs) {
+                    writeValue(out, arg);
+                }
+            }
+            out.flush();
+            return buffer.toByteArray();
+        }
+
+        @NonNull
+        static Record fromBytes(@NonNull byte[] bytes) throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+            byte op = in.readByte();
+            if (op != OP_INSERT && op != OP_UPDATE && op != OP_DELETE) {
+                throw new IOException("Unknown operation " + op);
+            }
+            Uri uri = Uri.parse(in.readUTF());
+
+            ContentValues values = null;
+            int size = in.readInt();
+            if (size >= 0) {
+                values = new ContentValues(size);
+                for (int i = 0; i < size; ++i) {
+                    readValue(in, values, in.readUTF());
+                }
+            }
+
+            String selection = (String) readValue(in, null, null);
+            String[] selectionArgs = null;
+            int args = in.readInt();
+            if (args >= 0) {
+                selectionArgs = new String[args];
+                for (int i = 0; i < args; ++i) {
+                    selectionArgs[i] = (String) readValue(in, null, null);
+                }
+            }
+            return new Record(op, uri, values, selection, selectionArgs);
+        }
+
+        private static void writeValue(@NonNull DataOutputStream out, @Nullable Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(TYPE_NULL);
+            }
+            else if (value instanceof String) {
+                // writeUTF is limited to 64k, so strings are written as UTF-8 bytes
+                byte[] bytes = ((String) value).getBytes("UTF-8");
+                out.writeByte(TYPE_STRING);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            else if (value instanceof Long || value instanceof Integer ||
+                    value instanceof Short || value instanceof Byte) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong(((Number) value).longValue());
+            }
+            else if (value instanceof Double || value instanceof Float) {
+                out.writeByte(TYPE_DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            }
+            else if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            }
+            else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                out.writeByte(TYPE_BLOB);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            else {
+                throw new IOException("Unsupported value type " + value.getClass());
+            }
+        }
+
+        /**
+         * Read a value, putting it into the values if provided
+         */
+        @Nullable
+        private static Object readValue(@NonNull DataInputStream in, @Nullable ContentValues values,
+                                        @Nullable String key) throws IOException {
+            byte type = in.readByte();
+            Object value;
+            switch (type) {
+                case TYPE_NULL:
+                    if (values != null) values.putNull(key);
+                    return null;
+                case TYPE_STRING: {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    value = new String(bytes, "UTF-8");
+                    if (values != null) values.put(key, (String) value);
+                    return value;
+                }
+                case TYPE_LONG:
+                    value = in.readLong();
+                    if (values != null) values.put(key, (Long) value);
+                    return value;
+                case TYPE_DOUBLE:
+                    value = in.readDouble();
+                    if (values != null) values.put(key, (Double) value);
+                    return value;
+                case TYPE_BOOLEAN:
+                    value = in.readBoolean();
+                    if (values != null) values.put(key, (Boolean) value);
+                    return value;
+                case TYPE_BLOB: {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    if (values != null) values.put(key, bytes);
+                    return bytes;
+                }
+                default:
+                    throw new IOException("Unknown value type " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.task;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The progress of a task working through its rows in chunks, reported after each chunk is committed.
+ * The rate and the estimated time remaining are derived from the ids or input rows processed so far,
+ * which may exceed the rows affected when rows are ignored or already gone.
+ */
+public final class BasicCRUDTaskProgress {
+
+    /**
+     * Receives the progress of a task
+     */
+    public interface Listener {
+
+        /**
+         * Called after each chunk is committed
+         *
+         * @param progress The progress so far
+         */
+        void onProgress(@NonNull BasicCRUDTaskProgress progress);
+    }
+
+    /**
+     * The estimated time remaining when it cannot be determined
+     */
+    public static final long UNKNOWN_MILLIS = -1;
+
+    private final int processed;
+    private final int rows;
+    private final int totalRows;
+    private final int chunks;
+    private final long elapsedMillis;
+
+    /* package */ BasicCRUDTaskProgress(int processed, int rows, int totalRows, int chunks, long elapsedMillis) {
+        this.processed = processed;
+        this.rows = rows;
+        this.totalRows = totalRows;
+        this.chunks = chunks;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return The number of ids or input rows processed so far, counted against {@link #getTotalRows()}
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return The number of rows affected by the chunks committed so far
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return The number of ids or input rows the task works through, or {@link BasicCRUDTaskResult#UNKNOWN_ROWS}
+     * when the rows are read from a source of unknown size
+     */
+    public int getTotalRows() {
+        return totalRows;
+    }
+
+    /**
+     * @return The number of chunks committed so far
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return The time since the task started working on its rows
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return The ids or input rows processed per second so far
+     */
+    public double getRowsPerSecond() {
+        return elapsedMillis > 0 ? processed * 1000.0 / elapsedMillis : 0;
+    }
+
+    /**
+     * @return The estimated time until all ids or input rows are processed at the rate so far, or
+     * {@link #UNKNOWN_MILLIS} when the total number of rows or the rate is not known
+     */
+    public long getEstimatedRemainingMillis() {
+        if (totalRows < 0 || processed <= 0) {
+            return UNKNOWN_MILLIS;
+        }
+        return Math.max(0, (long) (totalRows - processed) * elapsedMillis / processed);
+    }
+
+    /**
+     * Deliver the progress to the listener, on the executor if provided or else directly
+     */
+    /* package */ void deliver(@NonNull final Listener listener, @Nullable Executor executor) {
+        if (executor == null) {
+            listener.onProgress(this);
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onProgress(BasicCRUDTaskProgress.this);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "BasicCRUDTaskProgress{processed=" + processed + ", rows=" + rows + ", totalRows=" + totalRows + ", chunks=" + chunks + ", elapsed=" + elapsedMillis + "ms}";
+    }
+}
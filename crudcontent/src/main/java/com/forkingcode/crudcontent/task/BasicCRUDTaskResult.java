@@ -0,0 +1,182 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.task;
+
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * The outcome of an insert, update, delete or batch task. Returned by {@link android.os.AsyncTask#get()}
+ * and delivered to the {@link Listener} provided to the task builder, as a lighter alternative to the
+ * result broadcast.
+ */
+public final class BasicCRUDTaskResult {
+
+    /**
+     * The number of rows when it cannot be determined, see {@link BasicCRUDTaskProgress#getTotalRows()}
+     */
+    public static final int UNKNOWN_ROWS = -1;
+
+    /**
+     * Receives the result of a task, as provided to the onComplete method of the task builders. The listener
+     * is called on the thread the task ran on unless an executor is provided. Unlike the result broadcast
+     * no intent is created and nothing is posted to the main thread. When a listener is provided a failure
+     * of the task is delivered to it rather than thrown.
+     */
+    public interface Listener {
+
+        /**
+         * Called once the task completes. A task cancelled before it committed anything is not
+         * reported, a task cancelled between chunks is reported with a result for which
+         * {@link #isCancelled()} is true.
+         *
+         * @param result The result of the task
+         */
+        void onComplete(@NonNull BasicCRUDTaskResult result);
+    }
+
+    private final int rows;
+    private final List<Uri> uris;
+    private final Exception failure;
+    private final boolean cancelled;
+
+    private BasicCRUDTaskResult(int rows, @NonNull List<Uri> uris, @Nullable Exception failure,
+                                boolean cancelled) {
+        this.rows = rows;
+        this.uris = uris;
+        this.failure = failure;
+        this.cancelled = cancelled;
+    }
+
+    @NonNull
+    /* package */ static BasicCRUDTaskResult success(int rows, @Nullable List<Uri> uris) {
+        return new BasicCRUDTaskResult(rows,
+                uris != null ? Collections.unmodifiableList(uris) : Collections.<Uri>emptyList(), null, false);
+    }
+
+    @NonNull
+    /* package */ static BasicCRUDTaskResult failure(@NonNull Exception failure) {
+        return new BasicCRUDTaskResult(0, Collections.<Uri>emptyList(), failure, false);
+    }
+
+    @NonNull
+    /* package */ static BasicCRUDTaskResult cancelled(int committedRows) {
+        return new BasicCRUDTaskResult(committedRows, Collections.<Uri>emptyList(), null, true);
+    }
+
+    /**
+     * @return The number of rows inserted, updated or deleted, or {@link #UNKNOWN_ROWS}. For a cancelled
+     * task the rows committed before it stopped.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return The uris of the inserted rows, when known
+     */
+    @NonNull
+    public List<Uri> getUris() {
+        return uris;
+    }
+
+    /**
+     * @return The uri of the first inserted row, or null
+     */
+    @Nullable
+    public Uri getUri() {
+        return uris.isEmpty() ? null : uris.get(0);
+    }
+
+    /**
+     * @return The cause of the failure, or null if the task succeeded
+     */
+    @Nullable
+    public Exception getFailure() {
+        return failure;
+    }
+
+    /**
+     * Only a failure surfaced by the provider as an exception makes a task unsuccessful. A provider which
+     * catches its own errors, such as the {@link com.forkingcode.crudcontent.provider.BasicCRUDProvider}
+     * logging a {@link android.database.sqlite.SQLiteException}, returns no uri or 0 rows instead, which
+     * is reported as a successful task affecting no rows. Check {@link #getRows()} or {@link #getUri()}
+     * when the write is expected to change something.
+     *
+     * @return True if the task completed without an exception
+     */
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    /**
+     * @return True if the task was cancelled between chunks. The chunks committed before then
+     * remain, see {@link #getRows()}.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Complete a task with this result. The result is delivered to the listener, if any, unless the task
+     * was cancelled before it committed anything. Without a listener the failure, if any, is thrown.
+     *
+     * @param listener      The listener of the task, or null
+     * @param executor      The executor the listener is called on, or null to call it directly
+     * @param taskCancelled True if the task was cancelled
+     * @param failure       The failure to throw when there is no listener, or null
+     * @return this result, to be returned by the task
+     */
+    @NonNull
+    /* package */ BasicCRUDTaskResult deliverOrThrow(@Nullable Listener listener, @Nullable Executor executor,
+                                                     boolean taskCancelled, @Nullable RuntimeException failure) {
+        if (listener != null) {
+            if (!taskCancelled || cancelled) {
+                deliver(listener, executor);
+            }
+        }
+        else if (failure != null) {
+            throw failure;
+        }
+        return this;
+    }
+
+    private void deliver(@NonNull final Listener listener, @Nullable Executor executor) {
+        if (executor == null) {
+            listener.onComplete(this);
+            return;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onComplete(BasicCRUDTaskResult.this);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return "BasicCRUDTaskResult{rows=" + rows + ", uris=" + uris + ", failure=" + failure
+                + ", cancelled=" + cancelled + "}";
+    }
+}
@@ -26,13 +26,16 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
 
+import java.util.concurrent.Executor;
+
 /**
- * An {@link android.os.AsyncTask} for updating data in the background. The task uses the
- * {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR} allowing multiple tasks to operate concurrently.
+ * An {@link android.os.AsyncTask} for updating data in the background. By default the task runs on
+ * the serial write lane of {@link BasicCRUDExecutors#getWriteExecutor()}, so writes commit in the order
+ * they were started.
  *
  * You must create the task via the {@link Builder}
  */
-public class BasicCRUDUpdateTask extends AsyncTask<BasicCRUDUpdateTask.Builder, Void, Void> {
+public class BasicCRUDUpdateTask extends AsyncTask<BasicCRUDUpdateTask.Builder, Void, BasicCRUDTaskResult> {
 
     /**
      * The {@link android.content.Intent} action sent via {@link android.support.v4.content.LocalBroadcastManager} when
@@ -58,6 +61,9 @@ public class BasicCRUDUpdateTask extends AsyncTask<BasicCRUDUpdateTask.Builder,
         /* package */ String[] selectionArgs = null;
         /* package */ ContentValues values;
         /* package */ boolean resultBroadcastRequested = false;
+        /* package */ Executor executor;
+        /* package */ BasicCRUDTaskResult.Listener completeListener;
+        /* package */ Executor completeExecutor;
 
         /**
          * Create a new update task builder
@@ -152,6 +158,46 @@ public class BasicCRUDUpdateTask extends AsyncTask<BasicCRUDUpdateTask.Builder,
             return this;
         }
 
+        /**
+         * Optionally provide a listener called with the result on the thread the task ran on,
+         * see {@link BasicCRUDTaskResult.Listener}.
+         *
+         * @param listener The listener receiving the result
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onComplete(@NonNull BasicCRUDTaskResult.Listener listener) {
+            return onComplete(listener, null);
+        }
+
+        /**
+         * Optionally provide a listener called with the result on the given executor,
+         * see {@link BasicCRUDTaskResult.Listener}.
+         *
+         * @param listener The listener receiving the result
+         * @param executor The executor the listener is called on, or null to call it on the task thread
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder onComplete(@NonNull BasicCRUDTaskResult.Listener listener, @Nullable Executor executor) {
+            this.completeListener = listener;
+            this.completeExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Optionally provide the executor the task runs on, otherwise the task runs on
+         * {@link BasicCRUDExecutors#getWriteExecutor()}.
+         *
+         * @param executor The executor for the task
+         * @return this intent builder
+         */
+        @NonNull
+        public Builder executeOn(@NonNull Executor executor) {
+            this.executor = executor;
+            return this;
+        }
+
         /**
          * Start the update task.
          *
@@ -172,7 +218,8 @@ public class BasicCRUDUpdateTask extends AsyncTask<BasicCRUDUpdateTask.Builder,
             }
 
             BasicCRUDUpdateTask task = new BasicCRUDUpdateTask();
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, this);
+            InsertCoalescer.getInstance().closeBatch();
+            task.executeOnExecutor(executor != null ? executor : BasicCRUDExecutors.getWriteExecutor(), this);
             return task;
         }
     }
@@ -182,7 +229,7 @@ public class BasicCRUDUpdateTask extends AsyncTask<BasicCRUDUpdateTask.Builder,
 
     @Override
     @Nullable
-    protected Void doInBackground(@Nullable Builder... builders) {
+    protected BasicCRUDTaskResult doInBackground(@Nullable Builder... builders) {
         if (builders == null) return null;
 
         Builder builder = builders[0];
@@ -198,8 +245,15 @@ public class BasicCRUDUpdateTask extends AsyncTask<BasicCRUDUpdateTask.Builder,
             builder.selectionArgs = null;
         }
 
-        int rows = builder.applicationContext.getContentResolver()
+        int rows;
+        try {
+            rows = builder.applicationContext.getContentResolver()
                     .update(uri, builder.values, builder.selection, builder.selectionArgs);
+        }
+        catch (RuntimeException e) {
+            return BasicCRUDTaskResult.failure(e)
+                    .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), e);
+        }
 
         if (builder.resultBroadcastRequested && !isCancelled()) {
             Intent resultIntent = new Intent(UPDATE_COMPLETE_ACTION);
@@ -209,6 +263,7 @@ public class BasicCRUDUpdateTask extends AsyncTask<BasicCRUDUpdateTask.Builder,
                     .sendBroadcast(resultIntent);
         }
 
-        return null;
+        return BasicCRUDTaskResult.success(rows, null)
+                .deliverOrThrow(builder.completeListener, builder.completeExecutor, isCancelled(), null);
     }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.task;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Counts the rows committed chunk by chunk and reports the progress to the task's listener. The items
+ * processed, the ids or input rows the task works through, are counted apart from the rows affected
+ * as a chunk may affect fewer rows than it was given.
+ */
+/* package */ final class ChunkTracker {
+
+    private final int totalRows;
+    private final BasicCRUDTaskProgress.Listener listener;
+    private final Executor executor;
+    private final long start = SystemClock.elapsedRealtime();
+    private int processed = 0;
+    private int rows = 0;
+    private int chunks = 0;
+
+    /**
+     * @param totalRows The number of ids or input rows the task will work through, or
+     *                  {@link BasicCRUDTaskResult#UNKNOWN_ROWS} when not known up front
+     */
+    /* package */ ChunkTracker(int totalRows, @Nullable BasicCRUDTaskProgress.Listener listener,
+                              @Nullable Executor executor) {
+        this.totalRows = totalRows;
+        this.listener = listener;
+        this.executor = executor;
+    }
+
+    /**
+     * Record a committed chunk and report the progress
+     *
+     * @param chunkItems The number of ids or input rows the chunk was given
+     * @param chunkRows  The number of rows affected by the chunk
+     */
+    /* package */ void chunkCommitted(int chunkItems, int chunkRows) {
+        processed += chunkItems;
+        rows += chunkRows;
+        ++chunks;
+        if (listener != null) {
+            new BasicCRUDTaskProgress(processed, rows, totalRows, chunks, SystemClock.elapsedRealtime() - start)
+                    .deliver(listener, executor);
+        }
+    }
+
+    /**
+     * @return The rows committed so far
+     */
+    /* package */ int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return The chunks committed so far
+     */
+    /* package */ int getChunks() {
+        return chunks;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ChunkTracker{processed=" + processed + ", rows=" + rows + ", chunks=" + chunks + "}";
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.forkingcode.crudcontent.task;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Merges single row insert tasks for the same uri into one batch, so the rows share one
+ * transaction and one change notification.
+ *
+ * <p>The first task for a uri opens a batch which is submitted to the task's executor straight away.
+ * Inserts for the same uri join the batch while it waits behind other writes, up to {@value #MAX_ROWS} rows.
+ * Any other write started in the meantime, or an insert for another uri, closes the batch so later inserts
+ * can't commit ahead of it. Writes therefore still commit in the order they were started.
+ *
+ * <p>Each task is held back by capturing the runnable its AsyncTask passes to the executor. The batch applies
+ * the rows with {@link ContentResolver#applyBatch(String, ArrayList)}, which returns the uri of every row,
+ * and then runs the captured runnables, so each task completes with its own result.
+ *
+ * <p>If the batch fails and the uri belongs to a {@link BasicCRUDProvider} in this process, the batch was
+ * rolled back as a whole, for example because one of the rows was ignored as a conflict, and each row is
+ * inserted on its own. Other providers may apply a batch partly, so inserting the rows again could duplicate
+ * the rows already committed; their failure is reported to every task of the batch instead.
+ */
+/* package */ final class InsertCoalescer {
+
+    /* package */ static final int MAX_ROWS = 500;
+
+    private static final InsertCoalescer INSTANCE = new InsertCoalescer();
+
+    // the most recently submitted batch, while it can still be joined
+    private Batch open;
+
+    private InsertCoalescer() {
+    }
+
+    @NonNull
+    /* package */ static InsertCoalescer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start the task as part of a batch of inserts for the builder's uri
+     */
+    /* package */ void start(@NonNull final BasicCRUDInsertTask task, @NonNull final BasicCRUDInsertTask.Builder builder,
+                             @NonNull Executor executor) {
+        final Batch batch;
+        boolean submit = false;
+        synchronized (this) {
+            if (open == null || !open.uri.equals(builder.uri) || open.executor != executor) {
+                open = new Batch(builder, executor);
+                submit = true;
+            }
+            batch = open;
+
+            // AsyncTask hands its work to the executor, which is kept with the batch until it runs.
+            // Added while holding the lock, so the batch cannot start without it.
+            task.executeOnExecutor(new Executor() {
+                @Override
+                public void execute(@NonNull Runnable command) {
+                    batch.add(task, builder.valuesArray[0], command);
+                }
+            }, builder);
+
+            if (batch.size() >= MAX_ROWS) {
+                open = null;
+            }
+        }
+
+        if (submit) {
+            executor.execute(batch);
+        }
+    }
+
+    /**
+     * Called before any other write is submitted, so no later insert joins a batch ahead of it
+     */
+    /* package */ synchronized void closeBatch() {
+        open = null;
+    }
+
+    private synchronized void close(@NonNull Batch batch) {
+        if (open == batch) {
+            open = null;
+        }
+    }
+
+    private static final class Entry {
+        final BasicCRUDInsertTask task;
+        final ContentValues values;
+        final Runnable runnable;
+
+        Entry(@NonNull BasicCRUDInsertTask task, @NonNull ContentValues values, @NonNull Runnable runnable) {
+            this.task = task;
+            this.values = values;
+            this.runnable = runnable;
+        }
+    }
+
+    private final class Batch implements Runnable {
+        final Uri uri;
+        final BasicCRUDInsertTask.Builder builder;
+        final Executor executor;
+        final List<Entry> entries = new ArrayList<>();
+
+        Batch(@NonNull BasicCRUDInsertTask.Builder builder, @NonNull Executor executor) {
+            this.uri = builder.uri;
+            this.builder = builder;
+            this.executor = executor;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        synchronized void add(@NonNull BasicCRUDInsertTask task, @NonNull ContentValues values,
+                              @NonNull Runnable runnable) {
+            entries.add(new Entry(task, values, runnable));
+        }
+
+        @Override
+        public void run() {
+            close(this);
+
+            List<Entry> pending = new ArrayList<>();
+            synchronized (this) {
+                for (Entry entry : entries) {
+                    if (!entry.task.isCancelled()) {
+                        pending.add(entry);
+                    }
+                }
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            int count = pending.size();
+            Uri[] uris = new Uri[count];
+            RuntimeException[] failures = new RuntimeException[count];
+            ContentResolver resolver = builder.applicationContext.getContentResolver();
+            RuntimeException failure = count > 1 ? applyBatch(resolver, pending, uris) : null;
+            if (failure != null && !appliesBatchesAtomically(resolver)) {
+                // some rows may be committed, so none are inserted again
+                for (int i = 0; i < count; ++i) {
+                    failures[i] = failure;
+                }
+            }
+            else if (count == 1 || failure != null) {
+                for (int i = 0; i < count; ++i) {
+                    try {
+                        uris[i] = resolver.insert(uri, pending.get(i).values);
+                    }
+                    catch (RuntimeException e) {
+                        failures[i] = e;
+                    }
+                }
+            }
+
+            int inserted = 0;
+            for (Uri insertedUri : uris) {
+                if (insertedUri != null) {
+                    ++inserted;
+                }
+            }
+
+            // complete every task with its own outcome
+            for (int i = 0; i < count; ++i) {
+                Entry entry = pending.get(i);
+                entry.task.setCoalescedResult(count, inserted, uris[i], failures[i]);
+                entry.runnable.run();
+            }
+        }
+
+        /**
+         * Insert all rows in one batch, filling in the uri of each row
+         *
+         * @return The failure of the batch, or null if it was applied
+         */
+        @Nullable
+        private RuntimeException applyBatch(@NonNull ContentResolver resolver, @NonNull List<Entry> pending,
+                                            @NonNull Uri[] uris) {
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(pending.size());
+            for (Entry entry : pending) {
+                operations.add(ContentProviderOperation.newInsert(uri).withValues(entry.values).build());
+            }
+
+            ContentProviderResult[] results;
+            try {
+                //noinspection ConstantConditions
+                results = resolver.applyBatch(uri.getAuthority(), operations);
+            }
+            catch (RemoteException | OperationApplicationException e) {
+                return new IllegalStateException("Unable to apply coalesced inserts for uri: " + uri, e);
+            }
+            catch (RuntimeException e) {
+                return e;
+            }
+
+            for (int i = 0; i < uris.length && i < results.length; ++i) {
+                uris[i] = results[i].uri;
+            }
+            return null;
+        }
+
+        /**
+         * @return True if the uri belongs to a BasicCRUDProvider in this process, which rolls back a failed
+         * batch as a whole
+         */
+        private boolean appliesBatchesAtomically(@NonNull ContentResolver resolver) {
+            ContentProviderClient client = resolver.acquireContentProviderClient(uri);
+            if (client == null) {
+                return false;
+            }
+            try {
+                ContentProvider provider = client.getLocalContentProvider();
+                return provider instanceof BasicCRUDProvider;
+            }
+            finally {
+                client.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.loader;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.app.LoaderManager;
+import android.support.v4.content.CursorLoader;
+
+import com.example.crudtester.provider.IgnoreContract;
+import com.forkingcode.crudcontent.loader.BasicCRUDLoader;
+import com.forkingcode.crudcontent.loader.CursorDiff;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates the diff loader reports the row level changes between reloads
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDDiffLoaderTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final int LOADER_ID = 100;
+
+    private Context context;
+    private MockLoaderManager mockLoaderManager;
+    private RecordingDiffCallback callback;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        mockLoaderManager = new MockLoaderManager();
+        callback = new RecordingDiffCallback();
+    }
+
+    @After
+    public void tearDown() {
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        context = null;
+    }
+
+    @Test
+    @UiThreadTest
+    @SuppressWarnings("unchecked")
+    public void testDiffDelivered() {
+        insert("a");
+        Uri b = insert("b");
+        Uri c = insert("c");
+
+        CursorLoader loader = BasicCRUDLoader.newInstance(context, mockLoaderManager)
+                .forUri(IgnoreContract.URI)
+                .callback(callback)
+                .loaderId(LOADER_ID)
+                .orderBy(IgnoreContract.Columns.DATA1)
+                .deliverDiffs()
+                .initLoader();
+        LoaderManager.LoaderCallbacks<Cursor> callbacks =
+                (LoaderManager.LoaderCallbacks<Cursor>) mockLoaderManager.getLoaderCallbacks();
+
+        // first load has nothing to compare against
+        Cursor first = loader.loadInBackground();
+        loader.deliverResult(first);
+        callbacks.onLoadFinished(loader, first);
+        assertThat(callback.loaded, is(first));
+        assertThat(callback.diff, is(nullValue()));
+
+        // remove b, change c and insert d
+        context.getContentResolver().delete(b, null, null);
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA2, "changed");
+        context.getContentResolver().update(c, values, null, null);
+        insert("d");
+
+        Cursor second = loader.loadInBackground();
+        callbacks.onLoadFinished(loader, second);
+        assertThat(callback.changed, is(second));
+        assertThat(callback.diff, is(notNullValue()));
+        assertThat(callback.diff.getRemovedPositions(), is(new int[]{1}));
+        assertThat(callback.diff.getChangedPositions(), is(new int[]{1}));
+        assertThat(callback.diff.getInsertedPositions(), is(new int[]{2}));
+        assertThat(callback.diff.getMovedFromPositions().length, is(0));
+
+        loader.deliverResult(second);
+        loader.reset();
+    }
+
+    @Test
+    @UiThreadTest
+    @SuppressWarnings("unchecked")
+    public void testRetainedDiffRedelivered() {
+        insert("a");
+        Uri b = insert("b");
+
+        CursorLoader loader = BasicCRUDLoader.newInstance(context, mockLoaderManager)
+                .forUri(IgnoreContract.URI)
+                .callback(callback)
+                .loaderId(LOADER_ID)
+                .orderBy(IgnoreContract.Columns.DATA1)
+                .deliverDiffs()
+                .initLoader();
+        LoaderManager.LoaderCallbacks<Cursor> callbacks =
+                (LoaderManager.LoaderCallbacks<Cursor>) mockLoaderManager.getLoaderCallbacks();
+
+        Cursor first = loader.loadInBackground();
+        loader.deliverResult(first);
+        callbacks.onLoadFinished(loader, first);
+
+        context.getContentResolver().delete(b, null, null);
+        Cursor second = loader.loadInBackground();
+        loader.deliverResult(second);
+        callbacks.onLoadFinished(loader, second);
+        assertThat(callback.changed, is(second));
+
+        // after a configuration change the loader manager delivers the retained cursor to a new callback,
+        // which never saw the cursor the diff was calculated against
+        RecordingDiffCallback newCallback = new RecordingDiffCallback();
+        MockLoaderManager newLoaderManager = new MockLoaderManager();
+        BasicCRUDLoader.newInstance(context, newLoaderManager)
+                .forUri(IgnoreContract.URI)
+                .callback(newCallback)
+                .loaderId(LOADER_ID)
+                .orderBy(IgnoreContract.Columns.DATA1)
+                .deliverDiffs()
+                .initLoader();
+        LoaderManager.LoaderCallbacks<Cursor> newCallbacks =
+                (LoaderManager.LoaderCallbacks<Cursor>) newLoaderManager.getLoaderCallbacks();
+        newCallbacks.onLoadFinished(loader, second);
+        assertThat(newCallback.loaded, is(second));
+        assertThat(newCallback.changed, is(nullValue()));
+
+        // the same cursor delivered again to the original callback is not a change either
+        callback.loaded = null;
+        callback.changed = null;
+        callbacks.onLoadFinished(loader, second);
+        assertThat(callback.loaded, is(second));
+        assertThat(callback.changed, is(nullValue()));
+
+        // later reloads diff against the cursor the new callback received
+        insert("c");
+        Cursor third = loader.loadInBackground();
+        newCallbacks.onLoadFinished(loader, third);
+        assertThat(newCallback.changed, is(third));
+        assertThat(newCallback.diff.getInsertedPositions(), is(new int[]{1}));
+
+        loader.deliverResult(third);
+        loader.reset();
+    }
+
+    @Test
+    @UiThreadTest
+    public void testDiffRequiresDiffCallback() {
+        thrown.expect(IllegalStateException.class);
+        BasicCRUDLoader.newInstance(context, mockLoaderManager)
+                .forUri(IgnoreContract.URI)
+                .callback(new MockBasicCRUDLoaderCallback())
+                .loaderId(LOADER_ID)
+                .deliverDiffs()
+                .initLoader();
+    }
+
+    private Uri insert(String data) {
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, data);
+        values.put(IgnoreContract.Columns.DATA2, data);
+        Uri uri = context.getContentResolver().insert(IgnoreContract.URI, values);
+        assertThat(uri, is(notNullValue()));
+        assertThat(ContentUris.parseId(uri) > 0, is(true));
+        return uri;
+    }
+
+    private static class RecordingDiffCallback implements BasicCRUDLoader.DiffCallback {
+        Cursor loaded;
+        Cursor changed;
+        CursorDiff diff;
+
+        @Override
+        public void onCursorLoaded(int loaderId, @Nullable Cursor cursor) {
+            loaded = cursor;
+        }
+
+        @Override
+        public void onCursorChanged(int loaderId, @NonNull Cursor cursor, @NonNull CursorDiff diff) {
+            changed = cursor;
+            this.diff = diff;
+        }
+    }
+}
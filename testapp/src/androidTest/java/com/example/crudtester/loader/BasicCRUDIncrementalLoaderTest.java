@@ -0,0 +1,205 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.loader;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+
+import com.example.crudtester.provider.DBHelper;
+import com.example.crudtester.provider.IgnoreContract;
+import com.example.crudtester.provider.TestBasicCRUDProvider;
+import com.forkingcode.crudcontent.loader.BasicCRUDLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates row level changes are patched into the result without running the full query
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDIncrementalLoaderTest {
+
+    // recorded when the loader delivers no cursor
+    private static final List<String> NO_RESULT = Collections.unmodifiableList(new ArrayList<String>());
+
+    private Context context;
+    private CursorLoader loader;
+    private final BlockingQueue<List<String>> results = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        insert("a");
+        insert("b");
+        insert("c");
+        insert("d");
+    }
+
+    @After
+    public void tearDown() {
+        if (loader != null) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    loader.reset();
+                }
+            });
+            loader = null;
+        }
+        TestBasicCRUDProvider.returnNoResultForNextQuery(false);
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        context = null;
+    }
+
+    @Test
+    public void testPatchChangedRows() throws InterruptedException {
+        startLoader();
+        assertThat(nextResult(), is(Arrays.asList("a:a", "b:b", "c:c", "d:d")));
+
+        // written behind the provider's back, only the row notified is read again
+        SQLiteDatabase db = DBHelper.getInstance(context).getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, "e");
+        db.update(IgnoreContract.URI.getLastPathSegment(), values, IgnoreContract.Columns.DATA1 + "=?",
+                new String[]{"a"});
+        values.clear();
+        values.put(IgnoreContract.Columns.DATA2, "changed");
+        db.update(IgnoreContract.URI.getLastPathSegment(), values, IgnoreContract.Columns.DATA1 + "=?",
+                new String[]{"b"});
+        context.getContentResolver().notifyChange(rowUri("e"), null);
+        assertThat(nextResult(), is(Arrays.asList("b:b", "c:c", "d:d", "e:a")));
+
+        // inserted rows are notified on the table uri and run the full query, which also reads the
+        // change to "b" written behind the provider's back
+        insert("bb");
+        assertThat(nextResult(), is(Arrays.asList("b:changed", "bb:bb", "c:c", "d:d", "e:a")));
+
+        context.getContentResolver().delete(rowUri("c"), null, null);
+        assertThat(nextResult(), is(Arrays.asList("b:changed", "bb:bb", "d:d", "e:a")));
+    }
+
+    @Test
+    public void testNoResultKeepsChanges() throws InterruptedException {
+        startLoader();
+        assertThat(nextResult(), is(Arrays.asList("a:a", "b:b", "c:c", "d:d")));
+
+        // the provider returns no result, as on a database error, which is delivered rather than thrown
+        SQLiteDatabase db = DBHelper.getInstance(context).getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA2, "changed");
+        db.update(IgnoreContract.URI.getLastPathSegment(), values, IgnoreContract.Columns.DATA1 + "=?",
+                new String[]{"a"});
+        Uri changed = rowUri("a");
+        TestBasicCRUDProvider.returnNoResultForNextQuery(true);
+        context.getContentResolver().notifyChange(changed, null);
+        assertThat(nextResult(), is(sameInstance(NO_RESULT)));
+
+        // the change to "a" is still outstanding and read along with the next change
+        db.update(IgnoreContract.URI.getLastPathSegment(), values, IgnoreContract.Columns.DATA1 + "=?",
+                new String[]{"b"});
+        context.getContentResolver().notifyChange(rowUri("b"), null);
+        assertThat(nextResult(), is(Arrays.asList("a:changed", "b:changed", "c:c", "d:d")));
+    }
+
+    private void startLoader() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                MockLoaderManager loaderManager = new MockLoaderManager();
+                loaderManager.setLoadCompleteListener(new ResultListener());
+                loader = BasicCRUDLoader.newInstance(context, loaderManager)
+                        .forUri(IgnoreContract.URI)
+                        .selectColumns(BaseColumns._ID, IgnoreContract.Columns.DATA1, IgnoreContract.Columns.DATA2)
+                        .orderBy(IgnoreContract.Columns.DATA1)
+                        .reloadChangedRows()
+                        .callback(new MockBasicCRUDLoaderCallback())
+                        .loaderId(100)
+                        .initLoader();
+                loader.startLoading();
+            }
+        });
+    }
+
+    private List<String> nextResult() throws InterruptedException {
+        List<String> result = results.poll(5, TimeUnit.SECONDS);
+        assertThat("no result delivered", result != null, is(true));
+        return result;
+    }
+
+    private Uri rowUri(String data) {
+        Cursor cursor = context.getContentResolver().query(IgnoreContract.URI, new String[]{BaseColumns._ID},
+                IgnoreContract.Columns.DATA1 + "=?", new String[]{data}, null);
+        assertThat(cursor != null && cursor.moveToFirst(), is(true));
+        try {
+            return ContentUris.withAppendedId(IgnoreContract.URI, cursor.getLong(0));
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private void insert(String data) {
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, data);
+        values.put(IgnoreContract.Columns.DATA2, data);
+        context.getContentResolver().insert(IgnoreContract.URI, values);
+    }
+
+    /**
+     * Reads each delivered cursor on the main thread, before the loader closes it
+     */
+    private class ResultListener implements Loader.OnLoadCompleteListener<Cursor> {
+        @Override
+        public void onLoadComplete(@NonNull Loader<Cursor> loader, Cursor data) {
+            if (data == null) {
+                results.add(NO_RESULT);
+                return;
+            }
+            List<String> rows = new ArrayList<>();
+            data.moveToPosition(-1);
+            while (data.moveToNext()) {
+                rows.add(data.getString(1) + ":" + data.getString(2));
+            }
+            results.add(rows);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
 
 import com.forkingcode.crudcontent.loader.BasicCRUDLoader;
+import com.forkingcode.crudcontent.loader.QuerySpec;
 import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
 
 import org.junit.After;
@@ -662,5 +663,86 @@ public class BasicCRUDLoaderTest {
         assertThat(loader.getSelectionArgs(), is(nullValue()));
         assertThat(loader.getSortOrder(), is(nullValue()));
     }
-}
 
+    /**
+     * Validate a throttled loader is created with the query parameters intact. Must run on the
+     * UI thread due to the fact the AsyncLoader requires the UI thread to create a handler internally.
+     */
+    @Test
+    @UiThreadTest
+    public void test20AdaptiveThrottleLoader() {
+
+        CursorLoader loader = BasicCRUDLoader.newInstance(context, mockLoaderManager)
+                .forUri(testUri)
+                .selectColumns(testProjection)
+                .callback(mockBasicCRUDLoaderCallback)
+                .loaderId(LOADER_ID)
+                .adaptiveUpdateThrottle(2000)
+                .initLoader();
+
+        assertThat(loader, is(notNullValue()));
+        assertThat(loader.getId(), is(LOADER_ID));
+        assertThat(loader.getUri(), is(testUri));
+        assertThat(loader.getProjection(), is(testProjection));
+    }
+
+    @Test
+    @UiThreadTest
+    public void test21NegativeThrottle() {
+        thrown.expect(IllegalArgumentException.class);
+        BasicCRUDLoader.newInstance(context, mockLoaderManager)
+                .forUri(testUri)
+                .callback(mockBasicCRUDLoaderCallback)
+                .updateThrottle(-1);
+    }
+
+    /**
+     * Validate a prebuilt query spec can be reused to restart a loader. Must run on the UI thread
+     * due to the fact the AsyncLoader requires the UI thread to create a handler internally.
+     */
+    @Test
+    @UiThreadTest
+    public void test22ReuseQuerySpec() {
+        QuerySpec spec = new QuerySpec.Builder(testUri)
+                .selectColumns(testProjection)
+                .whereMatchesSelection(testSelection, testSelectionArgs)
+                .orderBy(testOrderBy)
+                .distinct()
+                .build();
+
+        BasicCRUDLoader basicCRUDLoader = BasicCRUDLoader.forCallback(context, mockBasicCRUDLoaderCallback);
+        for (int i = 0; i < 2; ++i) {
+            CursorLoader loader = basicCRUDLoader.restartLoader(mockLoaderManager, LOADER_ID, spec);
+
+            assertThat(mockLoaderManager.isRestart(), is(true));
+            assertThat(loader.getId(), is(LOADER_ID));
+            assertThat(loader.getUri(), is(spec.getUri()));
+            assertThat(loader.getUri().getBooleanQueryParameter(BasicCRUDProvider.DISTINCT_PARAMETER, false), is(true));
+            assertThat(loader.getProjection(), is(testProjection));
+            assertThat(loader.getSelection(), is(testSelection));
+            assertThat(loader.getSelectionArgs(), is(testSelectionArgs));
+            assertThat(loader.getSortOrder(), is(testOrderBy));
+        }
+    }
+
+    @Test
+    public void test23QuerySpecEquality() {
+        QuerySpec spec1 = new QuerySpec.Builder(testUri)
+                .selectColumns("Column1", "Column2")
+                .whereMatchesId(ROW_ID)
+                .build();
+        QuerySpec spec2 = new QuerySpec.Builder(testUri)
+                .selectColumns("Column1", "Column2")
+                .whereMatchesId(ROW_ID)
+                .build();
+        QuerySpec spec3 = new QuerySpec.Builder(testUri)
+                .selectColumns("Column1")
+                .whereMatchesId(ROW_ID)
+                .build();
+
+        assertThat(spec1.equals(spec2), is(true));
+        assertThat(spec1.hashCode(), is(spec2.hashCode()));
+        assertThat(spec1.equals(spec3), is(false));
+        assertThat(spec1.getUri(), is(ContentUris.withAppendedId(testUri, ROW_ID)));
+    }
+}
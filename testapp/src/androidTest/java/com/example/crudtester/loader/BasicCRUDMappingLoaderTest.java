@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.loader;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v4.content.Loader;
+
+import com.example.crudtester.provider.IgnoreContract;
+import com.forkingcode.crudcontent.loader.BasicCRUDLoader;
+import com.forkingcode.crudcontent.loader.BasicCRUDMappingLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates the mapping loader maps every row and delivers an immutable list
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDMappingLoaderTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final int LOADER_ID = 100;
+
+    private Context context;
+
+    private final BasicCRUDMappingLoader.RowMapper<String> mapper = new BasicCRUDMappingLoader.RowMapper<String>() {
+        @NonNull
+        @Override
+        public String mapRow(@NonNull Cursor cursor) {
+            return cursor.getString(0) + ":" + cursor.getString(1);
+        }
+    };
+
+    private final BasicCRUDMappingLoader.Callback<String> callback = new BasicCRUDMappingLoader.Callback<String>() {
+        @Override
+        public void onRowsLoaded(int loaderId, @Nullable List<String> rows) {
+        }
+    };
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+
+        for (String data : new String[]{"b", "a", "c"}) {
+            ContentValues values = new ContentValues();
+            values.put(IgnoreContract.Columns.DATA1, data);
+            values.put(IgnoreContract.Columns.DATA2, data.toUpperCase());
+            context.getContentResolver().insert(IgnoreContract.URI, values);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        context = null;
+    }
+
+    @Test
+    @UiThreadTest
+    public void testRowsMapped() {
+        Loader<List<String>> loader = BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .selectColumns(IgnoreContract.Columns.DATA1, IgnoreContract.Columns.DATA2)
+                .orderBy(IgnoreContract.Columns.DATA1)
+                .loaderId(LOADER_ID)
+                .initLoader(mapper, callback);
+
+        assertThat(loader, is(notNullValue()));
+        assertThat(loader.getId(), is(LOADER_ID));
+
+        List<String> rows = ((AsyncTaskLoader<List<String>>) loader).loadInBackground();
+        assertThat(rows, is(Arrays.asList("a:A", "b:B", "c:C")));
+
+        thrown.expect(UnsupportedOperationException.class);
+        rows.add("d:D");
+    }
+
+    @Test
+    @UiThreadTest
+    public void testMappingWithPaging() {
+        thrown.expect(IllegalStateException.class);
+        BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .pageBy(10, IgnoreContract.Columns.DATA1, false)
+                .loaderId(LOADER_ID)
+                .initLoader(mapper, callback);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testMappingWithSharedQuery() {
+        thrown.expect(IllegalStateException.class);
+        BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .shareQuery()
+                .loaderId(LOADER_ID)
+                .initLoader(mapper, callback);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testMappingWithReloadChangedRows() {
+        thrown.expect(IllegalStateException.class);
+        BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .reloadChangedRows()
+                .loaderId(LOADER_ID)
+                .restartLoader(mapper, callback);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testMappingWithAdaptiveThrottle() {
+        thrown.expect(IllegalStateException.class);
+        BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .adaptiveUpdateThrottle(1000)
+                .loaderId(LOADER_ID)
+                .initLoader(mapper, callback);
+    }
+
+    @Test
+    @UiThreadTest
+    public void testMappingWithFixedThrottle() {
+        Loader<List<String>> loader = BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .updateThrottle(1000)
+                .loaderId(LOADER_ID)
+                .initLoader(mapper, callback);
+        assertThat(loader, is(notNullValue()));
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.loader;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.CursorLoader;
+import android.support.v4.content.Loader;
+
+import com.example.crudtester.provider.DBHelper;
+import com.example.crudtester.provider.IgnoreContract;
+import com.example.crudtester.provider.RealKeyContract;
+import com.forkingcode.crudcontent.loader.BasicCRUDLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates the paging loader delivers the full result in order while loading it a page at a time
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDPagingLoaderTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private static final int ROWS = 250;
+    private static final int PAGE_SIZE = 20;
+    private static final int LOADER_ID = 100;
+
+    private Context context;
+    private CursorLoader loader;
+    private final BlockingQueue<List<String>> results = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+
+        ContentValues[] values = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; ++i) {
+            values[i] = new ContentValues();
+            values[i].put(IgnoreContract.Columns.DATA1, key(i));
+            values[i].put(IgnoreContract.Columns.DATA2, "data" + i);
+        }
+        context.getContentResolver().bulkInsert(IgnoreContract.URI, values);
+    }
+
+    @After
+    public void tearDown() {
+        if (loader != null) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    loader.reset();
+                }
+            });
+            loader = null;
+        }
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        context.getContentResolver().delete(RealKeyContract.URI, null, null);
+        context = null;
+    }
+
+    @Test
+    @UiThreadTest
+    public void testPagesInOrder() {
+        Cursor cursor = newLoader(false).loadInBackground();
+        assertThat(cursor, is(notNullValue()));
+
+        try {
+            assertThat(cursor.getCount(), is(ROWS));
+            assertThat(cursor.getColumnCount(), is(1));
+
+            // forward through every page
+            int position = 0;
+            while (cursor.moveToNext()) {
+                assertThat(cursor.getString(0), is(key(position++)));
+            }
+            assertThat(position, is(ROWS));
+
+            // backwards, after the early pages have been evicted
+            while (cursor.moveToPrevious()) {
+                assertThat(cursor.getString(0), is(key(--position)));
+            }
+            assertThat(position, is(0));
+
+            // random access deep into the result
+            assertThat(cursor.moveToPosition(ROWS - 3), is(true));
+            assertThat(cursor.getString(0), is(key(ROWS - 3)));
+            assertThat(cursor.moveToPosition(PAGE_SIZE + 1), is(true));
+            assertThat(cursor.getString(0), is(key(PAGE_SIZE + 1)));
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void testPagesDescending() {
+        Cursor cursor = newLoader(true).loadInBackground();
+        assertThat(cursor, is(notNullValue()));
+
+        try {
+            int position = ROWS;
+            while (cursor.moveToNext()) {
+                assertThat(cursor.getString(0), is(key(--position)));
+            }
+            assertThat(position, is(0));
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void testPagesByRealKey() {
+        // keys differing beyond the precision the cursor window formats a real with as text
+        context.getContentResolver().delete(RealKeyContract.URI, null, null);
+        int rows = PAGE_SIZE * 3;
+        ContentValues[] values = new ContentValues[rows];
+        for (int i = 0; i < rows; ++i) {
+            // inserted in reverse, so the row ids do not follow the keys
+            int key = rows - 1 - i;
+            values[i] = new ContentValues();
+            values[i].put(RealKeyContract.Columns.DATA1, key(key));
+            values[i].put(RealKeyContract.Columns.SCORE, 1.0 + key * 1e-9);
+        }
+        context.getContentResolver().bulkInsert(RealKeyContract.URI, values);
+
+        Cursor cursor = BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(RealKeyContract.URI)
+                .callback(new MockBasicCRUDLoaderCallback())
+                .loaderId(LOADER_ID)
+                .selectColumns(RealKeyContract.Columns.DATA1)
+                .pageBy(PAGE_SIZE, RealKeyContract.Columns.SCORE, false)
+                .initLoader()
+                .loadInBackground();
+        assertThat(cursor, is(notNullValue()));
+
+        try {
+            assertThat(cursor.getCount(), is(rows));
+
+            // forward through every page, each fetched after the last key of the page before
+            int position = 0;
+            while (cursor.moveToNext()) {
+                assertThat(cursor.getString(0), is(key(position++)));
+            }
+            assertThat(position, is(rows));
+
+            // and backwards, each page fetched before the first key of the page after
+            assertThat(cursor.moveToLast(), is(true));
+            position = rows - 1;
+            do {
+                assertThat(cursor.getString(0), is(key(position--)));
+            } while (cursor.moveToPrevious());
+            assertThat(position, is(-1));
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    @UiThreadTest
+    public void testPagingWithOrderBy() {
+        thrown.expect(IllegalStateException.class);
+        BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .callback(new MockBasicCRUDLoaderCallback())
+                .loaderId(LOADER_ID)
+                .orderBy(IgnoreContract.Columns.DATA2)
+                .pageBy(PAGE_SIZE, IgnoreContract.Columns.DATA1, false)
+                .initLoader();
+    }
+
+    @Test
+    public void testRefreshChangedPages() throws InterruptedException {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                MockLoaderManager loaderManager = new MockLoaderManager();
+                loaderManager.setLoadCompleteListener(new ResultListener());
+                loader = BasicCRUDLoader.newInstance(context, loaderManager)
+                        .forUri(IgnoreContract.URI)
+                        .callback(new MockBasicCRUDLoaderCallback())
+                        .loaderId(LOADER_ID)
+                        .selectColumns(IgnoreContract.Columns.DATA1, IgnoreContract.Columns.DATA2)
+                        .pageBy(PAGE_SIZE, IgnoreContract.Columns.DATA1, false)
+                        .initLoader();
+                loader.startLoading();
+            }
+        });
+        List<String> result = nextResult();
+        assertThat(result.get(1), is(key(1) + ":data1"));
+        assertThat(result.get(PAGE_SIZE + 5), is(key(PAGE_SIZE + 5) + ":data" + (PAGE_SIZE + 5)));
+
+        // written behind the provider's back on the first page, which is carried over when only a row
+        // on the second page changes without moving
+        SQLiteDatabase db = DBHelper.getInstance(context).getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA2, "hidden");
+        db.update(IgnoreContract.URI.getLastPathSegment(), values, IgnoreContract.Columns.DATA1 + "=?",
+                new String[]{key(1)});
+        values.clear();
+        values.put(IgnoreContract.Columns.DATA2, "changed");
+        context.getContentResolver().update(rowUri(key(PAGE_SIZE + 5)), values, null, null);
+        result = nextResult();
+        assertThat(result.get(1), is(key(1) + ":data1"));
+        assertThat(result.get(PAGE_SIZE + 5), is(key(PAGE_SIZE + 5) + ":changed"));
+
+        // changing the key moves the row, so every page is reloaded
+        values.clear();
+        values.put(IgnoreContract.Columns.DATA1, key(0) + "a");
+        context.getContentResolver().update(rowUri(key(PAGE_SIZE + 10)), values, null, null);
+        result = nextResult();
+        assertThat(result.get(1), is(key(0) + "a:data" + (PAGE_SIZE + 10)));
+        assertThat(result.get(2), is(key(1) + ":hidden"));
+        assertThat(result.get(PAGE_SIZE + 6), is(key(PAGE_SIZE + 5) + ":changed"));
+    }
+
+    private List<String> nextResult() throws InterruptedException {
+        List<String> result = results.poll(5, TimeUnit.SECONDS);
+        assertThat("no result delivered", result != null, is(true));
+        return result;
+    }
+
+    private Uri rowUri(String data) {
+        Cursor cursor = context.getContentResolver().query(IgnoreContract.URI, new String[]{BaseColumns._ID},
+                IgnoreContract.Columns.DATA1 + "=?", new String[]{data}, null);
+        assertThat(cursor != null && cursor.moveToFirst(), is(true));
+        try {
+            return ContentUris.withAppendedId(IgnoreContract.URI, cursor.getLong(0));
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private CursorLoader newLoader(boolean descending) {
+        return BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .callback(new MockBasicCRUDLoaderCallback())
+                .loaderId(LOADER_ID)
+                .selectColumns(IgnoreContract.Columns.DATA1)
+                .pageBy(PAGE_SIZE, IgnoreContract.Columns.DATA1, descending)
+                .initLoader();
+    }
+
+    private static String key(int i) {
+        return String.format(Locale.US, "key%05d", i);
+    }
+
+    /**
+     * Reads the first two pages of each delivered cursor on the main thread, leaving only those resident
+     */
+    private class ResultListener implements Loader.OnLoadCompleteListener<Cursor> {
+        @Override
+        public void onLoadComplete(@NonNull Loader<Cursor> loader, Cursor data) {
+            List<String> rows = new ArrayList<>();
+            data.moveToPosition(-1);
+            while (rows.size() < PAGE_SIZE * 2 && data.moveToNext()) {
+                rows.add(data.getString(0) + ":" + data.getString(1));
+            }
+            results.add(rows);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.loader;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.CursorLoader;
+
+import com.example.crudtester.provider.DBHelper;
+import com.example.crudtester.provider.IgnoreContract;
+import com.example.crudtester.provider.TestBasicCRUDProvider;
+import com.forkingcode.crudcontent.loader.BasicCRUDLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates identical shared queries reuse one result until the data changes
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDSharedLoaderTest {
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        insert("a");
+        insert("b");
+    }
+
+    @After
+    public void tearDown() {
+        TestBasicCRUDProvider.runAfterNextQuery(null);
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        context = null;
+    }
+
+    @Test
+    @UiThreadTest
+    public void testSharedResult() throws InterruptedException {
+        Cursor first = newLoader(100).loadInBackground();
+        assertThat(first.getCount(), is(2));
+
+        // written behind the provider's back, so the shared result is still current
+        SQLiteDatabase db = DBHelper.getInstance(context).getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, "c");
+        values.put(IgnoreContract.Columns.DATA2, "c");
+        db.insert(IgnoreContract.URI.getLastPathSegment(), null, values);
+
+        Cursor second = newLoader(101).loadInBackground();
+        assertThat(second.getCount(), is(2));
+        assertThat(second.moveToFirst(), is(true));
+        assertThat(second.getString(0), is("a"));
+
+        // a change notification invalidates the shared result, the notification arrives asynchronously
+        context.getContentResolver().notifyChange(IgnoreContract.URI, null);
+        Cursor third = newLoader(102).loadInBackground();
+        for (int i = 0; i < 50 && third.getCount() != 3; ++i) {
+            third.close();
+            Thread.sleep(100);
+            third = newLoader(102).loadInBackground();
+        }
+        assertThat(third.getCount(), is(3));
+
+        // earlier cursors remain usable after the result is replaced
+        assertThat(first.moveToLast(), is(true));
+        assertThat(first.getString(0), is("b"));
+
+        first.close();
+        second.close();
+        third.close();
+    }
+
+    @Test
+    @UiThreadTest
+    public void testChangeWhileLoading() throws InterruptedException {
+        final CountDownLatch notified = new CountDownLatch(1);
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                notified.countDown();
+            }
+        };
+        context.getContentResolver().registerContentObserver(IgnoreContract.URI, true, observer);
+
+        // write once the shared load has read its rows, so its result is stale as it is installed
+        TestBasicCRUDProvider.runAfterNextQuery(new Runnable() {
+            @Override
+            public void run() {
+                insert("c");
+                try {
+                    assertThat(notified.await(5, TimeUnit.SECONDS), is(true));
+                    // let the coordinator's own observer see the change too
+                    Thread.sleep(200);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        final CursorLoader loader = newLoader(103);
+        final AtomicReference<Cursor> result = new AtomicReference<>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                result.set(loader.loadInBackground());
+            }
+        });
+        thread.start();
+        thread.join();
+        context.getContentResolver().unregisterContentObserver(observer);
+
+        Cursor cursor = result.get();
+        assertThat(cursor.getCount(), is(2));
+
+        // the change made during the load is reported as soon as the cursor is observed
+        final CountDownLatch changed = new CountDownLatch(1);
+        cursor.registerContentObserver(new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                changed.countDown();
+            }
+        });
+        assertThat(changed.getCount(), is(0L));
+
+        // and a new load does not reuse the stale result
+        Cursor reloaded = newLoader(104).loadInBackground();
+        assertThat(reloaded.getCount(), is(3));
+
+        cursor.close();
+        reloaded.close();
+    }
+
+    private CursorLoader newLoader(int loaderId) {
+        return BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .selectColumns(IgnoreContract.Columns.DATA1)
+                .orderBy(IgnoreContract.Columns.DATA1)
+                .shareQuery()
+                .callback(new MockBasicCRUDLoaderCallback())
+                .loaderId(loaderId)
+                .initLoader();
+    }
+
+    private void insert(String data) {
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, data);
+        values.put(IgnoreContract.Columns.DATA2, data);
+        context.getContentResolver().insert(IgnoreContract.URI, values);
+    }
+}
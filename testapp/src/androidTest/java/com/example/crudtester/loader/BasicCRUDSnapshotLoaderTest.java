@@ -0,0 +1,117 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.loader;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.CursorLoader;
+
+import com.example.crudtester.provider.IgnoreContract;
+import com.forkingcode.crudcontent.loader.BasicCRUDLoader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates a persisted snapshot is served first and then replaced by the fresh result
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDSnapshotLoaderTest {
+
+    private Context context;
+    private String snapshotName;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        snapshotName = "snapshot_test_" + System.nanoTime();
+        insert("a");
+        insert("b");
+    }
+
+    @After
+    public void tearDown() {
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        context = null;
+    }
+
+    @Test
+    @UiThreadTest
+    public void testSnapshotServedFirst() {
+        // no snapshot yet, so the query runs and its result is persisted
+        Cursor first = newLoader(IgnoreContract.Columns.DATA1).loadInBackground();
+        assertThat(first.getCount(), is(2));
+        assertThat(first.getExtras().getBoolean(BasicCRUDLoader.EXTRA_FROM_SNAPSHOT), is(false));
+        first.close();
+
+        insert("c");
+
+        // a new loader, as after a restart, first serves the persisted result
+        CursorLoader loader = newLoader(IgnoreContract.Columns.DATA1);
+        Cursor snapshot = loader.loadInBackground();
+        assertThat(snapshot.getExtras().getBoolean(BasicCRUDLoader.EXTRA_FROM_SNAPSHOT), is(true));
+        assertThat(snapshot.getCount(), is(2));
+        assertThat(snapshot.moveToLast(), is(true));
+        assertThat(snapshot.getString(0), is("b"));
+        snapshot.close();
+
+        Cursor fresh = loader.loadInBackground();
+        assertThat(fresh.getExtras().getBoolean(BasicCRUDLoader.EXTRA_FROM_SNAPSHOT), is(false));
+        assertThat(fresh.getCount(), is(3));
+        fresh.close();
+    }
+
+    @Test
+    @UiThreadTest
+    public void testSnapshotIgnoredWhenQueryChanges() {
+        newLoader(IgnoreContract.Columns.DATA1).loadInBackground().close();
+
+        Cursor cursor = newLoader(IgnoreContract.Columns.DATA1 + " DESC").loadInBackground();
+        assertThat(cursor.getExtras().getBoolean(BasicCRUDLoader.EXTRA_FROM_SNAPSHOT), is(false));
+        assertThat(cursor.moveToFirst(), is(true));
+        assertThat(cursor.getString(0), is("b"));
+        cursor.close();
+    }
+
+    private CursorLoader newLoader(String orderBy) {
+        return BasicCRUDLoader.newInstance(context, new MockLoaderManager())
+                .forUri(IgnoreContract.URI)
+                .selectColumns(IgnoreContract.Columns.DATA1)
+                .orderBy(orderBy)
+                .cacheSnapshot(snapshotName)
+                .callback(new MockBasicCRUDLoaderCallback())
+                .loaderId(100)
+                .initLoader();
+    }
+
+    private void insert(String data) {
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, data);
+        values.put(IgnoreContract.Columns.DATA2, data);
+        context.getContentResolver().insert(IgnoreContract.URI, values);
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.loader;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.forkingcode.crudcontent.loader.ColumnarCursor;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates the columnar cursor preserves the values and types of the source cursor
+ */
+@RunWith(AndroidJUnit4.class)
+public class ColumnarCursorTest {
+
+    private static final int ROWS = 500;
+
+    @Test
+    public void testValuesPreserved() {
+        MatrixCursor source = new MatrixCursor(new String[]{"_id", "name", "price", "data", "mixed"});
+        for (int i = 0; i < ROWS; ++i) {
+            source.addRow(new Object[]{
+                    (long) i,
+                    i % 10 == 0 ? null : "name" + i,
+                    i * 1.5,
+                    new byte[]{(byte) i},
+                    i % 2 == 0 ? (Object) ("text" + i) : (Object) (long) i
+            });
+        }
+
+        ColumnarCursor cursor = ColumnarCursor.from(source);
+        source.close();
+
+        assertThat(cursor.getCount(), is(ROWS));
+        assertThat(cursor.getColumnIndex("price"), is(2));
+        assertThat(cursor.getMemoryFootprint() > 0, is(true));
+
+        for (int i = 0; i < ROWS; ++i) {
+            assertThat(cursor.moveToPosition(i), is(true));
+            assertThat(cursor.getLong(0), is((long) i));
+            assertThat(cursor.getType(0), is(Cursor.FIELD_TYPE_INTEGER));
+            if (i % 10 == 0) {
+                assertThat(cursor.isNull(1), is(true));
+                assertThat(cursor.getString(1), is(nullValue()));
+            }
+            else {
+                assertThat(cursor.getString(1), is("name" + i));
+            }
+            assertThat(cursor.getDouble(2), is(i * 1.5));
+            assertThat(cursor.getType(2), is(Cursor.FIELD_TYPE_FLOAT));
+            assertThat(cursor.getBlob(3), is(new byte[]{(byte) i}));
+            assertThat(cursor.getString(4), is(i % 2 == 0 ? "text" + i : Integer.toString(i)));
+            assertThat(cursor.getType(4), is(i % 2 == 0 ? Cursor.FIELD_TYPE_STRING : Cursor.FIELD_TYPE_INTEGER));
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void testEmptyCursor() {
+        MatrixCursor source = new MatrixCursor(new String[]{"_id"});
+        ColumnarCursor cursor = ColumnarCursor.from(source);
+        assertThat(cursor.getCount(), is(0));
+        assertThat(cursor.moveToFirst(), is(false));
+        cursor.close();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.loader;
+
+import android.database.MatrixCursor;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.forkingcode.crudcontent.loader.IndexedCursor;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates column lookups by name and by handle on the indexed cursor
+ */
+@RunWith(AndroidJUnit4.class)
+public class IndexedCursorTest {
+
+    private static final IndexedCursor.Column NAME = IndexedCursor.column("name");
+    private static final IndexedCursor.Column COUNT = IndexedCursor.column("count");
+    private static final IndexedCursor.Column MISSING = IndexedCursor.column("missing");
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private IndexedCursor cursor;
+
+    @Before
+    public void setUp() {
+        MatrixCursor matrixCursor = new MatrixCursor(new String[]{"_id", "name", "count", "name"});
+        matrixCursor.addRow(new Object[]{1L, "first", 10, "duplicate"});
+        matrixCursor.addRow(new Object[]{2L, null, 20, "duplicate"});
+        cursor = IndexedCursor.wrap(matrixCursor);
+    }
+
+    @Test
+    public void testColumnIndex() {
+        assertThat(cursor.getColumnIndex("count"), is(2));
+        assertThat(cursor.getColumnIndex("name"), is(1));
+        assertThat(cursor.getColumnIndex("city.count"), is(2));
+        assertThat(cursor.getColumnIndex("missing"), is(-1));
+        assertThat(IndexedCursor.wrap(cursor), is(sameInstance(cursor)));
+    }
+
+    @Test
+    public void testReadByHandle() {
+        assertThat(cursor.moveToFirst(), is(true));
+        assertThat(cursor.getString(NAME), is("first"));
+        assertThat(cursor.getInt(COUNT), is(10));
+        assertThat(cursor.indexOf(MISSING), is(-1));
+
+        assertThat(cursor.moveToNext(), is(true));
+        assertThat(cursor.isNull(NAME), is(true));
+        assertThat(cursor.getLong(COUNT), is(20L));
+    }
+
+    @Test
+    public void testMissingColumnHandle() {
+        assertThat(cursor.moveToFirst(), is(true));
+        thrown.expect(IllegalArgumentException.class);
+        cursor.getString(MISSING);
+    }
+}
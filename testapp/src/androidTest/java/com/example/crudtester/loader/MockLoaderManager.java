@@ -2,6 +2,7 @@ package com.example.crudtester.loader;
 
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.Loader;
 
@@ -17,6 +18,7 @@ public class MockLoaderManager extends LoaderManager {
     private boolean isRestart = false;
     private int loaderId = 0;
     private Object loaderCallbacks;
+    private Loader.OnLoadCompleteListener<?> loadCompleteListener;
 
     @NonNull
     @Override
@@ -30,7 +32,7 @@ public class MockLoaderManager extends LoaderManager {
         Loader<D> loader = callback.onCreateLoader(id, args);
 
         // Need to register listeners to fully "activate" the loader for mock testing.
-        loader.registerListener(id, new LoadCompleteListener<D>());
+        loader.registerListener(id, this.<D>getLoadCompleteListener());
         return loader;
     }
 
@@ -46,10 +48,25 @@ public class MockLoaderManager extends LoaderManager {
         Loader<D> loader = callback.onCreateLoader(id, args);
 
         // Need to register listeners to fully "activate" the loader for mock testing.
-        loader.registerListener(id, new LoadCompleteListener<D>());
+        loader.registerListener(id, this.<D>getLoadCompleteListener());
         return loader;
     }
 
+    /**
+     * Provide the listener registered with loaders created from now on, for tests which start the loader.
+     * By default results delivered to the loader manager are rejected.
+     */
+    public void setLoadCompleteListener(@Nullable Loader.OnLoadCompleteListener<?> listener) {
+        loadCompleteListener = listener;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <D> Loader.OnLoadCompleteListener<D> getLoadCompleteListener() {
+        return loadCompleteListener != null
+                ? (Loader.OnLoadCompleteListener<D>) loadCompleteListener
+                : new LoadCompleteListener<D>();
+    }
+
     public boolean isInit() {
         return isInit;
     }
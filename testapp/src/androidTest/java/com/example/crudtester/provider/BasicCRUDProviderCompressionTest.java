@@ -0,0 +1,119 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.provider.ProviderTestRule;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates compressed columns are stored as blobs and read back as the original text
+ */
+public class BasicCRUDProviderCompressionTest {
+
+    private final ProviderTestRule providerTestRule = new ProviderTestRule
+            .Builder(TestBasicCRUDProvider.class, TestBasicCRUDProvider.AUTHORITY).build();
+
+    @Before
+    public void setUp() {
+        cleanupDB();
+    }
+
+    @After
+    public void tearDown() {
+        cleanupDB();
+    }
+
+    private void cleanupDB() {
+        DBHelper helper = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.delete(RollbackContract.TABLE, null, null);
+        helper.close();
+    }
+
+    @Test
+    public void testCompressedInsertAndUpdate() {
+        String large = buildValue("insert");
+        ContentValues values = new ContentValues();
+        values.put(RollbackContract.Columns.DATA1, "large");
+        values.put(RollbackContract.Columns.DATA2, large);
+        Uri uri = providerTestRule.getResolver().insert(RollbackContract.URI, values);
+        assertThat(uri, is(notNullValue()));
+
+        // Callers values must not be modified
+        assertThat(values.getAsString(RollbackContract.Columns.DATA2), is(large));
+
+        //noinspection ConstantConditions
+        long id = ContentUris.parseId(uri);
+        assertThat(readData2(uri), is(large));
+        assertThat(storedType(id), is("blob"));
+
+        large = buildValue("update");
+        values = new ContentValues();
+        values.put(RollbackContract.Columns.DATA2, large);
+        assertThat(providerTestRule.getResolver().update(uri, values, null, null), is(1));
+        assertThat(readData2(uri), is(large));
+        assertThat(storedType(id), is("blob"));
+
+        // Small values remain plain text
+        values.put(RollbackContract.Columns.DATA2, "small");
+        assertThat(providerTestRule.getResolver().update(uri, values, null, null), is(1));
+        assertThat(readData2(uri), is("small"));
+        assertThat(storedType(id), is("text"));
+    }
+
+    private String buildValue(String prefix) {
+        StringBuilder builder = new StringBuilder(prefix);
+        for (int i = 0; i < 1000; ++i) {
+            builder.append("{\"key\":\"value\"}");
+        }
+        return builder.toString();
+    }
+
+    private String readData2(Uri uri) {
+        String[] projection = new String[]{RollbackContract.Columns.DATA2};
+        try (Cursor cursor = providerTestRule.getResolver().query(uri, projection, null, null, null)) {
+            assertThat(cursor, is(notNullValue()));
+            //noinspection ConstantConditions
+            assertThat(cursor.moveToFirst(), is(true));
+            assertThat(cursor.getType(0), is(Cursor.FIELD_TYPE_STRING));
+            return cursor.getString(0);
+        }
+    }
+
+    private String storedType(long id) {
+        DBHelper helper = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        SQLiteDatabase db = helper.getReadableDatabase();
+        try (Cursor cursor = db.rawQuery("SELECT typeof(" + RollbackContract.Columns.DATA2 + ") FROM " +
+                RollbackContract.TABLE + " WHERE _id = ?", new String[]{Long.toString(id)})) {
+            assertThat(cursor.moveToFirst(), is(true));
+            return cursor.getString(0);
+        }
+    }
+}
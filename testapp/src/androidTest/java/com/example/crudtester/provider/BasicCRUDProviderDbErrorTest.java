@@ -20,9 +20,12 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.os.StrictMode;
 import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
 import android.support.test.rule.provider.ProviderTestRule;
 
 import com.example.crudtester.utils.DataUtilities;
@@ -150,6 +153,16 @@ public class BasicCRUDProviderDbErrorTest {
         assertThat(rows, is(1));
     }
 
+    @Test(expected = OperationCanceledException.class)
+    @SdkSuppress(minSdkVersion = 16)
+    public void testQueryCancelled() {
+        insertDataSuccessfully();
+
+        CancellationSignal cancellationSignal = new CancellationSignal();
+        cancellationSignal.cancel();
+        providerTestRule.getResolver().query(getUri(), null, null, null, null, cancellationSignal);
+    }
+
     private Uri insertDataSuccessfully() {
         // Test basic insertion
         DBHelper.getInstance(InstrumentationRegistry.getTargetContext()).setErrorCount(0);
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.provider;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.provider.BaseColumns;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.test.InstrumentationRegistry;
+
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates expired rows are purged in paused batches, followed by an incremental vacuum
+ */
+public class BasicCRUDProviderPurgeTest {
+
+    private static final String AUTHORITY = "com.example.crudtester.provider.ExpiringProvider";
+    private static final String TABLE = "expiring";
+    private static final String DATA = "data";
+    private static final String WRITTEN = "written";
+    private static final Uri URI = new Uri.Builder()
+            .scheme(ContentResolver.SCHEME_CONTENT)
+            .authority(AUTHORITY)
+            .appendPath(TABLE)
+            .build();
+    private static final long TIME_TO_LIVE = TimeUnit.DAYS.toMillis(1);
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private Context context;
+    private ExpiringProvider provider;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.deleteDatabase(PurgeHelper.DATABASE_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        if (provider != null) {
+            provider.shutdown();
+            provider = null;
+        }
+        context.deleteDatabase(PurgeHelper.DATABASE_NAME);
+        context = null;
+    }
+
+    @Test
+    public void testPurgeExpiredRows() {
+        provider = attach(null);
+        insertRows(5, true);
+        insertRows(3, false);
+
+        Bundle result = provider.call(BasicCRUDProvider.PURGE_EXPIRED_METHOD, null, null);
+        assertThat(result, is(notNullValue()));
+        //noinspection ConstantConditions
+        assertThat(result.getInt(BasicCRUDProvider.EXTRA_ROWS), is(5));
+
+        try (Cursor cursor = provider.query(URI, new String[]{DATA}, null, null, DATA)) {
+            assertThat(cursor, is(notNullValue()));
+            //noinspection ConstantConditions
+            assertThat(cursor.getCount(), is(3));
+            assertThat(cursor.moveToFirst(), is(true));
+            assertThat(cursor.getString(0), is("live0"));
+        }
+
+        // nothing left to purge
+        assertThat(provider.purgeExpiredRows(), is(0));
+    }
+
+    @Test
+    public void testPurgeBatchesWithPause() {
+        provider = attach(null);
+        provider.batchSize = 2;
+        provider.batchPause = 150;
+        insertRows(5, true);
+
+        // batches of 2, 2 and 1 rows, pausing after each full batch
+        long start = SystemClock.elapsedRealtime();
+        assertThat(provider.purgeExpiredRows(), is(5));
+        assertThat(SystemClock.elapsedRealtime() - start, is(greaterThanOrEqualTo(2 * provider.batchPause)));
+
+        // a single batch does not pause
+        provider.batchSize = 10;
+        insertRows(5, true);
+        start = SystemClock.elapsedRealtime();
+        assertThat(provider.purgeExpiredRows(), is(5));
+        assertThat(provider.batchPause, is(greaterThan(SystemClock.elapsedRealtime() - start)));
+    }
+
+    @Test
+    public void testPurgeIncrementalVacuum() {
+        provider = attach(null);
+        SQLiteDatabase db = provider.helper.getWritableDatabase();
+        assertThat(DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null), is(2L));
+
+        // without a vacuum the pages of the purged rows stay on the free list
+        insertRows(100, true);
+        assertThat(provider.purgeExpiredRows(), is(100));
+        assertThat(DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null), is(greaterThan(0L)));
+
+        provider.vacuumPages = 10000;
+        insertRows(100, true);
+        assertThat(provider.purgeExpiredRows(), is(100));
+        assertThat(DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null), is(0L));
+    }
+
+    @Test
+    public void testPurgeRequiresWritePermission() {
+        // a permission this app does not hold
+        provider = attach("com.example.crudtester.permission.NOT_GRANTED");
+        insertRows(1, true);
+
+        thrown.expect(SecurityException.class);
+        provider.call(BasicCRUDProvider.PURGE_EXPIRED_METHOD, null, null);
+    }
+
+    private ExpiringProvider attach(@Nullable String writePermission) {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = AUTHORITY;
+        info.writePermission = writePermission;
+        ExpiringProvider expiringProvider = new ExpiringProvider();
+        expiringProvider.attachInfo(context, info);
+        return expiringProvider;
+    }
+
+    private void insertRows(int count, boolean expired) {
+        long written = System.currentTimeMillis() - (expired ? 2 * TIME_TO_LIVE : 0);
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; ++i) {
+            values[i] = new ContentValues();
+            // large enough that purged rows leave whole pages free
+            values[i].put(DATA, (expired ? "expired" : "live") + i + new String(new char[2000]).replace('\0', 'x'));
+            values[i].put(WRITTEN, written);
+        }
+        assertThat(provider.bulkInsert(URI, values), is(count));
+    }
+
+    /**
+     * Provider with a single expiring table, never purged on its own during the test
+     */
+    public static class ExpiringProvider extends BasicCRUDProvider {
+
+        PurgeHelper helper;
+        int batchSize = 500;
+        long batchPause = 0;
+        int vacuumPages = 0;
+
+        public ExpiringProvider() {
+            super(AUTHORITY);
+        }
+
+        @NonNull
+        @Override
+        protected SQLiteOpenHelper getDbHelper() {
+            helper = new PurgeHelper(getContext());
+            return helper;
+        }
+
+        @Nullable
+        @Override
+        protected String[] getExpiringTables() {
+            return new String[]{TABLE};
+        }
+
+        @NonNull
+        @Override
+        protected String getExpirationColumn(@NonNull String table) {
+            return WRITTEN;
+        }
+
+        @Override
+        protected long getTimeToLive(@NonNull String table) {
+            return TIME_TO_LIVE;
+        }
+
+        @Override
+        protected long getPurgeInterval() {
+            return TimeUnit.DAYS.toMillis(1);
+        }
+
+        @Override
+        protected int getPurgeBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        protected long getPurgeBatchPause() {
+            return batchPause;
+        }
+
+        @Override
+        protected int getIncrementalVacuumPages() {
+            return vacuumPages;
+        }
+    }
+
+    private static class PurgeHelper extends SQLiteOpenHelper {
+
+        static final String DATABASE_NAME = "Purge.db";
+
+        PurgeHelper(Context context) {
+            super(context, DATABASE_NAME, null, 1);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE + " (" +
+                    BaseColumns._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    DATA + " TEXT, " +
+                    WRITTEN + " INTEGER NOT NULL)");
+            db.execSQL("CREATE INDEX " + TABLE + "_" + WRITTEN + " ON " + TABLE + " (" + WRITTEN + ")");
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            // auto_vacuum can only be switched by rebuilding the database, outside of a transaction
+            if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null) != 2) {
+                db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+                db.execSQL("VACUUM");
+            }
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.provider;
+
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.provider.ProviderTestRule;
+
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+import com.forkingcode.crudcontent.provider.RowBatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates rows stored by column are parceled and inserted through the prepared statement path
+ */
+public class BasicCRUDProviderRowBatchTest {
+
+    @Rule
+    public ExpectedException thrown = ExpectedException.none();
+
+    private final ProviderTestRule providerTestRule = new ProviderTestRule
+            .Builder(TestBasicCRUDProvider.class, TestBasicCRUDProvider.AUTHORITY).build();
+
+    @Before
+    public void setUp() {
+        cleanupDB();
+    }
+
+    @After
+    public void tearDown() {
+        cleanupDB();
+    }
+
+    private void cleanupDB() {
+        DBHelper helper = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.delete(RollbackContract.TABLE, null, null);
+        helper.close();
+    }
+
+    @Test
+    public void testParcelRoundTrip() {
+        RowBatch batch = new RowBatch.Builder()
+                .integerColumn("count")
+                .realColumn("score")
+                .textColumn("name")
+                .blobColumn("data")
+                .expectedRows(1)
+                .build();
+        for (int i = 0; i < 100; ++i) {
+            batch.addRow();
+            batch.putLong(0, i);
+            if (i % 3 != 0) {
+                batch.putDouble(1, i / 2.0);
+            }
+            batch.putText(2, i % 2 == 0 ? "row" + i : null);
+            batch.putBlob(3, new byte[]{(byte) i});
+        }
+
+        Parcel parcel = Parcel.obtain();
+        try {
+            batch.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            RowBatch copy = RowBatch.CREATOR.createFromParcel(parcel);
+
+            assertThat(copy.getRowCount(), is(100));
+            assertThat(copy.getColumnName(2), is("name"));
+            assertThat(copy.getColumnType(1), is(RowBatch.TYPE_REAL));
+            assertThat(copy.getLong(70, 0), is(70L));
+            assertThat(copy.isNull(69, 1), is(true));
+            assertThat(copy.getDouble(70, 1), is(35.0));
+            assertThat(copy.getText(70, 2), is("row70"));
+            assertThat(copy.getText(71, 2), is(nullValue()));
+            assertThat(copy.isNull(71, 2), is(true));
+            assertThat(copy.getBlob(99, 3)[0], is((byte) 99));
+        }
+        finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void testBulkInsertRows() {
+        RowBatch batch = new RowBatch.Builder()
+                .textColumn(RollbackContract.Columns.DATA1)
+                .textColumn(RollbackContract.Columns.DATA2)
+                .build();
+        for (int i = 0; i < 10; ++i) {
+            batch.addRow();
+            batch.putText(0, "key" + i);
+            batch.putText(1, "value" + i);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(BasicCRUDProvider.EXTRA_ROW_BATCH, batch);
+        Bundle result = providerTestRule.getResolver().call(RollbackContract.URI,
+                BasicCRUDProvider.BULK_INSERT_ROWS_METHOD, RollbackContract.URI.toString(), extras);
+        assertThat(result, is(notNullValue()));
+        //noinspection ConstantConditions
+        assertThat(result.getInt(BasicCRUDProvider.EXTRA_ROWS), is(10));
+
+        String[] projection = new String[]{RollbackContract.Columns.DATA1, RollbackContract.Columns.DATA2};
+        try (Cursor cursor = providerTestRule.getResolver().query(RollbackContract.URI, projection,
+                RollbackContract.Columns.DATA1 + " = ?", new String[]{"key7"}, null)) {
+            assertThat(cursor, is(notNullValue()));
+            //noinspection ConstantConditions
+            assertThat(cursor.moveToFirst(), is(true));
+            assertThat(cursor.getString(1), is("value7"));
+        }
+    }
+
+    @Test
+    public void testBulkInsertRowsRollsBackOnConflict() {
+        RowBatch batch = new RowBatch.Builder()
+                .textColumn(RollbackContract.Columns.DATA1)
+                .textColumn(RollbackContract.Columns.DATA2)
+                .build();
+        for (int i = 0; i < 3; ++i) {
+            batch.addRow();
+            // data1 is unique, the third row conflicts with the first
+            batch.putText(0, i == 2 ? "key0" : "key" + i);
+            batch.putText(1, "value" + i);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(BasicCRUDProvider.EXTRA_ROW_BATCH, batch);
+        Bundle result = providerTestRule.getResolver().call(RollbackContract.URI,
+                BasicCRUDProvider.BULK_INSERT_ROWS_METHOD, RollbackContract.URI.toString(), extras);
+        assertThat(result, is(notNullValue()));
+        //noinspection ConstantConditions
+        assertThat(result.getInt(BasicCRUDProvider.EXTRA_ROWS), is(0));
+
+        try (Cursor cursor = providerTestRule.getResolver().query(RollbackContract.URI, null, null, null, null)) {
+            assertThat(cursor, is(notNullValue()));
+            //noinspection ConstantConditions
+            assertThat(cursor.getCount(), is(0));
+        }
+    }
+
+    @Test
+    public void testBulkInsertRowsRequiresWritePermission() {
+        // a permission this app does not hold
+        ProviderInfo info = new ProviderInfo();
+        info.authority = TestBasicCRUDProvider.AUTHORITY;
+        info.writePermission = "com.example.crudtester.permission.NOT_GRANTED";
+        TestBasicCRUDProvider provider = new TestBasicCRUDProvider();
+        provider.attachInfo(InstrumentationRegistry.getTargetContext(), info);
+
+        RowBatch batch = new RowBatch.Builder()
+                .textColumn(RollbackContract.Columns.DATA1)
+                .build();
+        batch.addRow();
+        batch.putText(0, "key0");
+        Bundle extras = new Bundle();
+        extras.putParcelable(BasicCRUDProvider.EXTRA_ROW_BATCH, batch);
+
+        thrown.expect(SecurityException.class);
+        provider.call(BasicCRUDProvider.BULK_INSERT_ROWS_METHOD, RollbackContract.URI.toString(), extras);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.provider;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.provider.ProviderTestRule;
+
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates streaming of single column values via openInputStream
+ */
+public class BasicCRUDProviderStreamTest {
+
+    @Rule
+    public final ProviderTestRule providerTestRule = new ProviderTestRule
+            .Builder(TestBasicCRUDProvider.class, TestBasicCRUDProvider.AUTHORITY).build();
+
+    @Before
+    public void setUp() {
+        cleanupDB();
+    }
+
+    @After
+    public void tearDown() {
+        cleanupDB();
+    }
+
+    private void cleanupDB() {
+        DBHelper helper = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.delete(RollbackContract.TABLE, null, null);
+        helper.close();
+    }
+
+    @Test
+    public void testStreamLargeColumn() throws Exception {
+        // Larger than a chunk and contains multi byte characters to verify byte based paging
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            builder.append("dataé");
+        }
+        String data = builder.toString();
+
+        ContentValues values = new ContentValues();
+        values.put(RollbackContract.Columns.DATA1, "large");
+        values.put(RollbackContract.Columns.DATA2, data);
+        Uri uri = providerTestRule.getResolver().insert(RollbackContract.URI, values);
+        assertThat(uri, is(notNullValue()));
+
+        //noinspection ConstantConditions
+        Uri columnUri = BasicCRUDProvider.buildColumnUri(RollbackContract.URI,
+                ContentUris.parseId(uri), RollbackContract.Columns.DATA2);
+
+        assertThat(readFully(columnUri), is(data));
+    }
+
+    @Test
+    public void testColumnUriType() throws Exception {
+        Uri columnUri = BasicCRUDProvider.buildColumnUri(RollbackContract.URI, 1, RollbackContract.Columns.DATA2);
+        assertThat(providerTestRule.getResolver().getType(columnUri), is("application/octet-stream"));
+
+        // two ids match the same pattern but do not name a column
+        Uri twoIdsUri = ContentUris.withAppendedId(ContentUris.withAppendedId(RollbackContract.URI, 1), 2);
+        assertThat(providerTestRule.getResolver().getType(twoIdsUri), is(nullValue()));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testStreamTwoIds() throws Exception {
+        readFully(ContentUris.withAppendedId(ContentUris.withAppendedId(RollbackContract.URI, 1), 2));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testStreamMissingRow() throws Exception {
+        Uri columnUri = BasicCRUDProvider.buildColumnUri(RollbackContract.URI, 1, RollbackContract.Columns.DATA2);
+        readFully(columnUri);
+    }
+
+    private String readFully(Uri uri) throws IOException {
+        InputStream in = providerTestRule.getResolver().openInputStream(uri);
+        assertThat(in, is(notNullValue()));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try {
+            int read;
+            //noinspection ConstantConditions
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        finally {
+            //noinspection ConstantConditions
+            in.close();
+        }
+        return out.toString("UTF-8");
+    }
+}
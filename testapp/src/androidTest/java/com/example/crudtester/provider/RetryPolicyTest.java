@@ -0,0 +1,266 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.provider;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDatabaseLockedException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteTableLockedException;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.provider.ProviderTestRule;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
+import com.forkingcode.crudcontent.provider.RetryPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test the retry policy used by the provider for writes failing on a locked database. The lock is held by
+ * an exclusive transaction on a second connection. SQLite waits about 2.5 seconds for the lock before an
+ * attempt fails, so the lock is held beyond that for the first attempt to fail.
+ */
+@RunWith(AndroidJUnit4.class)
+public class RetryPolicyTest {
+
+    // released while the retry of the write waits on the lock
+    private static final long HOLD_BRIEFLY_MILLIS = 3500;
+    // held beyond two failed attempts, the second exceeding the deadline of the default policy
+    private static final long HOLD_LONG_MILLIS = 7000;
+
+    private static final String RETRY = "retry";
+    private static final String SUCCEEDED = "succeeded";
+    private static final String EXHAUSTED = "exhausted";
+
+    @Rule
+    public final ProviderTestRule providerTestRule = new ProviderTestRule
+            .Builder(TestBasicCRUDProvider.class, TestBasicCRUDProvider.AUTHORITY).build();
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    private Thread lockHolder;
+
+    @Before
+    public void setUp() {
+        cleanupDB();
+        BasicCRUDProvider.setMetricsListener(new BasicCRUDProvider.MetricsListener() {
+            @Override
+            public void onWriteRetry(@Nullable String table, int attempt, long delayMillis,
+                                     @NonNull SQLiteException e) {
+                events.add(RETRY);
+            }
+
+            @Override
+            public void onWriteRetrySucceeded(@Nullable String table, int attempts, long elapsedMillis) {
+                events.add(SUCCEEDED);
+            }
+
+            @Override
+            public void onWriteRetriesExhausted(@Nullable String table, int attempts, long elapsedMillis,
+                                                @NonNull SQLiteException e) {
+                events.add(EXHAUSTED);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        BasicCRUDProvider.setMetricsListener(null);
+        if (lockHolder != null) {
+            lockHolder.join();
+            lockHolder = null;
+        }
+        cleanupDB();
+    }
+
+    private void cleanupDB() {
+        DBHelper helper = DBHelper.getInstance(InstrumentationRegistry.getTargetContext());
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.delete(RollbackContract.TABLE, null, null);
+        helper.close();
+    }
+
+    @Test
+    public void testOnlyLocksAreRetryable() {
+        assertThat(RetryPolicy.isRetryable(new SQLiteDatabaseLockedException()), is(true));
+        assertThat(RetryPolicy.isRetryable(new SQLiteTableLockedException()), is(true));
+        assertThat(RetryPolicy.isRetryable(new SQLiteConstraintException()), is(false));
+    }
+
+    @Test
+    public void testBackoffDoublesUpToMaximum() {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .backoff(10, 50)
+                .build();
+
+        assertThat(policy.getBackoffMillis(1), is(10L));
+        assertThat(policy.getBackoffMillis(2), is(20L));
+        assertThat(policy.getBackoffMillis(3), is(40L));
+        assertThat(policy.getBackoffMillis(4), is(50L));
+        assertThat(policy.getBackoffMillis(30), is(50L));
+    }
+
+    @Test
+    public void testNoneNeverRetries() {
+        assertThat(RetryPolicy.NONE.getMaxAttempts(), is(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoAttempts() {
+        new RetryPolicy.Builder().maxAttempts(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBackoff() {
+        new RetryPolicy.Builder().backoff(100, 10);
+    }
+
+    @Test
+    public void testInsertRetriedWhileLocked() throws InterruptedException {
+        holdLock(HOLD_BRIEFLY_MILLIS);
+        Uri uri = providerTestRule.getResolver().insert(RollbackContract.URI, values("a"));
+        assertThat(uri, is(notNullValue()));
+        assertRetrySucceeded();
+    }
+
+    @Test
+    public void testBulkInsertRetriedWhileLocked() throws InterruptedException {
+        holdLock(HOLD_BRIEFLY_MILLIS);
+        int rows = providerTestRule.getResolver().bulkInsert(RollbackContract.URI,
+                new ContentValues[]{values("a"), values("b")});
+        assertThat(rows, is(2));
+        assertRetrySucceeded();
+    }
+
+    @Test
+    public void testUpdateRetriedWhileLocked() throws InterruptedException {
+        Uri uri = providerTestRule.getResolver().insert(RollbackContract.URI, values("a"));
+        assertThat(uri, is(notNullValue()));
+
+        holdLock(HOLD_BRIEFLY_MILLIS);
+        //noinspection ConstantConditions
+        int rows = providerTestRule.getResolver().update(uri, values("b"), null, null);
+        assertThat(rows, is(1));
+        assertRetrySucceeded();
+    }
+
+    @Test
+    public void testDeleteRetriedWhileLocked() throws InterruptedException {
+        Uri uri = providerTestRule.getResolver().insert(RollbackContract.URI, values("a"));
+        assertThat(uri, is(notNullValue()));
+
+        holdLock(HOLD_BRIEFLY_MILLIS);
+        //noinspection ConstantConditions
+        int rows = providerTestRule.getResolver().delete(uri, null, null);
+        assertThat(rows, is(1));
+        assertRetrySucceeded();
+    }
+
+    @Test
+    public void testApplyBatchStartRetriedWhileLocked() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(RollbackContract.URI).withValues(values("a")).build());
+        operations.add(ContentProviderOperation.newInsert(RollbackContract.URI).withValues(values("b")).build());
+
+        holdLock(HOLD_BRIEFLY_MILLIS);
+        ContentProviderResult[] results = providerTestRule.getResolver()
+                .applyBatch(TestBasicCRUDProvider.AUTHORITY, operations);
+        assertThat(results.length, is(2));
+        assertThat(ContentUris.parseId(results[1].uri) > 0, is(true));
+        assertRetrySucceeded();
+    }
+
+    @Test
+    public void testRetriesExhausted() throws InterruptedException {
+        holdLock(HOLD_LONG_MILLIS);
+        Uri uri = providerTestRule.getResolver().insert(RollbackContract.URI, values("a"));
+        assertThat(uri, is(nullValue()));
+        assertThat(events, hasItem(RETRY));
+        assertThat(events, hasItem(EXHAUSTED));
+        assertThat(events, not(hasItem(SUCCEEDED)));
+    }
+
+    private void assertRetrySucceeded() {
+        assertThat(events, hasItem(RETRY));
+        assertThat(events, hasItem(SUCCEEDED));
+        assertThat(events, not(hasItem(EXHAUSTED)));
+    }
+
+    /**
+     * Hold an exclusive transaction on a second connection to the database, returning once it is held
+     */
+    private void holdLock(final long millis) throws InterruptedException {
+        final String path = InstrumentationRegistry.getTargetContext().getDatabasePath("Test.db").getPath();
+        final CountDownLatch locked = new CountDownLatch(1);
+        lockHolder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null,
+                        SQLiteDatabase.OPEN_READWRITE | SQLiteDatabase.ENABLE_WRITE_AHEAD_LOGGING);
+                try {
+                    db.beginTransaction();
+                    try {
+                        locked.countDown();
+                        Thread.sleep(millis);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally {
+                        db.endTransaction();
+                    }
+                }
+                finally {
+                    db.close();
+                }
+            }
+        });
+        lockHolder.start();
+        assertThat("Lock not taken", locked.await(5, TimeUnit.SECONDS), is(true));
+    }
+
+    private static ContentValues values(String data) {
+        ContentValues values = new ContentValues();
+        values.put(RollbackContract.Columns.DATA1, data);
+        values.put(RollbackContract.Columns.DATA2, data);
+        return values;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.stream;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.annotation.NonNull;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.crudtester.provider.IgnoreContract;
+import com.forkingcode.crudcontent.loader.QuerySpec;
+import com.forkingcode.crudcontent.stream.BasicCRUDQueryStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Validates query streams re-run on change and deliver only the latest result
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDQueryStreamTest {
+
+    private Context context;
+    private QuerySpec spec;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        spec = new QuerySpec.Builder(IgnoreContract.URI)
+                .selectColumns(IgnoreContract.Columns.DATA1)
+                .orderBy(IgnoreContract.Columns.DATA1)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        context = null;
+    }
+
+    @Test
+    public void testRequeryOnChange() throws InterruptedException {
+        CountingListener listener = new CountingListener();
+        BasicCRUDQueryStream stream = new BasicCRUDQueryStream.Builder(context)
+                .forQuery(spec)
+                .listener(listener)
+                .start();
+
+        assertThat(listener.counts.poll(5, TimeUnit.SECONDS), is(0));
+
+        insert("a");
+        assertThat(listener.counts.poll(5, TimeUnit.SECONDS), is(1));
+
+        stream.cancel();
+        assertThat(stream.isCancelled(), is(true));
+
+        insert("b");
+        assertThat(listener.counts.poll(500, TimeUnit.MILLISECONDS), is(nullValue()));
+    }
+
+    @Test
+    public void testLatestResultWins() throws InterruptedException {
+        CountingListener listener = new CountingListener();
+        HeldExecutor delivery = new HeldExecutor();
+        BasicCRUDQueryStream stream = new BasicCRUDQueryStream.Builder(context)
+                .forQuery(spec)
+                .listener(listener)
+                .deliverOn(delivery)
+                .start();
+
+        // the first result waits for delivery, the results after it replace each other
+        Runnable first = delivery.tasks.poll(5, TimeUnit.SECONDS);
+        assertThat(first, is(notNullValue()));
+        insert("a");
+        insert("b");
+        insert("c");
+        Thread.sleep(500);
+
+        first.run();
+        assertThat(listener.counts.poll(5, TimeUnit.SECONDS), is(3));
+        assertThat(listener.counts.poll(500, TimeUnit.MILLISECONDS), is(nullValue()));
+
+        stream.cancel();
+    }
+
+    private void insert(String data) {
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, data);
+        values.put(IgnoreContract.Columns.DATA2, data);
+        context.getContentResolver().insert(IgnoreContract.URI, values);
+    }
+
+    private static class CountingListener implements BasicCRUDQueryStream.Listener {
+        final BlockingQueue<Integer> counts = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onQueryResult(@NonNull Cursor cursor) {
+            counts.add(cursor.getCount());
+        }
+
+        @Override
+        public void onQueryFailed(@NonNull RuntimeException e) {
+            throw e;
+        }
+    }
+
+    private static class HeldExecutor implements Executor {
+        final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+
+        @Override
+        public void execute(@NonNull Runnable command) {
+            tasks.add(command);
+        }
+    }
+}
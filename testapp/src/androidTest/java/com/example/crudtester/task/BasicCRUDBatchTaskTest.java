@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.task;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.content.LocalBroadcastManager;
+
+import com.example.crudtester.provider.IgnoreContract;
+import com.forkingcode.crudcontent.task.BasicCRUDBatchTask;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test BasicCRUDBatchTask against the test provider, as the batch must be applied in one transaction
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDBatchTaskTest {
+
+    private static final IntentFilter INTENT_FILTER = new IntentFilter(BasicCRUDBatchTask.BATCH_COMPLETE_ACTION);
+
+    private Context context;
+    private TaskBroadcastReceiver receiver;
+
+    @Before
+    public void setup() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        receiver = new TaskBroadcastReceiver();
+        LocalBroadcastManager.getInstance(context).registerReceiver(receiver, INTENT_FILTER);
+    }
+
+    @After
+    public void tearDown() {
+        LocalBroadcastManager.getInstance(context).unregisterReceiver(receiver);
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        receiver = null;
+        context = null;
+    }
+
+    @Test
+    public void testBatchWithBackReference() throws Exception {
+
+        BasicCRUDBatchTask task = new BasicCRUDBatchTask.Builder(context)
+                .insert(IgnoreContract.URI, values("parent", "parent"))
+                .insert(IgnoreContract.URI, values("child", null))
+                .withBackReference(IgnoreContract.Columns.DATA2, 0)
+                .update(IgnoreContract.URI, values("parent", "updated"),
+                        IgnoreContract.Columns.DATA1 + "=?", "parent")
+                .requestResultBroadcast()
+                .start();
+
+        task.get();
+
+        Thread.sleep(5);
+        assertThat("Intent null", receiver.getIntent(), is(notNullValue()));
+        assertThat("Incorrect rows", receiver.getIntent().getIntExtra(BasicCRUDBatchTask.EXTRA_ROWS, 0), is(3));
+        assertThat("Error provided", receiver.getIntent().getStringExtra(BasicCRUDBatchTask.EXTRA_ERROR),
+                is(nullValue()));
+
+        long parentId = queryId("parent");
+        assertThat("Parent not updated", queryData2("parent"), is("updated"));
+        assertThat("Back reference not applied", queryData2("child"), is(String.valueOf(parentId)));
+    }
+
+    @Test
+    public void testFailedBatchRolledBack() throws Exception {
+
+        // the second insert conflicts and is ignored, which fails the batch
+        BasicCRUDBatchTask task = new BasicCRUDBatchTask.Builder(context)
+                .insert(IgnoreContract.URI, values("a", "a"))
+                .insert(IgnoreContract.URI, values("a", "b"))
+                .requestResultBroadcast()
+                .start();
+
+        task.get();
+
+        Thread.sleep(5);
+        assertThat("Intent null", receiver.getIntent(), is(notNullValue()));
+        assertThat("Incorrect rows", receiver.getIntent().getIntExtra(BasicCRUDBatchTask.EXTRA_ROWS, -1), is(0));
+        assertThat("No error provided", receiver.getIntent().getStringExtra(BasicCRUDBatchTask.EXTRA_ERROR),
+                is(notNullValue()));
+        assertThat("Batch not rolled back", queryId("a"), is(-1L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNoOperations() {
+        new BasicCRUDBatchTask.Builder(context).start();
+    }
+
+    private static ContentValues values(String data1, String data2) {
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, data1);
+        values.put(IgnoreContract.Columns.DATA2, data2);
+        return values;
+    }
+
+    private long queryId(String data1) {
+        Cursor cursor = query(data1);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private String queryData2(String data1) {
+        Cursor cursor = query(data1);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(1) : null;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private Cursor query(String data1) {
+        Cursor cursor = context.getContentResolver().query(IgnoreContract.URI,
+                new String[]{IgnoreContract.Columns._ID, IgnoreContract.Columns.DATA2},
+                IgnoreContract.Columns.DATA1 + "=?", new String[]{data1}, null);
+        assertThat("Cursor null", cursor, is(notNullValue()));
+        return cursor;
+    }
+}
@@ -26,6 +26,7 @@ import android.support.test.runner.AndroidJUnit4;
 import android.support.v4.content.LocalBroadcastManager;
 
 import com.forkingcode.crudcontent.task.BasicCRUDDeleteTask;
+import com.forkingcode.crudcontent.task.BasicCRUDTaskProgress;
 
 import org.junit.After;
 import org.junit.Before;
@@ -34,6 +35,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CancellationException;
 
 import static org.hamcrest.CoreMatchers.is;
@@ -225,4 +228,43 @@ public class BasicCRUDDeleteTaskTest {
 
         assertThat("Task not null", task, is(nullValue()));
     }
+
+    @Test
+    public void test10DeleteIdsInChunks() throws Exception {
+
+        long[] ids = new long[1200];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = i + 1;
+        }
+
+        final List<BasicCRUDTaskProgress> progressList = new ArrayList<>();
+        BasicCRUDDeleteTask task = new BasicCRUDDeleteTask.Builder(context)
+                .forUri(URI)
+                .whereIdIn(ids)
+                .onProgress(new BasicCRUDTaskProgress.Listener() {
+                    @Override
+                    public void onProgress(BasicCRUDTaskProgress progress) {
+                        progressList.add(progress);
+                    }
+                }, null)
+                .requestResultBroadcast()
+                .start();
+
+        // the mock provider deletes a fixed number of rows per selection
+        int expected = 3 * TaskMockContentProvider.DELETE_SELECTION_RESULT;
+        assertThat("Incorrect rows", task.get().getRows(), is(expected));
+        assertThat("Incorrect chunks", progressList.size(), is(3));
+        assertThat("Incorrect total", progressList.get(0).getTotalRows(), is(ids.length));
+        assertThat("Incorrect chunk count", progressList.get(2).getChunks(), is(3));
+        // the ids worked through rather than the rows deleted drive the estimate
+        assertThat("Incorrect processed", progressList.get(0).getProcessed(), is(BasicCRUDDeleteTask.MAX_CHUNK_IDS));
+        assertThat("Incorrect processed", progressList.get(2).getProcessed(), is(ids.length));
+        assertThat("Incorrect affected", progressList.get(2).getRows(), is(expected));
+        assertThat("Incorrect remaining", progressList.get(2).getEstimatedRemainingMillis(), is(0L));
+
+        Thread.sleep(5);
+        assertThat("Intent null", receiver.getIntent(), is(notNullValue()));
+        int rows = receiver.getIntent().getIntExtra(BasicCRUDDeleteTask.EXTRA_ROWS, 0);
+        assertThat("Incorrect broadcast rows", rows, is(expected));
+    }
 }
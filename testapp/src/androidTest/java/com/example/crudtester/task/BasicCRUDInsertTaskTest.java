@@ -16,18 +16,26 @@
 
 package com.example.crudtester.task;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.IntentFilter;
+import android.content.OperationApplicationException;
 import android.net.Uri;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 import android.support.v4.content.LocalBroadcastManager;
 
+import com.forkingcode.crudcontent.provider.RowBatch;
+import com.forkingcode.crudcontent.task.BasicCRUDDeleteTask;
+import com.forkingcode.crudcontent.task.BasicCRUDExecutors;
 import com.forkingcode.crudcontent.task.BasicCRUDInsertTask;
+import com.forkingcode.crudcontent.task.BasicCRUDTaskProgress;
+import com.forkingcode.crudcontent.task.BasicCRUDTaskResult;
 
 import org.junit.After;
 import org.junit.Before;
@@ -36,7 +44,16 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
@@ -223,4 +240,313 @@ public class BasicCRUDInsertTaskTest {
 
         assertThat("Task not null", task, is(nullValue()));
     }
+
+    @Test
+    public void test09InsertOnExecutor() throws Exception {
+
+        final AtomicInteger executed = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                BasicCRUDExecutors.getReadExecutor().execute(command);
+            }
+        };
+
+        BasicCRUDInsertTask task = new BasicCRUDInsertTask.Builder(context)
+                .forUri(URI)
+                .usingValues(new ContentValues())
+                .executeOn(executor)
+                .start();
+
+        task.get();
+        assertThat("Executor not used", executed.get(), is(1));
+    }
+
+    @Test
+    public void test10InsertOnReplacedWriteExecutor() throws Exception {
+
+        final AtomicInteger executed = new AtomicInteger();
+        BasicCRUDExecutors.setWriteExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                BasicCRUDExecutors.getReadExecutor().execute(command);
+            }
+        });
+
+        try {
+            BasicCRUDInsertTask task = new BasicCRUDInsertTask.Builder(context)
+                    .forUri(URI)
+                    .usingValues(new ContentValues())
+                    .start();
+
+            task.get();
+            assertThat("Write executor not used", executed.get(), is(1));
+        }
+        finally {
+            BasicCRUDExecutors.setWriteExecutor(null);
+        }
+    }
+
+    @Test
+    public void test11CoalescedInserts() throws Exception {
+
+        // the inserts are merged while they wait behind the held write lane
+        CountDownLatch release = holdWriteLane();
+        BasicCRUDInsertTask[] tasks = new BasicCRUDInsertTask[3];
+        for (int i = 0; i < tasks.length; ++i) {
+            tasks[i] = new BasicCRUDInsertTask.Builder(context)
+                    .forUri(URI)
+                    .usingValues(new ContentValues())
+                    .coalesceInserts()
+                    .requestResultBroadcast()
+                    .start();
+        }
+        release.countDown();
+        for (BasicCRUDInsertTask task : tasks) {
+            BasicCRUDTaskResult result = task.get();
+            assertThat("Incorrect task rows", result.getRows(), is(1));
+            assertThat("Task uri null", result.getUri(), is(notNullValue()));
+        }
+
+        Thread.sleep(5);
+        assertThat("Intent null", receiver.getIntent(), is(notNullValue()));
+
+        int rows = receiver.getIntent().getIntExtra(BasicCRUDInsertTask.EXTRA_ROWS, 0);
+        assertThat("Incorrect rows", rows, is(1));
+        Uri uri = receiver.getIntent().getParcelableExtra(BasicCRUDInsertTask.EXTRA_URI);
+        assertThat("Uri null", uri, is(notNullValue()));
+        int merged = receiver.getIntent().getIntExtra(BasicCRUDInsertTask.EXTRA_COALESCED_ROWS, 0);
+        assertThat("Inserts not merged", merged, is(tasks.length));
+        int inserted = receiver.getIntent().getIntExtra(BasicCRUDInsertTask.EXTRA_COALESCED_INSERTED, 0);
+        assertThat("Incorrect merged rows", inserted, is(tasks.length));
+    }
+
+    @Test
+    public void test12StreamedInsertInChunks() throws Exception {
+
+        List<ContentValues> rows = new ArrayList<>();
+        for (int i = 0; i < 25; ++i) {
+            rows.add(new ContentValues());
+        }
+
+        final List<Integer> progressRows = new ArrayList<>();
+        BasicCRUDInsertTask task = new BasicCRUDInsertTask.Builder(context)
+                .forUri(URI)
+                .usingValues(rows)
+                .chunkRows(10)
+                .onProgress(new BasicCRUDTaskProgress.Listener() {
+                    @Override
+                    public void onProgress(BasicCRUDTaskProgress progress) {
+                        progressRows.add(progress.getRows());
+                    }
+                }, null)
+                .requestResultBroadcast()
+                .start();
+
+        assertThat("Incorrect rows", task.get().getRows(), is(25));
+        assertThat("Incorrect chunks", progressRows.size(), is(3));
+        assertThat("Incorrect progress", progressRows.get(1), is(20));
+
+        Thread.sleep(5);
+        assertThat("Intent null", receiver.getIntent(), is(notNullValue()));
+        int inserted = receiver.getIntent().getIntExtra(BasicCRUDInsertTask.EXTRA_ROWS, 0);
+        assertThat("Incorrect broadcast rows", inserted, is(25));
+    }
+
+    @Test
+    public void test13ChunkedInsertCancelledBetweenChunks() throws Exception {
+
+        ContentValues[] valuesArray = new ContentValues[30];
+        for (int i = 0; i < valuesArray.length; ++i) {
+            valuesArray[i] = new ContentValues();
+        }
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch completed = new CountDownLatch(1);
+        final AtomicReference<BasicCRUDInsertTask> taskRef = new AtomicReference<>();
+        final AtomicReference<BasicCRUDTaskResult> resultRef = new AtomicReference<>();
+        taskRef.set(new BasicCRUDInsertTask.Builder(context)
+                .forUri(URI)
+                .usingValues(valuesArray)
+                .chunkRows(10)
+                .onProgress(new BasicCRUDTaskProgress.Listener() {
+                    @Override
+                    public void onProgress(BasicCRUDTaskProgress progress) {
+                        assertThat("Incorrect total", progress.getTotalRows(), is(30));
+                        try {
+                            started.await(1, TimeUnit.SECONDS);
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        taskRef.get().cancel(false);
+                    }
+                }, null)
+                .onComplete(new BasicCRUDTaskResult.Listener() {
+                    @Override
+                    public void onComplete(BasicCRUDTaskResult result) {
+                        resultRef.set(result);
+                        completed.countDown();
+                    }
+                })
+                .requestResultBroadcast()
+                .start());
+        started.countDown();
+
+        assertThat("Not completed", completed.await(1, TimeUnit.SECONDS), is(true));
+        assertThat("Not cancelled", resultRef.get().isCancelled(), is(true));
+        assertThat("Incorrect committed rows", resultRef.get().getRows(), is(10));
+
+        Thread.sleep(5);
+        assertThat("Intent null", receiver.getIntent(), is(notNullValue()));
+        assertThat("Not cancelled", receiver.getIntent()
+                .getBooleanExtra(BasicCRUDInsertTask.EXTRA_CANCELLED, false), is(true));
+        int rows = receiver.getIntent().getIntExtra(BasicCRUDInsertTask.EXTRA_ROWS, 0);
+        assertThat("Incorrect broadcast rows", rows, is(10));
+    }
+
+    @Test
+    public void test14InsertRowBatch() throws Exception {
+
+        RowBatch batch = new RowBatch.Builder()
+                .textColumn("name")
+                .integerColumn("age")
+                .build();
+        for (int i = 0; i < 4; ++i) {
+            batch.addRow();
+            batch.putText(0, "name" + i);
+            batch.putLong(1, i);
+        }
+
+        // the mock provider supports neither the local path nor the call method, the rows fall back to a bulk insert
+        BasicCRUDInsertTask task = new BasicCRUDInsertTask.Builder(context)
+                .forUri(URI)
+                .usingRows(batch)
+                .start();
+
+        assertThat("Incorrect rows", task.get().getRows(), is(4));
+    }
+
+    /**
+     * Block the write lane until the returned latch is released, so writes queue behind it
+     */
+    @Test
+    public void test15CoalescedInsertsKeepWriteOrder() throws Exception {
+
+        final List<String> completed = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch release = holdWriteLane();
+        BasicCRUDInsertTask first = new BasicCRUDInsertTask.Builder(context)
+                .forUri(URI)
+                .usingValues(new ContentValues())
+                .coalesceInserts()
+                .onComplete(new CompletionRecorder("insert1", completed))
+                .start();
+        BasicCRUDDeleteTask delete = new BasicCRUDDeleteTask.Builder(context)
+                .forUri(URI)
+                .onComplete(new CompletionRecorder("delete", completed))
+                .start();
+        // started after the delete, so it may not join the batch queued ahead of it
+        BasicCRUDInsertTask second = new BasicCRUDInsertTask.Builder(context)
+                .forUri(URI)
+                .usingValues(new ContentValues())
+                .coalesceInserts()
+                .requestResultBroadcast()
+                .onComplete(new CompletionRecorder("insert2", completed))
+                .start();
+        release.countDown();
+        first.get();
+        delete.get();
+        second.get();
+
+        assertThat("Writes out of order", completed, is(Arrays.asList("insert1", "delete", "insert2")));
+
+        Thread.sleep(5);
+        assertThat("Intent null", receiver.getIntent(), is(notNullValue()));
+        int merged = receiver.getIntent().getIntExtra(BasicCRUDInsertTask.EXTRA_COALESCED_ROWS, 0);
+        assertThat("Insert merged across the delete", merged, is(1));
+    }
+
+    @Test
+    public void test16CoalescedInsertsNotRepeatedAfterPartialBatch() throws Exception {
+
+        // a provider applying the batch partly, as the default ContentProvider#applyBatch may
+        final AtomicInteger inserts = new AtomicInteger();
+        Context partialContext = new TaskMockContext(AUTHORITY, InstrumentationRegistry.getTargetContext(),
+                new TaskMockContentProvider() {
+                    @Override
+                    public Uri insert(Uri uri, ContentValues values) {
+                        inserts.incrementAndGet();
+                        return super.insert(uri, values);
+                    }
+
+                    @Override
+                    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+                            throws OperationApplicationException {
+                        operations.get(0).apply(this, new ContentProviderResult[0], 0);
+                        throw new OperationApplicationException("second row failed");
+                    }
+                });
+
+        final List<BasicCRUDTaskResult> results = Collections.synchronizedList(new ArrayList<BasicCRUDTaskResult>());
+        BasicCRUDTaskResult.Listener listener = new BasicCRUDTaskResult.Listener() {
+            @Override
+            public void onComplete(BasicCRUDTaskResult result) {
+                results.add(result);
+            }
+        };
+        CountDownLatch release = holdWriteLane();
+        BasicCRUDInsertTask[] tasks = new BasicCRUDInsertTask[2];
+        for (int i = 0; i < tasks.length; ++i) {
+            tasks[i] = new BasicCRUDInsertTask.Builder(partialContext)
+                    .forUri(URI)
+                    .usingValues(new ContentValues())
+                    .coalesceInserts()
+                    .onComplete(listener, null)
+                    .start();
+        }
+        release.countDown();
+        for (BasicCRUDInsertTask task : tasks) {
+            task.get();
+        }
+
+        assertThat("Rows inserted again", inserts.get(), is(1));
+        assertThat("Incorrect results", results.size(), is(tasks.length));
+        for (BasicCRUDTaskResult result : results) {
+            assertThat("Failure not reported", result.isSuccessful(), is(false));
+            assertThat("Failure missing", result.getFailure(), is(notNullValue()));
+        }
+    }
+
+    private static CountDownLatch holdWriteLane() {
+        final CountDownLatch release = new CountDownLatch(1);
+        BasicCRUDExecutors.getWriteExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        return release;
+    }
+
+    private static class CompletionRecorder implements BasicCRUDTaskResult.Listener {
+        private final String name;
+        private final List<String> completed;
+
+        CompletionRecorder(String name, List<String> completed) {
+            this.name = name;
+            this.completed = completed;
+        }
+
+        @Override
+        public void onComplete(BasicCRUDTaskResult result) {
+            completed.add(name);
+        }
+    }
 }
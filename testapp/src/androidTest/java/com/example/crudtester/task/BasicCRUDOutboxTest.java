@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.crudtester.task;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.crudtester.provider.IgnoreContract;
+import com.forkingcode.crudcontent.task.BasicCRUDOutbox;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Test BasicCRUDOutbox applies queued operations in order, empties its journal once applied and
+ * replays the journal left by a previous process
+ */
+@RunWith(AndroidJUnit4.class)
+public class BasicCRUDOutboxTest {
+
+    private static final byte OP_INSERT = 1;
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+
+    private Context context;
+    private String name;
+
+    @Before
+    public void setup() {
+        context = InstrumentationRegistry.getTargetContext();
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+    }
+
+    @After
+    public void tearDown() {
+        if (name != null) {
+            //noinspection ResultOfMethodCallIgnored
+            journal(name).delete();
+            //noinspection ResultOfMethodCallIgnored
+            checkpoint(name).delete();
+            name = null;
+        }
+        context.getContentResolver().delete(IgnoreContract.URI, null, null);
+        context = null;
+    }
+
+    @Test
+    public void testOperationsApplied() throws Exception {
+        BasicCRUDOutbox outbox = BasicCRUDOutbox.getInstance(context);
+        outbox.insert(IgnoreContract.URI, values("a", "a"));
+        outbox.insert(IgnoreContract.URI, values("b", "b"));
+        outbox.insert(IgnoreContract.URI, values("c", "c"));
+
+        ContentValues update = new ContentValues();
+        update.put(IgnoreContract.Columns.DATA2, "updated");
+        outbox.update(IgnoreContract.URI, update, IgnoreContract.Columns.DATA1 + "=?", "b");
+        outbox.delete(IgnoreContract.URI, IgnoreContract.Columns.DATA1 + "=?", "c");
+
+        outbox.sync();
+        outbox.flush();
+
+        Cursor cursor = context.getContentResolver().query(IgnoreContract.URI,
+                new String[]{IgnoreContract.Columns.DATA1, IgnoreContract.Columns.DATA2},
+                null, null, IgnoreContract.Columns.DATA1);
+        assertThat("Cursor null", cursor, is(notNullValue()));
+        try {
+            assertThat("Incorrect rows", cursor.getCount(), is(2));
+            assertThat(cursor.moveToFirst(), is(true));
+            assertThat(cursor.getString(1), is("a"));
+            assertThat(cursor.moveToNext(), is(true));
+            assertThat(cursor.getString(1), is("updated"));
+        }
+        finally {
+            cursor.close();
+        }
+
+        File journal = new File(context.getFilesDir(), "crudcontent_outbox.journal");
+        assertThat("Journal not emptied", journal.length(), is(0L));
+    }
+
+    private static ContentValues values(String data1, String data2) {
+        ContentValues values = new ContentValues();
+        values.put(IgnoreContract.Columns.DATA1, data1);
+        values.put(IgnoreContract.Columns.DATA2, data2);
+        return values;
+    }
+
+    @Test
+    public void testReplayAfterProcessDeath() throws Exception {
+        // left behind by a process which died before applying the operations
+        name = newOutboxName();
+        writeJournal(journal(name), record("a", "a"), record("b", "b"));
+
+        BasicCRUDOutbox outbox = BasicCRUDOutbox.getInstance(context, name);
+        outbox.flush();
+
+        assertThat(readData(), is(Arrays.asList("a", "b")));
+        assertThat("Journal not emptied", journal(name).length(), is(0L));
+    }
+
+    @Test
+    public void testReplaySkipsCheckpoint() throws Exception {
+        // the process died after applying the first two operations
+        name = newOutboxName();
+        writeJournal(journal(name), record("a", "a"), record("b", "b"), record("c", "c"));
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(checkpoint(name)));
+        try {
+            out.writeLong(2);
+        }
+        finally {
+            out.close();
+        }
+
+        BasicCRUDOutbox outbox = BasicCRUDOutbox.getInstance(context, name);
+        outbox.flush();
+
+        assertThat(readData(), is(Arrays.asList("c")));
+        assertThat("Journal not emptied", journal(name).length(), is(0L));
+        assertThat("Checkpoint not removed", checkpoint(name).exists(), is(false));
+    }
+
+    @Test
+    public void testReplayDiscardsTornRecord() throws Exception {
+        // the process died while writing the last record
+        name = newOutboxName();
+        byte[] torn = frame(record("c", "c"));
+        writeJournal(journal(name), record("a", "a"), record("b", "b"));
+        appendBytes(journal(name), Arrays.copyOf(torn, torn.length - 3));
+
+        BasicCRUDOutbox outbox = BasicCRUDOutbox.getInstance(context, name);
+        outbox.flush();
+
+        assertThat(readData(), is(Arrays.asList("a", "b")));
+        assertThat("Journal not emptied", journal(name).length(), is(0L));
+    }
+
+    @Test
+    public void testReplayDiscardsBadChecksum() throws Exception {
+        name = newOutboxName();
+        byte[] corrupt = frame(record("c", "c"));
+        // flip a bit of the record, after the length and checksum
+        corrupt[corrupt.length - 1] ^= 1;
+        writeJournal(journal(name), record("a", "a"));
+        appendBytes(journal(name), corrupt);
+
+        BasicCRUDOutbox outbox = BasicCRUDOutbox.getInstance(context, name);
+        outbox.flush();
+
+        assertThat(readData(), is(Arrays.asList("a")));
+        assertThat("Journal not emptied", journal(name).length(), is(0L));
+    }
+
+    private List<String> readData() {
+        Cursor cursor = context.getContentResolver().query(IgnoreContract.URI,
+                new String[]{IgnoreContract.Columns.DATA1}, null, null, IgnoreContract.Columns.DATA1);
+        assertThat("Cursor null", cursor, is(notNullValue()));
+        try {
+            List<String> data = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                data.add(cursor.getString(0));
+            }
+            return data;
+        }
+        finally {
+            cursor.close();
+        }
+    }
+
+    private static String newOutboxName() {
+        return "test_" + System.nanoTime();
+    }
+
+    private File journal(String name) {
+        return new File(context.getFilesDir(), "crudcontent_outbox_" + name + ".journal");
+    }
+
+    private File checkpoint(String name) {
+        return new File(context.getFilesDir(), "crudcontent_outbox_" + name + ".checkpoint");
+    }
+
+    /**
+     * An insert into the ignore table, in the outbox's record format
+     */
+    private static byte[] record(String data1, String data2) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeByte(OP_INSERT);
+        out.writeUTF(IgnoreContract.URI.toString());
+        out.writeInt(2);
+        out.writeUTF(IgnoreContract.Columns.DATA1);
+        writeString(out, data1);
+        out.writeUTF(IgnoreContract.Columns.DATA2);
+        writeString(out, data2);
+        // no selection or selection args
+        out.writeByte(TYPE_NULL);
+        out.writeInt(-1);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeByte(TYPE_STRING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * The record as written to the journal, preceded by its length and checksum
+     */
+    private static byte[] frame(byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+        out.flush();
+        return buffer.toByteArray();
+    }
+
+    private static void writeJournal(File journal, byte[]... records) throws IOException {
+        //noinspection ResultOfMethodCallIgnored
+        journal.delete();
+        for (byte[] record : records) {
+            appendBytes(journal, frame(record));
+        }
+    }
+
+    private static void appendBytes(File file, byte[] bytes) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(bytes);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
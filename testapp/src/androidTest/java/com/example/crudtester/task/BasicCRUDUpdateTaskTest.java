@@ -21,11 +21,13 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.content.IntentFilter;
 import android.net.Uri;
+import android.support.annotation.NonNull;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.filters.SmallTest;
 import android.support.test.runner.AndroidJUnit4;
 import android.support.v4.content.LocalBroadcastManager;
 
+import com.forkingcode.crudcontent.task.BasicCRUDTaskResult;
 import com.forkingcode.crudcontent.task.BasicCRUDUpdateTask;
 
 import org.junit.After;
@@ -36,6 +38,7 @@ import org.junit.runner.RunWith;
 import org.junit.runners.MethodSorters;
 
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
@@ -243,4 +246,28 @@ public class BasicCRUDUpdateTaskTest {
 
         assertThat("Task not null", task, is(nullValue()));
     }
+
+    @Test
+    public void test11UpdateWithCompleteListener() throws Exception {
+
+        final AtomicReference<BasicCRUDTaskResult> delivered = new AtomicReference<>();
+        BasicCRUDUpdateTask task = new BasicCRUDUpdateTask.Builder(context)
+                .forUri(URI)
+                .usingValues(new ContentValues())
+                .onComplete(new BasicCRUDTaskResult.Listener() {
+                    @Override
+                    public void onComplete(@NonNull BasicCRUDTaskResult result) {
+                        delivered.set(result);
+                    }
+                })
+                .start();
+
+        BasicCRUDTaskResult result = task.get();
+        assertThat("Result not delivered", delivered.get(), is(result));
+        assertThat("Not successful", result.isSuccessful(), is(true));
+        assertThat("Incorrect rows", result.getRows(), is(TaskMockContentProvider.UPDATE_ALL_RESULT));
+
+        Thread.sleep(5);
+        assertThat("Intent not null", receiver.getIntent(), is(nullValue()));
+    }
 }
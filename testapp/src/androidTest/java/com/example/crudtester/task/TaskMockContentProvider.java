@@ -17,11 +17,16 @@
 package com.example.crudtester.task;
 
 import android.annotation.SuppressLint;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.net.Uri;
 import android.test.mock.MockContentProvider;
 
+import java.util.ArrayList;
+
 /**
  * Mock provider "pretending" it talks to a database with hardcoded results
  */
@@ -39,6 +44,16 @@ public class TaskMockContentProvider extends MockContentProvider {
         super();
     }
 
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        for (int i = 0; i < results.length; ++i) {
+            results[i] = operations.get(i).apply(this, results, i);
+        }
+        return results;
+    }
+
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         return values.length;
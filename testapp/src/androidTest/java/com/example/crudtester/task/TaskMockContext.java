@@ -29,13 +29,17 @@ public class TaskMockContext extends ContextWrapper {
     private final MockContentResolver contentResolver;
 
     public TaskMockContext(String authority, Context context) {
+        this(authority, context, new TaskMockContentProvider());
+    }
+
+    public TaskMockContext(String authority, Context context, TaskMockContentProvider provider) {
         super(context);
-        contentResolver = buildContentResolver(authority);
+        contentResolver = buildContentResolver(authority, provider);
     }
 
-    private static MockContentResolver buildContentResolver(String authority) {
+    private static MockContentResolver buildContentResolver(String authority, TaskMockContentProvider provider) {
         MockContentResolver contentResolver = new MockContentResolver();
-        contentResolver.addProvider(authority, new TaskMockContentProvider());
+        contentResolver.addProvider(authority, provider);
         return contentResolver;
     }
 
@@ -27,7 +27,7 @@ import com.example.crudtester.BuildConfig;
 
 public class DBHelper extends SQLiteOpenHelper {
 
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
     private static final String DATABASE_NAME = "Test.db";
 
     private int errorCount;
@@ -72,12 +72,14 @@ public class DBHelper extends SQLiteOpenHelper {
         db.execSQL(IgnoreContract.CREATE_TABLE);
         db.execSQL(ReplaceContract.CREATE_TABLE);
         db.execSQL(RollbackContract.CREATE_TABLE);
+        db.execSQL(RealKeyContract.CREATE_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // No implementation for sample. However, if updating your database version, you
-        // should implement the schema changes here.
+        if (oldVersion < 2) {
+            db.execSQL(RealKeyContract.CREATE_TABLE);
+        }
     }
 
     // Helper methods to simulate errors...
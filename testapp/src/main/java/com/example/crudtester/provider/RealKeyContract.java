@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Joe Rogers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.example.crudtester.provider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.provider.BaseColumns;
+
+/**
+ * Contract for a table keyed by a real value, for paging tests
+ */
+public final class RealKeyContract {
+
+    /* package */ static final String TABLE = "real_key_table";
+
+    public static final Uri URI = new Uri.Builder()
+            .scheme(ContentResolver.SCHEME_CONTENT)
+            .authority(TestBasicCRUDProvider.AUTHORITY)
+            .appendPath(TABLE)
+            .build();
+
+    public interface Columns extends BaseColumns {
+        String DATA1 = "data1";
+        String SCORE = "score";
+    }
+
+    /* package */ static final String CREATE_TABLE =
+            "CREATE TABLE " + TABLE + " ( " +
+                    BaseColumns._ID + " INTEGER PRIMARY KEY, " +
+                    Columns.DATA1 + " TEXT NOT NULL, " +
+                    Columns.SCORE + " REAL NOT NULL " +
+                    ")";
+}
@@ -16,17 +16,44 @@
 
 package com.example.crudtester.provider;
 
+import android.annotation.TargetApi;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
 import com.example.crudtester.BuildConfig;
 import com.forkingcode.crudcontent.provider.BasicCRUDProvider;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
 
 public class TestBasicCRUDProvider extends BasicCRUDProvider {
 
     /* package */ static final String AUTHORITY = BuildConfig.APPLICATION_ID + ".provider.TestBasicCRUDProvider";
 
+    private static final AtomicReference<Runnable> afterQueryHook = new AtomicReference<>();
+    private static final AtomicBoolean noResult = new AtomicBoolean();
+
+    /**
+     * For testing, run the hook once after the next query has read its rows, before the cursor
+     * is returned. Used to change the data while a query is in flight.
+     */
+    public static void runAfterNextQuery(@Nullable Runnable hook) {
+        afterQueryHook.set(hook);
+    }
+
+    /**
+     * For testing, return no result for the next query, as when the database cannot be opened
+     */
+    public static void returnNoResultForNextQuery(boolean enabled) {
+        noResult.set(enabled);
+    }
+
     /**
      * Must provide empty constructor in order for Android to instantiate the provider
      */
@@ -43,6 +70,27 @@ public class TestBasicCRUDProvider extends BasicCRUDProvider {
         return DBHelper.getInstance(getContext());
     }
 
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    @Nullable
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection,
+                        @Nullable String[] selectionArgs, @Nullable String sortOrder,
+                        @Nullable CancellationSignal cancellationSignal) {
+        if (noResult.getAndSet(false)) {
+            return null;
+        }
+        Cursor cursor = super.query(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+        Runnable hook = afterQueryHook.getAndSet(null);
+        if (hook != null) {
+            if (cursor != null) {
+                // read the rows now, before the hook changes them
+                cursor.getCount();
+            }
+            hook.run();
+        }
+        return cursor;
+    }
+
 
     /**
      * For testing, return the appropriate conflict algorithm based on the contract used for testing
@@ -58,6 +106,7 @@ public class TestBasicCRUDProvider extends BasicCRUDProvider {
             case ReplaceContract.TABLE:
                 return CONFLICT_REPLACE;
             case RollbackContract.TABLE:
+            case RealKeyContract.TABLE:
                 return CONFLICT_ROLLBACK;
             default:
                 throw new IllegalArgumentException("Unexpected table");
@@ -78,9 +127,25 @@ public class TestBasicCRUDProvider extends BasicCRUDProvider {
             case ReplaceContract.TABLE:
                 return CONFLICT_REPLACE;
             case RollbackContract.TABLE:
+            case RealKeyContract.TABLE:
                 return CONFLICT_ROLLBACK;
             default:
                 throw new IllegalArgumentException("Unexpected table");
         }
     }
+
+    /**
+     * For testing, compress data2 of the rollback table only
+     *
+     * @param table The table to determine the compressed columns for.
+     * @return the compressed columns
+     */
+    @Nullable
+    @Override
+    protected String[] getCompressedColumns(@NonNull String table) {
+        if (RollbackContract.TABLE.equals(table)) {
+            return new String[]{RollbackContract.Columns.DATA2};
+        }
+        return null;
+    }
 }